@@ -0,0 +1,186 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc;
+
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.hsqldb.jdbc.JDBCConnection;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.dialect.HSQLDialect;
+import com.github.lucene.store.jdbc.lock.AdvisoryLock;
+import com.github.lucene.store.jdbc.support.JdbcTable;
+import com.github.lucene.store.jdbc.support.JdbcTemplate;
+
+/**
+ * HSQLDB has no advisory locks, the test registers java routines emulating
+ * them (owned by the session of the connection).
+ */
+public class JdbcDirectoryAdvisoryLockITest extends AbstractJdbcDirectoryITest {
+
+    private static final Map<String, Long> owners = new HashMap<String, Long>();
+
+    public static synchronized boolean tryLock(final Connection con, final String name) {
+        final long session = ((JDBCConnection) con).getSession().getId();
+        final Long owner = owners.get(name);
+        if (owner != null && owner.longValue() != session) {
+            return false;
+        }
+        owners.put(name, session);
+        return true;
+    }
+
+    public static synchronized boolean unlock(final Connection con, final String name) {
+        final long session = ((JDBCConnection) con).getSession().getId();
+        final Long owner = owners.get(name);
+        if (owner == null || owner.longValue() != session) {
+            return false;
+        }
+        owners.remove(name);
+        return true;
+    }
+
+    public static class AdvisoryLockHSQLDialect extends HSQLDialect {
+
+        @Override
+        public boolean supportsAdvisoryLocks() {
+            return true;
+        }
+
+        @Override
+        public String getAdvisoryLockString() {
+            return "call test_try_lock(?)";
+        }
+
+        @Override
+        public String getAdvisoryUnlockString() {
+            return "call test_unlock(?)";
+        }
+    }
+
+    public static class FailingUnlockHSQLDialect extends AdvisoryLockHSQLDialect {
+
+        @Override
+        public String getAdvisoryUnlockString() {
+            return "call test_missing_unlock(?)";
+        }
+    }
+
+    private JdbcDirectory dir1;
+
+    private JdbcDirectory dir2;
+
+    @Before
+    public void setUp() throws Exception {
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        final String className = JdbcDirectoryAdvisoryLockITest.class.getName();
+        jdbcTemplate.executeUpdate("create function test_try_lock(name varchar(200)) returns boolean "
+                + "language java external name 'CLASSPATH:" + className + ".tryLock'");
+        jdbcTemplate.executeUpdate("create function test_unlock(name varchar(200)) returns boolean "
+                + "language java external name 'CLASSPATH:" + className + ".unlock'");
+
+        final JdbcDirectorySettings settings = new JdbcDirectorySettings();
+        settings.setLockClass(AdvisoryLock.class);
+        dir1 = new JdbcDirectory(dataSource, new JdbcTable(settings, new AdvisoryLockHSQLDialect(), "TEST"));
+        dir1.create();
+        dir2 = new JdbcDirectory(dataSource, new JdbcTable(settings, new AdvisoryLockHSQLDialect(), "TEST"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dir1.delete();
+        dir1.close();
+        dir2.close();
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.executeUpdate("drop function test_try_lock");
+        jdbcTemplate.executeUpdate("drop function test_unlock");
+    }
+
+    @Test
+    public void testLocks() throws Exception {
+        final Lock lock1 = dir1.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+        lock1.ensureValid();
+        try {
+            dir2.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+            Assert.fail("lock2 should not have valid lock");
+        } catch (final LockObtainFailedException e) {
+            // expected
+        }
+        // the table is not used
+        Assert.assertEquals(0, dir1.listAll().length);
+
+        lock1.close();
+        try {
+            lock1.ensureValid();
+            Assert.fail("lock1 was released");
+        } catch (final AlreadyClosedException e) {
+            // expected
+        }
+
+        final Lock lock2 = dir2.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+        lock2.ensureValid();
+        lock2.close();
+    }
+
+    @Test
+    public void testFailedUnlockAbortsConnection() throws Exception {
+        final JdbcDirectorySettings settings = new JdbcDirectorySettings();
+        settings.setLockClass(AdvisoryLock.class);
+        final JdbcDirectory directory = new JdbcDirectory(dataSource, new JdbcTable(settings,
+                new FailingUnlockHSQLDialect(), "TEST"));
+        final Lock lock = directory.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+        try {
+            lock.close();
+            Assert.fail("the lock can not be released");
+        } catch (final JdbcStoreException e) {
+            // expected
+        }
+        try {
+            lock.ensureValid();
+            Assert.fail("lock was closed");
+        } catch (final AlreadyClosedException e) {
+            // expected
+        }
+        directory.close();
+        // the function does not know the session ended
+        owners.clear();
+    }
+
+    @Test
+    public void testUnsupportedDialect() throws Exception {
+        final JdbcDirectorySettings settings = new JdbcDirectorySettings();
+        settings.setLockClass(AdvisoryLock.class);
+        final JdbcDirectory directory = new JdbcDirectory(dataSource, new JdbcTable(settings, new HSQLDialect(),
+                "TEST"));
+        try {
+            directory.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+            Assert.fail("advisory locks are not supported");
+        } catch (final JdbcStoreException e) {
+            // expected
+        }
+        directory.close();
+    }
+}
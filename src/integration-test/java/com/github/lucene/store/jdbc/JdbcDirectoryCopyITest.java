@@ -0,0 +1,126 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.support.JdbcTable;
+
+public class JdbcDirectoryCopyITest extends AbstractJdbcDirectoryITest {
+
+    private JdbcDirectory source;
+
+    private JdbcDirectory target;
+
+    @Before
+    public void setUp() throws Exception {
+        source = new JdbcDirectory(dataSource, new JdbcTable(new JdbcDirectorySettings(), createDialect(), "SOURCE"));
+        target = new JdbcDirectory(dataSource, new JdbcTable(new JdbcDirectorySettings(), createDialect(), "TARGET"));
+        source.create();
+        target.create();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        source.delete();
+        target.delete();
+        source.close();
+        target.close();
+    }
+
+    @Test
+    public void testCopyFile() throws IOException {
+        Assert.assertTrue(target.isSameDatabase(source));
+        writeFile(source, "test1", 100);
+        target.copyFrom(source, "test1", "copy1", new IOContext());
+        Assert.assertEquals(Arrays.asList("copy1"), Arrays.asList(target.listAll()));
+        Assert.assertEquals(100, target.fileLength("copy1"));
+        verifyFile(target, "copy1", 100);
+        // the source is left untouched
+        verifyFile(source, "test1", 100);
+    }
+
+    @Test
+    public void testCopyFiles() throws IOException {
+        final Map<String, String> names = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 10; i++) {
+            writeFile(source, "test" + i, i * 10);
+            names.put("test" + i, "copy" + i);
+        }
+        target.copyFrom(source, names);
+        Assert.assertEquals(10, target.listAll().length);
+        for (int i = 0; i < 10; i++) {
+            verifyFile(target, "copy" + i, i * 10);
+        }
+    }
+
+    @Test
+    public void testCopyMissingFile() throws IOException {
+        writeFile(source, "test1", 10);
+        final Map<String, String> names = new LinkedHashMap<String, String>();
+        names.put("test1", "copy1");
+        names.put("missing", "copy2");
+        try {
+            target.copyFrom(source, names);
+            Assert.fail();
+        } catch (final NoSuchFileException e) {
+            // expected
+        }
+        Assert.assertEquals(Arrays.asList("copy1"), Arrays.asList(target.listAll()));
+    }
+
+    @Test
+    public void testCopyHeldFile() throws Exception {
+        final JdbcDirectorySettings settings = new JdbcDirectorySettings();
+        settings.setGroupCommit(true);
+        final JdbcDirectory held = new JdbcDirectory(dataSource, new JdbcTable(settings, createDialect(), "SOURCE"));
+        writeFile(held, "test1", 10);
+        Assert.assertEquals(1, held.getHeldFilesCount());
+        target.copyFrom(held, "test1", "copy1", new IOContext());
+        verifyFile(target, "copy1", 10);
+        held.close();
+    }
+
+    private void writeFile(final JdbcDirectory directory, final String name, final int length) throws IOException {
+        final IndexOutput indexOutput = directory.createOutput(name, new IOContext());
+        for (int i = 0; i < length; i++) {
+            indexOutput.writeByte((byte) i);
+        }
+        indexOutput.close();
+    }
+
+    private void verifyFile(final JdbcDirectory directory, final String name, final int length) throws IOException {
+        final IndexInput indexInput = directory.openInput(name, new IOContext());
+        Assert.assertEquals(length, indexInput.length());
+        for (int i = 0; i < length; i++) {
+            Assert.assertEquals((byte) i, indexInput.readByte());
+        }
+        indexInput.close();
+    }
+}
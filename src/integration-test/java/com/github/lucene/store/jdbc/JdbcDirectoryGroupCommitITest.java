@@ -0,0 +1,126 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.index.StreamingJdbcIndexOutput;
+import com.github.lucene.store.jdbc.support.JdbcTable;
+
+public class JdbcDirectoryGroupCommitITest extends AbstractJdbcDirectoryITest {
+
+    private JdbcDirectory jdbcDirectory;
+
+    private JdbcDirectory otherDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        final JdbcDirectorySettings settings = new JdbcDirectorySettings();
+        settings.setGroupCommit(true);
+        settings.setGroupCommitMaxFileSize(100);
+        // an output computing checksums, for the index to be readable
+        for (final JdbcFileEntrySettings feSettings : settings.getFileEntrySettings().values()) {
+            feSettings.setClassSetting(JdbcFileEntrySettings.INDEX_OUTPUT_TYPE_SETTING,
+                    StreamingJdbcIndexOutput.class);
+        }
+        jdbcDirectory = new JdbcDirectory(dataSource, new JdbcTable(settings, createDialect(), "TEST"));
+        otherDirectory = new JdbcDirectory(dataSource, new JdbcTable(new JdbcDirectorySettings(), createDialect(),
+                "TEST"));
+        jdbcDirectory.create();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        jdbcDirectory.close();
+        otherDirectory.close();
+    }
+
+    @Test
+    public void testHeldUntilSync() throws IOException {
+        writeFile("test1", 10);
+        writeFile("test2", 20);
+        writeFile("test3", 200);
+        Assert.assertEquals(2, jdbcDirectory.getHeldFilesCount());
+
+        // served locally, not visible to others
+        Assert.assertTrue(jdbcDirectory.fileExists("test1"));
+        Assert.assertEquals(20, jdbcDirectory.fileLength("test2"));
+        final String[] names = jdbcDirectory.listAll();
+        Arrays.sort(names);
+        Assert.assertEquals(Arrays.asList("test1", "test2", "test3"), Arrays.asList(names));
+        Assert.assertEquals(Arrays.asList("test3"), Arrays.asList(otherDirectory.listAll()));
+        verifyFile(jdbcDirectory, "test2", 20);
+
+        jdbcDirectory.sync(Arrays.asList("test1", "test2", "test3"));
+        Assert.assertEquals(0, jdbcDirectory.getHeldFilesCount());
+        Assert.assertEquals(3, otherDirectory.listAll().length);
+        verifyFile(otherDirectory, "test1", 10);
+        verifyFile(otherDirectory, "test2", 20);
+    }
+
+    @Test
+    public void testDeleteAndRenameHeldFiles() throws IOException {
+        writeFile("test1", 10);
+        writeFile("test2", 20);
+        jdbcDirectory.deleteFile("test1");
+        Assert.assertFalse(jdbcDirectory.fileExists("test1"));
+        jdbcDirectory.renameFile("test2", "test3");
+        Assert.assertFalse(jdbcDirectory.fileExists("test2"));
+        Assert.assertEquals(Arrays.asList("test3"), Arrays.asList(jdbcDirectory.listAll()));
+
+        jdbcDirectory.sync(Arrays.asList("test3"));
+        Assert.assertEquals(Arrays.asList("test3"), Arrays.asList(otherDirectory.listAll()));
+        verifyFile(otherDirectory, "test3", 20);
+    }
+
+    @Test
+    public void testIndexing() throws IOException {
+        addDocuments(jdbcDirectory, OpenMode.CREATE, false, loadDocuments(20, 5));
+        Assert.assertEquals(0, jdbcDirectory.getHeldFilesCount());
+        final DirectoryReader reader = DirectoryReader.open(otherDirectory);
+        Assert.assertEquals(20, reader.numDocs());
+        reader.close();
+    }
+
+    private void writeFile(final String name, final int length) throws IOException {
+        final IndexOutput indexOutput = jdbcDirectory.createOutput(name, new IOContext());
+        for (int i = 0; i < length; i++) {
+            indexOutput.writeByte((byte) i);
+        }
+        indexOutput.close();
+    }
+
+    private void verifyFile(final JdbcDirectory directory, final String name, final int length) throws IOException {
+        final IndexInput indexInput = directory.openInput(name, new IOContext());
+        Assert.assertEquals(length, indexInput.length());
+        for (int i = 0; i < length; i++) {
+            Assert.assertEquals((byte) i, indexInput.readByte());
+        }
+        indexInput.close();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc;
+
+import java.sql.Connection;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.datasource.DataSourceUtils;
+import com.github.lucene.store.jdbc.lock.LeaseLock;
+import com.github.lucene.store.jdbc.support.JdbcTable;
+
+public class JdbcDirectoryLeaseLockITest extends AbstractJdbcDirectoryITest {
+
+    private JdbcDirectory dir1;
+
+    private JdbcDirectory dir2;
+
+    @Before
+    public void setUp() throws Exception {
+        final JdbcDirectorySettings settings = new JdbcDirectorySettings();
+        settings.setLockClass(LeaseLock.class);
+        settings.setLockLeaseDuration(600);
+        settings.setLockHeartbeatInterval(100);
+
+        dir1 = new JdbcDirectory(dataSource, new JdbcTable(settings, createDialect(), "TEST"));
+        dir1.create();
+
+        dir2 = new JdbcDirectory(dataSource, new JdbcTable(settings, createDialect(), "TEST"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dir2.delete();
+        dir1.close();
+        dir2.close();
+    }
+
+    @Test
+    public void testObtainAndRelease() throws Exception {
+        final Lock lock1 = dir1.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+        lock1.ensureValid();
+        try {
+            dir2.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+            Assert.fail("lock2 should not have valid lock");
+        } catch (final LockObtainFailedException e) {
+            // expected
+        }
+        lock1.close();
+        try {
+            lock1.ensureValid();
+            Assert.fail("lock1 was released");
+        } catch (final AlreadyClosedException e) {
+            // expected
+        }
+
+        final Lock lock2 = dir2.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+        lock2.ensureValid();
+        lock2.close();
+    }
+
+    @Test
+    public void testHeartbeatKeepsLease() throws Exception {
+        final Lock lock1 = dir1.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+        Thread.sleep(1500);
+        lock1.ensureValid();
+        try {
+            dir2.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+            Assert.fail("lock2 should not have valid lock");
+        } catch (final LockObtainFailedException e) {
+            // expected
+        }
+        lock1.close();
+    }
+
+    @Test
+    public void testTakeOverExpiredLease() throws Exception {
+        final Lock lock1 = dir1.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+        // stops the heartbeat, as if the process crashed
+        dir1.close();
+        // the stored expiry is rounded up to the second
+        Thread.sleep(2000);
+        try {
+            lock1.ensureValid();
+            Assert.fail("the lease of lock1 expired");
+        } catch (final AlreadyClosedException e) {
+            // expected
+        }
+
+        final Lock lock2 = dir2.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+        lock2.ensureValid();
+        lock2.close();
+    }
+
+    @Test
+    public void testLockFileIsEmpty() throws Exception {
+        final Lock lock1 = dir1.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+        Assert.assertEquals(0, dir1.fileLength(IndexWriter.WRITE_LOCK_NAME));
+        lock1.close();
+    }
+
+    @Test
+    public void testObtainDoesNotCommitTheTransaction() throws Exception {
+        // written to another table, hsql locks the tables written to
+        final JdbcDirectory other = new JdbcDirectory(dataSource, new JdbcTable(dir1.getSettings(), createDialect(),
+                "OTHER"));
+        other.create();
+        try {
+            final Connection con = DataSourceUtils.getConnection(dataSource);
+            con.setAutoCommit(false);
+            try {
+                other.createOutput("value1", IOContext.DEFAULT).close();
+                final Lock lock1 = dir1.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+                lock1.close();
+                DataSourceUtils.rollbackConnectionIfPossible(con);
+            } finally {
+                con.setAutoCommit(true);
+                DataSourceUtils.releaseConnection(con);
+            }
+            Assert.assertFalse(other.fileExists("value1"));
+        } finally {
+            other.delete();
+            other.close();
+        }
+    }
+}
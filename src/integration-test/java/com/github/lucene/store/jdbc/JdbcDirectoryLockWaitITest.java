@@ -0,0 +1,113 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.support.JdbcTable;
+
+public class JdbcDirectoryLockWaitITest extends AbstractJdbcDirectoryITest {
+
+    private JdbcDirectory dir1;
+
+    private JdbcDirectory dir2;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        final JdbcDirectorySettings settings = new JdbcDirectorySettings();
+        settings.setLockRetryInitialDelay(5);
+        settings.setLockRetryMaxDelay(50);
+
+        dir1 = new JdbcDirectory(dataSource, new JdbcTable(settings, createDialect(), "TEST"));
+        dir1.create();
+        dir2 = new JdbcDirectory(dataSource, new JdbcTable(settings, createDialect(), "TEST"));
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        dir1.delete();
+        dir1.close();
+        dir2.close();
+    }
+
+    @Test
+    public void testSingleAttemptByDefault() throws Exception {
+        final Lock lock1 = dir1.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+        try {
+            dir2.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+            Assert.fail("lock2 should not have valid lock");
+        } catch (final LockObtainFailedException e) {
+            // expected
+        }
+        Assert.assertEquals(1, dir2.getLockContentionCount());
+        Assert.assertEquals(1, dir2.getLockTimeoutCount());
+        lock1.close();
+    }
+
+    @Test
+    public void testWaitForRelease() throws Exception {
+        dir2.getSettings().setLockWaitTimeout(5000);
+        final Lock lock1 = dir1.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+        final Future<Lock> lock2 = executor.submit(new Callable<Lock>() {
+            @Override
+            public Lock call() throws Exception {
+                return dir2.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+            }
+        });
+        Thread.sleep(300);
+        Assert.assertFalse(lock2.isDone());
+        lock1.close();
+
+        lock2.get().ensureValid();
+        lock2.get().close();
+        Assert.assertEquals(1, dir2.getLockObtainCount());
+        Assert.assertTrue(dir2.getLockContentionCount() > 1);
+        Assert.assertEquals(0, dir2.getLockTimeoutCount());
+        Assert.assertTrue(dir2.getLockWaitTime() >= 300);
+    }
+
+    @Test
+    public void testWaitTimeout() throws Exception {
+        dir2.getSettings().setLockWaitTimeout(200);
+        final Lock lock1 = dir1.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+        final long start = System.currentTimeMillis();
+        try {
+            dir2.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+            Assert.fail("lock2 should not have valid lock");
+        } catch (final LockObtainFailedException e) {
+            // expected
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+        Assert.assertEquals(1, dir2.getLockTimeoutCount());
+        lock1.close();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.Lock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.cache.FileMetadataCache;
+import com.github.lucene.store.jdbc.support.JdbcTable;
+
+public class JdbcDirectoryMetadataCacheITest extends AbstractJdbcDirectoryITest {
+
+    private JdbcDirectory jdbcDirectory;
+
+    private JdbcDirectory otherDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        final JdbcDirectorySettings settings = new JdbcDirectorySettings();
+        settings.setMetadataCache(true);
+        settings.setMetadataCacheRefreshInterval(0);
+        jdbcDirectory = new JdbcDirectory(dataSource, new JdbcTable(settings, createDialect(), "TEST"));
+        otherDirectory = new JdbcDirectory(dataSource, new JdbcTable(new JdbcDirectorySettings(), createDialect(),
+                "TEST"));
+        jdbcDirectory.create();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        jdbcDirectory.close();
+        otherDirectory.close();
+    }
+
+    @Test
+    public void testLocalChanges() throws IOException {
+        final FileMetadataCache metadataCache = jdbcDirectory.getMetadataCache();
+        Assert.assertEquals(0, jdbcDirectory.listAll().length);
+
+        writeFile(jdbcDirectory, "test1", 10);
+        writeFile(jdbcDirectory, "test2", 20);
+        Assert.assertEquals(10, jdbcDirectory.fileLength("test1"));
+        Assert.assertTrue(jdbcDirectory.fileExists("test2"));
+        Assert.assertEquals(20, jdbcDirectory.fileLength("test2"));
+        Assert.assertFalse(jdbcDirectory.fileExists("test3"));
+        final String[] names = jdbcDirectory.listAll();
+        Arrays.sort(names);
+        Assert.assertEquals(Arrays.asList("test1", "test2"), Arrays.asList(names));
+
+        final long misses = metadataCache.getMissCount();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(10, jdbcDirectory.fileLength("test1"));
+            Assert.assertTrue(jdbcDirectory.fileExists("test1"));
+        }
+        Assert.assertEquals(misses, metadataCache.getMissCount());
+
+        jdbcDirectory.renameFile("test2", "test3");
+        Assert.assertFalse(jdbcDirectory.fileExists("test2"));
+        Assert.assertEquals(20, jdbcDirectory.fileLength("test3"));
+
+        jdbcDirectory.deleteFile("test1");
+        Assert.assertFalse(jdbcDirectory.fileExists("test1"));
+        Assert.assertEquals(Arrays.asList("test3"), Arrays.asList(jdbcDirectory.listAll()));
+        Assert.assertEquals(1, metadataCache.getRefreshCount());
+        Assert.assertEquals(Arrays.asList("test3"), Arrays.asList(otherDirectory.listAll()));
+    }
+
+    @Test
+    public void testOtherDirectoryCommit() throws IOException {
+        writeFile(jdbcDirectory, "segments_1", 5);
+        Assert.assertTrue(jdbcDirectory.fileExists("segments_1"));
+
+        writeFile(otherDirectory, "_1.cfs", 30);
+        writeFile(otherDirectory, "segments_2", 6);
+        // seen when a newer generation is looked up
+        Assert.assertTrue(jdbcDirectory.fileExists("segments_2"));
+        Assert.assertEquals(3, jdbcDirectory.listAll().length);
+        Assert.assertEquals(30, jdbcDirectory.fileLength("_1.cfs"));
+    }
+
+    @Test
+    public void testOtherDirectoryCommitIsListed() throws IOException {
+        writeFile(jdbcDirectory, "segments_1", 5);
+        Assert.assertEquals(Arrays.asList("segments_1"), Arrays.asList(jdbcDirectory.listAll()));
+        final long refreshes = jdbcDirectory.getMetadataCache().getRefreshCount();
+
+        // the commit of the other directory is listed right away
+        writeFile(otherDirectory, "_1.cfs", 30);
+        writeFile(otherDirectory, "segments_2", 6);
+        otherDirectory.deleteFile("segments_1");
+        final String[] names = jdbcDirectory.listAll();
+        Arrays.sort(names);
+        Assert.assertEquals(Arrays.asList("_1.cfs", "segments_2"), Arrays.asList(names));
+        Assert.assertEquals(30, jdbcDirectory.fileLength("_1.cfs"));
+
+        // the commits did not change, the snapshot is not reloaded again
+        jdbcDirectory.listAll();
+        Assert.assertEquals(refreshes + 1, jdbcDirectory.getMetadataCache().getRefreshCount());
+    }
+
+    @Test
+    public void testLocksAreNotCached() throws IOException {
+        Assert.assertEquals(0, jdbcDirectory.listAll().length);
+        final Lock lock = jdbcDirectory.obtainLock("write.lock");
+        lock.ensureValid();
+        lock.close();
+        Assert.assertFalse(jdbcDirectory.fileExists("write.lock"));
+    }
+
+    private void writeFile(final JdbcDirectory directory, final String name, final int length) throws IOException {
+        final IndexOutput indexOutput = directory.createOutput(name, new IOContext());
+        for (int i = 0; i < length; i++) {
+            indexOutput.writeByte((byte) i);
+        }
+        indexOutput.close();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.datasource.DataSourceUtils;
+import com.github.lucene.store.jdbc.support.JdbcTable;
+
+public class JdbcDirectoryRenameITest extends AbstractJdbcDirectoryITest {
+
+    private JdbcDirectory jdbcDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        // the default file entries mark the files as deleted
+        jdbcDirectory = new JdbcDirectory(dataSource, new JdbcTable(new JdbcDirectorySettings(), createDialect(),
+                "TEST"));
+        jdbcDirectory.create();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        jdbcDirectory.delete();
+        jdbcDirectory.close();
+    }
+
+    @Test
+    public void testRenameOverMarkDeletedFile() throws IOException {
+        writeFile("test1", 10);
+        writeFile("test2", 20);
+        jdbcDirectory.deleteFile("test2");
+        Assert.assertFalse(jdbcDirectory.fileExists("test2"));
+
+        jdbcDirectory.renameFile("test1", "test2");
+        Assert.assertEquals(Arrays.asList("test2"), Arrays.asList(jdbcDirectory.listAll()));
+        verifyFile("test2", 10);
+    }
+
+    @Test
+    public void testRenameFiles() throws IOException {
+        final Map<String, String> names = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 5; i++) {
+            writeFile("pending" + i, i * 10);
+            names.put("pending" + i, "test" + i);
+        }
+        jdbcDirectory.renameFiles(names);
+        final String[] listAll = jdbcDirectory.listAll();
+        Arrays.sort(listAll);
+        Assert.assertEquals(Arrays.asList("test0", "test1", "test2", "test3", "test4"), Arrays.asList(listAll));
+        for (int i = 0; i < 5; i++) {
+            verifyFile("test" + i, i * 10);
+        }
+    }
+
+    @Test
+    public void testRenameFilesWithinTransaction() throws Exception {
+        writeFile("pending0", 10);
+        writeFile("pending1", 20);
+        final Map<String, String> names = new LinkedHashMap<String, String>();
+        names.put("pending0", "test0");
+        names.put("pending1", "test1");
+        final Connection con = DataSourceUtils.getConnection(dataSource);
+        con.setAutoCommit(false);
+        try {
+            jdbcDirectory.renameFiles(names);
+            DataSourceUtils.rollbackConnectionIfPossible(con);
+        } finally {
+            con.setAutoCommit(true);
+            DataSourceUtils.releaseConnection(con);
+        }
+        final String[] listAll = jdbcDirectory.listAll();
+        Arrays.sort(listAll);
+        Assert.assertEquals(Arrays.asList("pending0", "pending1"), Arrays.asList(listAll));
+    }
+
+    @Test
+    public void testFailedRenameFilesIsRolledBack() throws IOException {
+        writeFile("pending0", 10);
+        writeFile("pending1", 20);
+        writeFile("test0", 30);
+        // both are renamed to the same name, failing the rename batch
+        final Map<String, String> names = new LinkedHashMap<String, String>();
+        names.put("pending0", "test0");
+        names.put("pending1", "test0");
+        try {
+            jdbcDirectory.renameFiles(names);
+            Assert.fail("the rename should have failed");
+        } catch (final IOException e) {
+            // expected
+        }
+        // the delete batch was rolled back with the rename batch
+        final String[] listAll = jdbcDirectory.listAll();
+        Arrays.sort(listAll);
+        Assert.assertEquals(Arrays.asList("pending0", "pending1", "test0"), Arrays.asList(listAll));
+        verifyFile("test0", 30);
+    }
+
+    @Test
+    public void testChainedRenameIsRejected() throws IOException {
+        writeFile("test1", 10);
+        writeFile("test2", 20);
+        final Map<String, String> names = new LinkedHashMap<String, String>();
+        names.put("test1", "test2");
+        names.put("test2", "test3");
+        try {
+            jdbcDirectory.renameFiles(names);
+            Assert.fail("chained renames are not ordered");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        verifyFile("test1", 10);
+        verifyFile("test2", 20);
+    }
+
+    private void writeFile(final String name, final int length) throws IOException {
+        final IndexOutput indexOutput = jdbcDirectory.createOutput(name, new IOContext());
+        for (int i = 0; i < length; i++) {
+            indexOutput.writeByte((byte) i);
+        }
+        indexOutput.close();
+    }
+
+    private void verifyFile(final String name, final int length) throws IOException {
+        final IndexInput indexInput = jdbcDirectory.openInput(name, new IOContext());
+        Assert.assertEquals(length, indexInput.length());
+        for (int i = 0; i < length; i++) {
+            Assert.assertEquals((byte) i, indexInput.readByte());
+        }
+        indexInput.close();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc;
+
+import java.sql.Connection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.datasource.DataSourceUtils;
+import com.github.lucene.store.jdbc.dialect.HSQLDialect;
+import com.github.lucene.store.jdbc.lock.SelectForUpdateLock;
+import com.github.lucene.store.jdbc.support.JdbcTable;
+
+/**
+ * HSQLDB supports select ... for update (without a no wait clause), the
+ * contended select fails once the query timeout of the directory is reached.
+ */
+public class JdbcDirectorySelectForUpdateLockITest extends AbstractJdbcDirectoryITest {
+
+    public static class ForUpdateHSQLDialect extends HSQLDialect {
+
+        @Override
+        public boolean supportsForUpdate() {
+            return true;
+        }
+
+        @Override
+        public String getForUpdateString() {
+            return " for update";
+        }
+    }
+
+    private JdbcDirectory dir1;
+
+    private JdbcDirectory dir2;
+
+    private ExecutorService executor;
+
+    private Connection transaction;
+
+    @Before
+    public void setUp() throws Exception {
+        final JdbcDirectorySettings settings = new JdbcDirectorySettings();
+        settings.setLockClass(SelectForUpdateLock.class);
+        settings.setLockRetryInitialDelay(5);
+        settings.setLockRetryMaxDelay(50);
+        settings.setQueryTimeout(2);
+
+        dir1 = new JdbcDirectory(dataSource, new JdbcTable(settings, new ForUpdateHSQLDialect(), "TEST"));
+        dir1.create();
+        dir2 = new JdbcDirectory(dataSource, new JdbcTable(settings, new ForUpdateHSQLDialect(), "TEST"));
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        endTransaction();
+        executor.shutdownNow();
+        dir1.delete();
+        dir1.close();
+        dir2.close();
+    }
+
+    @Test
+    public void testContentionFailsTheObtain() throws Exception {
+        obtainWithinTransaction();
+        final long start = System.currentTimeMillis();
+        try {
+            obtainInBackground().get();
+            Assert.fail("lock2 should not have valid lock");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof LockObtainFailedException);
+        }
+        // bounded by the configured query timeout
+        Assert.assertTrue(System.currentTimeMillis() - start >= 1500);
+        Assert.assertEquals(1, dir2.getLockContentionCount());
+        Assert.assertEquals(1, dir2.getLockTimeoutCount());
+    }
+
+    @Test
+    public void testWaitForCommit() throws Exception {
+        dir2.getSettings().setLockWaitTimeout(10000);
+        obtainWithinTransaction();
+        final Future<Lock> lock2 = obtainInBackground();
+        // longer than the query timeout, the select is retried
+        Thread.sleep(3000);
+        Assert.assertFalse(lock2.isDone());
+        endTransaction();
+
+        lock2.get().close();
+        Assert.assertEquals(1, dir2.getLockObtainCount());
+        Assert.assertTrue(dir2.getLockContentionCount() >= 1);
+        Assert.assertEquals(0, dir2.getLockTimeoutCount());
+    }
+
+    @Test
+    public void testNoRetryWithinTransaction() throws Exception {
+        dir2.getSettings().setLockWaitTimeout(10000);
+        obtainWithinTransaction();
+        final Future<Long> failed = executor.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                final Connection con = DataSourceUtils.getConnection(dataSource);
+                con.setAutoCommit(false);
+                final long start = System.currentTimeMillis();
+                try {
+                    dir2.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+                    Assert.fail("lock2 should not have valid lock");
+                } catch (final LockObtainFailedException e) {
+                    // expected
+                } finally {
+                    DataSourceUtils.safeRollbackConnectionIfPossible(con);
+                    con.setAutoCommit(true);
+                    DataSourceUtils.releaseConnection(con);
+                }
+                return System.currentTimeMillis() - start;
+            }
+        });
+        Assert.assertTrue(failed.get() < 10000);
+        Assert.assertEquals(1, dir2.getLockContentionCount());
+        Assert.assertEquals(0, dir2.getLockTimeoutCount());
+    }
+
+    // the select for update lock is held by the transaction of the test thread
+    private void obtainWithinTransaction() throws Exception {
+        transaction = DataSourceUtils.getConnection(dataSource);
+        transaction.setAutoCommit(false);
+        dir1.obtainLock(IndexWriter.WRITE_LOCK_NAME).close();
+    }
+
+    private void endTransaction() throws Exception {
+        if (transaction == null) {
+            return;
+        }
+        try {
+            DataSourceUtils.commitConnectionIfPossible(transaction);
+            transaction.setAutoCommit(true);
+        } finally {
+            DataSourceUtils.releaseConnection(transaction);
+            transaction = null;
+        }
+    }
+
+    private Future<Lock> obtainInBackground() {
+        return executor.submit(new Callable<Lock>() {
+            @Override
+            public Lock call() throws Exception {
+                return dir2.obtainLock(IndexWriter.WRITE_LOCK_NAME);
+            }
+        });
+    }
+}
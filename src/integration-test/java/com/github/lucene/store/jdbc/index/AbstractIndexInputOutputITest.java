@@ -22,6 +22,7 @@ import java.sql.Connection;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RandomAccessInput;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -48,6 +49,7 @@ public abstract class AbstractIndexInputOutputITest extends AbstractJdbcDirector
                 indexInputClass());
         settings.getDefaultFileEntrySettings().setClassSetting(JdbcFileEntrySettings.INDEX_OUTPUT_TYPE_SETTING,
                 indexOutputClass());
+        configureSettings(settings);
 
         jdbcDirectory = new JdbcDirectory(dataSource, new JdbcTable(settings, createDialect(), "TEST"));
         jdbcDirectory.create();
@@ -62,6 +64,9 @@ public abstract class AbstractIndexInputOutputITest extends AbstractJdbcDirector
 
     protected abstract Class<? extends IndexOutput> indexOutputClass();
 
+    protected void configureSettings(final JdbcDirectorySettings settings) {
+    }
+
     @Test
     public void testSize5() throws IOException {
         innerTestSize(5);
@@ -180,6 +185,27 @@ public abstract class AbstractIndexInputOutputITest extends AbstractJdbcDirector
         indexInput.seek(30);
         Assert.assertEquals((byte) 3, indexInput.readByte());
 
+        final IndexInput slice = indexInput.slice("slice", 20, 16);
+        Assert.assertEquals(16, slice.length());
+        Assert.assertEquals((byte) 1, slice.readByte());
+        slice.seek(15);
+        Assert.assertEquals((byte) 2, slice.readByte());
+        final IndexInput nestedSlice = slice.slice("nested", 8, 5);
+        Assert.assertEquals(5, nestedSlice.length());
+        nestedSlice.readBytes(test, 0, 5);
+        Assert.assertEquals((byte) 1, test[0]);
+        Assert.assertEquals((byte) 5, test[4]);
+        // slices do not move the input
+        Assert.assertEquals((byte) 4, indexInput.readByte());
+
+        final RandomAccessInput randomAccessInput = indexInput.randomAccessSlice(0, 36);
+        Assert.assertEquals(-1, randomAccessInput.readInt(0));
+        Assert.assertEquals(10, randomAccessInput.readLong(4));
+        Assert.assertEquals((byte) 1, randomAccessInput.readByte(28));
+        Assert.assertEquals(0x0102, randomAccessInput.readShort(34));
+        final RandomAccessInput randomAccessSlice = slice.randomAccessSlice(8, 8);
+        Assert.assertEquals(0x01020304, randomAccessSlice.readInt(0));
+
         indexInput.close();
     }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.JdbcDirectorySettings;
+import com.github.lucene.store.jdbc.support.JdbcTemplate;
+
+public class ChunkedInputOutputITest extends AbstractIndexInputOutputITest {
+
+    @Override
+    protected Class<? extends IndexInput> indexInputClass() {
+        return ChunkedJdbcIndexInput.class;
+    }
+
+    @Override
+    protected Class<? extends IndexOutput> indexOutputClass() {
+        return ChunkedJdbcIndexOutput.class;
+    }
+
+    @Override
+    protected void configureSettings(final JdbcDirectorySettings settings) {
+        settings.setChunkedStorage(true);
+        settings.setChunkSize(10);
+        settings.getDefaultFileEntrySettings().setBooleanSetting(JdbcBufferedIndexInput.BLOCK_CACHE_SETTING, false);
+    }
+
+    @Test
+    public void testFileOperations() throws IOException {
+        final IndexOutput indexOutput = jdbcDirectory.createOutput("value1", new IOContext());
+        for (int i = 0; i < 25; i++) {
+            indexOutput.writeByte((byte) i);
+        }
+        indexOutput.close();
+        // closing twice does not insert the file entry again
+        indexOutput.close();
+        Assert.assertEquals(Arrays.asList("value1"), Arrays.asList(jdbcDirectory.listAll()));
+        Assert.assertEquals(25, jdbcDirectory.fileLength("value1"));
+
+        jdbcDirectory.renameFile("value1", "value2");
+        Assert.assertFalse(jdbcDirectory.fileExists("value1"));
+        Assert.assertEquals(25, jdbcDirectory.fileLength("value2"));
+
+        final IndexInput indexInput = jdbcDirectory.openInput("value2", new IOContext());
+        indexInput.seek(24);
+        Assert.assertEquals((byte) 24, indexInput.readByte());
+        indexInput.close();
+
+        jdbcDirectory.deleteFile("value2");
+        jdbcDirectory.deleteMarkDeleted(-1000);
+        Assert.assertEquals(0, jdbcDirectory.listAll().length);
+    }
+
+    @Test
+    public void testOrphanChunksAreDeleted() throws IOException {
+        // the chunks of an output that was never closed (the writer crashed)
+        for (int i = 1; i <= 2; i++) {
+            final int chunk = i;
+            jdbcDirectory.getJdbcTemplate().executeUpdate(jdbcDirectory.getTable().sqlInsertChunk(),
+                    new JdbcTemplate.PrepateStatementAwareCallback() {
+                        @Override
+                        public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                            ps.setString(1, "value1");
+                            ps.setInt(2, chunk);
+                            ps.setBytes(3, new byte[10]);
+                            ps.setLong(4, 10);
+                            ps.setBoolean(5, false);
+                        }
+                    });
+        }
+        Assert.assertEquals(0, jdbcDirectory.listAll().length);
+
+        final IndexOutput indexOutput = jdbcDirectory.createOutput("value1", IOContext.DEFAULT);
+        for (int i = 0; i < 15; i++) {
+            indexOutput.writeByte((byte) i);
+        }
+        indexOutput.close();
+        Assert.assertEquals(15, jdbcDirectory.fileLength("value1"));
+        final IndexInput indexInput = jdbcDirectory.openInput("value1", IOContext.DEFAULT);
+        for (int i = 0; i < 15; i++) {
+            Assert.assertEquals((byte) i, indexInput.readByte());
+        }
+        indexInput.close();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.JdbcDirectorySettings;
+import com.github.lucene.store.jdbc.datasource.DataSourceUtils;
+import com.github.lucene.store.jdbc.support.JdbcTemplate;
+
+public class ChunkedInputParallelOutputITest extends ChunkedInputOutputITest {
+
+    @Override
+    protected void configureSettings(final JdbcDirectorySettings settings) {
+        super.configureSettings(settings);
+        settings.getDefaultFileEntrySettings().setIntSetting(ChunkedJdbcIndexOutput.UPLOAD_PARALLELISM_SETTING, 4);
+    }
+
+    @Test
+    public void testParallelUpload() throws IOException {
+        final IndexOutput indexOutput = jdbcDirectory.createOutput("value1", IOContext.DEFAULT);
+        for (int i = 0; i < 10000; i++) {
+            indexOutput.writeByte((byte) i);
+        }
+        // only published once closed
+        Assert.assertFalse(jdbcDirectory.fileExists("value1"));
+        indexOutput.close();
+
+        Assert.assertEquals(10000, jdbcDirectory.fileLength("value1"));
+        final IndexInput indexInput = jdbcDirectory.openInput("value1", IOContext.DEFAULT);
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals((byte) i, indexInput.readByte());
+        }
+        indexInput.close();
+    }
+
+    @Test
+    public void testNotParallelWithinTransaction() throws Exception {
+        final Connection con = DataSourceUtils.getConnection(dataSource);
+        con.setAutoCommit(false);
+        try {
+            final IndexOutput indexOutput = jdbcDirectory.createOutput("value1", IOContext.DEFAULT);
+            for (int i = 0; i < 10000; i++) {
+                indexOutput.writeByte((byte) i);
+            }
+            indexOutput.close();
+            Assert.assertEquals(10000, jdbcDirectory.fileLength("value1"));
+            DataSourceUtils.rollbackConnectionIfPossible(con);
+        } finally {
+            con.setAutoCommit(true);
+            DataSourceUtils.releaseConnection(con);
+        }
+        // no chunk was committed by an upload connection
+        final Number rows = (Number) jdbcDirectory.getJdbcTemplate().executeSelect(
+                "select count(*) from " + jdbcDirectory.getTable().getQualifiedName() + " where "
+                        + jdbcDirectory.getTable().getNameColumn().getQuotedName() + " = ?",
+                new JdbcTemplate.ExecuteSelectCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setString(1, "value1");
+                    }
+
+                    @Override
+                    public Object execute(final ResultSet rs) throws Exception {
+                        rs.next();
+                        return rs.getLong(1);
+                    }
+                });
+        Assert.assertEquals(0, rows.longValue());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.JdbcDirectorySettings;
+
+public class CompressedInputOutputITest extends AbstractIndexInputOutputITest {
+
+    @Override
+    protected Class<? extends IndexInput> indexInputClass() {
+        return CompressedJdbcIndexInput.class;
+    }
+
+    @Override
+    protected Class<? extends IndexOutput> indexOutputClass() {
+        return CompressedJdbcIndexOutput.class;
+    }
+
+    @Override
+    protected void configureSettings(final JdbcDirectorySettings settings) {
+        // several blocks even for small files
+        settings.getDefaultFileEntrySettings().setIntSetting(CompressedJdbcIndexOutput.BLOCK_SIZE_SETTING, 16);
+    }
+
+    @Test
+    public void testFastMode() throws IOException {
+        innerTestLargeFile(CompressedJdbcIndexOutput.MODE_FAST);
+    }
+
+    @Test
+    public void testHighMode() throws IOException {
+        innerTestLargeFile(CompressedJdbcIndexOutput.MODE_HIGH);
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        jdbcDirectory.createOutput("value1", IOContext.DEFAULT).close();
+        Assert.assertEquals(0, jdbcDirectory.fileLength("value1"));
+        final IndexInput indexInput = jdbcDirectory.openInput("value1", IOContext.DEFAULT);
+        Assert.assertEquals(0, indexInput.length());
+        indexInput.close();
+    }
+
+    private void innerTestLargeFile(final String mode) throws IOException {
+        jdbcDirectory.getSettings().getDefaultFileEntrySettings()
+                .setIntSetting(CompressedJdbcIndexOutput.BLOCK_SIZE_SETTING, 1024)
+                .setSetting(CompressedJdbcIndexOutput.MODE_SETTING, mode);
+        final IndexOutput indexOutput = jdbcDirectory.createOutput("value1", IOContext.DEFAULT);
+        for (int i = 0; i < 100000; i++) {
+            indexOutput.writeByte((byte) (i % 7));
+        }
+        Assert.assertEquals(100000, indexOutput.getFilePointer());
+        indexOutput.close();
+
+        // sizes and positions are uncompressed
+        Assert.assertEquals(100000, jdbcDirectory.fileLength("value1"));
+        final IndexInput indexInput = jdbcDirectory.openInput("value1", IOContext.DEFAULT);
+        Assert.assertEquals(100000, indexInput.length());
+        for (final int position : new int[] { 99999, 0, 1023, 1024, 50000, 77777 }) {
+            indexInput.seek(position);
+            Assert.assertEquals((byte) (position % 7), indexInput.readByte());
+        }
+        final IndexInput slice = indexInput.slice("slice", 1020, 10);
+        for (int i = 1020; i < 1030; i++) {
+            Assert.assertEquals((byte) (i % 7), slice.readByte());
+        }
+        indexInput.seek(0);
+        for (int i = 0; i < 100000; i++) {
+            Assert.assertEquals((byte) (i % 7), indexInput.readByte());
+        }
+        indexInput.close();
+    }
+}
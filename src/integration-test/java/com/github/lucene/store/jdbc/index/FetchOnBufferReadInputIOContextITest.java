@@ -0,0 +1,144 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+
+import org.apache.lucene.store.FlushInfo;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MergeInfo;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.JdbcDirectory;
+import com.github.lucene.store.jdbc.JdbcDirectorySettings;
+import com.github.lucene.store.jdbc.cache.BlockCache;
+import com.github.lucene.store.jdbc.datasource.DriverManagerDataSource;
+import com.github.lucene.store.jdbc.handler.AbstractFileEntryHandler;
+import com.github.lucene.store.jdbc.support.JdbcTable;
+
+public class FetchOnBufferReadInputIOContextITest extends AbstractIndexInputOutputITest {
+
+    @Override
+    protected Class<? extends IndexInput> indexInputClass() {
+        return FetchOnBufferReadJdbcIndexInput.class;
+    }
+
+    @Override
+    protected Class<? extends IndexOutput> indexOutputClass() {
+        return RAMAndFileJdbcIndexOutput.class;
+    }
+
+    @Override
+    protected void configureSettings(final JdbcDirectorySettings settings) {
+        settings.setBlockCache(new BlockCache(1024 * 1024, 16));
+    }
+
+    @Test
+    public void testMergeAndReadOnceBypassBlockCache() throws IOException {
+        writeFile("value1", 100, IOContext.DEFAULT);
+        final BlockCache blockCache = jdbcDirectory.getSettings().getBlockCache();
+
+        verifyFile("value1", 100, new IOContext(new MergeInfo(1, 100, false, 1)));
+        verifyFile("value1", 100, IOContext.READONCE);
+        Assert.assertEquals(0, blockCache.getMissCount());
+        Assert.assertEquals(0, blockCache.getHitCount());
+
+        verifyFile("value1", 100, IOContext.READ);
+        Assert.assertTrue(blockCache.getMissCount() > 0);
+    }
+
+    @Test
+    public void testWriteWithFlushAndMergeContexts() throws IOException {
+        writeFile("value1", 100, new IOContext(new FlushInfo(1, 1024 * 1024)));
+        verifyFile("value1", 100, IOContext.DEFAULT);
+        writeFile("value2", 100, new IOContext(new MergeInfo(1, 1024 * 1024, false, 1)));
+        verifyFile("value2", 100, IOContext.DEFAULT);
+    }
+
+    @Test
+    public void testLargeSegmentOutput() throws IOException {
+        jdbcDirectory.getSettings().getDefaultFileEntrySettings()
+                .setClassSetting(AbstractFileEntryHandler.LARGE_SEGMENT_INDEX_OUTPUT_TYPE_SETTING,
+                        FileJdbcIndexOutput.class)
+                .setLongSetting(AbstractFileEntryHandler.LARGE_SEGMENT_SIZE_SETTING, 1024 * 1024);
+        assertOutput(FileJdbcIndexOutput.class, "value1", new IOContext(new FlushInfo(1, 1024 * 1024)));
+        assertOutput(FileJdbcIndexOutput.class, "value2", new IOContext(new MergeInfo(1, 2 * 1024 * 1024, false,
+                1)));
+        assertOutput(RAMAndFileJdbcIndexOutput.class, "value3", new IOContext(new MergeInfo(1, 1024, false, 1)));
+        assertOutput(RAMAndFileJdbcIndexOutput.class, "value4", IOContext.DEFAULT);
+    }
+
+    private void assertOutput(final Class<? extends IndexOutput> outputClass, final String name,
+            final IOContext context) throws IOException {
+        final IndexOutput indexOutput = jdbcDirectory.createOutput(name, context);
+        Assert.assertEquals(outputClass, indexOutput.getClass());
+        for (int i = 0; i < 100; i++) {
+            indexOutput.writeByte((byte) i);
+        }
+        indexOutput.close();
+        verifyFile(name, 100, IOContext.DEFAULT);
+    }
+
+    @Test
+    public void testBlockCacheNotSharedAcrossDatabases() throws Exception {
+        final DriverManagerDataSource otherDataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:other", "sa",
+                "");
+        otherDataSource.setAutoCommit(true);
+        final JdbcDirectory otherDirectory = new JdbcDirectory(otherDataSource,
+                new JdbcTable(jdbcDirectory.getSettings(), createDialect(), "TEST"));
+        try {
+            otherDirectory.create();
+            writeFile("value1", 100, IOContext.DEFAULT);
+            final IndexOutput indexOutput = otherDirectory.createOutput("value1", IOContext.DEFAULT);
+            for (int i = 0; i < 100; i++) {
+                indexOutput.writeByte((byte) -i);
+            }
+            indexOutput.close();
+            Assert.assertFalse(jdbcDirectory.getCacheKey().equals(otherDirectory.getCacheKey()));
+
+            verifyFile("value1", 100, IOContext.READ);
+            final IndexInput indexInput = otherDirectory.openInput("value1", IOContext.READ);
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals((byte) -i, indexInput.readByte());
+            }
+            indexInput.close();
+        } finally {
+            otherDirectory.delete();
+            otherDirectory.close();
+        }
+    }
+
+    private void writeFile(final String name, final int length, final IOContext context) throws IOException {
+        final IndexOutput indexOutput = jdbcDirectory.createOutput(name, context);
+        for (int i = 0; i < length; i++) {
+            indexOutput.writeByte((byte) i);
+        }
+        indexOutput.close();
+    }
+
+    private void verifyFile(final String name, final int length, final IOContext context) throws IOException {
+        final IndexInput indexInput = jdbcDirectory.openInput(name, context);
+        Assert.assertEquals(length, indexInput.length());
+        for (int i = 0; i < length; i++) {
+            Assert.assertEquals((byte) i, indexInput.readByte());
+        }
+        indexInput.close();
+    }
+}
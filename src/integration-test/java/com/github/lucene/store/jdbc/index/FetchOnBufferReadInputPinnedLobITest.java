@@ -0,0 +1,74 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.JdbcDirectorySettings;
+
+public class FetchOnBufferReadInputPinnedLobITest extends AbstractIndexInputOutputITest {
+
+    @Override
+    protected Class<? extends IndexInput> indexInputClass() {
+        return FetchOnBufferReadJdbcIndexInput.class;
+    }
+
+    @Override
+    protected Class<? extends IndexOutput> indexOutputClass() {
+        return RAMJdbcIndexOutput.class;
+    }
+
+    @Override
+    protected void configureSettings(final JdbcDirectorySettings settings) {
+        settings.setBlockCache(null);
+        settings.setPinnedConnectionPoolSize(1);
+        settings.getDefaultFileEntrySettings().setBooleanSetting(FetchOnBufferReadJdbcIndexInput.PIN_LOB_SETTING,
+                true);
+    }
+
+    @Test
+    public void testPinnedConnectionReleasedOnClose() throws IOException {
+        final IndexOutput indexOutput = jdbcDirectory.createOutput("value1", new IOContext());
+        for (int i = 0; i < 100; i++) {
+            indexOutput.writeByte((byte) i);
+        }
+        indexOutput.close();
+
+        final IndexInput indexInput = jdbcDirectory.openInput("value1", new IOContext());
+        final IndexInput clone = indexInput.clone();
+        Assert.assertEquals(0, indexInput.readByte());
+        Assert.assertEquals(1, jdbcDirectory.getPinnedConnectionPool().getBorrowedCount());
+
+        // the pool is exhausted, the second input reads as usual
+        final IndexInput other = jdbcDirectory.openInput("value1", new IOContext());
+        other.seek(50);
+        Assert.assertEquals(50, other.readByte());
+        other.close();
+
+        clone.seek(99);
+        Assert.assertEquals(99, clone.readByte());
+        indexInput.close();
+        Assert.assertEquals(0, jdbcDirectory.getPinnedConnectionPool().getBorrowedCount());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.sql.Connection;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.JdbcDirectorySettings;
+import com.github.lucene.store.jdbc.datasource.DataSourceUtils;
+
+public class FetchOnBufferReadInputReadAheadITest extends AbstractIndexInputOutputITest {
+
+    @Override
+    protected Class<? extends IndexInput> indexInputClass() {
+        return FetchOnBufferReadJdbcIndexInput.class;
+    }
+
+    @Override
+    protected Class<? extends IndexOutput> indexOutputClass() {
+        return RAMJdbcIndexOutput.class;
+    }
+
+    @Override
+    protected void configureSettings(final JdbcDirectorySettings settings) {
+        settings.getDefaultFileEntrySettings().setBooleanSetting(JdbcBufferedIndexInput.BLOCK_CACHE_SETTING, false);
+        settings.getDefaultFileEntrySettings().setIntSetting(JdbcBufferedIndexInput.READ_AHEAD_WINDOW_SETTING, 3);
+    }
+
+    @Test(timeout = 60000)
+    public void testReadWithinUncommittedTransaction() throws Exception {
+        jdbcDirectory.getSettings().getDefaultFileEntrySettings()
+                .setIntSetting(JdbcBufferedIndexInput.BUFFER_SIZE_SETTING, 16);
+        final Connection con = DataSourceUtils.getConnection(dataSource);
+        con.setAutoCommit(false);
+        try {
+            final IndexOutput indexOutput = jdbcDirectory.createOutput("value1", IOContext.DEFAULT);
+            for (int i = 0; i < 200; i++) {
+                indexOutput.writeByte((byte) i);
+            }
+            indexOutput.close();
+            Assert.assertTrue(jdbcDirectory.hasUncommittedWrites("value1"));
+
+            // the read ahead connections would wait for our transaction
+            final IndexInput indexInput = jdbcDirectory.openInput("value1", IOContext.DEFAULT);
+            for (int i = 0; i < 200; i++) {
+                Assert.assertEquals((byte) i, indexInput.readByte());
+            }
+            indexInput.close();
+        } finally {
+            DataSourceUtils.rollbackConnectionIfPossible(con);
+            con.setAutoCommit(true);
+            DataSourceUtils.releaseConnection(con);
+        }
+        Assert.assertFalse(jdbcDirectory.hasUncommittedWrites("value1"));
+    }
+}
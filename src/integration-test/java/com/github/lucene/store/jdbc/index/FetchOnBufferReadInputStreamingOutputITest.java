@@ -0,0 +1,152 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.util.Arrays;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.JdbcDirectorySettings;
+import com.github.lucene.store.jdbc.datasource.DataSourceUtils;
+
+public class FetchOnBufferReadInputStreamingOutputITest extends AbstractIndexInputOutputITest {
+
+    @Override
+    protected Class<? extends IndexInput> indexInputClass() {
+        return FetchOnBufferReadJdbcIndexInput.class;
+    }
+
+    @Override
+    protected Class<? extends IndexOutput> indexOutputClass() {
+        return StreamingJdbcIndexOutput.class;
+    }
+
+    @Override
+    protected void configureSettings(final JdbcDirectorySettings settings) {
+        // stream all but the smallest files
+        settings.getDefaultFileEntrySettings().setIntSetting(StreamingJdbcIndexOutput.STREAM_THRESHOLD_SETTING, 16);
+        settings.getDefaultFileEntrySettings().setIntSetting(StreamingJdbcIndexOutput.STREAM_QUEUE_SIZE_SETTING, 2);
+    }
+
+    @Test
+    public void testStreamLargeFile() throws IOException {
+        final StreamingJdbcIndexOutput indexOutput = (StreamingJdbcIndexOutput) jdbcDirectory.createOutput("value1",
+                IOContext.DEFAULT);
+        for (int i = 0; i < 100000; i++) {
+            indexOutput.writeByte((byte) i);
+        }
+        Assert.assertTrue(indexOutput.isStreaming());
+        // not visible until closed
+        Assert.assertFalse(jdbcDirectory.fileExists("value1"));
+        indexOutput.close();
+
+        Assert.assertEquals(Arrays.asList("value1"), Arrays.asList(jdbcDirectory.listAll()));
+        verifyFile("value1", 100000);
+    }
+
+    @Test
+    public void testSmallFileIsNotStreamed() throws IOException {
+        final StreamingJdbcIndexOutput indexOutput = (StreamingJdbcIndexOutput) jdbcDirectory.createOutput("value1",
+                IOContext.DEFAULT);
+        for (int i = 0; i < 10; i++) {
+            indexOutput.writeByte((byte) i);
+        }
+        indexOutput.close();
+        Assert.assertFalse(indexOutput.isStreaming());
+        verifyFile("value1", 10);
+    }
+
+    @Test
+    public void testConcurrentOutputs() throws IOException {
+        final IndexOutput[] indexOutputs = new IndexOutput[8];
+        for (int i = 0; i < indexOutputs.length; i++) {
+            indexOutputs[i] = jdbcDirectory.createOutput("value" + i, IOContext.DEFAULT);
+        }
+        for (int i = 0; i < 50000; i++) {
+            for (final IndexOutput indexOutput : indexOutputs) {
+                indexOutput.writeByte((byte) i);
+            }
+        }
+        for (final IndexOutput indexOutput : indexOutputs) {
+            indexOutput.close();
+        }
+        for (int i = 0; i < indexOutputs.length; i++) {
+            verifyFile("value" + i, 50000);
+        }
+    }
+
+    @Test
+    public void testFallBackWhenNoUploadThreadIsAvailable() throws IOException {
+        jdbcDirectory.getSettings().getDefaultFileEntrySettings()
+                .setIntSetting(StreamingJdbcIndexOutput.UPLOAD_THREADS_SETTING, 1);
+        final StreamingJdbcIndexOutput[] indexOutputs = new StreamingJdbcIndexOutput[2];
+        for (int i = 0; i < indexOutputs.length; i++) {
+            indexOutputs[i] = (StreamingJdbcIndexOutput) jdbcDirectory.createOutput("value" + i, IOContext.DEFAULT);
+        }
+        for (int i = 0; i < 50000; i++) {
+            for (final IndexOutput indexOutput : indexOutputs) {
+                indexOutput.writeByte((byte) i);
+            }
+        }
+        Assert.assertTrue(indexOutputs[0].isStreaming());
+        Assert.assertFalse(indexOutputs[1].isStreaming());
+        for (final IndexOutput indexOutput : indexOutputs) {
+            indexOutput.close();
+        }
+        for (int i = 0; i < indexOutputs.length; i++) {
+            verifyFile("value" + i, 50000);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testNotStreamedWithinTransaction() throws Exception {
+        final Connection con = DataSourceUtils.getConnection(dataSource);
+        con.setAutoCommit(false);
+        try {
+            // the upload connection could wait for the locks of our transaction
+            jdbcDirectory.createOutput("value0", IOContext.DEFAULT).close();
+            final StreamingJdbcIndexOutput indexOutput = (StreamingJdbcIndexOutput) jdbcDirectory
+                    .createOutput("value1", IOContext.DEFAULT);
+            for (int i = 0; i < 100000; i++) {
+                indexOutput.writeByte((byte) i);
+            }
+            Assert.assertFalse(indexOutput.isStreaming());
+            indexOutput.close();
+            verifyFile("value1", 100000);
+            DataSourceUtils.commitConnectionIfPossible(con);
+        } finally {
+            con.setAutoCommit(true);
+            DataSourceUtils.releaseConnection(con);
+        }
+        verifyFile("value1", 100000);
+    }
+
+    private void verifyFile(final String name, final int length) throws IOException {
+        Assert.assertEquals(length, jdbcDirectory.fileLength(name));
+        final IndexInput indexInput = jdbcDirectory.openInput(name, IOContext.DEFAULT);
+        for (int i = 0; i < length; i++) {
+            Assert.assertEquals((byte) i, indexInput.readByte());
+        }
+        indexInput.close();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.JdbcDirectorySettings;
+import com.github.lucene.store.jdbc.datasource.DataSourceUtils;
+import com.github.lucene.store.jdbc.support.JdbcTemplate;
+
+public class FetchOnBufferReadInputWriteBehindOutputITest extends AbstractIndexInputOutputITest {
+
+    @Override
+    protected Class<? extends IndexInput> indexInputClass() {
+        return FetchOnBufferReadJdbcIndexInput.class;
+    }
+
+    @Override
+    protected Class<? extends IndexOutput> indexOutputClass() {
+        return FileJdbcIndexOutput.class;
+    }
+
+    @Override
+    protected void configureSettings(final JdbcDirectorySettings settings) {
+        settings.getDefaultFileEntrySettings().setBooleanSetting(FileJdbcIndexOutput.WRITE_BEHIND_SETTING, true);
+    }
+
+    @Test
+    public void testSyncWaitsForUploads() throws IOException {
+        final List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            final String name = "value" + i;
+            final IndexOutput indexOutput = jdbcDirectory.createOutput(name, IOContext.DEFAULT);
+            for (int j = 0; j < 10000; j++) {
+                indexOutput.writeByte((byte) j);
+            }
+            indexOutput.close();
+            names.add(name);
+        }
+        jdbcDirectory.sync(names);
+        Assert.assertEquals(0, jdbcDirectory.getPendingUploadsCount());
+        Assert.assertEquals(10, jdbcDirectory.listAll().length);
+        for (final String name : names) {
+            final IndexInput indexInput = jdbcDirectory.openInput(name, IOContext.DEFAULT);
+            Assert.assertEquals(10000, indexInput.length());
+            for (int j = 0; j < 10000; j++) {
+                Assert.assertEquals((byte) j, indexInput.readByte());
+            }
+            indexInput.close();
+        }
+    }
+
+    @Test
+    public void testNoWriteBehindWithinTransaction() throws Exception {
+        final Connection con = DataSourceUtils.getConnection(dataSource);
+        con.setAutoCommit(false);
+        try {
+            final IndexOutput indexOutput = jdbcDirectory.createOutput("value1", IOContext.DEFAULT);
+            for (int i = 0; i < 10000; i++) {
+                indexOutput.writeByte((byte) i);
+            }
+            indexOutput.close();
+            Assert.assertEquals(0, jdbcDirectory.getPendingUploadsCount());
+            Assert.assertEquals(10000, jdbcDirectory.fileLength("value1"));
+            DataSourceUtils.rollbackConnectionIfPossible(con);
+        } finally {
+            con.setAutoCommit(true);
+            DataSourceUtils.releaseConnection(con);
+        }
+        // the file was not committed by an upload connection
+        final Number rows = (Number) jdbcDirectory.getJdbcTemplate().executeSelect(
+                "select count(*) from " + jdbcDirectory.getTable().getQualifiedName() + " where "
+                        + jdbcDirectory.getTable().getNameColumn().getQuotedName() + " = ?",
+                new JdbcTemplate.ExecuteSelectCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setString(1, "value1");
+                    }
+
+                    @Override
+                    public Object execute(final ResultSet rs) throws Exception {
+                        rs.next();
+                        return rs.getLong(1);
+                    }
+                });
+        Assert.assertEquals(0, rows.longValue());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.JdbcDirectorySettings;
+import com.github.lucene.store.jdbc.cache.SegmentPrefetchCache;
+
+public class FetchOnOpenInputSegmentPrefetchITest extends AbstractIndexInputOutputITest {
+
+    @Override
+    protected Class<? extends IndexInput> indexInputClass() {
+        return FetchOnOpenJdbcIndexInput.class;
+    }
+
+    @Override
+    protected Class<? extends IndexOutput> indexOutputClass() {
+        return RAMJdbcIndexOutput.class;
+    }
+
+    @Override
+    protected void configureSettings(final JdbcDirectorySettings settings) {
+        settings.setSegmentPrefetchThreshold(100);
+    }
+
+    @Test
+    public void testPrefetchSegmentFiles() throws IOException {
+        writeFile("_1.si", 10);
+        writeFile("_1.fnm", 20);
+        writeFile("_1_Lucene50_0.doc", 30);
+        writeFile("_1.cfs", 200);
+        writeFile("_10.si", 40);
+
+        final SegmentPrefetchCache cache = jdbcDirectory.getSegmentPrefetchCache();
+        verifyFile("_1.si", 10);
+        Assert.assertEquals(1, cache.getPrefetchCount());
+        verifyFile("_1.fnm", 20);
+        verifyFile("_1_Lucene50_0.doc", 30);
+        Assert.assertEquals(3, cache.getHitCount());
+        // above the threshold
+        verifyFile("_1.cfs", 200);
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.getPrefetchCount());
+
+        verifyFile("_10.si", 40);
+        Assert.assertEquals(2, cache.getPrefetchCount());
+
+        // written after the prefetch
+        writeFile("_1.nvm", 25);
+        verifyFile("_1.nvm", 25);
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+
+    private void writeFile(final String name, final int length) throws IOException {
+        final IndexOutput indexOutput = jdbcDirectory.createOutput(name, new IOContext());
+        for (int i = 0; i < length; i++) {
+            indexOutput.writeByte((byte) (i + length));
+        }
+        indexOutput.close();
+    }
+
+    private void verifyFile(final String name, final int length) throws IOException {
+        final IndexInput indexInput = jdbcDirectory.openInput(name, new IOContext());
+        Assert.assertEquals(length, indexInput.length());
+        for (int i = 0; i < length; i++) {
+            Assert.assertEquals((byte) (i + length), indexInput.readByte());
+        }
+        indexInput.close();
+    }
+}
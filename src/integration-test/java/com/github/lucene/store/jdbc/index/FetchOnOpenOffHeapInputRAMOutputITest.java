@@ -0,0 +1,101 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.JdbcDirectorySettings;
+import com.github.lucene.store.jdbc.JdbcStoreException;
+import com.github.lucene.store.jdbc.cache.OffHeapMemoryTracker;
+import com.github.lucene.store.jdbc.support.JdbcTemplate;
+
+public class FetchOnOpenOffHeapInputRAMOutputITest extends AbstractIndexInputOutputITest {
+
+    private final OffHeapMemoryTracker offHeapMemoryTracker = new OffHeapMemoryTracker(50);
+
+    @Override
+    protected Class<? extends IndexInput> indexInputClass() {
+        return FetchOnOpenOffHeapJdbcIndexInput.class;
+    }
+
+    @Override
+    protected Class<? extends IndexOutput> indexOutputClass() {
+        return RAMJdbcIndexOutput.class;
+    }
+
+    @Override
+    protected void configureSettings(final JdbcDirectorySettings settings) {
+        // small pages, so that reads cross them
+        settings.getDefaultFileEntrySettings().setIntSetting(FetchOnOpenOffHeapJdbcIndexInput.PAGE_SIZE_SETTING, 8);
+        settings.setOffHeapMemoryTracker(offHeapMemoryTracker);
+    }
+
+    @Test
+    public void testOffHeapMemoryCap() throws IOException {
+        final IndexOutput indexOutput = jdbcDirectory.createOutput("value1", new IOContext());
+        indexOutput.writeBytes(new byte[30], 30);
+        indexOutput.close();
+
+        final IndexInput indexInput = jdbcDirectory.openInput("value1", new IOContext());
+        Assert.assertEquals(30, offHeapMemoryTracker.getUsed());
+        try {
+            jdbcDirectory.openInput("value1", new IOContext());
+            Assert.fail();
+        } catch (final JdbcStoreException e) {
+            // all is well
+        }
+        indexInput.close();
+        Assert.assertEquals(0, offHeapMemoryTracker.getUsed());
+    }
+
+    @Test
+    public void testSizeLargerThan2GB() throws IOException {
+        final IndexOutput indexOutput = jdbcDirectory.createOutput("value1", new IOContext());
+        indexOutput.writeBytes(new byte[30], 30);
+        indexOutput.close();
+        final long size = 3L * 1024 * 1024 * 1024;
+        jdbcDirectory.getJdbcTemplate().executeUpdate(
+                "update " + jdbcDirectory.getTable().getQualifiedName() + " set "
+                        + jdbcDirectory.getTable().getSizeColumn().getQuotedName() + " = ? where "
+                        + jdbcDirectory.getTable().getNameColumn().getQuotedName() + " = ?",
+                new JdbcTemplate.PrepateStatementAwareCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setLong(1, size);
+                        ps.setString(2, "value1");
+                    }
+                });
+        Assert.assertEquals(size, jdbcDirectory.fileLength("value1"));
+
+        // the value is shorter than the size, rejected when opened
+        try {
+            jdbcDirectory.openInput("value1", new IOContext());
+            Assert.fail();
+        } catch (final JdbcStoreException e) {
+            // all is well
+        }
+        Assert.assertEquals(0, offHeapMemoryTracker.getUsed());
+    }
+}
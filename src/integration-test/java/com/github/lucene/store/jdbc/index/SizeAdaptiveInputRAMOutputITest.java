@@ -0,0 +1,87 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MergeInfo;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.lucene.store.jdbc.JdbcDirectorySettings;
+import com.github.lucene.store.jdbc.cache.LocalFileCache;
+
+public class SizeAdaptiveInputRAMOutputITest extends AbstractIndexInputOutputITest {
+
+    @Override
+    protected Class<? extends IndexInput> indexInputClass() {
+        return FetchOnBufferReadJdbcIndexInput.class;
+    }
+
+    @Override
+    protected Class<? extends IndexOutput> indexOutputClass() {
+        return RAMJdbcIndexOutput.class;
+    }
+
+    @Override
+    protected void configureSettings(final JdbcDirectorySettings settings) {
+        try {
+            settings.setLocalFileCache(new LocalFileCache(Files.createTempDirectory("jdbc-directory")));
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        settings.setIndexInputSelector(new SizeAdaptiveIndexInputSelector(16, 1000));
+    }
+
+    @Test
+    public void testSelectBySize() throws IOException {
+        writeFile("small", 10);
+        writeFile("medium", 100);
+        writeFile("large", 2000);
+
+        verifyFile("small", 10, IOContext.DEFAULT, FetchOnOpenJdbcIndexInput.class);
+        verifyFile("medium", 100, IOContext.DEFAULT, FetchOnBufferReadJdbcIndexInput.class);
+        verifyFile("large", 2000, IOContext.DEFAULT, FetchToLocalMMapIndexInput.class);
+        // not worth mirroring
+        verifyFile("large", 2000, IOContext.READONCE, FetchOnBufferReadJdbcIndexInput.class);
+        verifyFile("large", 2000, new IOContext(new MergeInfo(1, 2000, false, 1)),
+                FetchOnBufferReadJdbcIndexInput.class);
+    }
+
+    private void writeFile(final String name, final int length) throws IOException {
+        final IndexOutput indexOutput = jdbcDirectory.createOutput(name, new IOContext());
+        for (int i = 0; i < length; i++) {
+            indexOutput.writeByte((byte) i);
+        }
+        indexOutput.close();
+    }
+
+    private void verifyFile(final String name, final int length, final IOContext context,
+            final Class<? extends IndexInput> expectedClass) throws IOException {
+        final IndexInput indexInput = jdbcDirectory.openInput(name, context);
+        Assert.assertEquals(expectedClass, indexInput.getClass());
+        Assert.assertEquals(length, indexInput.length());
+        for (int i = 0; i < length; i++) {
+            Assert.assertEquals((byte) i, indexInput.readByte());
+        }
+        indexInput.close();
+    }
+}
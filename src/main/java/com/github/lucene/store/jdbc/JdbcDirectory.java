@@ -17,30 +17,78 @@
 package com.github.lucene.store.jdbc;
 
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.sql.Blob;
 import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
+import org.apache.lucene.index.IndexFileNames;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockObtainFailedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.lucene.store.DirectoryTemplate;
+import com.github.lucene.store.jdbc.cache.BlockCache;
+import com.github.lucene.store.jdbc.cache.FileMetadataCache;
+import com.github.lucene.store.jdbc.cache.LocalFileCache;
+import com.github.lucene.store.jdbc.cache.SegmentPrefetchCache;
+import com.github.lucene.store.jdbc.datasource.DataSourceUtils;
+import com.github.lucene.store.jdbc.datasource.DriverManagerDataSource;
+import com.github.lucene.store.jdbc.datasource.PoolingDataSource;
+import com.github.lucene.store.jdbc.datasource.ReadOnlyConnectionPool;
+import com.github.lucene.store.jdbc.datasource.TransactionAwareDataSourceProxy;
 import com.github.lucene.store.jdbc.dialect.Dialect;
 import com.github.lucene.store.jdbc.dialect.DialectResolver;
+import com.github.lucene.store.jdbc.handler.AbstractFileEntryHandler;
 import com.github.lucene.store.jdbc.handler.FileEntryHandler;
+import com.github.lucene.store.jdbc.handler.NoOpFileEntryHandler;
+import com.github.lucene.store.jdbc.index.ChunkedJdbcIndexInput;
+import com.github.lucene.store.jdbc.index.ChunkedJdbcIndexOutput;
+import com.github.lucene.store.jdbc.index.FetchOnOpenJdbcIndexInput;
+import com.github.lucene.store.jdbc.index.JdbcBufferedIndexInput;
+import com.github.lucene.store.jdbc.index.StreamingJdbcIndexOutput;
 import com.github.lucene.store.jdbc.lock.JdbcLock;
+import com.github.lucene.store.jdbc.lock.PhantomReadLock;
+import com.github.lucene.store.jdbc.lock.SelectForUpdateLock;
+import com.github.lucene.store.jdbc.lock.WaitableJdbcLock;
 import com.github.lucene.store.jdbc.support.JdbcTable;
 import com.github.lucene.store.jdbc.support.JdbcTemplate;
 import com.github.lucene.store.jdbc.support.LuceneFileNames;
@@ -117,6 +165,52 @@ public class JdbcDirectory extends Directory {
 
     private JdbcTemplate jdbcTemplate;
 
+    private final Map<JdbcFileEntrySettings, ExecutorService> readAheadExecutors =
+            new IdentityHashMap<JdbcFileEntrySettings, ExecutorService>();
+
+    private final Map<JdbcFileEntrySettings, ExecutorService> uploadExecutors =
+            new IdentityHashMap<JdbcFileEntrySettings, ExecutorService>();
+
+    private volatile boolean localFileCacheValidated;
+
+    private ReadOnlyConnectionPool pinnedConnectionPool;
+
+    private ScheduledThreadPoolExecutor lockHeartbeatExecutor;
+
+    // the pool created by the jdbc url constructors, closed with the directory
+    private PoolingDataSource connectionPool;
+
+    private FileMetadataCache metadataCache;
+
+    private SegmentPrefetchCache segmentPrefetchCache;
+
+    // closed files waiting for the directory to be synced (group commit)
+    private final ConcurrentHashMap<String, byte[]> heldFiles = new ConcurrentHashMap<String, byte[]>();
+
+    // files written within a transaction of the caller, with the connection
+    // of that transaction, see #hasUncommittedWrites(String)
+    private final ConcurrentHashMap<String, Connection> uncommittedWrites = new ConcurrentHashMap<String, Connection>();
+
+    // files being uploaded in the background (write behind)
+    private final ConcurrentHashMap<String, Future<?>> uploads = new ConcurrentHashMap<String, Future<?>>();
+
+    // the url and user of the database, see #isSameDatabase(JdbcDirectory)
+    private volatile String databaseIdentity;
+
+    // the key of the directory files in the shared caches, see #getCacheKey()
+    private volatile String cacheKey;
+
+    private final AtomicLong lockObtainCount = new AtomicLong();
+
+    private final AtomicLong lockContentionCount = new AtomicLong();
+
+    private final AtomicLong lockTimeoutCount = new AtomicLong();
+
+    private final AtomicLong lockWaitTime = new AtomicLong();
+
+    // lock entries are written by the locks themselves, and never cached
+    private final Set<String> lockNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     /**
      * Creates a new jdbc directory. Creates new {@link JdbcDirectorySettings}
      * using it's default values. Uses
@@ -186,6 +280,71 @@ public class JdbcDirectory extends Directory {
         initialize(dataSource, new JdbcTable(settings, dialect, tableName));
     }
 
+    /**
+     * Creates a new jdbc directory connecting to the database with the given
+     * jdbc url, using a {@link PoolingDataSource} (in auto commit mode) sized
+     * by {@link JdbcDirectorySettings#getConnectionPoolMinSize()} and
+     * {@link JdbcDirectorySettings#getConnectionPoolMaxSize()}. The pool is
+     * closed when the directory is closed. Uses
+     * {@link com.github.lucene.store.jdbc.dialect.DialectResolver} to try and
+     * automatically resolve the
+     * {@link com.github.lucene.store.jdbc.dialect.Dialect}.
+     *
+     * @param url
+     *            The jdbc url of the database
+     * @param username
+     *            The user to connect with
+     * @param password
+     *            The password of the user
+     * @param settings
+     *            The settings to configure the directory
+     * @param tableName
+     *            The table name that will be used
+     */
+    public JdbcDirectory(final String url, final String username, final String password,
+            final JdbcDirectorySettings settings, final String tableName) throws JdbcStoreException {
+        this(url, username, password, null, settings, tableName);
+    }
+
+    /**
+     * Creates a new jdbc directory connecting to the database with the given
+     * jdbc url, using a {@link PoolingDataSource} (in auto commit mode) sized
+     * by {@link JdbcDirectorySettings#getConnectionPoolMinSize()} and
+     * {@link JdbcDirectorySettings#getConnectionPoolMaxSize()}. The pool is
+     * closed when the directory is closed.
+     *
+     * @param url
+     *            The jdbc url of the database
+     * @param username
+     *            The user to connect with
+     * @param password
+     *            The password of the user
+     * @param dialect
+     *            The dialect, resolved from the database if <code>null</code>
+     * @param settings
+     *            The settings to configure the directory
+     * @param tableName
+     *            The table name that will be used
+     */
+    public JdbcDirectory(final String url, final String username, final String password, final Dialect dialect,
+            final JdbcDirectorySettings settings, final String tableName) throws JdbcStoreException {
+        final DriverManagerDataSource driverManagerDataSource = new DriverManagerDataSource(url, username, password);
+        driverManagerDataSource.setAutoCommit(true);
+        final PoolingDataSource pool = new PoolingDataSource(driverManagerDataSource,
+                settings.getConnectionPoolMinSize(), settings.getConnectionPoolMaxSize());
+        try {
+            initialize(pool, new JdbcTable(settings, dialect != null ? dialect : new DialectResolver().getDialect(pool),
+                    tableName));
+        } catch (final JdbcStoreException e) {
+            pool.close();
+            throw e;
+        } catch (final RuntimeException e) {
+            pool.close();
+            throw e;
+        }
+        connectionPool = pool;
+    }
+
     /**
      * Creates a new jdbc directory.
      *
@@ -206,6 +365,13 @@ public class JdbcDirectory extends Directory {
         settings = table.getSettings();
         dialect.processSettings(settings);
         final Map<String, JdbcFileEntrySettings> fileEntrySettings = settings.getFileEntrySettings();
+        if (settings.isChunkedStorage()) {
+            // chunked tables can only be read and written by the chunked
+            // index input and output
+            for (final JdbcFileEntrySettings feSettings : fileEntrySettings.values()) {
+                processChunkedStorageSettings(feSettings);
+            }
+        }
         // go over all the file entry settings and configure them
         for (final String name : fileEntrySettings.keySet()) {
             final JdbcFileEntrySettings feSettings = fileEntrySettings.get(name);
@@ -220,6 +386,53 @@ public class JdbcDirectory extends Directory {
                         + feSettings.getSetting(JdbcFileEntrySettings.FILE_ENTRY_HANDLER_TYPE) + "]");
             }
         }
+        if (settings.isMetadataCache()) {
+            metadataCache = new FileMetadataCache(new FileMetadataCache.Loader() {
+                @Override
+                public Map<String, FileMetadataCache.Entry> loadAll() throws IOException {
+                    return loadAllMetadata();
+                }
+
+                @Override
+                public Collection<String> loadSegmentsFileNames() throws IOException {
+                    return loadNames(JdbcTable.escapeLike(IndexFileNames.SEGMENTS + "_") + "%");
+                }
+            }, settings.getMetadataCacheRefreshInterval());
+        }
+        if (settings.getSegmentPrefetchThreshold() > 0 && !table.isChunked()) {
+            segmentPrefetchCache = new SegmentPrefetchCache(new SegmentPrefetchCache.Loader() {
+                @Override
+                public Map<String, byte[]> loadSegment(final String segmentName) throws IOException {
+                    return loadSegmentFiles(segmentName);
+                }
+            }, settings.getSegmentPrefetchCacheSize());
+        }
+        if (settings.getLocalFileCache() != null && settings.getLocalFileCache().isPersistent()) {
+            try {
+                validateLocalFileCache();
+            } catch (final IOException e) {
+                // the table might not be created yet, validated on first use
+                logger.debug("Failed to validate the local file cache of [" + table + "]", e);
+            }
+        }
+    }
+
+    private void processChunkedStorageSettings(final JdbcFileEntrySettings feSettings) {
+        try {
+            final Class<?> indexInputClass = feSettings
+                    .getSettingAsClass(JdbcFileEntrySettings.INDEX_INPUT_TYPE_SETTING, ChunkedJdbcIndexInput.class);
+            if (!ChunkedJdbcIndexInput.class.isAssignableFrom(indexInputClass)) {
+                feSettings.setClassSetting(JdbcFileEntrySettings.INDEX_INPUT_TYPE_SETTING, ChunkedJdbcIndexInput.class);
+            }
+            final Class<?> indexOutputClass = feSettings
+                    .getSettingAsClass(JdbcFileEntrySettings.INDEX_OUTPUT_TYPE_SETTING, ChunkedJdbcIndexOutput.class);
+            if (!ChunkedJdbcIndexOutput.class.isAssignableFrom(indexOutputClass)) {
+                feSettings.setClassSetting(JdbcFileEntrySettings.INDEX_OUTPUT_TYPE_SETTING,
+                        ChunkedJdbcIndexOutput.class);
+            }
+        } catch (final ClassNotFoundException e) {
+            throw new IllegalArgumentException("Failed to find class", e);
+        }
     }
 
     /***********************************************************************************************
@@ -262,7 +475,19 @@ public class JdbcDirectory extends Directory {
      * @throws java.io.IOException
      */
     public boolean fileExists(final String name) throws IOException {
-        return getFileEntryHandler(name).fileExists(name);
+        awaitUpload(name);
+        if (heldFiles.containsKey(name)) {
+            return true;
+        }
+        final FileMetadataCache metadataCache = getMetadataCache(name);
+        if (metadataCache == null) {
+            return getFileEntryHandler(name).fileExists(name);
+        }
+        FileMetadataCache.Entry entry = metadataCache.get(name);
+        if (entry == null || !entry.isKnown() && !entry.isDeleted()) {
+            entry = loadMetadata(name);
+        }
+        return entry != null && !entry.isDeleted();
     }
 
     /**
@@ -282,6 +507,9 @@ public class JdbcDirectory extends Directory {
             }
         }
         jdbcTemplate.executeUpdate(table.sqlDrop());
+        invalidateCaches();
+        clearMetadataCache();
+        heldFiles.clear();
     }
 
     /**
@@ -296,6 +524,8 @@ public class JdbcDirectory extends Directory {
             logger.warn("Could not delete database: " + e.getMessage());
         }
         jdbcTemplate.executeUpdate(table.sqlCreate());
+        invalidateCaches();
+        clearMetadataCache();
         ((JdbcLock) createLock()).initializeDatabase(this);
     }
 
@@ -307,6 +537,9 @@ public class JdbcDirectory extends Directory {
      */
     public void deleteContent() throws IOException {
         jdbcTemplate.executeUpdate(table.sqlDeletaAll());
+        invalidateCaches();
+        clearMetadataCache();
+        heldFiles.clear();
     }
 
     /**
@@ -365,6 +598,25 @@ public class JdbcDirectory extends Directory {
             }
         }
         final long deleteBefore = currentTime - delta;
+        if (settings.getBlockCache() != null || settings.getLocalFileCache() != null) {
+            // mark deleted files are normally already evicted, unless they were
+            // marked by another directory instance
+            jdbcTemplate.executeSelect(table.sqlSelectNamesMarkDeleteByDelta(), new JdbcTemplate.ExecuteSelectCallback() {
+                @Override
+                public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                    ps.setBoolean(1, true);
+                    ps.setTimestamp(2, new Timestamp(deleteBefore));
+                }
+
+                @Override
+                public Object execute(final ResultSet rs) throws Exception {
+                    while (rs.next()) {
+                        invalidateCaches(rs.getString(1));
+                    }
+                    return null;
+                }
+            });
+        }
         jdbcTemplate.executeUpdate(table.sqlDeletaMarkDeleteByDelta(),
                 new JdbcTemplate.PrepateStatementAwareCallback() {
                     @Override
@@ -387,6 +639,615 @@ public class JdbcDirectory extends Directory {
                 ps.setString(1, name);
             }
         });
+        invalidateCaches(name);
+        final FileMetadataCache metadataCache = getMetadataCache(name);
+        if (metadataCache != null) {
+            metadataCache.deleted(name);
+        }
+    }
+
+    /**
+     * Returns the executor used to read ahead file entries using the given
+     * settings, creating it if required. The executor is bounded to
+     * {@link JdbcBufferedIndexInput#READ_AHEAD_THREADS_SETTING} threads (each
+     * using its own connection) and a limited queue, and is shut down when
+     * the directory is closed.
+     */
+    public ExecutorService getReadAheadExecutor(JdbcFileEntrySettings feSettings) {
+        // settings overridden for a single input share the executor
+        while (feSettings.getDefaults() != null) {
+            feSettings = feSettings.getDefaults();
+        }
+        synchronized (readAheadExecutors) {
+            ExecutorService executor = readAheadExecutors.get(feSettings);
+            if (executor == null) {
+                final int threads = feSettings.getSettingAsInt(JdbcBufferedIndexInput.READ_AHEAD_THREADS_SETTING,
+                        JdbcBufferedIndexInput.DEFAULT_READ_AHEAD_THREADS);
+                final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads, 60,
+                        TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(threads * 32),
+                        new DaemonThreadFactory("jdbc-directory-read-ahead-" + table.getName()));
+                threadPoolExecutor.allowCoreThreadTimeOut(true);
+                executor = threadPoolExecutor;
+                readAheadExecutors.put(feSettings, executor);
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * Returns the executor used to stream file entries using the given settings
+     * to the database, creating it if required. The executor is bounded to
+     * {@link StreamingJdbcIndexOutput#UPLOAD_THREADS_SETTING} threads (each
+     * using its own connection) and does not queue uploads: an upload that
+     * cannot start right away is rejected, and the output falls back to a
+     * temporary file instead. The executor is shut down when the directory is
+     * closed.
+     */
+    public ExecutorService getUploadExecutor(JdbcFileEntrySettings feSettings) {
+        while (feSettings.getDefaults() != null) {
+            feSettings = feSettings.getDefaults();
+        }
+        synchronized (uploadExecutors) {
+            ExecutorService executor = uploadExecutors.get(feSettings);
+            if (executor == null) {
+                final int threads = feSettings.getSettingAsInt(StreamingJdbcIndexOutput.UPLOAD_THREADS_SETTING,
+                        StreamingJdbcIndexOutput.DEFAULT_UPLOAD_THREADS);
+                final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads, 60,
+                        TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                        new DaemonThreadFactory("jdbc-directory-upload-" + table.getName()));
+                threadPoolExecutor.allowCoreThreadTimeOut(true);
+                executor = threadPoolExecutor;
+                uploadExecutors.put(feSettings, executor);
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * Returns the executor renewing the leases of the locks of the directory
+     * (see {@link com.github.lucene.store.jdbc.lock.LeaseLock}), creating it
+     * if required. Uses a single thread (with its own connection), and is shut
+     * down when the directory is closed.
+     */
+    public synchronized ScheduledExecutorService getLockHeartbeatExecutor() {
+        if (lockHeartbeatExecutor == null) {
+            lockHeartbeatExecutor = new ScheduledThreadPoolExecutor(1,
+                    new DaemonThreadFactory("jdbc-directory-lock-heartbeat-" + table.getName()));
+            lockHeartbeatExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+        return lockHeartbeatExecutor;
+    }
+
+    /**
+     * Returns the pool of read only connections used by index inputs pinning
+     * their LOB handle, creating it if required. The pool is bounded to
+     * {@link JdbcDirectorySettings#getPinnedConnectionPoolSize()} connections,
+     * and is closed when the directory is closed.
+     */
+    public synchronized ReadOnlyConnectionPool getPinnedConnectionPool() {
+        if (pinnedConnectionPool == null) {
+            pinnedConnectionPool = new ReadOnlyConnectionPool(dataSource, settings.getPinnedConnectionPoolSize());
+        }
+        return pinnedConnectionPool;
+    }
+
+    /**
+     * Validates the local copies kept by a persistent local file cache (see
+     * {@link LocalFileCache#isPersistent()}) against the size and last
+     * modified time of the file entries, using a single query. Stale copies
+     * are discarded, the others are reused without reading their content from
+     * the database again. Called when the directory is created, or if that
+     * failed (e.g. the table was not created yet) the first time a file is
+     * read through the local file cache. Does nothing afterwards.
+     *
+     * @throws IOException
+     */
+    public void validateLocalFileCache() throws IOException {
+        final LocalFileCache localFileCache = settings.getLocalFileCache();
+        if (localFileCacheValidated || localFileCache == null || !localFileCache.isPersistent()) {
+            return;
+        }
+        synchronized (this) {
+            if (localFileCacheValidated) {
+                return;
+            }
+            @SuppressWarnings("unchecked")
+            final Map<String, LocalFileCache.FileMetadata> files =
+                    (Map<String, LocalFileCache.FileMetadata>) jdbcTemplate.executeSelect(
+                            table.sqlSelectNamesSizeLastModified(), new JdbcTemplate.ExecuteSelectCallback() {
+                        @Override
+                        public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                            ps.setBoolean(1, false);
+                        }
+
+                        @Override
+                        public Object execute(final ResultSet rs) throws Exception {
+                            final Map<String, LocalFileCache.FileMetadata> entries =
+                                    new HashMap<String, LocalFileCache.FileMetadata>();
+                            while (rs.next()) {
+                                entries.put(rs.getString(1), new LocalFileCache.FileMetadata(rs.getLong(2),
+                                        rs.getTimestamp(3).getTime()));
+                            }
+                            return entries;
+                        }
+                    });
+            localFileCache.validate(getCacheKey(), files);
+            localFileCacheValidated = true;
+        }
+    }
+
+    /**
+     * Returns the in memory snapshot of the file entries metadata, or
+     * <code>null</code> if not enabled (see
+     * {@link JdbcDirectorySettings#isMetadataCache()}).
+     */
+    public FileMetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * Returns the metadata cache used for the given file, <code>null</code> if
+     * it is not enabled or the file is not cached (locks and files not stored
+     * in the database).
+     */
+    protected FileMetadataCache getMetadataCache(final String name) {
+        if (metadataCache == null || lockNames.contains(name)
+                || getFileEntryHandler(name) instanceof NoOpFileEntryHandler) {
+            return null;
+        }
+        return metadataCache;
+    }
+
+    private void clearMetadataCache() {
+        if (metadataCache != null) {
+            metadataCache.clear();
+        }
+    }
+
+    /**
+     * Reads the metadata of the given file from the database, and records it
+     * in the metadata cache. Returns <code>null</code> if there is no such
+     * file entry.
+     */
+    private FileMetadataCache.Entry loadMetadata(final String name) throws IOException {
+        final FileMetadataCache.Entry entry = (FileMetadataCache.Entry) jdbcTemplate.executeSelect(
+                table.sqlSelectSizeLastModifiedDeletedByName(), new JdbcTemplate.ExecuteSelectCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setFetchSize(1);
+                        ps.setString(1, name);
+                    }
+
+                    @Override
+                    public Object execute(final ResultSet rs) throws Exception {
+                        if (rs.next()) {
+                            return toMetadataEntry(rs, 1);
+                        }
+                        return null;
+                    }
+                });
+        if (entry != null) {
+            metadataCache.put(name, entry);
+        }
+        return entry;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, FileMetadataCache.Entry> loadAllMetadata() throws IOException {
+        return (Map<String, FileMetadataCache.Entry>) jdbcTemplate.executeSelect(
+                table.sqlSelectNamesSizeLastModifiedDeleted(), new JdbcTemplate.ExecuteSelectCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        // nothing to do here
+                    }
+
+                    @Override
+                    public Object execute(final ResultSet rs) throws Exception {
+                        final Map<String, FileMetadataCache.Entry> entries =
+                                new HashMap<String, FileMetadataCache.Entry>();
+                        while (rs.next()) {
+                            entries.put(rs.getString(1), toMetadataEntry(rs, 2));
+                        }
+                        return entries;
+                    }
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<String> loadNames(final String pattern) throws IOException {
+        return (Collection<String>) jdbcTemplate.executeSelect(table.sqlSelectNamesByPrefix(),
+                new JdbcTemplate.ExecuteSelectCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setString(1, pattern);
+                        ps.setBoolean(2, false);
+                    }
+
+                    @Override
+                    public Object execute(final ResultSet rs) throws Exception {
+                        final ArrayList<String> names = new ArrayList<String>();
+                        while (rs.next()) {
+                            names.add(rs.getString(1));
+                        }
+                        return names;
+                    }
+                });
+    }
+
+    private static FileMetadataCache.Entry toMetadataEntry(final ResultSet rs, final int column) throws Exception {
+        final Timestamp lastModified = rs.getTimestamp(column + 1);
+        return new FileMetadataCache.Entry(rs.getLong(column), lastModified == null ? -1 : lastModified.getTime(),
+                rs.getBoolean(column + 2));
+    }
+
+    /**
+     * Returns the content of the given file if it is held until the directory
+     * is synced (see {@link #holdUntilSync(String, byte[])}), or if it was
+     * prefetched with the other small files of its segment (see
+     * {@link JdbcDirectorySettings#getSegmentPrefetchThreshold()}), fetching
+     * them if it is the first file of the segment opened. Returns
+     * <code>null</code> if not available, in which case the file should be
+     * read from the database. The returned array is shared, and must not be
+     * modified.
+     *
+     * @throws IOException
+     */
+    public byte[] getPrefetchedData(final String name) throws IOException {
+        final byte[] held = heldFiles.get(name);
+        if (held != null) {
+            return held;
+        }
+        if (segmentPrefetchCache == null) {
+            return null;
+        }
+        return segmentPrefetchCache.get(name);
+    }
+
+    /**
+     * Returns <code>true</code> if a closed file of the given length should be
+     * held until the directory is synced (see
+     * {@link JdbcDirectorySettings#isGroupCommit()}) instead of being inserted
+     * by its output.
+     */
+    public boolean canHoldUntilSync(final long length) {
+        return settings.isGroupCommit() && !table.isChunked() && length <= settings.getGroupCommitMaxFileSize();
+    }
+
+    /**
+     * Holds the content of a closed file until the directory is synced, when
+     * all the held files being synced are inserted using a single batch. Until
+     * then, the file is served from memory.
+     */
+    public void holdUntilSync(final String name, final byte[] data) {
+        heldFiles.put(name, data);
+    }
+
+    /**
+     * Returns the number of files held until the directory is synced.
+     */
+    public int getHeldFilesCount() {
+        return heldFiles.size();
+    }
+
+    private void insertHeldFiles(final List<Map.Entry<String, byte[]>> files) throws IOException {
+        jdbcTemplate.executeBatchInTransaction(table.sqlInsert(), new JdbcTemplate.PrepateStatementAwareCallback() {
+            @Override
+            public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                for (final Map.Entry<String, byte[]> file : files) {
+                    ps.setString(1, file.getKey());
+                    ps.setBytes(2, file.getValue());
+                    ps.setLong(3, file.getValue().length);
+                    ps.setBoolean(4, false);
+                    ps.addBatch();
+                }
+            }
+        });
+    }
+
+    /**
+     * Registers the background upload of a closed file. Until it completes,
+     * the directory waits for it before accessing the file (see
+     * {@link #awaitUpload(String)}).
+     */
+    public void registerUpload(final String name, final Future<?> upload) {
+        uploads.put(name, upload);
+    }
+
+    /**
+     * Waits for the background upload of the given file, if there is one.
+     *
+     * @throws JdbcStoreException
+     *             If the upload failed (the file is then lost)
+     */
+    public void awaitUpload(final String name) throws IOException {
+        final Future<?> upload = uploads.get(name);
+        if (upload == null) {
+            return;
+        }
+        try {
+            upload.get();
+        } catch (final ExecutionException e) {
+            throw new JdbcStoreException("Failed to upload [" + name + "]", e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JdbcStoreException("Interrupted while waiting for the upload of [" + name + "]");
+        } finally {
+            if (upload.isDone()) {
+                uploads.remove(name, upload);
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given file was written within the
+     * transaction the current thread is part of (using a
+     * {@link TransactionAwareDataSourceProxy}), and the transaction is still
+     * in progress. Other connections can not read the file (and might block
+     * on the locks of the transaction) until it is committed.
+     */
+    public boolean hasUncommittedWrites(final String name) {
+        final Connection writer = uncommittedWrites.get(name);
+        return writer != null && writer == getTransactionConnection();
+    }
+
+    /**
+     * Returns <code>true</code> if the current thread is part of a transaction
+     * (the data source is a {@link TransactionAwareDataSourceProxy} with a
+     * connection bound to the thread that is not in auto commit mode). The
+     * locks held by the transaction may block the statements executed with
+     * other connections until it is committed.
+     */
+    public boolean isInTransaction() {
+        return getTransactionConnection() != null;
+    }
+
+    // the connection of the transaction the current thread is part of, if any
+    private Connection getTransactionConnection() {
+        if (!(dataSource instanceof TransactionAwareDataSourceProxy)) {
+            return null;
+        }
+        final Connection con = ((TransactionAwareDataSourceProxy) dataSource).getBoundConnection();
+        try {
+            return con != null && !con.getAutoCommit() ? con : null;
+        } catch (final SQLException e) {
+            return con;
+        }
+    }
+
+    /**
+     * Returns the number of files being uploaded in the background.
+     */
+    public int getPendingUploadsCount() {
+        return uploads.size();
+    }
+
+    /**
+     * Returns <code>true</code> if the given directory stores its files in the
+     * same database as this directory, i.e. both use the same data source, or
+     * their connections report the same url and user name.
+     */
+    public boolean isSameDatabase(final JdbcDirectory other) throws IOException {
+        if (other.dataSource == dataSource) {
+            return true;
+        }
+        return getDatabaseIdentity().equals(other.getDatabaseIdentity());
+    }
+
+    private String getDatabaseIdentity() throws IOException {
+        if (databaseIdentity == null) {
+            final Connection con = DataSourceUtils.getConnection(dataSource);
+            try {
+                final DatabaseMetaData metaData = con.getMetaData();
+                databaseIdentity = metaData.getURL() + "|" + metaData.getUserName();
+            } catch (final Exception e) {
+                throw new JdbcStoreException("Failed to read the database metadata", e);
+            } finally {
+                DataSourceUtils.releaseConnection(con);
+            }
+        }
+        return databaseIdentity;
+    }
+
+    /**
+     * Returns the key of the files of this directory in the block cache and
+     * the local file cache: the qualified table name, followed by the url,
+     * user name, catalog and schema of the database. Directories using tables
+     * with the same name in different databases or schemas never share cached
+     * data.
+     */
+    public String getCacheKey() throws IOException {
+        if (cacheKey == null) {
+            final Connection con = DataSourceUtils.getConnection(dataSource);
+            try {
+                final DatabaseMetaData metaData = con.getMetaData();
+                cacheKey = table.getQualifiedName() + "@" + metaData.getURL() + "|" + metaData.getUserName() + "|"
+                        + con.getCatalog() + "|" + getSchema(con);
+            } catch (final Exception e) {
+                throw new JdbcStoreException("Failed to read the database metadata", e);
+            } finally {
+                DataSourceUtils.releaseConnection(con);
+            }
+        }
+        return cacheKey;
+    }
+
+    private static String getSchema(final Connection con) throws SQLException {
+        try {
+            return con.getSchema();
+        } catch (final AbstractMethodError e) {
+            // pre JDBC 4.1 driver
+            return null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if files can be copied from the given
+     * directory using <code>insert ... select</code>, i.e. both directories
+     * are in the same database and have the same storage layout.
+     */
+    private boolean canCopyInDatabase(final JdbcDirectory from) throws IOException {
+        if (from.table.isChunked() != table.isChunked()) {
+            return false;
+        }
+        if (table.isChunked() && from.settings.getChunkSize() != settings.getChunkSize()) {
+            return false;
+        }
+        return isSameDatabase(from);
+    }
+
+    /**
+     * Copies the given files from the given directory. If both directories are
+     * in the same database (see {@link #isSameDatabase(JdbcDirectory)}) and
+     * have the same storage layout, the content is copied by the database
+     * using a single batch of <code>insert ... select</code> statements, and
+     * never goes through the JVM. Otherwise (and for files the source
+     * directory still holds in memory), each file is copied using
+     * {@link #copyFrom(Directory, String, String, IOContext)}.
+     * <p/>
+     * Note, if a source file does not exist, the other files are still copied.
+     *
+     * @param from
+     *            The directory to copy the files from
+     * @param names
+     *            Maps the source file names to the target file names
+     * @throws NoSuchFileException
+     *             If a source file does not exist
+     */
+    public void copyFrom(final JdbcDirectory from, final Map<String, String> names) throws IOException {
+        if (names.isEmpty()) {
+            return;
+        }
+        if (!canCopyInDatabase(from)) {
+            for (final Map.Entry<String, String> entry : names.entrySet()) {
+                super.copyFrom(from, entry.getKey(), entry.getValue(), IOContext.DEFAULT);
+            }
+            return;
+        }
+        final Map<String, String> copies = new LinkedHashMap<String, String>(names.size());
+        for (final Map.Entry<String, String> entry : names.entrySet()) {
+            final String src = entry.getKey();
+            from.awaitUpload(src);
+            if (from.heldFiles.containsKey(src)) {
+                // not in the database yet
+                super.copyFrom(from, src, entry.getValue(), IOContext.DEFAULT);
+            } else {
+                copies.put(src, entry.getValue());
+            }
+        }
+        if (copies.isEmpty()) {
+            return;
+        }
+        for (final String dest : copies.values()) {
+            awaitUpload(dest);
+            heldFiles.remove(dest);
+            invalidateCaches(dest);
+        }
+        final int[] counts = jdbcTemplate.executeBatchInTransaction(table.sqlCopyByName(from.table),
+                new JdbcTemplate.PrepateStatementAwareCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        for (final Map.Entry<String, String> copy : copies.entrySet()) {
+                            ps.setString(1, copy.getValue());
+                            ps.setString(2, copy.getKey());
+                            ps.setBoolean(3, false);
+                            ps.addBatch();
+                        }
+                    }
+                });
+        String missing = null;
+        int i = 0;
+        for (final Map.Entry<String, String> copy : copies.entrySet()) {
+            if (i < counts.length && counts[i] == 0) {
+                missing = copy.getKey();
+            } else {
+                final FileMetadataCache metadataCache = getMetadataCache(copy.getValue());
+                if (metadataCache != null) {
+                    metadataCache.created(copy.getValue());
+                }
+            }
+            i++;
+        }
+        if (missing != null) {
+            throw new NoSuchFileException("File [" + missing + "] not found in [" + from.table + "]");
+        }
+    }
+
+    /**
+     * Returns the cache of prefetched segment files, or <code>null</code> if
+     * not enabled.
+     */
+    public SegmentPrefetchCache getSegmentPrefetchCache() {
+        return segmentPrefetchCache;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, byte[]> loadSegmentFiles(final String segmentName) throws IOException {
+        final String prefix = JdbcTable.escapeLike(segmentName);
+        return (Map<String, byte[]>) jdbcTemplate.executeSelect(table.sqlSelectNameSizeValueByPrefix(),
+                new JdbcTemplate.ExecuteSelectCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setString(1, prefix + ".%");
+                        ps.setString(2, prefix + JdbcTable.escapeLike("_") + "%");
+                        ps.setLong(3, settings.getSegmentPrefetchThreshold());
+                        ps.setBoolean(4, false);
+                    }
+
+                    @Override
+                    public Object execute(final ResultSet rs) throws Exception {
+                        final Map<String, byte[]> files = new HashMap<String, byte[]>();
+                        while (rs.next()) {
+                            final String name = rs.getString(1);
+                            final int size = rs.getInt(2);
+                            final Blob blob = rs.getBlob(3);
+                            final byte[] data = blob == null || size == 0 ? new byte[0] : blob.getBytes(1, size);
+                            if (data.length == size) {
+                                files.put(name, data);
+                            }
+                        }
+                        return files;
+                    }
+                });
+    }
+
+    /**
+     * Removes the given file from the block cache, the local file cache and
+     * the prefetched segment files (if configured).
+     *
+     * @param name
+     */
+    protected void invalidateCaches(final String name) throws IOException {
+        uncommittedWrites.remove(name);
+        final BlockCache blockCache = settings.getBlockCache();
+        if (blockCache != null) {
+            blockCache.invalidate(getCacheKey(), name);
+        }
+        final LocalFileCache localFileCache = settings.getLocalFileCache();
+        if (localFileCache != null) {
+            localFileCache.invalidate(getCacheKey(), name);
+        }
+        if (segmentPrefetchCache != null) {
+            segmentPrefetchCache.invalidate(name);
+        }
+    }
+
+    /**
+     * Removes all the files of the directory table from the block cache, the
+     * local file cache and the prefetched segment files (if configured).
+     */
+    protected void invalidateCaches() throws IOException {
+        uncommittedWrites.clear();
+        final BlockCache blockCache = settings.getBlockCache();
+        if (blockCache != null) {
+            blockCache.invalidateAll(getCacheKey());
+        }
+        final LocalFileCache localFileCache = settings.getLocalFileCache();
+        if (localFileCache != null) {
+            localFileCache.invalidateAll(getCacheKey());
+        }
+        if (segmentPrefetchCache != null) {
+            segmentPrefetchCache.clear();
+        }
     }
 
     /**
@@ -423,6 +1284,19 @@ public class JdbcDirectory extends Directory {
 
     @Override
     public String[] listAll() throws IOException {
+        final String[] names = listAllEntries();
+        if (heldFiles.isEmpty()) {
+            return names;
+        }
+        final Set<String> allNames = new LinkedHashSet<String>(Arrays.asList(names));
+        allNames.addAll(heldFiles.keySet());
+        return allNames.toArray(new String[allNames.size()]);
+    }
+
+    private String[] listAllEntries() throws IOException {
+        if (metadataCache != null) {
+            return metadataCache.listAll();
+        }
         return (String[]) jdbcTemplate.executeSelect(table.sqlSelectNames(), new JdbcTemplate.ExecuteSelectCallback() {
             @Override
             public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
@@ -442,18 +1316,46 @@ public class JdbcDirectory extends Directory {
 
     @Override
     public void deleteFile(final String name) throws IOException {
+        awaitUpload(name);
+        if (heldFiles.remove(name) != null) {
+            // never inserted
+            invalidateCaches(name);
+            final FileMetadataCache metadataCache = getMetadataCache(name);
+            if (metadataCache != null) {
+                metadataCache.deleted(name);
+            }
+            return;
+        }
         if (LuceneFileNames.isStaticFile(name)) {
             // TODO is necessary??
             logger.warn("JdbcDirectory.deleteFile({}), is static file", name);
             forceDeleteFile(name);
         } else {
             getFileEntryHandler(name).deleteFile(name);
+            invalidateCaches(name);
+            final FileMetadataCache metadataCache = getMetadataCache(name);
+            if (metadataCache != null) {
+                metadataCache.deleted(name);
+            }
         }
     }
 
     @Override
     public long fileLength(final String name) throws IOException {
-        return getFileEntryHandler(name).fileLength(name);
+        awaitUpload(name);
+        final byte[] held = heldFiles.get(name);
+        if (held != null) {
+            return held.length;
+        }
+        final FileMetadataCache metadataCache = getMetadataCache(name);
+        if (metadataCache == null) {
+            return getFileEntryHandler(name).fileLength(name);
+        }
+        FileMetadataCache.Entry entry = metadataCache.get(name);
+        if (entry == null || !entry.isKnown()) {
+            entry = loadMetadata(name);
+        }
+        return entry == null ? 0 : entry.getSize();
     }
 
     @Override
@@ -463,40 +1365,249 @@ public class JdbcDirectory extends Directory {
             logger.warn("JdbcDirectory.createOutput({}), is static file", name);
             forceDeleteFile(name);
         }
-        return getFileEntryHandler(name).createOutput(name);
+        // drop anything cached under a reused name
+        awaitUpload(name);
+        heldFiles.remove(name);
+        invalidateCaches(name);
+        final Connection transaction = getTransactionConnection();
+        if (transaction != null) {
+            uncommittedWrites.put(name, transaction);
+        } else {
+            uncommittedWrites.remove(name);
+        }
+        final FileMetadataCache metadataCache = getMetadataCache(name);
+        if (metadataCache != null) {
+            metadataCache.created(name);
+        }
+        final FileEntryHandler fileEntryHandler = getFileEntryHandler(name);
+        if (fileEntryHandler instanceof AbstractFileEntryHandler) {
+            return ((AbstractFileEntryHandler) fileEntryHandler).createOutput(name, context);
+        }
+        return fileEntryHandler.createOutput(name);
     }
 
     @Override
     public IndexInput openInput(final String name, final IOContext context) throws IOException {
-        return getFileEntryHandler(name).openInput(name);
+        awaitUpload(name);
+        if (heldFiles.containsKey(name)) {
+            final FetchOnOpenJdbcIndexInput indexInput = new FetchOnOpenJdbcIndexInput();
+            indexInput.configure(name, this, settings.getFileEntrySettings(name));
+            return indexInput;
+        }
+        final FileEntryHandler fileEntryHandler = getFileEntryHandler(name);
+        if (fileEntryHandler instanceof AbstractFileEntryHandler) {
+            return ((AbstractFileEntryHandler) fileEntryHandler).openInput(name, context);
+        }
+        return fileEntryHandler.openInput(name);
     }
 
     @Override
     public void sync(final Collection<String> names) throws IOException {
         logger.warn("JdbcDirectory.sync()");
         for (final String name : names) {
+            awaitUpload(name);
+        }
+        final List<Map.Entry<String, byte[]>> held = new ArrayList<Map.Entry<String, byte[]>>();
+        final List<String> others = new ArrayList<String>(names.size());
+        for (final String name : names) {
+            final byte[] data = heldFiles.get(name);
+            if (data != null) {
+                held.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(name, data));
+            } else {
+                others.add(name);
+            }
+        }
+        if (!held.isEmpty()) {
+            insertHeldFiles(held);
+            for (final Map.Entry<String, byte[]> file : held) {
+                heldFiles.remove(file.getKey(), file.getValue());
+            }
+        }
+        for (final String name : others) {
             if (!fileExists(name)) {
                 throw new JdbcStoreException("Failed to sync, file " + name + " not found");
             }
         }
     }
 
+    @Override
+    public void copyFrom(final Directory from, final String src, final String dest, final IOContext context)
+            throws IOException {
+        if (from instanceof JdbcDirectory && canCopyInDatabase((JdbcDirectory) from)) {
+            copyFrom((JdbcDirectory) from, Collections.singletonMap(src, dest));
+        } else {
+            super.copyFrom(from, src, dest, context);
+        }
+    }
+
     @Override
     public void renameFile(final String from, final String to) throws IOException {
-        getFileEntryHandler(from).renameFile(from, to);
+        renameFiles(Collections.singletonMap(from, to));
     }
 
+    /**
+     * Renames several files, each from the name of the key to the name of the
+     * value of the given map. The files of each file entry handler are renamed
+     * together, as part of the current transaction (see
+     * {@link AbstractFileEntryHandler#renameFiles(Map)}).
+     *
+     * @param names
+     *            Maps the names to rename from to the names to rename to
+     * @throws IllegalArgumentException
+     *             If a name is renamed to a name that is renamed as well
+     *             (chained renames are not ordered)
+     */
+    public void renameFiles(final Map<String, String> names) throws IOException {
+        for (final Map.Entry<String, String> entry : names.entrySet()) {
+            if (names.containsKey(entry.getValue())) {
+                throw new IllegalArgumentException("Can not rename [" + entry.getKey() + "] to ["
+                        + entry.getValue() + "], which is renamed as well");
+            }
+        }
+        final Map<FileEntryHandler, Map<String, String>> renames =
+                new IdentityHashMap<FileEntryHandler, Map<String, String>>();
+        for (final Map.Entry<String, String> entry : names.entrySet()) {
+            final String from = entry.getKey();
+            final String to = entry.getValue();
+            awaitUpload(from);
+            awaitUpload(to);
+            heldFiles.remove(to);
+            final byte[] held = heldFiles.remove(from);
+            if (held != null) {
+                heldFiles.put(to, held);
+                continue;
+            }
+            final FileEntryHandler fileEntryHandler = getFileEntryHandler(from);
+            Map<String, String> handlerRenames = renames.get(fileEntryHandler);
+            if (handlerRenames == null) {
+                handlerRenames = new LinkedHashMap<String, String>();
+                renames.put(fileEntryHandler, handlerRenames);
+            }
+            handlerRenames.put(from, to);
+        }
+        for (final Map.Entry<FileEntryHandler, Map<String, String>> entry : renames.entrySet()) {
+            if (entry.getKey() instanceof AbstractFileEntryHandler) {
+                ((AbstractFileEntryHandler) entry.getKey()).renameFiles(entry.getValue());
+                continue;
+            }
+            for (final Map.Entry<String, String> rename : entry.getValue().entrySet()) {
+                entry.getKey().renameFile(rename.getKey(), rename.getValue());
+            }
+        }
+        for (final Map.Entry<String, String> entry : names.entrySet()) {
+            final Connection writer = uncommittedWrites.get(entry.getKey());
+            invalidateCaches(entry.getKey());
+            invalidateCaches(entry.getValue());
+            if (writer != null) {
+                uncommittedWrites.put(entry.getValue(), writer);
+            }
+            final FileMetadataCache metadataCache = getMetadataCache(entry.getKey());
+            if (metadataCache != null) {
+                metadataCache.renamed(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Obtains the given lock. If it is held by someone else, waits up to
+     * {@link JdbcDirectorySettings#getLockWaitTimeout()} for it to be
+     * released: the database waits for the lock if the lock supports it (see
+     * {@link WaitableJdbcLock}), otherwise the lock is retried with an
+     * exponential backoff and jitter.
+     * <p/>
+     * Locks that run on the caller's connection ({@link SelectForUpdateLock}
+     * and {@link PhantomReadLock}) are not retried within a transaction, since
+     * the failed statement may have aborted it (for example, on PostgreSQL).
+     */
     @Override
     public Lock obtainLock(final String name) throws IOException {
-        final Lock lock = createLock();
-        ((JdbcLock) lock).configure(this, name);
-        ((JdbcLock) lock).obtain();
-        return lock;
+        lockNames.add(name);
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(settings.getLockWaitTimeout());
+        long delay = Math.max(1, settings.getLockRetryInitialDelay());
+        while (true) {
+            final Lock lock = createLock();
+            ((JdbcLock) lock).configure(this, name);
+            try {
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining > 0 && lock instanceof WaitableJdbcLock && ((WaitableJdbcLock) lock).supportsWait()) {
+                    ((WaitableJdbcLock) lock).obtain(remaining);
+                } else {
+                    ((JdbcLock) lock).obtain();
+                }
+                lockObtainCount.incrementAndGet();
+                lockWaitTime.addAndGet(System.nanoTime() - start);
+                return lock;
+            } catch (final LockObtainFailedException e) {
+                lockContentionCount.incrementAndGet();
+                final long remaining = deadline - System.nanoTime();
+                if (isInTransaction() && (lock instanceof SelectForUpdateLock || lock instanceof PhantomReadLock)) {
+                    lockWaitTime.addAndGet(System.nanoTime() - start);
+                    throw e;
+                }
+                if (remaining <= 0) {
+                    lockTimeoutCount.incrementAndGet();
+                    lockWaitTime.addAndGet(System.nanoTime() - start);
+                    throw e;
+                }
+                // sleep between half the delay and the delay
+                final long sleep = Math.min(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1),
+                        TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+                try {
+                    Thread.sleep(sleep);
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new JdbcStoreException("Interrupted while waiting for lock [" + name + "]");
+                }
+                delay = Math.min(delay * 2, Math.max(1, settings.getLockRetryMaxDelay()));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of locks obtained by the directory.
+     */
+    public long getLockObtainCount() {
+        return lockObtainCount.get();
+    }
+
+    /**
+     * Returns the number of attempts to obtain a lock that failed because the
+     * lock was held by someone else.
+     */
+    public long getLockContentionCount() {
+        return lockContentionCount.get();
+    }
+
+    /**
+     * Returns the number of locks the directory failed to obtain in time.
+     */
+    public long getLockTimeoutCount() {
+        return lockTimeoutCount.get();
+    }
+
+    /**
+     * Returns the total time (in milliseconds) spent obtaining locks
+     * (including waiting for them).
+     */
+    public long getLockWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(lockWaitTime.get());
     }
 
     @Override
     public void close() throws IOException {
+        if (!heldFiles.isEmpty()) {
+            logger.debug("Discarding [{}] files never synced", heldFiles.size());
+            heldFiles.clear();
+        }
         IOException last = null;
+        for (final String name : uploads.keySet()) {
+            try {
+                awaitUpload(name);
+            } catch (final IOException e) {
+                last = e;
+            }
+        }
         for (final FileEntryHandler fileEntryHandler : fileEntryHandlers.values()) {
             try {
                 fileEntryHandler.close();
@@ -504,6 +1615,34 @@ public class JdbcDirectory extends Directory {
                 last = e;
             }
         }
+        synchronized (readAheadExecutors) {
+            for (final ExecutorService executor : readAheadExecutors.values()) {
+                // let the running fetches complete (and release their
+                // connections)
+                executor.shutdown();
+            }
+            readAheadExecutors.clear();
+        }
+        synchronized (uploadExecutors) {
+            for (final ExecutorService executor : uploadExecutors.values()) {
+                executor.shutdown();
+            }
+            uploadExecutors.clear();
+        }
+        synchronized (this) {
+            if (lockHeartbeatExecutor != null) {
+                lockHeartbeatExecutor.shutdown();
+                lockHeartbeatExecutor = null;
+            }
+            if (pinnedConnectionPool != null) {
+                pinnedConnectionPool.close();
+                pinnedConnectionPool = null;
+            }
+            if (connectionPool != null) {
+                connectionPool.close();
+                connectionPool = null;
+            }
+        }
         if (last != null) {
             throw last;
         }
@@ -533,4 +1672,21 @@ public class JdbcDirectory extends Directory {
         return dataSource;
     }
 
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        DaemonThreadFactory(final String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, namePrefix + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
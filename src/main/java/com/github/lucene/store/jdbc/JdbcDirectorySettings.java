@@ -21,9 +21,14 @@ import java.util.Map;
 
 import org.apache.lucene.store.Lock;
 
+import com.github.lucene.store.jdbc.cache.BlockCache;
+import com.github.lucene.store.jdbc.cache.LocalFileCache;
+import com.github.lucene.store.jdbc.cache.OffHeapMemoryTracker;
+import com.github.lucene.store.jdbc.datasource.PoolingDataSource;
 import com.github.lucene.store.jdbc.handler.ActualDeleteFileEntryHandler;
 import com.github.lucene.store.jdbc.handler.NoOpFileEntryHandler;
 import com.github.lucene.store.jdbc.index.FetchOnOpenJdbcIndexInput;
+import com.github.lucene.store.jdbc.index.IndexInputSelector;
 import com.github.lucene.store.jdbc.index.RAMJdbcIndexOutput;
 import com.github.lucene.store.jdbc.lock.PhantomReadLock;
 
@@ -62,6 +67,64 @@ public class JdbcDirectorySettings {
      */
     public static final long HOUR = 60 * 60 * 1000;
 
+    /**
+     * The default chunk size (in bytes) when using chunked storage. Currently
+     * 16K.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * The default maximum number of connections pinned by index inputs (see
+     * {@link #getPinnedConnectionPoolSize()}). Currently 4.
+     */
+    public static final int DEFAULT_PINNED_CONNECTION_POOL_SIZE = 4;
+
+    /**
+     * The default refresh interval (in milliseconds) of the file metadata
+     * cache (see {@link #isMetadataCache()}). Currently 10 seconds.
+     */
+    public static final long DEFAULT_METADATA_CACHE_REFRESH_INTERVAL = 10 * 1000;
+
+    /**
+     * The default maximum size (in bytes) of the prefetched segment files
+     * kept by the directory (see {@link #getSegmentPrefetchThreshold()}).
+     * Currently 4M.
+     */
+    public static final long DEFAULT_SEGMENT_PREFETCH_CACHE_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The default maximum size (in bytes) of a file held until the directory
+     * is synced (see {@link #isGroupCommit()}). Currently 64K.
+     */
+    public static final int DEFAULT_GROUP_COMMIT_MAX_FILE_SIZE = 64 * 1024;
+
+    /**
+     * The default duration (in milliseconds) of the lease of a
+     * {@link com.github.lucene.store.jdbc.lock.LeaseLock}. Currently 30
+     * seconds.
+     */
+    public static final long DEFAULT_LOCK_LEASE_DURATION = 30 * 1000;
+
+    /**
+     * The default interval (in milliseconds) between the renewals of the
+     * lease of a {@link com.github.lucene.store.jdbc.lock.LeaseLock}.
+     * Currently 10 seconds.
+     */
+    public static final long DEFAULT_LOCK_HEARTBEAT_INTERVAL = 10 * 1000;
+
+    /**
+     * The default delay (in milliseconds) before retrying to obtain a lock the
+     * first time (see {@link #getLockWaitTimeout()}). Currently 10
+     * milliseconds.
+     */
+    public static final long DEFAULT_LOCK_RETRY_INITIAL_DELAY = 10;
+
+    /**
+     * The default maximum delay (in milliseconds) between two attempts to
+     * obtain a lock (see {@link #getLockWaitTimeout()}). Currently 1 second.
+     */
+    public static final long DEFAULT_LOCK_RETRY_MAX_DELAY = 1000;
+
     private int nameColumnLength = 50;
 
     private int valueColumnLengthInK = 500 * 1000;
@@ -76,6 +139,12 @@ public class JdbcDirectorySettings {
 
     private String deletedColumnName = "deleted_";
 
+    private String chunkColumnName = "chunk_";
+
+    private boolean chunkedStorage = false;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
     private final HashMap<String, JdbcFileEntrySettings> fileEntrySettings = new HashMap<String, JdbcFileEntrySettings>();
 
     private long deleteMarkDeletedDelta = HOUR;
@@ -90,6 +159,42 @@ public class JdbcDirectorySettings {
 
     private String tableType = "";
 
+    private BlockCache blockCache;
+
+    private LocalFileCache localFileCache;
+
+    private OffHeapMemoryTracker offHeapMemoryTracker = OffHeapMemoryTracker.getSharedInstance();
+
+    private int pinnedConnectionPoolSize = DEFAULT_PINNED_CONNECTION_POOL_SIZE;
+
+    private boolean metadataCache = false;
+
+    private long metadataCacheRefreshInterval = DEFAULT_METADATA_CACHE_REFRESH_INTERVAL;
+
+    private int segmentPrefetchThreshold = 0;
+
+    private long segmentPrefetchCacheSize = DEFAULT_SEGMENT_PREFETCH_CACHE_SIZE;
+
+    private IndexInputSelector indexInputSelector;
+
+    private boolean groupCommit = false;
+
+    private int groupCommitMaxFileSize = DEFAULT_GROUP_COMMIT_MAX_FILE_SIZE;
+
+    private long lockLeaseDuration = DEFAULT_LOCK_LEASE_DURATION;
+
+    private long lockHeartbeatInterval = DEFAULT_LOCK_HEARTBEAT_INTERVAL;
+
+    private long lockWaitTimeout = 0;
+
+    private long lockRetryInitialDelay = DEFAULT_LOCK_RETRY_INITIAL_DELAY;
+
+    private long lockRetryMaxDelay = DEFAULT_LOCK_RETRY_MAX_DELAY;
+
+    private int connectionPoolMinSize = PoolingDataSource.DEFAULT_MIN_SIZE;
+
+    private int connectionPoolMaxSize = PoolingDataSource.DEFAULT_MAX_SIZE;
+
     /**
      * Creates a new instance of the Jdbc directory settings with it's default
      * values initialized.
@@ -227,6 +332,65 @@ public class JdbcDirectorySettings {
         this.deletedColumnName = deletedColumnName;
     }
 
+    /**
+     * Returns the chunk number column name (defaults to chunk_). Only used with
+     * chunked storage.
+     */
+    public String getChunkColumnName() {
+        return chunkColumnName;
+    }
+
+    /**
+     * Sets the chunk number column name. Only used with chunked storage.
+     */
+    public void setChunkColumnName(final String chunkColumnName) {
+        this.chunkColumnName = chunkColumnName;
+    }
+
+    /**
+     * Returns <code>true</code> if file entries are stored as a set of fixed
+     * size chunk rows instead of a single blob. Defaults to <code>false</code>.
+     * <p/>
+     * With chunked storage, the table has an additional chunk number column
+     * (see {@link #getChunkColumnName()}) that is part of the primary key. The
+     * row with chunk number <code>0</code> holds the file entry (size, last
+     * modified and deleted flag), while rows <code>1..n</code> hold the file
+     * data in a varbinary value column of {@link #getChunkSize()} bytes. The
+     * file entries use the
+     * {@link com.github.lucene.store.jdbc.index.ChunkedJdbcIndexInput} and
+     * {@link com.github.lucene.store.jdbc.index.ChunkedJdbcIndexOutput}
+     * regardless of the configured index input and output types.
+     * <p/>
+     * Must match the layout of the existing table.
+     */
+    public boolean isChunkedStorage() {
+        return chunkedStorage;
+    }
+
+    /**
+     * Sets if file entries are stored as a set of fixed size chunk rows instead
+     * of a single blob. See {@link #isChunkedStorage()}.
+     */
+    public void setChunkedStorage(final boolean chunkedStorage) {
+        this.chunkedStorage = chunkedStorage;
+    }
+
+    /**
+     * Returns the size (in bytes) of a chunk when using chunked storage.
+     * Defaults to {@link #DEFAULT_CHUNK_SIZE}. Must not be changed for an
+     * existing table.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the size (in bytes) of a chunk when using chunked storage.
+     */
+    public void setChunkSize(final int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
     /**
      * Registers a {@link JdbcFileEntrySettings} against the given name. The
      * name can be the full name of the file, or it's 3 charecters suffix.
@@ -349,4 +513,347 @@ public class JdbcDirectorySettings {
     public void setTableType(final String tableType) {
         this.tableType = tableType;
     }
+
+    /**
+     * Returns the block cache used by the buffered index inputs, or
+     * <code>null</code> if block caching is disabled (the default). Set it to
+     * the process wide {@link BlockCache#getSharedInstance()} in order to share
+     * a single cache between all the directories.
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * Sets the block cache used by the buffered index inputs. Note, that the
+     * cached blocks of a file are only invalidated by the directories sharing
+     * the cache, changes made by other processes are not seen until the
+     * blocks are evicted. Set to <code>null</code> in order to disable block
+     * caching.
+     */
+    public void setBlockCache(final BlockCache blockCache) {
+        this.blockCache = blockCache;
+    }
+
+    /**
+     * Returns the local disk mirror used by the
+     * {@link com.github.lucene.store.jdbc.index.FetchToLocalMMapIndexInput}.
+     * Defaults to <code>null</code>.
+     */
+    public LocalFileCache getLocalFileCache() {
+        return localFileCache;
+    }
+
+    /**
+     * Sets the local disk mirror used by the
+     * {@link com.github.lucene.store.jdbc.index.FetchToLocalMMapIndexInput}.
+     */
+    public void setLocalFileCache(final LocalFileCache localFileCache) {
+        this.localFileCache = localFileCache;
+    }
+
+    /**
+     * Returns the tracker accounting for the off heap memory used by the
+     * {@link com.github.lucene.store.jdbc.index.FetchOnOpenOffHeapJdbcIndexInput}
+     * . Defaults to the process wide (unbounded)
+     * {@link OffHeapMemoryTracker#getSharedInstance()}.
+     */
+    public OffHeapMemoryTracker getOffHeapMemoryTracker() {
+        return offHeapMemoryTracker;
+    }
+
+    /**
+     * Sets the tracker accounting for the off heap memory used by the
+     * {@link com.github.lucene.store.jdbc.index.FetchOnOpenOffHeapJdbcIndexInput}
+     * . Use a bounded tracker in order to cap it.
+     */
+    public void setOffHeapMemoryTracker(final OffHeapMemoryTracker offHeapMemoryTracker) {
+        this.offHeapMemoryTracker = offHeapMemoryTracker;
+    }
+
+    /**
+     * Returns the maximum number of read only connections the directory keeps
+     * for index inputs pinning their LOB handle (see
+     * {@link com.github.lucene.store.jdbc.index.FetchOnBufferReadJdbcIndexInput#PIN_LOB_SETTING}
+     * ). Defaults to {@link #DEFAULT_PINNED_CONNECTION_POOL_SIZE}.
+     */
+    public int getPinnedConnectionPoolSize() {
+        return pinnedConnectionPoolSize;
+    }
+
+    /**
+     * Sets the maximum number of read only connections the directory keeps
+     * for index inputs pinning their LOB handle. Inputs opened once all of
+     * them are in use read without pinning.
+     */
+    public void setPinnedConnectionPoolSize(final int pinnedConnectionPoolSize) {
+        this.pinnedConnectionPoolSize = pinnedConnectionPoolSize;
+    }
+
+    /**
+     * Returns <code>true</code> if the directory serves
+     * <code>fileExists</code>, <code>fileLength</code> and
+     * <code>listAll</code> from an in memory snapshot of the file entries
+     * metadata (see {@link com.github.lucene.store.jdbc.cache.FileMetadataCache}
+     * ). Defaults to <code>false</code>.
+     */
+    public boolean isMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * Sets if the directory serves <code>fileExists</code>,
+     * <code>fileLength</code> and <code>listAll</code> from an in memory
+     * snapshot of the file entries metadata. Commits made by other processes
+     * are seen right away (the snapshot is refreshed when its
+     * <code>segments_N</code> files are outdated), other changes once the
+     * snapshot is refreshed (see {@link #setMetadataCacheRefreshInterval(long)}
+     * ).
+     */
+    public void setMetadataCache(final boolean metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * Returns the time (in milliseconds) after which the file metadata
+     * snapshot is reloaded. Defaults to
+     * {@link #DEFAULT_METADATA_CACHE_REFRESH_INTERVAL}.
+     */
+    public long getMetadataCacheRefreshInterval() {
+        return metadataCacheRefreshInterval;
+    }
+
+    /**
+     * Sets the time (in milliseconds) after which the file metadata snapshot
+     * is reloaded. <code>0</code> only reloads it when the
+     * <code>segments_N</code> files change.
+     */
+    public void setMetadataCacheRefreshInterval(final long metadataCacheRefreshInterval) {
+        this.metadataCacheRefreshInterval = metadataCacheRefreshInterval;
+    }
+
+    /**
+     * Returns the maximum size (in bytes) of the segment files prefetched
+     * together. When greater than <code>0</code>, the first file of a segment
+     * opened by a
+     * {@link com.github.lucene.store.jdbc.index.FetchOnOpenJdbcIndexInput}
+     * fetches all the files of the segment up to this size using a single
+     * query, and the following ones are served from memory (see
+     * {@link com.github.lucene.store.jdbc.cache.SegmentPrefetchCache}).
+     * Defaults to <code>0</code> (no prefetch). Not supported with chunked
+     * storage.
+     */
+    public int getSegmentPrefetchThreshold() {
+        return segmentPrefetchThreshold;
+    }
+
+    /**
+     * Sets the maximum size (in bytes) of the segment files prefetched
+     * together, <code>0</code> to disable the prefetch.
+     */
+    public void setSegmentPrefetchThreshold(final int segmentPrefetchThreshold) {
+        this.segmentPrefetchThreshold = segmentPrefetchThreshold;
+    }
+
+    /**
+     * Returns the maximum size (in bytes) of the prefetched segment files kept
+     * by the directory. Defaults to {@link #DEFAULT_SEGMENT_PREFETCH_CACHE_SIZE}
+     * .
+     */
+    public long getSegmentPrefetchCacheSize() {
+        return segmentPrefetchCacheSize;
+    }
+
+    /**
+     * Sets the maximum size (in bytes) of the prefetched segment files kept by
+     * the directory.
+     */
+    public void setSegmentPrefetchCacheSize(final long segmentPrefetchCacheSize) {
+        this.segmentPrefetchCacheSize = segmentPrefetchCacheSize;
+    }
+
+    /**
+     * Returns the selector picking the <code>IndexInput</code> of a file based
+     * on its size and the <code>IOContext</code> it is opened with. Defaults to
+     * <code>null</code>, using the input configured for the file entry (see
+     * {@link JdbcFileEntrySettings#INDEX_INPUT_TYPE_SETTING}).
+     */
+    public IndexInputSelector getIndexInputSelector() {
+        return indexInputSelector;
+    }
+
+    /**
+     * Sets the selector picking the <code>IndexInput</code> of a file based on
+     * its size and the <code>IOContext</code> it is opened with (see
+     * {@link com.github.lucene.store.jdbc.index.SizeAdaptiveIndexInputSelector}
+     * ). The size is read using the directory <code>fileLength</code>, so
+     * enabling the metadata cache (see {@link #setMetadataCache(boolean)})
+     * avoids a query per opened file.
+     */
+    public void setIndexInputSelector(final IndexInputSelector indexInputSelector) {
+        this.indexInputSelector = indexInputSelector;
+    }
+
+    /**
+     * Returns <code>true</code> if small files are held in memory when their
+     * output is closed, and inserted together, using a single batch, when the
+     * directory is synced. Defaults to <code>false</code>.
+     */
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * Sets if small files (see {@link #setGroupCommitMaxFileSize(int)}) are
+     * held in memory when their output is closed, and inserted together,
+     * using a single batch, when the directory is synced. Held files are
+     * served by the directory until then, and are lost if the directory is
+     * closed without being synced. Does not apply to chunked storage.
+     */
+    public void setGroupCommit(final boolean groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+
+    /**
+     * Returns the maximum size (in bytes) of a file held until the directory is
+     * synced. Defaults to {@link #DEFAULT_GROUP_COMMIT_MAX_FILE_SIZE}.
+     */
+    public int getGroupCommitMaxFileSize() {
+        return groupCommitMaxFileSize;
+    }
+
+    /**
+     * Sets the maximum size (in bytes) of a file held until the directory is
+     * synced. Larger files are inserted when their output is closed.
+     */
+    public void setGroupCommitMaxFileSize(final int groupCommitMaxFileSize) {
+        this.groupCommitMaxFileSize = groupCommitMaxFileSize;
+    }
+
+    /**
+     * Returns the duration (in milliseconds) of the lease of a
+     * {@link com.github.lucene.store.jdbc.lock.LeaseLock}. Defaults to
+     * {@link #DEFAULT_LOCK_LEASE_DURATION}.
+     */
+    public long getLockLeaseDuration() {
+        return lockLeaseDuration;
+    }
+
+    /**
+     * Sets the duration (in milliseconds) of the lease of a
+     * {@link com.github.lucene.store.jdbc.lock.LeaseLock}, i.e. how long
+     * after its owner stopped renewing it (for example, because it crashed)
+     * the lock can be taken over. Should be well above the clock skew between
+     * the nodes sharing the index.
+     */
+    public void setLockLeaseDuration(final long lockLeaseDuration) {
+        this.lockLeaseDuration = lockLeaseDuration;
+    }
+
+    /**
+     * Returns the interval (in milliseconds) between the renewals of the
+     * lease of a {@link com.github.lucene.store.jdbc.lock.LeaseLock}.
+     * Defaults to {@link #DEFAULT_LOCK_HEARTBEAT_INTERVAL}.
+     */
+    public long getLockHeartbeatInterval() {
+        return lockHeartbeatInterval;
+    }
+
+    /**
+     * Sets the interval (in milliseconds) between the renewals of the lease
+     * of a {@link com.github.lucene.store.jdbc.lock.LeaseLock}. Should be a
+     * fraction of the lease duration, for a slow renewal not to lose the
+     * lease.
+     */
+    public void setLockHeartbeatInterval(final long lockHeartbeatInterval) {
+        this.lockHeartbeatInterval = lockHeartbeatInterval;
+    }
+
+    /**
+     * Returns how long (in milliseconds) the directory waits for a lock held
+     * by someone else to be released. Defaults to <code>0</code> (a single
+     * attempt).
+     */
+    public long getLockWaitTimeout() {
+        return lockWaitTimeout;
+    }
+
+    /**
+     * Sets how long (in milliseconds) the directory waits for a lock held by
+     * someone else to be released. The database waits for the lock if the lock
+     * supports it (see
+     * {@link com.github.lucene.store.jdbc.lock.WaitableJdbcLock}), otherwise
+     * the directory retries, with an exponential backoff (see
+     * {@link #setLockRetryInitialDelay(long)} and
+     * {@link #setLockRetryMaxDelay(long)}) and jitter.
+     */
+    public void setLockWaitTimeout(final long lockWaitTimeout) {
+        this.lockWaitTimeout = lockWaitTimeout;
+    }
+
+    /**
+     * Returns the delay (in milliseconds) before retrying to obtain a lock the
+     * first time. Defaults to {@link #DEFAULT_LOCK_RETRY_INITIAL_DELAY}.
+     */
+    public long getLockRetryInitialDelay() {
+        return lockRetryInitialDelay;
+    }
+
+    /**
+     * Sets the delay (in milliseconds) before retrying to obtain a lock the
+     * first time. The delay doubles after each attempt.
+     */
+    public void setLockRetryInitialDelay(final long lockRetryInitialDelay) {
+        this.lockRetryInitialDelay = lockRetryInitialDelay;
+    }
+
+    /**
+     * Returns the maximum delay (in milliseconds) between two attempts to
+     * obtain a lock. Defaults to {@link #DEFAULT_LOCK_RETRY_MAX_DELAY}.
+     */
+    public long getLockRetryMaxDelay() {
+        return lockRetryMaxDelay;
+    }
+
+    /**
+     * Sets the maximum delay (in milliseconds) between two attempts to obtain
+     * a lock.
+     */
+    public void setLockRetryMaxDelay(final long lockRetryMaxDelay) {
+        this.lockRetryMaxDelay = lockRetryMaxDelay;
+    }
+
+    /**
+     * Returns the minimum number of connections kept open by the pool a
+     * directory creates when given a jdbc url. Defaults to
+     * {@link PoolingDataSource#DEFAULT_MIN_SIZE}.
+     */
+    public int getConnectionPoolMinSize() {
+        return connectionPoolMinSize;
+    }
+
+    /**
+     * Sets the minimum number of connections kept open by the pool a
+     * directory creates when given a jdbc url.
+     */
+    public void setConnectionPoolMinSize(final int connectionPoolMinSize) {
+        this.connectionPoolMinSize = connectionPoolMinSize;
+    }
+
+    /**
+     * Returns the maximum number of connections of the pool a directory
+     * creates when given a jdbc url. Defaults to
+     * {@link PoolingDataSource#DEFAULT_MAX_SIZE}.
+     */
+    public int getConnectionPoolMaxSize() {
+        return connectionPoolMaxSize;
+    }
+
+    /**
+     * Sets the maximum number of connections of the pool a directory creates
+     * when given a jdbc url.
+     */
+    public void setConnectionPoolMaxSize(final int connectionPoolMaxSize) {
+        this.connectionPoolMaxSize = connectionPoolMaxSize;
+    }
 }
@@ -62,17 +62,42 @@ public class JdbcFileEntrySettings {
      */
     public static final String FILE_ENTRY_HANDLER_TYPE = "type";
 
-    private final Properties settings = new Properties();
+    private final Properties settings;
+
+    private final JdbcFileEntrySettings defaults;
 
     /**
      * Creates a new file entry settings, and intialize it to default values.
      */
     public JdbcFileEntrySettings() {
+        settings = new Properties();
+        defaults = null;
         setClassSetting(JdbcFileEntrySettings.FILE_ENTRY_HANDLER_TYPE, MarkDeleteFileEntryHandler.class);
         setClassSetting(JdbcFileEntrySettings.INDEX_INPUT_TYPE_SETTING, FetchOnBufferReadJdbcIndexInput.class);
         setClassSetting(JdbcFileEntrySettings.INDEX_OUTPUT_TYPE_SETTING, RAMAndFileJdbcIndexOutput.class);
     }
 
+    /**
+     * Creates a new file entry settings overriding the given ones. Settings
+     * not set on the new instance are read from the given ones (including
+     * later changes to them).
+     *
+     * @param defaults
+     *            The settings to use for the settings not overridden
+     */
+    public JdbcFileEntrySettings(final JdbcFileEntrySettings defaults) {
+        settings = new Properties(defaults.settings);
+        this.defaults = defaults;
+    }
+
+    /**
+     * Returns the settings overridden by this instance, or <code>null</code>
+     * if it was not created using {@link #JdbcFileEntrySettings(JdbcFileEntrySettings)}.
+     */
+    public JdbcFileEntrySettings getDefaults() {
+        return defaults;
+    }
+
     /**
      * Returns the inner java properties.
      */
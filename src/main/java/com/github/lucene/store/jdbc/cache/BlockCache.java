@@ -0,0 +1,383 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.cache;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size bounded cache of file blocks read from the database, shared by all the
+ * <code>IndexInput</code>s (and their clones) reading the same file.
+ * <p/>
+ * Lucene files are written once and never modified, so a block read from the
+ * database stays valid until the file is deleted. Blocks are keyed by the
+ * directory (see
+ * {@link com.github.lucene.store.jdbc.JdbcDirectory#getCacheKey()}), the file
+ * name and the block number, and are evicted in least recently used order
+ * once the configured size (in bytes) is exceeded. The
+ * {@link com.github.lucene.store.jdbc.JdbcDirectory} invalidates the blocks of
+ * a file when it deletes, renames or re-creates it.
+ * <p/>
+ * The cache is split into several segments, each guarded by its own lock, in
+ * order to reduce contention between searcher threads.
+ * <p/>
+ * A single process wide instance is available using
+ * {@link #getSharedInstance()}. Block caching is disabled unless a cache is
+ * set using
+ * {@link com.github.lucene.store.jdbc.JdbcDirectorySettings#setBlockCache(BlockCache)}.
+ */
+public class BlockCache {
+
+    /**
+     * Loads a block of a file from the database.
+     */
+    public static interface BlockLoader {
+
+        /**
+         * Loads <code>length</code> bytes of the file starting at the given
+         * (zero based) position.
+         */
+        byte[] loadBlock(long position, int length) throws IOException;
+    }
+
+    /**
+     * The default block size (in bytes). Currently 8K.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 8 * 1024;
+
+    /**
+     * The default maximum cache size (in bytes). Currently 32M.
+     */
+    public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+
+    // rough memory overhead of a cached entry (key, map entry and array header)
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static final int SEGMENTS_COUNT = 16;
+
+    private static final BlockCache sharedInstance = new BlockCache(DEFAULT_MAX_SIZE, DEFAULT_BLOCK_SIZE);
+
+    /**
+     * Returns the process wide block cache.
+     */
+    public static BlockCache getSharedInstance() {
+        return sharedInstance;
+    }
+
+    private final long maxSize;
+
+    private final int blockSize;
+
+    private final Segment[] segments;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a new block cache using the default block size.
+     *
+     * @param maxSize
+     *            The maximum size of the cache in bytes
+     */
+    public BlockCache(final long maxSize) {
+        this(maxSize, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a new block cache.
+     *
+     * @param maxSize
+     *            The maximum size of the cache in bytes
+     * @param blockSize
+     *            The size of a cached block in bytes
+     */
+    public BlockCache(final long maxSize, final int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be greater than 0 (got " + blockSize + ")");
+        }
+        this.maxSize = maxSize;
+        this.blockSize = blockSize;
+        segments = new Segment[SEGMENTS_COUNT];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(maxSize / SEGMENTS_COUNT);
+        }
+    }
+
+    /**
+     * Reads <code>length</code> bytes of the given file starting at
+     * <code>position</code>, serving blocks from the cache and loading the
+     * missing ones using the given loader.
+     *
+     * @param table
+     *            The cache key of the directory holding the file
+     * @param name
+     *            The name of the file
+     * @param fileLength
+     *            The length of the file
+     * @param position
+     *            The (zero based) position in the file to start reading from
+     * @param b
+     *            The array to read the bytes into
+     * @param offset
+     *            The offset in the array to start storing bytes
+     * @param length
+     *            The number of bytes to read
+     * @param loader
+     *            Loads blocks not found in the cache
+     */
+    public void read(final String table, final String name, final long fileLength, long position, final byte[] b,
+            int offset, int length, final BlockLoader loader) throws IOException {
+        while (length > 0) {
+            final long blockNumber = position / blockSize;
+            final int blockOffset = (int) (position - blockNumber * blockSize);
+            final byte[] block = getBlock(table, name, blockNumber, fileLength, loader);
+            final int toCopy = Math.min(length, block.length - blockOffset);
+            if (toCopy <= 0) {
+                throw new EOFException("read past EOF: " + name);
+            }
+            System.arraycopy(block, blockOffset, b, offset, toCopy);
+            position += toCopy;
+            offset += toCopy;
+            length -= toCopy;
+        }
+    }
+
+    /**
+     * Returns the given block of the file, loading it using the given loader if
+     * it is not cached. The returned array is shared, and must not be
+     * modified.
+     *
+     * @param table
+     *            The cache key of the directory holding the file
+     * @param name
+     *            The name of the file
+     * @param fileLength
+     *            The length of the file
+     * @param blockNumber
+     *            The number of the block (its position divided by the block
+     *            size)
+     * @param loader
+     *            Loads the block if it is not found in the cache
+     */
+    public byte[] readBlock(final String table, final String name, final long fileLength, final long blockNumber,
+            final BlockLoader loader) throws IOException {
+        return getBlock(table, name, blockNumber, fileLength, loader);
+    }
+
+    private byte[] getBlock(final String table, final String name, final long blockNumber, final long fileLength,
+            final BlockLoader loader) throws IOException {
+        final BlockKey key = new BlockKey(table, name, blockNumber);
+        final Segment segment = segmentFor(key);
+        byte[] block = segment.getBlock(key);
+        if (block != null) {
+            hits.incrementAndGet();
+            return block;
+        }
+        misses.incrementAndGet();
+        final long blockStart = blockNumber * blockSize;
+        if (blockStart >= fileLength) {
+            throw new EOFException("read past EOF: " + name);
+        }
+        final int blockLength = (int) Math.min(blockSize, fileLength - blockStart);
+        block = loader.loadBlock(blockStart, blockLength);
+        if (block.length != blockLength) {
+            throw new EOFException("read past EOF: " + name);
+        }
+        segment.putBlock(key, block);
+        return block;
+    }
+
+    /**
+     * Removes all the cached blocks of the given file.
+     */
+    public void invalidate(final String table, final String name) {
+        for (final Segment segment : segments) {
+            segment.invalidate(table, name);
+        }
+    }
+
+    /**
+     * Removes all the cached blocks of the given directory.
+     */
+    public void invalidateAll(final String table) {
+        for (final Segment segment : segments) {
+            segment.invalidate(table, null);
+        }
+    }
+
+    /**
+     * Removes all the cached blocks.
+     */
+    public void clear() {
+        for (final Segment segment : segments) {
+            segment.clearBlocks();
+        }
+    }
+
+    private Segment segmentFor(final BlockKey key) {
+        return segments[(key.hashCode() & 0x7fffffff) % segments.length];
+    }
+
+    /**
+     * Returns the size of a cached block (in bytes).
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the maximum size of the cache (in bytes).
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the (estimated) current size of the cache (in bytes).
+     */
+    public long getSize() {
+        long size = 0;
+        for (final Segment segment : segments) {
+            size += segment.getSizeInBytes();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of block reads served from the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of block reads that were loaded from the database.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of blocks evicted from the cache.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BlockCache[size=" + getSize() + "/" + maxSize + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + "]";
+    }
+
+    private static final class BlockKey {
+
+        private final String table;
+
+        private final String name;
+
+        private final long blockNumber;
+
+        private final int hash;
+
+        BlockKey(final String table, final String name, final long blockNumber) {
+            this.table = table;
+            this.name = name;
+            this.blockNumber = blockNumber;
+            hash = 31 * (31 * table.hashCode() + name.hashCode()) + (int) (blockNumber ^ blockNumber >>> 32);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof BlockKey)) {
+                return false;
+            }
+            final BlockKey other = (BlockKey) obj;
+            return blockNumber == other.blockNumber && name.equals(other.name) && table.equals(other.table);
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<BlockKey, byte[]> {
+
+        private static final long serialVersionUID = -2986163346153541787L;
+
+        private final long maxSizeInBytes;
+
+        private long sizeInBytes;
+
+        Segment(final long maxSizeInBytes) {
+            super(16, 0.75f, true);
+            this.maxSizeInBytes = maxSizeInBytes;
+        }
+
+        synchronized byte[] getBlock(final BlockKey key) {
+            return get(key);
+        }
+
+        synchronized void putBlock(final BlockKey key, final byte[] block) {
+            final byte[] previous = put(key, block);
+            if (previous != null) {
+                sizeInBytes -= previous.length + ENTRY_OVERHEAD;
+            }
+            sizeInBytes += block.length + ENTRY_OVERHEAD;
+            // evict the least recently used blocks
+            final Iterator<Map.Entry<BlockKey, byte[]>> it = entrySet().iterator();
+            while (sizeInBytes > maxSizeInBytes && it.hasNext()) {
+                final Map.Entry<BlockKey, byte[]> eldest = it.next();
+                sizeInBytes -= eldest.getValue().length + ENTRY_OVERHEAD;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+
+        synchronized void invalidate(final String table, final String name) {
+            final Iterator<Map.Entry<BlockKey, byte[]>> it = entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<BlockKey, byte[]> entry = it.next();
+                final BlockKey key = entry.getKey();
+                if (key.table.equals(table) && (name == null || key.name.equals(name))) {
+                    sizeInBytes -= entry.getValue().length + ENTRY_OVERHEAD;
+                    it.remove();
+                }
+            }
+        }
+
+        synchronized void clearBlocks() {
+            clear();
+            sizeInBytes = 0;
+        }
+
+        synchronized long getSizeInBytes() {
+            return sizeInBytes;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SegmentInfos;
+
+/**
+ * An in memory snapshot of the metadata (size, last modified time and deleted
+ * flag) of the file entries of a single directory table, used to serve
+ * <code>fileExists</code>, <code>fileLength</code> and <code>listAll</code>
+ * without querying the database.
+ * <p/>
+ * The snapshot is loaded using a single (bulk) query, and is kept up to date
+ * with the files created, deleted and renamed by the owning directory. Changes
+ * made by other processes are picked up when the snapshot is refreshed, which
+ * happens once the refresh interval elapsed, or when the index was committed
+ * by another process: a <code>segments_N</code> file with a generation newer
+ * than the ones known is looked up, or the files are listed and the
+ * <code>segments_N</code> files of the database (loaded using a cheap query)
+ * differ from the ones of the snapshot. Lucene finds the commits by listing
+ * the files, so a listing never returns a stale commit.
+ * <p/>
+ * Files created by the directory are recorded with an unknown size until the
+ * first lookup, which reads their actual metadata from the database (see
+ * {@link #get(String)}).
+ */
+public class FileMetadataCache {
+
+    /**
+     * The metadata of a file entry.
+     */
+    public static final class Entry {
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final boolean deleted;
+
+        public Entry(final long size, final long lastModified, final boolean deleted) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.deleted = deleted;
+        }
+
+        /**
+         * Returns the size of the file, <code>-1</code> if unknown (the file
+         * is being written by the directory).
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the last modified time of the file, <code>-1</code> if
+         * unknown.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+        /**
+         * Returns <code>true</code> if the actual metadata of the file is
+         * known.
+         */
+        public boolean isKnown() {
+            return size >= 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry[size=" + size + ", lastModified=" + lastModified + ", deleted=" + deleted + "]";
+        }
+    }
+
+    /**
+     * Loads the metadata of all the file entries.
+     */
+    public static interface Loader {
+
+        Map<String, Entry> loadAll() throws IOException;
+
+        /**
+         * Loads the names of the (not deleted) <code>segments_N</code> files.
+         */
+        Collection<String> loadSegmentsFileNames() throws IOException;
+    }
+
+    private static final Entry CREATED = new Entry(-1, -1, false);
+
+    private static final String SEGMENTS_PREFIX = IndexFileNames.SEGMENTS + "_";
+
+    private final Loader loader;
+
+    private final long refreshInterval;
+
+    private volatile Map<String, Entry> entries;
+
+    private volatile long lastRefresh;
+
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong refreshes = new AtomicLong();
+
+    /**
+     * Creates a new file metadata cache.
+     *
+     * @param loader
+     *            Loads the metadata of all the file entries
+     * @param refreshInterval
+     *            The time (in milliseconds) after which the snapshot is
+     *            reloaded, <code>0</code> to only reload it on a generation
+     *            change
+     */
+    public FileMetadataCache(final Loader loader, final long refreshInterval) {
+        this.loader = loader;
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * Returns the metadata of the given file, or <code>null</code> if it is
+     * not part of the snapshot. Looking up a <code>segments_N</code> file
+     * newer than the known generation reloads the snapshot first.
+     * <p/>
+     * The returned entry might not be known (see {@link Entry#isKnown()}), in
+     * which case the caller should read the metadata from the database and
+     * {@link #put(String, Entry)} it.
+     */
+    public Entry get(final String name) throws IOException {
+        Map<String, Entry> current = ensureFresh();
+        Entry entry = current.get(name);
+        if (entry == null && isNewerGeneration(name)) {
+            refresh();
+            current = entries;
+            entry = current.get(name);
+        }
+        if (entry != null && entry.isKnown()) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the names of the (not deleted) files of the snapshot. The
+     * snapshot is reloaded first if the <code>segments_N</code> files of the
+     * database differ from the ones of the snapshot.
+     */
+    public String[] listAll() throws IOException {
+        final long refreshCount = refreshes.get();
+        Map<String, Entry> current = ensureFresh();
+        if (refreshes.get() == refreshCount
+                && !segmentsFileNames(current).equals(new HashSet<String>(loader.loadSegmentsFileNames()))) {
+            refresh();
+            current = entries;
+        }
+        final ArrayList<String> names = new ArrayList<String>();
+        for (final Map.Entry<String, Entry> entry : current.entrySet()) {
+            if (!entry.getValue().isDeleted()) {
+                names.add(entry.getKey());
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Records the metadata of a file read from the database.
+     */
+    public synchronized void put(final String name, final Entry entry) {
+        if (entries != null) {
+            entries.put(name, entry);
+            updateGeneration(name);
+        }
+    }
+
+    /**
+     * Records a file being created by the directory. Its metadata is unknown
+     * until it is looked up.
+     */
+    public synchronized void created(final String name) {
+        put(name, CREATED);
+    }
+
+    /**
+     * Records a file deleted (or marked as deleted) by the directory.
+     */
+    public synchronized void deleted(final String name) {
+        if (entries != null) {
+            final Entry entry = entries.get(name);
+            entries.put(name, entry == null ? new Entry(-1, -1, true) : new Entry(entry.getSize(),
+                    entry.getLastModified(), true));
+        }
+    }
+
+    /**
+     * Records a file renamed by the directory.
+     */
+    public synchronized void renamed(final String from, final String to) {
+        if (entries != null) {
+            final Entry entry = entries.remove(from);
+            if (entry == null || entry.isDeleted()) {
+                entries.remove(to);
+            } else {
+                entries.put(to, entry);
+                updateGeneration(to);
+            }
+        }
+    }
+
+    /**
+     * Removes the given file from the snapshot, its metadata will be read from
+     * the database on the next lookup.
+     */
+    public synchronized void invalidate(final String name) {
+        if (entries != null) {
+            entries.remove(name);
+        }
+    }
+
+    /**
+     * Discards the snapshot, it will be reloaded on the next lookup.
+     */
+    public synchronized void clear() {
+        entries = null;
+    }
+
+    /**
+     * Reloads the snapshot from the database.
+     */
+    public synchronized void refresh() throws IOException {
+        final Map<String, Entry> loaded = new ConcurrentHashMap<String, Entry>(loader.loadAll());
+        generation = 0;
+        for (final String name : loaded.keySet()) {
+            generation = Math.max(generation, generationOf(name));
+        }
+        entries = loaded;
+        lastRefresh = System.currentTimeMillis();
+        refreshes.incrementAndGet();
+    }
+
+    private Map<String, Entry> ensureFresh() throws IOException {
+        final Map<String, Entry> current = entries;
+        if (current != null && (refreshInterval <= 0 || System.currentTimeMillis() - lastRefresh < refreshInterval)) {
+            return current;
+        }
+        synchronized (this) {
+            // might have been refreshed while waiting
+            if (entries == null || refreshInterval > 0 && System.currentTimeMillis() - lastRefresh >= refreshInterval) {
+                refresh();
+            }
+            return entries;
+        }
+    }
+
+    private static Set<String> segmentsFileNames(final Map<String, Entry> entries) {
+        final Set<String> names = new HashSet<String>();
+        for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (!entry.getValue().isDeleted() && entry.getKey().startsWith(SEGMENTS_PREFIX)) {
+                names.add(entry.getKey());
+            }
+        }
+        return names;
+    }
+
+    private synchronized boolean isNewerGeneration(final String name) {
+        return generationOf(name) > generation;
+    }
+
+    private void updateGeneration(final String name) {
+        generation = Math.max(generation, generationOf(name));
+    }
+
+    private static long generationOf(final String name) {
+        if (!name.startsWith(SEGMENTS_PREFIX)) {
+            return -1;
+        }
+        try {
+            return SegmentInfos.generationFromSegmentsFileName(name);
+        } catch (final RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the number of lookups served from the snapshot.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups of files not in the snapshot (or with an
+     * unknown metadata).
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of times the snapshot was loaded.
+     */
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    @Override
+    public String toString() {
+        final Map<String, Entry> current = entries;
+        return "FileMetadataCache[files=" + (current == null ? 0 : current.size()) + ", hits=" + hits + ", misses="
+                + misses + ", refreshes=" + refreshes + "]";
+    }
+}
@@ -0,0 +1,714 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.lucene.store.jdbc.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NoLockFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local disk mirror of files stored in the database. Each table gets its own
+ * sub directory (named after the cache key of the directory, see
+ * {@link com.github.lucene.store.jdbc.JdbcDirectory#getCacheKey()}), holding a
+ * copy of the files that were opened, which are then served using memory
+ * mapped files (see {@link MMapDirectory}).
+ * <p/>
+ * Lucene files are written once and never modified, so a local copy stays
+ * valid as long as the size and last modified time of the file entry in the
+ * database do not change. The
+ * {@link com.github.lucene.store.jdbc.JdbcDirectory} also invalidates the
+ * local copy of a file when it deletes, renames or re-creates it.
+ * <p/>
+ * The total size of the local copies can be bounded (see {@link #getMaxSize()}
+ * ), in which case the least recently used copies are deleted once it is
+ * exceeded.
+ * <p/>
+ * A persistent cache (see {@link #isPersistent()}) keeps the local copies
+ * across restarts: the size and last modified time of each copy are recorded
+ * in a metadata file of the table directory, and are validated against the
+ * database using a single query (see
+ * {@link com.github.lucene.store.jdbc.JdbcDirectory#validateLocalFileCache()})
+ * when the directory is created. A non persistent cache discards the copies
+ * left from a previous run instead.
+ */
+public class LocalFileCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalFileCache.class);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String METADATA_FILE_NAME = "jdbc-directory-cache.properties";
+
+    private static final int FILE_LOCKS_COUNT = 64;
+
+    private static final int MAX_DIRECTORY_NAME_LENGTH = 100;
+
+    private static final int MAX_STALE_METADATA_RECORDS = 100;
+
+    /**
+     * Streams the content of a file from the database.
+     */
+    public static interface FileLoader {
+
+        /**
+         * Writes the content of the file to the given output stream.
+         */
+        void loadFile(OutputStream os) throws IOException;
+    }
+
+    /**
+     * The size and last modified time of a file entry, as stored in the
+     * database.
+     */
+    public static final class FileMetadata {
+
+        private final long size;
+
+        private final long lastModified;
+
+        public FileMetadata(final long size, final long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (size ^ size >>> 32) * 31 + (int) (lastModified ^ lastModified >>> 32);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof FileMetadata)) {
+                return false;
+            }
+            final FileMetadata other = (FileMetadata) obj;
+            return size == other.size && lastModified == other.lastModified;
+        }
+
+        @Override
+        public String toString() {
+            return size + "," + lastModified;
+        }
+    }
+
+    private final Path directory;
+
+    private final long maxSize;
+
+    private final boolean persistent;
+
+    private final ConcurrentMap<String, TableCache> tableCaches = new ConcurrentHashMap<String, TableCache>();
+
+    // striped, the copy of a file is guarded by the lock its key hashes to
+    private final Object[] fileLocks = new Object[FILE_LOCKS_COUNT];
+
+    // all the local copies, in least recently used order
+    private final LinkedHashMap<String, CachedFile> cachedFiles = new LinkedHashMap<String, CachedFile>(16, 0.75f,
+            true);
+
+    // guarded by cachedFiles
+    private long size;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a new, non persistent and unbounded, local file cache.
+     *
+     * @param directory
+     *            The local directory to store the files in
+     */
+    public LocalFileCache(final Path directory) throws IOException {
+        this(directory, Long.MAX_VALUE, false);
+    }
+
+    /**
+     * Creates a new local file cache.
+     *
+     * @param directory
+     *            The local directory to store the files in
+     * @param maxSize
+     *            The maximum total size (in bytes) of the local copies
+     * @param persistent
+     *            Should the local copies be kept across restarts
+     */
+    public LocalFileCache(final Path directory, final long maxSize, final boolean persistent) throws IOException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0 (got " + maxSize + ")");
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.persistent = persistent;
+        for (int i = 0; i < fileLocks.length; i++) {
+            fileLocks[i] = new Object();
+        }
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Opens a memory mapped input of the local copy of the given file, copying
+     * it from the database (using the given loader) if there is no valid local
+     * copy.
+     *
+     * @param table
+     *            The cache key of the directory holding the file
+     * @param name
+     *            The name of the file
+     * @param metadata
+     *            The size and last modified time of the file in the database
+     * @param loader
+     *            Streams the file from the database
+     */
+    public IndexInput openInput(final String table, final String name, final FileMetadata metadata,
+            final FileLoader loader) throws IOException {
+        final TableCache tableCache = getTableCache(table);
+        final String key = fileKey(table, name);
+        final Path file = tableCache.getPath().resolve(name);
+        final IndexInput input;
+        synchronized (getFileLock(key)) {
+            if (metadata.equals(tableCache.get(name)) && isValid(file, metadata.getSize())) {
+                hits.incrementAndGet();
+                touch(key, new CachedFile(table, name, metadata.getSize()), file);
+            } else {
+                misses.incrementAndGet();
+                discard(tableCache, key, name);
+                copyFile(name, file, metadata.getSize(), loader);
+                tableCache.put(name, metadata);
+                touch(key, new CachedFile(table, name, metadata.getSize()), null);
+            }
+            input = tableCache.directory.openInput(name, IOContext.READ);
+        }
+        evict(key);
+        return input;
+    }
+
+    /**
+     * Validates the local copies of the files of the given table against the
+     * files stored in the database, discarding the stale ones. Logs how many
+     * copies could be reused.
+     *
+     * @param table
+     *            The cache key of the directory holding the files
+     * @param databaseFiles
+     *            The size and last modified time of the files in the database,
+     *            keyed by file name
+     */
+    public void validate(final String table, final Map<String, FileMetadata> databaseFiles) throws IOException {
+        final TableCache tableCache = getTableCache(table);
+        int reused = 0;
+        long reusedSize = 0;
+        int discarded = 0;
+        for (final Map.Entry<String, FileMetadata> entry : tableCache.getAll().entrySet()) {
+            final String name = entry.getKey();
+            if (entry.getValue().equals(databaseFiles.get(name))) {
+                reused++;
+                reusedSize += entry.getValue().getSize();
+            } else {
+                invalidate(table, name);
+                discarded++;
+            }
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("Validated local file cache [" + directory + "] of table [" + table + "]: reused [" + reused
+                    + "] files (" + reusedSize + " bytes), discarded [" + discarded + "] stale files, ["
+                    + (databaseFiles.size() - reused) + "] files not cached");
+        }
+    }
+
+    private boolean isValid(final Path file, final long length) throws IOException {
+        try {
+            return Files.size(file) == length;
+        } catch (final NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private void copyFile(final String name, final Path file, final long length, final FileLoader loader)
+            throws IOException {
+        final Path tempFile = Files.createTempFile(file.getParent(), name, TEMP_SUFFIX);
+        try {
+            final OutputStream os = Files.newOutputStream(tempFile);
+            try {
+                loader.loadFile(os);
+            } finally {
+                os.close();
+            }
+            if (Files.size(tempFile) != length) {
+                throw new IOException("Local copy of [" + name + "] has length [" + Files.size(tempFile)
+                        + "], expected [" + length + "]");
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    // marks the file as recently used (registering it if it was evicted in
+    // the meantime)
+    private void touch(final String key, final CachedFile cachedFile, final Path file) {
+        synchronized (cachedFiles) {
+            if (cachedFiles.get(key) == null) {
+                cachedFiles.put(key, cachedFile);
+                size += cachedFile.size;
+            }
+        }
+        if (persistent && file != null) {
+            // the last modified time orders the copies on the next run
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (final IOException e) {
+                logger.debug("Failed to touch local cache file [" + file + "]", e);
+            }
+        }
+    }
+
+    // deletes the least recently used copies (except the given one) until the
+    // cache fits its maximum size
+    private void evict(final String keep) {
+        final List<CachedFile> evicted = new ArrayList<CachedFile>();
+        synchronized (cachedFiles) {
+            final Iterator<Map.Entry<String, CachedFile>> it = cachedFiles.entrySet().iterator();
+            while (size > maxSize && it.hasNext()) {
+                final Map.Entry<String, CachedFile> eldest = it.next();
+                if (eldest.getKey().equals(keep)) {
+                    continue;
+                }
+                size -= eldest.getValue().size;
+                evicted.add(eldest.getValue());
+                it.remove();
+            }
+        }
+        for (final CachedFile cachedFile : evicted) {
+            final String key = fileKey(cachedFile.table, cachedFile.name);
+            final TableCache tableCache = tableCaches.get(cachedFile.table);
+            synchronized (getFileLock(key)) {
+                synchronized (cachedFiles) {
+                    if (cachedFiles.containsKey(key)) {
+                        // used again in the meantime
+                        continue;
+                    }
+                }
+                if (tableCache != null) {
+                    tableCache.remove(cachedFile.name);
+                    deleteFile(tableCache.getPath().resolve(cachedFile.name));
+                }
+            }
+            evictions.incrementAndGet();
+        }
+    }
+
+    // removes the local copy of a file, must be called holding the file lock
+    private void discard(final TableCache tableCache, final String key, final String name) {
+        tableCache.remove(name);
+        deleteFile(tableCache.getPath().resolve(name));
+        synchronized (cachedFiles) {
+            final CachedFile cachedFile = cachedFiles.remove(key);
+            if (cachedFile != null) {
+                size -= cachedFile.size;
+            }
+        }
+    }
+
+    /**
+     * Removes the local copy of the given file.
+     */
+    public void invalidate(final String table, final String name) {
+        final TableCache tableCache = tableCaches.get(table);
+        if (tableCache == null) {
+            return;
+        }
+        final String key = fileKey(table, name);
+        synchronized (getFileLock(key)) {
+            discard(tableCache, key, name);
+        }
+    }
+
+    /**
+     * Removes the local copies of all the files of the given table.
+     */
+    public void invalidateAll(final String table) {
+        final TableCache tableCache = tableCaches.get(table);
+        if (tableCache == null) {
+            return;
+        }
+        for (final String name : tableCache.getAll().keySet()) {
+            invalidate(table, name);
+        }
+    }
+
+    /**
+     * Returns the local directory the files are stored in.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the maximum total size (in bytes) of the local copies.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the current total size (in bytes) of the local copies.
+     */
+    public long getSize() {
+        synchronized (cachedFiles) {
+            return size;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the local copies are kept across restarts.
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Returns the number of opened files that had a valid local copy.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of opened files that were copied from the database.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of local copies deleted to fit the maximum size.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private TableCache getTableCache(final String table) throws IOException {
+        TableCache tableCache = tableCaches.get(table);
+        if (tableCache != null) {
+            return tableCache;
+        }
+        synchronized (tableCaches) {
+            tableCache = tableCaches.get(table);
+            if (tableCache == null) {
+                final Path path = directory.resolve(directoryName(table));
+                Files.createDirectories(path);
+                tableCache = new TableCache(table, path);
+                loadTableCache(tableCache);
+                tableCaches.put(table, tableCache);
+            }
+        }
+        evict(null);
+        return tableCache;
+    }
+
+    // registers the copies left from a previous run (if persistent), and
+    // deletes anything else
+    private void loadTableCache(final TableCache tableCache) throws IOException {
+        final Map<String, FileMetadata> metadata = persistent ? tableCache.readMetadata()
+                : Collections.<String, FileMetadata> emptyMap();
+        final List<CachedFile> loaded = new ArrayList<CachedFile>();
+        final DirectoryStream<Path> stream = Files.newDirectoryStream(tableCache.getPath());
+        try {
+            for (final Path file : stream) {
+                final String name = file.getFileName().toString();
+                if (name.equals(METADATA_FILE_NAME)) {
+                    continue;
+                }
+                final FileMetadata fileMetadata = metadata.get(name);
+                if (fileMetadata != null && isValid(file, fileMetadata.getSize())) {
+                    final CachedFile cachedFile = new CachedFile(tableCache.table, name, fileMetadata.getSize());
+                    cachedFile.lastUsed = Files.getLastModifiedTime(file).toMillis();
+                    loaded.add(cachedFile);
+                } else {
+                    deleteFile(file);
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        Collections.sort(loaded, new Comparator<CachedFile>() {
+            @Override
+            public int compare(final CachedFile o1, final CachedFile o2) {
+                return o1.lastUsed < o2.lastUsed ? -1 : o1.lastUsed == o2.lastUsed ? 0 : 1;
+            }
+        });
+        final Map<String, FileMetadata> files = new HashMap<String, FileMetadata>();
+        for (final CachedFile cachedFile : loaded) {
+            files.put(cachedFile.name, metadata.get(cachedFile.name));
+            touch(fileKey(cachedFile.table, cachedFile.name), cachedFile, null);
+        }
+        tableCache.putAll(files);
+    }
+
+    private static String fileKey(final String table, final String name) {
+        return table + '/' + name;
+    }
+
+    private Object getFileLock(final String key) {
+        return fileLocks[(key.hashCode() & 0x7fffffff) % fileLocks.length];
+    }
+
+    // the sanitized key, followed by its hash in order to tell apart keys
+    // sanitized to the same name
+    private static String directoryName(final String table) {
+        String name = table.replaceAll("[^A-Za-z0-9_.\\-]", "_");
+        if (name.length() > MAX_DIRECTORY_NAME_LENGTH) {
+            name = name.substring(0, MAX_DIRECTORY_NAME_LENGTH);
+        }
+        return name + "-" + Integer.toHexString(table.hashCode());
+    }
+
+    /**
+     * Deletes a local file. Failures are logged, since a file that is still
+     * mapped might not be deletable on some platforms.
+     */
+    protected void deleteFile(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (final IOException e) {
+            logger.warn("Failed to delete local cache file [" + file + "]", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LocalFileCache[" + directory + ", size=" + getSize() + "/" + maxSize + ", persistent=" + persistent
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+
+    private static final class CachedFile {
+
+        private final String table;
+
+        private final String name;
+
+        private final long size;
+
+        private long lastUsed;
+
+        CachedFile(final String table, final String name, final long size) {
+            this.table = table;
+            this.name = name;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The local copies of the files of a table, along with their metadata
+     * (stored in the metadata file of the table directory when persistent).
+     */
+    private final class TableCache {
+
+        private final String table;
+
+        private final MMapDirectory directory;
+
+        private final Map<String, FileMetadata> files = new HashMap<String, FileMetadata>();
+
+        // the number of records of the metadata file
+        private int metadataRecords;
+
+        TableCache(final String table, final Path path) throws IOException {
+            this.table = table;
+            directory = new MMapDirectory(path, NoLockFactory.INSTANCE);
+        }
+
+        Path getPath() {
+            return directory.getDirectory();
+        }
+
+        synchronized FileMetadata get(final String name) {
+            return files.get(name);
+        }
+
+        synchronized Map<String, FileMetadata> getAll() {
+            return new HashMap<String, FileMetadata>(files);
+        }
+
+        synchronized void put(final String name, final FileMetadata metadata) {
+            files.put(name, metadata);
+            appendMetadata(name, metadata);
+        }
+
+        synchronized void putAll(final Map<String, FileMetadata> metadata) {
+            files.putAll(metadata);
+            storeMetadata();
+        }
+
+        synchronized void remove(final String name) {
+            if (files.remove(name) != null) {
+                appendMetadata(name, null);
+            }
+        }
+
+        Map<String, FileMetadata> readMetadata() {
+            final Map<String, FileMetadata> metadata = new HashMap<String, FileMetadata>();
+            final Path metadataFile = getPath().resolve(METADATA_FILE_NAME);
+            if (!Files.exists(metadataFile)) {
+                return metadata;
+            }
+            final Properties properties = new Properties();
+            try {
+                final InputStream is = Files.newInputStream(metadataFile);
+                try {
+                    properties.load(is);
+                } finally {
+                    is.close();
+                }
+            } catch (final IOException e) {
+                logger.warn("Failed to read local cache metadata [" + metadataFile + "], discarding it", e);
+                return metadata;
+            }
+            for (final String name : properties.stringPropertyNames()) {
+                final String value = properties.getProperty(name);
+                if (value.length() == 0) {
+                    // removed
+                    continue;
+                }
+                final int index = value.indexOf(',');
+                try {
+                    metadata.put(name, new FileMetadata(Long.parseLong(value.substring(0, index)),
+                            Long.parseLong(value.substring(index + 1))));
+                } catch (final RuntimeException e) {
+                    logger.warn("Invalid local cache metadata [" + value + "] for [" + name + "], discarding it");
+                }
+            }
+            return metadata;
+        }
+
+        // appends the metadata of a file (its removal if null) to the
+        // metadata file, must be called holding the lock. Later records
+        // override earlier ones, and the file is rewritten once it holds
+        // mostly stale records.
+        private void appendMetadata(final String name, final FileMetadata metadata) {
+            if (!persistent) {
+                return;
+            }
+            if (metadataRecords >= 2 * files.size() + MAX_STALE_METADATA_RECORDS) {
+                storeMetadata();
+                return;
+            }
+            final Path metadataFile = getPath().resolve(METADATA_FILE_NAME);
+            try {
+                final Writer writer = Files.newBufferedWriter(metadataFile, StandardCharsets.ISO_8859_1,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                try {
+                    writer.write(escape(name) + "=" + (metadata == null ? "" : metadata.toString()) + "\n");
+                } finally {
+                    writer.close();
+                }
+                metadataRecords++;
+            } catch (final IOException e) {
+                logger.warn("Failed to append to local cache metadata [" + metadataFile + "]", e);
+            }
+        }
+
+        // escapes anything but plain file name characters as properties
+        // unicode escapes
+        private String escape(final String name) {
+            final StringBuilder sb = new StringBuilder(name.length());
+            for (int i = 0; i < name.length(); i++) {
+                final char c = name.charAt(i);
+                if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '.'
+                        || c == '-') {
+                    sb.append(c);
+                } else {
+                    sb.append(String.format("\\u%04x", (int) c));
+                }
+            }
+            return sb.toString();
+        }
+
+        // rewrites the whole metadata file, must be called holding the lock
+        private void storeMetadata() {
+            if (!persistent) {
+                return;
+            }
+            metadataRecords = files.size();
+            final Properties properties = new Properties();
+            for (final Map.Entry<String, FileMetadata> entry : files.entrySet()) {
+                properties.setProperty(entry.getKey(), entry.getValue().toString());
+            }
+            final Path metadataFile = getPath().resolve(METADATA_FILE_NAME);
+            try {
+                final Path tempFile = Files.createTempFile(getPath(), METADATA_FILE_NAME, TEMP_SUFFIX);
+                try {
+                    final OutputStream os = Files.newOutputStream(tempFile);
+                    try {
+                        properties.store(os, "jdbc directory local cache of table " + table);
+                    } finally {
+                        os.close();
+                    }
+                    Files.move(tempFile, metadataFile, StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+            } catch (final IOException e) {
+                logger.warn("Failed to store local cache metadata [" + metadataFile + "]", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.lucene.store.jdbc.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounts for the off heap (direct) memory used by index inputs, and caps it
+ * to a maximum size. Inputs reserve the memory before allocating it, and
+ * release it when they are closed.
+ * <p/>
+ * A single process wide (unbounded) instance is available using
+ * {@link #getSharedInstance()}, and is used by default by
+ * {@link com.github.lucene.store.jdbc.JdbcDirectorySettings}.
+ */
+public class OffHeapMemoryTracker {
+
+    private static final OffHeapMemoryTracker sharedInstance = new OffHeapMemoryTracker(Long.MAX_VALUE);
+
+    /**
+     * Returns the process wide off heap memory tracker.
+     */
+    public static OffHeapMemoryTracker getSharedInstance() {
+        return sharedInstance;
+    }
+
+    private final long maxSize;
+
+    private final AtomicLong used = new AtomicLong();
+
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * Creates a new off heap memory tracker.
+     *
+     * @param maxSize
+     *            The maximum off heap memory (in bytes) that can be reserved
+     */
+    public OffHeapMemoryTracker(final long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative (got " + maxSize + ")");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Tries to reserve the given amount of off heap memory.
+     *
+     * @return <code>true</code> if the memory was reserved,
+     *         <code>false</code> if it would exceed the maximum size
+     */
+    public boolean tryReserve(final long size) {
+        while (true) {
+            final long current = used.get();
+            if (size > maxSize - current) {
+                rejections.incrementAndGet();
+                return false;
+            }
+            if (used.compareAndSet(current, current + size)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases memory reserved using {@link #tryReserve(long)}.
+     */
+    public void release(final long size) {
+        used.addAndGet(-size);
+    }
+
+    /**
+     * Returns the maximum off heap memory (in bytes) that can be reserved.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the off heap memory (in bytes) currently reserved.
+     */
+    public long getUsed() {
+        return used.get();
+    }
+
+    /**
+     * Returns the number of reservations that were rejected since they would
+     * have exceeded the maximum size.
+     */
+    public long getRejectedCount() {
+        return rejections.get();
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapMemoryTracker[used=" + used + "/" + maxSize + ", rejections=" + rejections + "]";
+    }
+}
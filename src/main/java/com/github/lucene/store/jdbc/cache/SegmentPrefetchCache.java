@@ -0,0 +1,279 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.cache;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.IndexFileNames;
+
+/**
+ * Keeps the content of the small files of a segment, fetched from the database
+ * all at once the first time one of them is opened, for the inputs opening the
+ * other files of the same segment.
+ * <p/>
+ * Opening a segment reader opens many small files (<code>.si</code>,
+ * <code>.fnm</code>, <code>.cfe</code>, <code>.nvm</code>, ...), which
+ * otherwise cost a database round trip each. Files are grouped by their
+ * segment name (see {@link IndexFileNames#parseSegmentName(String)}), and the
+ * cache is bounded to a maximum size (in bytes), evicting the least recently
+ * used files. Lucene files are never modified, so the content stays valid
+ * until the file is deleted or re-created (see {@link #invalidate(String)}).
+ * <p/>
+ * The files of a segment are loaded outside of the cache lock, so loading a
+ * segment does not block the other segments. Opening another file of a
+ * segment being loaded waits for the load to complete.
+ */
+public class SegmentPrefetchCache {
+
+    /**
+     * Loads the content of the files of a segment.
+     */
+    public static interface Loader {
+
+        /**
+         * Returns the content of the (small enough) files of the given
+         * segment, by file name.
+         */
+        Map<String, byte[]> loadSegment(String segmentName) throws IOException;
+    }
+
+    // rough memory overhead of a cached file (name, map entry and array)
+    private static final int ENTRY_OVERHEAD = 96;
+
+    // the number of segments remembered as prefetched
+    private static final int MAX_PREFETCHED_SEGMENTS = 1024;
+
+    // marks a segment whose files were loaded
+    private static final Prefetch PREFETCHED = new Prefetch();
+
+    private final Loader loader;
+
+    private final long maxSize;
+
+    private long size;
+
+    private final LinkedHashMap<String, byte[]> files = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+    // the prefetched segments, mapped to the prefetch while it is loaded
+    private final LinkedHashMap<String, Prefetch> prefetchedSegments = new LinkedHashMap<String, Prefetch>(16, 0.75f,
+            true) {
+
+        private static final long serialVersionUID = 6152744129117451371L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Prefetch> eldest) {
+            return size() > MAX_PREFETCHED_SEGMENTS && eldest.getValue() == PREFETCHED;
+        }
+    };
+
+    // incremented when files are invalidated, so files loaded meanwhile are
+    // not published
+    private long invalidations;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong prefetches = new AtomicLong();
+
+    /**
+     * Creates a new segment prefetch cache.
+     *
+     * @param loader
+     *            Loads the files of a segment
+     * @param maxSize
+     *            The maximum size of the cache in bytes
+     */
+    public SegmentPrefetchCache(final Loader loader, final long maxSize) {
+        this.loader = loader;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the content of the given file, prefetching the files of its
+     * segment if it is the first one opened. Returns <code>null</code> if the
+     * file is not part of a segment or was not prefetched (too large, evicted
+     * or written after the prefetch), in which case the caller should read it
+     * itself. The returned array is shared, and must not be modified.
+     */
+    public byte[] get(final String name) throws IOException {
+        final String segmentName;
+        final Prefetch prefetch;
+        final long startInvalidations;
+        synchronized (this) {
+            final byte[] data = files.get(name);
+            segmentName = data == null ? segmentName(name) : null;
+            if (segmentName == null) {
+                return count(data);
+            }
+            final Prefetch prefetched = prefetchedSegments.get(segmentName);
+            if (prefetched == PREFETCHED) {
+                return count(null);
+            }
+            if (prefetched != null) {
+                prefetch = prefetched;
+                startInvalidations = -1;
+            } else {
+                prefetch = new Prefetch();
+                prefetchedSegments.put(segmentName, prefetch);
+                startInvalidations = invalidations;
+            }
+        }
+        if (startInvalidations < 0) {
+            // being loaded by another thread
+            return count(prefetch.await().get(name));
+        }
+        prefetches.incrementAndGet();
+        Map<String, byte[]> segmentFiles = Collections.emptyMap();
+        try {
+            segmentFiles = loader.loadSegment(segmentName);
+        } finally {
+            synchronized (this) {
+                if (invalidations == startInvalidations) {
+                    for (final Map.Entry<String, byte[]> entry : segmentFiles.entrySet()) {
+                        put(entry.getKey(), entry.getValue());
+                    }
+                } else {
+                    // might be stale
+                    segmentFiles = Collections.emptyMap();
+                }
+                if (prefetchedSegments.get(segmentName) == prefetch) {
+                    prefetchedSegments.put(segmentName, PREFETCHED);
+                }
+            }
+            prefetch.done(segmentFiles);
+        }
+        // even if already evicted by the other files of the segment
+        return count(segmentFiles.get(name));
+    }
+
+    private byte[] count(final byte[] data) {
+        if (data != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return data;
+    }
+
+    private void put(final String name, final byte[] data) {
+        final byte[] previous = files.put(name, data);
+        if (previous != null) {
+            size -= previous.length + ENTRY_OVERHEAD;
+        }
+        size += data.length + ENTRY_OVERHEAD;
+        final Iterator<Map.Entry<String, byte[]>> it = files.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            size -= it.next().getValue().length + ENTRY_OVERHEAD;
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes the given file from the cache.
+     */
+    public synchronized void invalidate(final String name) {
+        invalidations++;
+        final byte[] data = files.remove(name);
+        if (data != null) {
+            size -= data.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * Removes all the files from the cache.
+     */
+    public synchronized void clear() {
+        invalidations++;
+        files.clear();
+        prefetchedSegments.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the segment name of the given file, <code>null</code> if it is
+     * not a per segment file.
+     */
+    static String segmentName(final String name) {
+        if (name.length() < 2 || name.charAt(0) != '_') {
+            return null;
+        }
+        return IndexFileNames.parseSegmentName(name);
+    }
+
+    /**
+     * Returns the current size of the cache (in bytes).
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of opened files served from the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of opened files not found in the cache.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of segments prefetched.
+     */
+    public long getPrefetchCount() {
+        return prefetches.get();
+    }
+
+    // a segment being loaded, the other threads opening its files wait for it
+    private static final class Prefetch {
+
+        private final CountDownLatch loaded = new CountDownLatch(1);
+
+        private volatile Map<String, byte[]> files = Collections.emptyMap();
+
+        void done(final Map<String, byte[]> files) {
+            this.files = files;
+            loaded.countDown();
+        }
+
+        Map<String, byte[]> await() {
+            try {
+                loaded.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return files;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentPrefetchCache[size=" + getSize() + "/" + maxSize + ", hits=" + hits + ", misses=" + misses
+                + ", prefetches=" + prefetches + "]";
+    }
+}
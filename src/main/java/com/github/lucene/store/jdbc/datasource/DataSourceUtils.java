@@ -212,10 +212,27 @@ public abstract class DataSourceUtils {
         return -1;
     }
 
+    /**
+     * Returns the data source the given one proxies if it is a
+     * {@link TransactionAwareDataSourceProxy}, or the given one otherwise.
+     * Connections taken from it are not bound to the transaction of the
+     * caller.
+     */
+    public static DataSource getTargetDataSource(final DataSource dataSource) {
+        if (dataSource instanceof TransactionAwareDataSourceProxy) {
+            return ((TransactionAwareDataSourceProxy) dataSource).getTargetDataSource();
+        }
+        return dataSource;
+    }
+
     public static Connection getTargetConnection(final Connection conn) {
         if (conn instanceof ConnectionProxy) {
             return getTargetConnection(((ConnectionProxy) conn).getTargetConnection());
         }
+        final Connection pooledConnection = PoolingDataSource.getTargetConnection(conn);
+        if (pooledConnection != null) {
+            return getTargetConnection(pooledConnection);
+        }
         // currently a hack to suppport Spring wrapping of connections. Need to
         // implement a nicer pluggable native
         // extractor
@@ -36,6 +36,7 @@ import org.slf4j.LoggerFactory;
  * In a J2EE container, it is recommended to use a JNDI DataSource provided by
  * the container.
  * <p/>
+ * To reuse connections, wrap it with the lightweight {@link PoolingDataSource}.
  * If you need a "real" connection pool outside of a J2EE container, consider
  * <a href="http://jakarta.apache.org/commons/dbcp">Apache's Jakarta Commons
  * DBCP</a>. Its BasicDataSource is a full connection pool bean, supporting the
@@ -0,0 +1,554 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.datasource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * A lightweight connection pool on top of a target data source (usually a
+ * {@link DriverManagerDataSource}), for environments that do not provide a
+ * "real" connection pool.
+ * <p/>
+ * At most <code>maxSize</code> connections are borrowed at any time, callers
+ * wait up to {@link #getBorrowTimeout()} for a connection to be returned. Idle
+ * connections are kept in a lock free queue, and at least
+ * <code>minSize</code> connections are kept open. A connection idle for more
+ * than {@link #getValidationInterval()} is validated (using
+ * <code>Connection#isValid</code>) before being borrowed, and connections
+ * open for more than {@link #getMaxLifetime()} are closed instead of being
+ * reused.
+ * <p/>
+ * Closing a borrowed connection returns it to the pool: uncommitted work is
+ * rolled back, and its auto commit and read only modes are restored.
+ */
+public class PoolingDataSource extends AbstractDataSource {
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(PoolingDataSource.class);
+
+    public static final int DEFAULT_MIN_SIZE = 1;
+
+    public static final int DEFAULT_MAX_SIZE = 10;
+
+    /**
+     * The default time (in milliseconds) to wait for a connection. Currently
+     * 30 seconds.
+     */
+    public static final long DEFAULT_BORROW_TIMEOUT = 30 * 1000;
+
+    /**
+     * The default maximum lifetime (in milliseconds) of a connection.
+     * Currently 30 minutes.
+     */
+    public static final long DEFAULT_MAX_LIFETIME = 30 * 60 * 1000;
+
+    /**
+     * The default time (in milliseconds) a connection can be idle before
+     * being validated when borrowed. Currently 500 milliseconds.
+     */
+    public static final long DEFAULT_VALIDATION_INTERVAL = 500;
+
+    /**
+     * The default timeout (in seconds) of the validation of a connection.
+     */
+    public static final int DEFAULT_VALIDATION_TIMEOUT = 5;
+
+    private final DataSource dataSource;
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private final Semaphore permits;
+
+    private final ConcurrentLinkedQueue<PooledConnection> idle = new ConcurrentLinkedQueue<PooledConnection>();
+
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private final AtomicInteger totalCount = new AtomicInteger();
+
+    private long borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+
+    private long maxLifetime = DEFAULT_MAX_LIFETIME;
+
+    private long validationInterval = DEFAULT_VALIDATION_INTERVAL;
+
+    private int validationTimeout = DEFAULT_VALIDATION_TIMEOUT;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+
+    private final AtomicLong createdCount = new AtomicLong();
+
+    private final AtomicLong destroyedCount = new AtomicLong();
+
+    private final AtomicLong validationFailureCount = new AtomicLong();
+
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    private final AtomicLong waitTime = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a new pool using the default sizes.
+     *
+     * @param dataSource
+     *            The data source to create connections with
+     */
+    public PoolingDataSource(final DataSource dataSource) {
+        this(dataSource, DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a new pool.
+     *
+     * @param dataSource
+     *            The data source to create connections with
+     * @param minSize
+     *            The minimum number of open connections
+     * @param maxSize
+     *            The maximum number of borrowed connections
+     */
+    public PoolingDataSource(final DataSource dataSource, final int minSize, final int maxSize) {
+        if (maxSize <= 0 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size, min [" + minSize + "], max [" + maxSize + "]");
+        }
+        this.dataSource = dataSource;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        permits = new Semaphore(maxSize, true);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed: " + this);
+        }
+        fill();
+        final long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire() && !permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                waitTime.addAndGet(System.nanoTime() - start);
+                throw new SQLException("Timed out after [" + borrowTimeout + "ms] waiting for a connection: " + this);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection: " + this);
+        }
+        waitTime.addAndGet(System.nanoTime() - start);
+        try {
+            PooledConnection pooled;
+            while ((pooled = pollIdle()) != null) {
+                if (isExpired(pooled)) {
+                    destroy(pooled);
+                } else if (System.nanoTime() - pooled.lastUsed > TimeUnit.MILLISECONDS.toNanos(validationInterval)
+                        && !isValid(pooled)) {
+                    validationFailureCount.incrementAndGet();
+                    destroy(pooled);
+                } else {
+                    break;
+                }
+            }
+            if (pooled == null) {
+                pooled = new PooledConnection(dataSource.getConnection());
+                totalCount.incrementAndGet();
+                createdCount.incrementAndGet();
+            }
+            borrowCount.incrementAndGet();
+            return (Connection) Proxy.newProxyInstance(PoolingDataSource.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new PooledConnectionHandler(this, pooled));
+        } catch (final SQLException e) {
+            permits.release();
+            throw e;
+        } catch (final RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a connection with the given credentials using the target data
+     * source. The connection is not pooled (the pool only holds connections
+     * of the default user), closing it closes the physical connection.
+     */
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed: " + this);
+        }
+        return dataSource.getConnection(username, password);
+    }
+
+    // opens connections until the pool holds the minimum number of connections
+    private void fill() {
+        int total;
+        while (!closed && (total = totalCount.get()) < minSize) {
+            if (!totalCount.compareAndSet(total, total + 1)) {
+                continue;
+            }
+            try {
+                final PooledConnection pooled = new PooledConnection(dataSource.getConnection());
+                createdCount.incrementAndGet();
+                offerIdle(pooled);
+            } catch (final SQLException e) {
+                totalCount.decrementAndGet();
+                logger.debug("Failed to open a connection to fill the pool", e);
+                return;
+            }
+        }
+    }
+
+    private PooledConnection pollIdle() {
+        final PooledConnection pooled = idle.poll();
+        if (pooled != null) {
+            idleCount.decrementAndGet();
+        }
+        return pooled;
+    }
+
+    private void offerIdle(final PooledConnection pooled) {
+        pooled.lastUsed = System.nanoTime();
+        idle.offer(pooled);
+        idleCount.incrementAndGet();
+    }
+
+    private boolean isExpired(final PooledConnection pooled) {
+        return maxLifetime > 0 && System.nanoTime() - pooled.created > TimeUnit.MILLISECONDS.toNanos(maxLifetime);
+    }
+
+    private boolean isValid(final PooledConnection pooled) {
+        try {
+            return pooled.connection.isValid(validationTimeout);
+        } catch (final SQLException e) {
+            logger.debug("Failed to validate a pooled connection", e);
+            return false;
+        }
+    }
+
+    // returns a borrowed connection to the pool
+    void release(final PooledConnection pooled) {
+        try {
+            if (!closed && !isExpired(pooled) && reset(pooled)) {
+                offerIdle(pooled);
+            } else {
+                destroy(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean reset(final PooledConnection pooled) {
+        final Connection con = pooled.connection;
+        try {
+            if (con.isClosed()) {
+                return false;
+            }
+            final boolean autoCommit = con.getAutoCommit();
+            if (!autoCommit && pooled.dirty) {
+                con.rollback();
+            }
+            pooled.dirty = false;
+            if (autoCommit != pooled.autoCommit) {
+                con.setAutoCommit(pooled.autoCommit);
+            }
+            if (pooled.readOnlyChanged) {
+                con.setReadOnly(false);
+                pooled.readOnlyChanged = false;
+            }
+            return true;
+        } catch (final SQLException e) {
+            logger.debug("Failed to reset a pooled connection, closing it", e);
+            return false;
+        }
+    }
+
+    private void destroy(final PooledConnection pooled) {
+        totalCount.decrementAndGet();
+        destroyedCount.incrementAndGet();
+        try {
+            pooled.connection.close();
+        } catch (final SQLException e) {
+            logger.debug("Failed to close a pooled connection", e);
+        }
+    }
+
+    /**
+     * Closes the idle connections, and the borrowed ones when they are
+     * returned. The pool can not be used afterwards.
+     */
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = pollIdle()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    /**
+     * Returns the connection of the target data source a connection borrowed
+     * from a pool wraps, or <code>null</code> if the given connection was not
+     * borrowed from a pool.
+     */
+    static Connection getTargetConnection(final Connection con) {
+        if (Proxy.isProxyClass(con.getClass())) {
+            final InvocationHandler handler = Proxy.getInvocationHandler(con);
+            if (handler instanceof PooledConnectionHandler) {
+                return ((PooledConnectionHandler) handler).pooled.connection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the maximum time (in milliseconds) to wait for a connection.
+     * Defaults to {@link #DEFAULT_BORROW_TIMEOUT}.
+     */
+    public long getBorrowTimeout() {
+        return borrowTimeout;
+    }
+
+    /**
+     * Sets the maximum time (in milliseconds) to wait for a connection when
+     * all of them are borrowed.
+     */
+    public void setBorrowTimeout(final long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    /**
+     * Returns the maximum lifetime (in milliseconds) of a connection. Defaults
+     * to {@link #DEFAULT_MAX_LIFETIME}.
+     */
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    /**
+     * Sets the maximum lifetime (in milliseconds) of a connection, after which
+     * it is closed instead of being reused. <code>0</code> means connections
+     * are reused for ever.
+     */
+    public void setMaxLifetime(final long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    /**
+     * Returns the time (in milliseconds) a connection can be idle before being
+     * validated when borrowed. Defaults to {@link #DEFAULT_VALIDATION_INTERVAL}.
+     */
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    /**
+     * Sets the time (in milliseconds) a connection can be idle before being
+     * validated when borrowed. Connections used more recently are not
+     * validated, saving a round trip to the database. <code>0</code> means
+     * connections are always validated.
+     */
+    public void setValidationInterval(final long validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    /**
+     * Returns the timeout (in seconds) of the validation of a connection.
+     * Defaults to {@link #DEFAULT_VALIDATION_TIMEOUT}.
+     */
+    public int getValidationTimeout() {
+        return validationTimeout;
+    }
+
+    /**
+     * Sets the timeout (in seconds) of the validation of a connection.
+     */
+    public void setValidationTimeout(final int validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of borrowed connections.
+     */
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    /**
+     * Returns the number of idle connections.
+     */
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    /**
+     * Returns the number of open connections (borrowed and idle).
+     */
+    public int getTotalCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * Returns the number of connections borrowed from the pool.
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * Returns the number of connections opened by the pool.
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * Returns the number of connections closed by the pool.
+     */
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    /**
+     * Returns the number of idle connections that failed validation.
+     */
+    public long getValidationFailureCount() {
+        return validationFailureCount.get();
+    }
+
+    /**
+     * Returns the number of times a caller timed out waiting for a connection.
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * Returns the total time (in milliseconds) callers waited for a
+     * connection.
+     */
+    public long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("getParentLogger");
+    }
+
+    @Override
+    public String toString() {
+        return "PoolingDataSource[active=" + getActiveCount() + ", idle=" + getIdleCount() + ", max=" + maxSize
+                + "]";
+    }
+
+    private static final class PooledConnection {
+
+        final Connection connection;
+
+        final boolean autoCommit;
+
+        final long created = System.nanoTime();
+
+        volatile long lastUsed = created;
+
+        // statements were created since the last commit or rollback
+        volatile boolean dirty;
+
+        volatile boolean readOnlyChanged;
+
+        PooledConnection(final Connection connection) throws SQLException {
+            this.connection = connection;
+            autoCommit = connection.getAutoCommit();
+        }
+    }
+
+    /**
+     * Returns the connection to the pool when closed, instead of closing it.
+     */
+    private static final class PooledConnectionHandler implements InvocationHandler {
+
+        private final PoolingDataSource pool;
+
+        private final PooledConnection pooled;
+
+        private volatile boolean closed;
+
+        PooledConnectionHandler(final PoolingDataSource pool, final PooledConnection pooled) {
+            this.pool = pool;
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+            if (name.equals("close")) {
+                if (!closed) {
+                    closed = true;
+                    pool.release(pooled);
+                }
+                return null;
+            } else if (name.equals("isClosed")) {
+                return closed || pooled.connection.isClosed() ? Boolean.TRUE : Boolean.FALSE;
+            } else if (name.equals("equals")) {
+                return proxy == args[0] ? Boolean.TRUE : Boolean.FALSE;
+            } else if (name.equals("hashCode")) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            } else if (name.equals("toString")) {
+                return "PooledConnection[" + pooled.connection + "]";
+            }
+            if (closed) {
+                throw new SQLException("Connection was returned to the pool");
+            }
+            if (name.equals("commit") || name.equals("rollback") && (args == null || args.length == 0)) {
+                pooled.dirty = false;
+            } else if (name.startsWith("prepare") || name.equals("createStatement") || name.equals("setSavepoint")) {
+                pooled.dirty = true;
+            } else if (name.equals("setReadOnly")) {
+                pooled.readOnlyChanged = true;
+            }
+            try {
+                return method.invoke(pooled.connection, args);
+            } catch (final InvocationTargetException ex) {
+                throw ex.getTargetException();
+            }
+        }
+    }
+}
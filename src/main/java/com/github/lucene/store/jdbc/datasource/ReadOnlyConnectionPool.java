@@ -0,0 +1,181 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.lucene.store.jdbc.datasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small, bounded, pool of read only connections, used to keep a connection
+ * (and the result set and LOB handle read using it) for the lifetime of an
+ * index input. Connections are created using the target data source of a
+ * {@link TransactionAwareDataSourceProxy} (if the given data source is one),
+ * so they are never bound to a thread.
+ * <p/>
+ * Borrowing never waits: if all the connections are in use,
+ * {@link #tryBorrow()} returns <code>null</code>, and the caller is expected to
+ * fall back to its regular (non pinned) reads.
+ */
+public class ReadOnlyConnectionPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadOnlyConnectionPool.class);
+
+    private final DataSource dataSource;
+
+    private final int maxSize;
+
+    private final Semaphore permits;
+
+    private final ArrayDeque<Connection> idle = new ArrayDeque<Connection>();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a new pool.
+     *
+     * @param dataSource
+     *            The data source to create connections with
+     * @param maxSize
+     *            The maximum number of connections
+     */
+    public ReadOnlyConnectionPool(final DataSource dataSource, final int maxSize) {
+        this.dataSource = dataSource instanceof TransactionAwareDataSourceProxy
+                ? ((TransactionAwareDataSourceProxy) dataSource).getTargetDataSource() : dataSource;
+        this.maxSize = maxSize;
+        permits = new Semaphore(maxSize);
+    }
+
+    /**
+     * Borrows a connection, returns <code>null</code> if all the connections
+     * are in use (or the pool is closed).
+     */
+    public Connection tryBorrow() throws SQLException {
+        if (closed || !permits.tryAcquire()) {
+            return null;
+        }
+        try {
+            Connection con;
+            while ((con = pollIdle()) != null) {
+                if (!con.isClosed()) {
+                    return con;
+                }
+            }
+            con = dataSource.getConnection();
+            try {
+                con.setReadOnly(true);
+            } catch (final SQLException e) {
+                // only a hint
+                logger.debug("Failed to set the connection to read only", e);
+            }
+            return con;
+        } catch (final SQLException e) {
+            permits.release();
+            throw e;
+        } catch (final RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Connection pollIdle() {
+        synchronized (idle) {
+            return idle.pollFirst();
+        }
+    }
+
+    /**
+     * Returns a borrowed connection to the pool.
+     *
+     * @param con
+     *            The connection
+     * @param broken
+     *            <code>true</code> if the connection failed and should be
+     *            closed instead of reused
+     */
+    public void release(final Connection con, final boolean broken) {
+        try {
+            if (!broken && !closed && endTransaction(con)) {
+                synchronized (idle) {
+                    idle.addFirst(con);
+                }
+                return;
+            }
+            closeConnection(con);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean endTransaction(final Connection con) {
+        try {
+            if (!con.getAutoCommit()) {
+                con.rollback();
+            }
+            return true;
+        } catch (final SQLException e) {
+            logger.debug("Failed to end the transaction of a pooled connection, closing it", e);
+            return false;
+        }
+    }
+
+    /**
+     * Closes the idle connections. Connections borrowed at that time are
+     * closed when released.
+     */
+    public void close() {
+        closed = true;
+        Connection con;
+        while ((con = pollIdle()) != null) {
+            closeConnection(con);
+        }
+    }
+
+    private void closeConnection(final Connection con) {
+        try {
+            con.close();
+        } catch (final SQLException e) {
+            logger.debug("Failed to close pooled connection", e);
+        }
+    }
+
+    /**
+     * Returns the maximum number of connections.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of connections currently borrowed.
+     */
+    public int getBorrowedCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    @Override
+    public String toString() {
+        return "ReadOnlyConnectionPool[borrowed=" + getBorrowedCount() + "/" + maxSize + "]";
+    }
+}
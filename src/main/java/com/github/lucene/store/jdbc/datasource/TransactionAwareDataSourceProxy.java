@@ -105,6 +105,15 @@ public class TransactionAwareDataSourceProxy implements DataSource {
         return dataSource;
     }
 
+    /**
+     * Returns the connection bound to the current thread, or <code>null</code>
+     * if no connection is bound to it.
+     */
+    public Connection getBoundConnection() {
+        final Map<DataSource, Connection> holders = connectionHolders.get();
+        return holders == null ? null : holders.get(getTargetDataSource());
+    }
+
     @Override
     public int getLoginTimeout() throws SQLException {
         return getTargetDataSource().getLoginTimeout();
@@ -59,6 +59,14 @@ public class DB2Dialect extends Dialect {
         return "blob(" + length + " K)";
     }
 
+    @Override
+    public String getVarbinaryType(final int length) {
+        if (length <= 32672) {
+            return "varchar(" + length + ") for bit data";
+        }
+        return "blob(" + length + ")";
+    }
+
     @Override
     public String getNumberType() {
         return "integer";
@@ -16,6 +16,10 @@
 
 package com.github.lucene.store.jdbc.dialect;
 
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+
 import com.github.lucene.store.jdbc.JdbcDirectorySettings;
 
 /**
@@ -121,6 +125,43 @@ public abstract class Dialect {
         return "";
     }
 
+    /**
+     * Does the database support selecting a range of bytes of the blob column
+     * on the server side (see {@link #getBlobRangeSelectString(String)}).
+     * Defaults to <code>false</code>.
+     */
+    public boolean supportsBlobRangeSelect() {
+        return false;
+    }
+
+    /**
+     * The sql expression that selects a range of bytes of the given blob
+     * column. The expression has two parameters, the (one based) position of
+     * the first byte and the number of bytes to select, bound in that order
+     * unless {@link #isBlobRangeSelectLengthFirst()} is <code>true</code>.
+     * Defaults to throw an Unsupported exception (see
+     * {@link #supportsBlobRangeSelect()}).
+     */
+    public String getBlobRangeSelectString(final String blobColumn) {
+        throw new UnsupportedOperationException("Database not known to define a blob range select");
+    }
+
+    /**
+     * Does the blob range select expression take the number of bytes before
+     * the position. Defaults to <code>false</code>.
+     */
+    public boolean isBlobRangeSelectLengthFirst() {
+        return false;
+    }
+
+    /**
+     * The maximum number of bytes a single blob range select can return.
+     * Defaults to {@link Integer#MAX_VALUE}.
+     */
+    public int getBlobRangeSelectMaxLength() {
+        return Integer.MAX_VALUE;
+    }
+
     /**
      * Completely optional cascading drop clause
      */
@@ -149,6 +190,92 @@ public abstract class Dialect {
         return getForUpdateString();
     }
 
+    /**
+     * Does the database support named advisory locks held by a connection
+     * (see {@link com.github.lucene.store.jdbc.lock.AdvisoryLock}). Defaults
+     * to <code>false</code>.
+     */
+    public boolean supportsAdvisoryLocks() {
+        return false;
+    }
+
+    /**
+     * The sql trying to obtain the advisory lock with the given name (the
+     * only parameter) for the connection, without waiting. Selects a single
+     * value, <code>1</code> (or <code>true</code>) if the lock was obtained.
+     * If {@link #isAdvisoryLockCallable()}, the value is returned in a second,
+     * integer, out parameter instead. Defaults to throw an Unsupported
+     * exception (see {@link #supportsAdvisoryLocks()}).
+     */
+    public String getAdvisoryLockString() {
+        throw new UnsupportedOperationException("Database not known to define advisory locks");
+    }
+
+    /**
+     * The sql releasing the advisory lock with the given name (the only
+     * parameter) held by the connection. Defaults to throw an Unsupported
+     * exception (see {@link #supportsAdvisoryLocks()}).
+     */
+    public String getAdvisoryUnlockString() {
+        throw new UnsupportedOperationException("Database not known to define advisory locks");
+    }
+
+    /**
+     * Can the database wait for an advisory lock for a given time (see
+     * {@link #getAdvisoryLockWaitString(int)}). Defaults to
+     * <code>false</code>.
+     */
+    public boolean supportsAdvisoryLockWait() {
+        return false;
+    }
+
+    /**
+     * Same as {@link #getAdvisoryLockString()}, only waits for the given number
+     * of seconds for the lock to be released. Defaults to throw an Unsupported
+     * exception (see {@link #supportsAdvisoryLockWait()}).
+     */
+    public String getAdvisoryLockWaitString(final int seconds) {
+        throw new UnsupportedOperationException("Database not known to define advisory locks with a timeout");
+    }
+
+    /**
+     * Are the advisory lock and unlock sql callable statements. Defaults to
+     * <code>false</code>.
+     */
+    public boolean isAdvisoryLockCallable() {
+        return false;
+    }
+
+    /**
+     * Does the database support waiting for a row lock for a given time (see
+     * {@link #getForUpdateWaitString(int)}). Defaults to <code>false</code>.
+     */
+    public boolean supportsForUpdateWait() {
+        return false;
+    }
+
+    /**
+     * The <code>FOR UPDATE</code> clause waiting for the given number of
+     * seconds for the row lock. Defaults to throw an Unsupported exception
+     * (see {@link #supportsForUpdateWait()}).
+     */
+    public String getForUpdateWaitString(final int seconds) {
+        throw new UnsupportedOperationException("Database not known to define a for update wait clause");
+    }
+
+    /**
+     * Is the given exception, thrown by a select ... for update, caused by
+     * the row being locked by someone else (the lock is not available without
+     * waiting, or the wait timed out)? Defaults to <code>true</code> for
+     * timeouts, transaction rollbacks (sql state class <code>40</code>, such
+     * as deadlocks) and the <code>55P03</code> (lock not available) sql state.
+     */
+    public boolean isLockContention(final SQLException e) {
+        final String sqlState = e.getSQLState();
+        return e instanceof SQLTimeoutException || e instanceof SQLTransactionRollbackException
+                || sqlState != null && (sqlState.startsWith("40") || sqlState.equals("55P03"));
+    }
+
     /**
      * The type of the table that is created. Defaults to an empty string.
      */
@@ -194,11 +321,29 @@ public abstract class Dialect {
      */
     public abstract String getBlobType(long length);
 
+    /**
+     * The database variable length binary type for the given length, used to
+     * store chunks with chunked storage (see
+     * {@link JdbcDirectorySettings#isChunkedStorage()}). The length is in
+     * bytes. Defaults to <code>varbinary(length)</code>.
+     */
+    public String getVarbinaryType(final int length) {
+        return "varbinary(" + length + ")";
+    }
+
     /**
      * The database number type.
      */
     public abstract String getNumberType();
 
+    /**
+     * The database 64 bit number type, used for the file sizes so files can be
+     * larger than 2GB. Defaults to <code>bigint</code>.
+     */
+    public String getBigNumberType() {
+        return "bigint";
+    }
+
     /**
      * The database TIMESTAMP type.
      */
@@ -43,6 +43,16 @@ public class H2Dialect extends Dialect {
         return true;
     }
 
+    @Override
+    public boolean supportsBlobRangeSelect() {
+        return true;
+    }
+
+    @Override
+    public String getBlobRangeSelectString(final String blobColumn) {
+        return "substring(" + blobColumn + ", ?, ?)";
+    }
+
     @Override
     public String getVarcharType(final int length) {
         return "varchar(" + length + ")";
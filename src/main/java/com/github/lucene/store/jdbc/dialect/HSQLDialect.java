@@ -52,6 +52,16 @@ public class HSQLDialect extends Dialect {
         return true;
     }
 
+    @Override
+    public boolean supportsBlobRangeSelect() {
+        return true;
+    }
+
+    @Override
+    public String getBlobRangeSelectString(final String blobColumn) {
+        return "substring(" + blobColumn + " from ? for ?)";
+    }
+
     @Override
     public String getVarcharType(final int length) {
         return "varchar(" + length + ")";
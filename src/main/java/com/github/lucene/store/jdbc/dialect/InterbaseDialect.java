@@ -43,11 +43,21 @@ public class InterbaseDialect extends Dialect {
         return "blob";
     }
 
+    @Override
+    public String getVarbinaryType(final int length) {
+        return "blob";
+    }
+
     @Override
     public String getNumberType() {
         return "integer";
     }
 
+    @Override
+    public String getBigNumberType() {
+        return "numeric(18,0)";
+    }
+
     @Override
     public String getTimestampType() {
         return "timestamp";
@@ -16,6 +16,8 @@
 
 package com.github.lucene.store.jdbc.dialect;
 
+import java.sql.SQLException;
+
 /**
  * A MySQL dialect.
  *
@@ -59,6 +61,15 @@ public class MySQLDialect extends Dialect {
         return true;
     }
 
+    /**
+     * Lock wait timeout exceeded (1205), or the row is locked and
+     * <code>NOWAIT</code> was requested (3572).
+     */
+    @Override
+    public boolean isLockContention(final SQLException e) {
+        return e.getErrorCode() == 1205 || e.getErrorCode() == 3572 || super.isLockContention(e);
+    }
+
     /**
      * MySQL supports if exists before the table name.
      */
@@ -85,6 +96,45 @@ public class MySQLDialect extends Dialect {
         return "select now()";
     }
 
+    @Override
+    public boolean supportsBlobRangeSelect() {
+        return true;
+    }
+
+    @Override
+    public String getBlobRangeSelectString(final String blobColumn) {
+        return "substring(" + blobColumn + ", ?, ?)";
+    }
+
+    /**
+     * Uses <code>get_lock</code>, named by the sha1 of the lock name (lock
+     * names are limited to 64 characters).
+     */
+    @Override
+    public boolean supportsAdvisoryLocks() {
+        return true;
+    }
+
+    @Override
+    public String getAdvisoryLockString() {
+        return "select get_lock(sha1(?), 0)";
+    }
+
+    @Override
+    public boolean supportsAdvisoryLockWait() {
+        return true;
+    }
+
+    @Override
+    public String getAdvisoryLockWaitString(final int seconds) {
+        return "select get_lock(sha1(?), " + seconds + ")";
+    }
+
+    @Override
+    public String getAdvisoryUnlockString() {
+        return "select release_lock(sha1(?))";
+    }
+
     @Override
     public String getVarcharType(final int length) {
         return "varchar(" + length + ")";
@@ -95,6 +145,18 @@ public class MySQLDialect extends Dialect {
         return "longblob";
     }
 
+    /**
+     * Large chunks are stored in a <code>mediumblob</code> so they do not
+     * count toward the 64K row size limit.
+     */
+    @Override
+    public String getVarbinaryType(final int length) {
+        if (length <= 16 * 1024) {
+            return "varbinary(" + length + ")";
+        }
+        return "mediumblob";
+    }
+
     @Override
     public String getNumberType() {
         return "integer";
@@ -16,6 +16,8 @@
 
 package com.github.lucene.store.jdbc.dialect;
 
+import java.sql.SQLException;
+
 /**
  * An Oracle dialect. Works for Oracle 9 and above.
  *
@@ -56,16 +58,73 @@ public class OracleDialect extends Dialect {
                 + "' and lower(table_name) = ?";
     }
 
+    /**
+     * Uses <code>dbms_lock</code> (requires execute privileges on it). Note,
+     * allocating the lock handle commits the transaction of the connection.
+     */
+    @Override
+    public boolean supportsAdvisoryLocks() {
+        return true;
+    }
+
+    @Override
+    public String getAdvisoryLockString() {
+        return "declare h varchar2(128); begin dbms_lock.allocate_unique(?, h); "
+                + "? := case dbms_lock.request(h, dbms_lock.x_mode, 0, false) when 0 then 1 else 0 end; end;";
+    }
+
+    @Override
+    public String getAdvisoryUnlockString() {
+        return "declare h varchar2(128); r integer; begin dbms_lock.allocate_unique(?, h); "
+                + "r := dbms_lock.release(h); end;";
+    }
+
+    @Override
+    public boolean supportsAdvisoryLockWait() {
+        return true;
+    }
+
+    @Override
+    public String getAdvisoryLockWaitString(final int seconds) {
+        return "declare h varchar2(128); begin dbms_lock.allocate_unique(?, h); "
+                + "? := case dbms_lock.request(h, dbms_lock.x_mode, " + seconds
+                + ", false) when 0 then 1 else 0 end; end;";
+    }
+
+    @Override
+    public boolean isAdvisoryLockCallable() {
+        return true;
+    }
+
     @Override
     public String getCascadeConstraintsString() {
         return " cascade constraints";
     }
 
+    @Override
+    public boolean supportsForUpdateWait() {
+        return true;
+    }
+
+    @Override
+    public String getForUpdateWaitString(final int seconds) {
+        return " for update wait " + seconds;
+    }
+
     @Override
     public String getForUpdateNowaitString() {
         return " for update nowait";
     }
 
+    /**
+     * ORA-00054 (resource busy, nowait) and ORA-30006 (resource busy, wait
+     * timeout expired).
+     */
+    @Override
+    public boolean isLockContention(final SQLException e) {
+        return e.getErrorCode() == 54 || e.getErrorCode() == 30006 || super.isLockContention(e);
+    }
+
     @Override
     public boolean supportsCurrentTimestampSelection() {
         return true;
@@ -81,6 +140,33 @@ public class OracleDialect extends Dialect {
         return false;
     }
 
+    @Override
+    public boolean supportsBlobRangeSelect() {
+        return true;
+    }
+
+    @Override
+    public String getBlobRangeSelectString(final String blobColumn) {
+        return "dbms_lob.substr(" + blobColumn + ", ?, ?)";
+    }
+
+    /**
+     * <code>dbms_lob.substr</code> accepts the amount before the offset.
+     */
+    @Override
+    public boolean isBlobRangeSelectLengthFirst() {
+        return true;
+    }
+
+    /**
+     * <code>dbms_lob.substr</code> returns a <code>RAW</code>, limited to 2000
+     * bytes when called from sql.
+     */
+    @Override
+    public int getBlobRangeSelectMaxLength() {
+        return 2000;
+    }
+
     @Override
     public String getVarcharType(final int length) {
         return "varchar2(" + length + " char)";
@@ -91,11 +177,28 @@ public class OracleDialect extends Dialect {
         return "blob";
     }
 
+    /**
+     * <code>raw</code> is limited to 2000 bytes, larger chunks are stored in a
+     * <code>blob</code>.
+     */
+    @Override
+    public String getVarbinaryType(final int length) {
+        if (length <= 2000) {
+            return "raw(" + length + ")";
+        }
+        return "blob";
+    }
+
     @Override
     public String getNumberType() {
         return "number(10,0)";
     }
 
+    @Override
+    public String getBigNumberType() {
+        return "number(19,0)";
+    }
+
     @Override
     public String getTimestampType() {
         return "timestamp";
@@ -75,6 +75,39 @@ public class PostgreSQLDialect extends Dialect {
         return "select now()";
     }
 
+    /**
+     * Uses <code>lo_get</code> (PostgreSQL 9.4 and up) on the large object,
+     * which is zero based.
+     */
+    @Override
+    public boolean supportsBlobRangeSelect() {
+        return true;
+    }
+
+    @Override
+    public String getBlobRangeSelectString(final String blobColumn) {
+        return "lo_get(" + blobColumn + ", cast(? as bigint) - 1, cast(? as integer))";
+    }
+
+    /**
+     * Uses session level advisory locks, keyed by the first 64 bits of the
+     * md5 of the lock name.
+     */
+    @Override
+    public boolean supportsAdvisoryLocks() {
+        return true;
+    }
+
+    @Override
+    public String getAdvisoryLockString() {
+        return "select pg_try_advisory_lock(('x' || substr(md5(?), 1, 16))::bit(64)::bigint)";
+    }
+
+    @Override
+    public String getAdvisoryUnlockString() {
+        return "select pg_advisory_unlock(('x' || substr(md5(?), 1, 16))::bit(64)::bigint)";
+    }
+
     @Override
     public String getVarcharType(final int length) {
         return "varchar(" + length + ")";
@@ -85,6 +118,11 @@ public class PostgreSQLDialect extends Dialect {
         return "oid";
     }
 
+    @Override
+    public String getVarbinaryType(final int length) {
+        return "bytea";
+    }
+
     @Override
     public String getNumberType() {
         return "int4";
@@ -53,4 +53,53 @@ public class SQLServerDialect extends SybaseDialect {
         }
         return sb.toString();
     }
+
+    /**
+     * Uses session owned application locks (<code>sp_getapplock</code>).
+     */
+    @Override
+    public boolean supportsAdvisoryLocks() {
+        return true;
+    }
+
+    @Override
+    public String getAdvisoryLockString() {
+        return "set nocount on; declare @r int; exec @r = sp_getapplock @Resource = ?, @LockMode = 'Exclusive', "
+                + "@LockOwner = 'Session', @LockTimeout = 0; select case when @r >= 0 then 1 else 0 end";
+    }
+
+    @Override
+    public boolean supportsAdvisoryLockWait() {
+        return true;
+    }
+
+    @Override
+    public String getAdvisoryLockWaitString(final int seconds) {
+        return "set nocount on; declare @r int; exec @r = sp_getapplock @Resource = ?, @LockMode = 'Exclusive', "
+                + "@LockOwner = 'Session', @LockTimeout = " + seconds * 1000
+                + "; select case when @r >= 0 then 1 else 0 end";
+    }
+
+    @Override
+    public String getAdvisoryUnlockString() {
+        return "exec sp_releaseapplock @Resource = ?, @LockOwner = 'Session'";
+    }
+
+    @Override
+    public boolean supportsBlobRangeSelect() {
+        return true;
+    }
+
+    @Override
+    public String getBlobRangeSelectString(final String blobColumn) {
+        return "substring(" + blobColumn + ", ?, ?)";
+    }
+
+    @Override
+    public String getVarbinaryType(final int length) {
+        if (length <= 8000) {
+            return "varbinary(" + length + ")";
+        }
+        return "varbinary(max)";
+    }
 }
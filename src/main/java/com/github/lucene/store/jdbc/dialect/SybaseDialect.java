@@ -58,6 +58,14 @@ public class SybaseDialect extends Dialect {
         return "image";
     }
 
+    @Override
+    public String getVarbinaryType(final int length) {
+        if (length <= 255) {
+            return "varbinary(" + length + ")";
+        }
+        return "image";
+    }
+
     @Override
     public String getNumberType() {
         return "int";
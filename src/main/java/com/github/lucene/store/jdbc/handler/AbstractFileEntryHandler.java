@@ -20,14 +20,21 @@ import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Map;
 
+import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 
 import com.github.lucene.store.jdbc.JdbcDirectory;
 import com.github.lucene.store.jdbc.JdbcFileEntrySettings;
 import com.github.lucene.store.jdbc.JdbcStoreException;
+import com.github.lucene.store.jdbc.index.CompressedJdbcIndexInput;
+import com.github.lucene.store.jdbc.index.IndexInputSelector;
+import com.github.lucene.store.jdbc.index.JdbcBufferedIndexInput;
 import com.github.lucene.store.jdbc.index.JdbcIndexConfigurable;
+import com.github.lucene.store.jdbc.index.RAMAndFileJdbcIndexOutput;
 import com.github.lucene.store.jdbc.support.JdbcTable;
 import com.github.lucene.store.jdbc.support.JdbcTemplate;
 
@@ -38,7 +45,18 @@ import com.github.lucene.store.jdbc.support.JdbcTemplate;
  * Supports the creation of configurable <code>IndexInput</code> and
  * <code>IndexOutput</code>, base on the
  * {@link JdbcFileEntrySettings#INDEX_INPUT_TYPE_SETTING} and
- * {@link JdbcFileEntrySettings#INDEX_OUTPUT_TYPE_SETTING}.
+ * {@link JdbcFileEntrySettings#INDEX_OUTPUT_TYPE_SETTING}. When an
+ * {@link IndexInputSelector} is configured for the directory, it picks the
+ * <code>IndexInput</code> based on the size of the file and the
+ * <code>IOContext</code> instead (not used with chunked storage).
+ * <p/>
+ * The settings the inputs and outputs are configured with depend on the
+ * <code>IOContext</code> (see {@link #inputSettings(JdbcFileEntrySettings, IOContext)}
+ * and {@link #outputSettings(JdbcFileEntrySettings, IOContext)}): merges read
+ * using large buffers and read ahead, without going through the block cache,
+ * and files read once do not go through the block cache either. Flushes and
+ * merges of large segments can write using a different output (see
+ * {@link #LARGE_SEGMENT_INDEX_OUTPUT_TYPE_SETTING}).
  * <p/>
  * Does not implement the deletion of files.
  *
@@ -46,6 +64,42 @@ import com.github.lucene.store.jdbc.support.JdbcTemplate;
  */
 public abstract class AbstractFileEntryHandler implements FileEntryHandler {
 
+    /**
+     * The buffer size (in bytes) of the inputs opened for a merge. Defaults to
+     * {@link #DEFAULT_MERGE_BUFFER_SIZE}.
+     */
+    public static final String MERGE_BUFFER_SIZE_SETTING = "indexInput.merge.bufferSize";
+
+    /**
+     * The number of buffers read ahead by the inputs opened for a merge.
+     * Defaults to {@link #DEFAULT_MERGE_READ_AHEAD_WINDOW}.
+     */
+    public static final String MERGE_READ_AHEAD_WINDOW_SETTING = "indexInput.merge.readAhead.window";
+
+    /**
+     * The <code>IndexOutput</code> type used to write the files of a flushed or
+     * merged segment whose estimated size is at least
+     * {@link #LARGE_SEGMENT_SIZE_SETTING} (for example, a streaming output
+     * instead of one buffering the files in memory). Not set by default, in
+     * which case the {@link JdbcFileEntrySettings#INDEX_OUTPUT_TYPE_SETTING} is
+     * always used.
+     */
+    public static final String LARGE_SEGMENT_INDEX_OUTPUT_TYPE_SETTING = "indexOutput.largeSegment.type";
+
+    /**
+     * The estimated size (in bytes) of a flushed or merged segment from which
+     * its files are written using the
+     * {@link #LARGE_SEGMENT_INDEX_OUTPUT_TYPE_SETTING}. Defaults to
+     * {@link #DEFAULT_LARGE_SEGMENT_SIZE}.
+     */
+    public static final String LARGE_SEGMENT_SIZE_SETTING = "indexOutput.largeSegment.size";
+
+    public static final long DEFAULT_LARGE_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    public static final int DEFAULT_MERGE_BUFFER_SIZE = 64 * 1024;
+
+    public static final int DEFAULT_MERGE_READ_AHEAD_WINDOW = 2;
+
     protected JdbcDirectory jdbcDirectory;
 
     protected JdbcTable table;
@@ -114,16 +168,47 @@ public abstract class AbstractFileEntryHandler implements FileEntryHandler {
 
     @Override
     public void renameFile(final String from, final String to) throws IOException {
-        // TODO find a way if it can be done in the same sql query
-        deleteFile(to);
-        jdbcTemplate.executeUpdate(table.sqlUpdateNameByName(), new JdbcTemplate.PrepateStatementAwareCallback() {
-            @Override
-            public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
-                ps.setFetchSize(1);
-                ps.setString(1, to);
-                ps.setString(2, from);
-            }
-        });
+        renameFiles(Collections.singletonMap(from, to));
+    }
+
+    /**
+     * Renames several file entries, each from the name of the key to the name
+     * of the value of the given map, using one batch deleting the entries of
+     * the target names (including entries marked as deleted, which would
+     * otherwise collide with the renamed ones), and one batch renaming the
+     * entries. Both batches are part of the transaction of the caller, or of
+     * a single transaction if the connection is in auto commit mode (see
+     * {@link JdbcTemplate#executeBatches(String[], JdbcTemplate.PrepateStatementAwareCallback[])}).
+     * The target names must not be renamed themselves (see
+     * {@link JdbcDirectory#renameFiles(Map)}).
+     * <p/>
+     * {@link JdbcDirectory} calls it instead of
+     * {@link #renameFile(String, String)} for the handlers extending this
+     * class.
+     *
+     * @param names
+     *            Maps the names to rename from to the names to rename to
+     */
+    public void renameFiles(final Map<String, String> names) throws IOException {
+        jdbcTemplate.executeBatches(new String[] { table.sqlDeleteByName(), table.sqlUpdateNameByName() },
+                new JdbcTemplate.PrepateStatementAwareCallback[] { new JdbcTemplate.PrepateStatementAwareCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        for (final String to : names.values()) {
+                            ps.setString(1, to);
+                            ps.addBatch();
+                        }
+                    }
+                }, new JdbcTemplate.PrepateStatementAwareCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        for (final Map.Entry<String, String> entry : names.entrySet()) {
+                            ps.setString(1, entry.getValue());
+                            ps.setString(2, entry.getKey());
+                            ps.addBatch();
+                        }
+                    }
+                } });
     }
 
     @Override
@@ -148,24 +233,68 @@ public abstract class AbstractFileEntryHandler implements FileEntryHandler {
 
     @Override
     public IndexInput openInput(final String name) throws IOException {
+        return openInput(name, IOContext.DEFAULT);
+    }
+
+    /**
+     * Opens an <code>IndexInput</code> in order to read the file contents,
+     * configured for the given context (see
+     * {@link #inputSettings(JdbcFileEntrySettings, IOContext)}).
+     * {@link JdbcDirectory} calls it instead of {@link #openInput(String)}
+     * for the handlers extending this class.
+     */
+    public IndexInput openInput(final String name, final IOContext context) throws IOException {
         IndexInput indexInput;
-        final JdbcFileEntrySettings settings = jdbcDirectory.getSettings().getFileEntrySettings(name);
+        final JdbcFileEntrySettings settings = inputSettings(
+                jdbcDirectory.getSettings().getFileEntrySettings(name), context);
+        Class<?> inputClass = null;
+        final IndexInputSelector selector = jdbcDirectory.getSettings().getIndexInputSelector();
+        if (selector != null && !table.isChunked() && !isCompressed(settings)) {
+            // served by the metadata cache if enabled
+            final long length = jdbcDirectory.fileLength(name);
+            inputClass = selector.selectIndexInput(name, length, context, jdbcDirectory);
+        }
         try {
-            final Class<?> inputClass = settings.getSettingAsClass(JdbcFileEntrySettings.INDEX_INPUT_TYPE_SETTING,
-                    null);
+            if (inputClass == null) {
+                inputClass = settings.getSettingAsClass(JdbcFileEntrySettings.INDEX_INPUT_TYPE_SETTING, null);
+            }
             indexInput = (IndexInput) inputClass.newInstance();
         } catch (final Exception e) {
-            throw new JdbcStoreException("Failed to create indexInput instance ["
-                    + settings.getSetting(JdbcFileEntrySettings.INDEX_INPUT_TYPE_SETTING) + "]", e);
+            throw new JdbcStoreException("Failed to create indexInput instance [" + (inputClass != null
+                    ? inputClass.getName() : settings.getSetting(JdbcFileEntrySettings.INDEX_INPUT_TYPE_SETTING))
+                    + "]", e);
         }
         ((JdbcIndexConfigurable) indexInput).configure(name, jdbcDirectory, settings);
         return indexInput;
     }
 
+    // compressed files can only be read by the compressed input
+    private static boolean isCompressed(final JdbcFileEntrySettings settings) throws IOException {
+        try {
+            final Class<?> inputClass = settings.getSettingAsClass(JdbcFileEntrySettings.INDEX_INPUT_TYPE_SETTING,
+                    null);
+            return inputClass != null && CompressedJdbcIndexInput.class.isAssignableFrom(inputClass);
+        } catch (final ClassNotFoundException e) {
+            throw new JdbcStoreException("Failed to find indexInput class", e);
+        }
+    }
+
     @Override
     public IndexOutput createOutput(final String name) throws IOException {
+        return createOutput(name, IOContext.DEFAULT);
+    }
+
+    /**
+     * Creates an <code>IndexOutput</code> in order to write the file
+     * contents, configured for the given context (see
+     * {@link #outputSettings(JdbcFileEntrySettings, IOContext)}).
+     * {@link JdbcDirectory} calls it instead of {@link #createOutput(String)}
+     * for the handlers extending this class.
+     */
+    public IndexOutput createOutput(final String name, final IOContext context) throws IOException {
         IndexOutput indexOutput;
-        final JdbcFileEntrySettings settings = jdbcDirectory.getSettings().getFileEntrySettings(name);
+        final JdbcFileEntrySettings settings = outputSettings(
+                jdbcDirectory.getSettings().getFileEntrySettings(name), context);
         try {
             final Class<?> inputClass = settings.getSettingAsClass(JdbcFileEntrySettings.INDEX_OUTPUT_TYPE_SETTING,
                     null);
@@ -178,6 +307,60 @@ public abstract class AbstractFileEntryHandler implements FileEntryHandler {
         return indexOutput;
     }
 
+    /**
+     * Returns the settings an input opened with the given context is
+     * configured with. Inputs opened for a merge use
+     * {@link #MERGE_BUFFER_SIZE_SETTING} and
+     * {@link #MERGE_READ_AHEAD_WINDOW_SETTING}, and neither they nor inputs
+     * of files read once go through the block cache (they would only evict
+     * the blocks used by searches).
+     */
+    protected JdbcFileEntrySettings inputSettings(final JdbcFileEntrySettings settings, final IOContext context) {
+        final boolean merge = context.context == IOContext.Context.MERGE;
+        if (!merge && !context.readOnce) {
+            return settings;
+        }
+        final JdbcFileEntrySettings inputSettings = new JdbcFileEntrySettings(settings);
+        inputSettings.setBooleanSetting(JdbcBufferedIndexInput.BLOCK_CACHE_SETTING, false);
+        if (merge) {
+            inputSettings.setIntSetting(JdbcBufferedIndexInput.BUFFER_SIZE_SETTING,
+                    settings.getSettingAsInt(MERGE_BUFFER_SIZE_SETTING, DEFAULT_MERGE_BUFFER_SIZE));
+            inputSettings.setIntSetting(JdbcBufferedIndexInput.READ_AHEAD_WINDOW_SETTING,
+                    settings.getSettingAsInt(MERGE_READ_AHEAD_WINDOW_SETTING, DEFAULT_MERGE_READ_AHEAD_WINDOW));
+        }
+        return inputSettings;
+    }
+
+    /**
+     * Returns the settings an output created with the given context is
+     * configured with. The files of a flushed or merged segment whose
+     * estimated size is at least {@link #LARGE_SEGMENT_SIZE_SETTING} use the
+     * {@link #LARGE_SEGMENT_INDEX_OUTPUT_TYPE_SETTING}, if set. The estimate
+     * is the size of the whole segment, not of its files, so it is compared
+     * against a segment level threshold (and not, for example, the memory
+     * threshold of {@link RAMAndFileJdbcIndexOutput}).
+     */
+    protected JdbcFileEntrySettings outputSettings(final JdbcFileEntrySettings settings, final IOContext context) {
+        final String largeSegmentOutputType = settings.getSetting(LARGE_SEGMENT_INDEX_OUTPUT_TYPE_SETTING);
+        if (largeSegmentOutputType == null) {
+            return settings;
+        }
+        final long segmentSize;
+        if (context.context == IOContext.Context.MERGE) {
+            segmentSize = context.mergeInfo.estimatedMergeBytes;
+        } else if (context.context == IOContext.Context.FLUSH) {
+            segmentSize = context.flushInfo.estimatedSegmentSize;
+        } else {
+            return settings;
+        }
+        if (segmentSize < settings.getSettingAsLong(LARGE_SEGMENT_SIZE_SETTING, DEFAULT_LARGE_SEGMENT_SIZE)) {
+            return settings;
+        }
+        final JdbcFileEntrySettings outputSettings = new JdbcFileEntrySettings(settings);
+        outputSettings.setSetting(JdbcFileEntrySettings.INDEX_OUTPUT_TYPE_SETTING, largeSegmentOutputType);
+        return outputSettings;
+    }
+
     @Override
     public void close() throws IOException {
         // do nothing
@@ -16,6 +16,7 @@
 
 package com.github.lucene.store.jdbc.index;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.PreparedStatement;
@@ -51,27 +52,53 @@ public abstract class AbstractJdbcIndexOutput extends JdbcBufferedIndexOutput {
         super.close();
         final long length = length();
         doBeforeClose();
+        if (jdbcDirectory.canHoldUntilSync(length)) {
+            // group commit, inserted when the directory is synced
+            jdbcDirectory.holdUntilSync(name, readFully(openInputStream(), (int) length));
+            doAfterClose();
+            return;
+        }
         jdbcDirectory.getJdbcTemplate().executeUpdate(jdbcDirectory.getTable().sqlInsert(),
-                new JdbcTemplate.PrepateStatementAwareCallback() {
-                    @Override
-                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
-                        ps.setFetchSize(1);
-                        ps.setString(1, name);
-                        final InputStream is = openInputStream();
-                        if (jdbcDirectory.getDialect().useInputStreamToInsertBlob()) {
-                            ps.setBinaryStream(2, is, (int) length());
-                        } else {
-                            ps.setBlob(2, new InputStreamBlob(is, length));
-                        }
-                        ps.setLong(3, length);
-                        ps.setBoolean(4, false);
-                    }
-                });
+                insertCallback(openInputStream(), length));
         doAfterClose();
     }
 
     protected abstract InputStream openInputStream() throws IOException;
 
+    /**
+     * Returns the callback filling the insert statement of the file entry,
+     * reading its value from the given stream.
+     */
+    protected JdbcTemplate.PrepateStatementAwareCallback insertCallback(final InputStream is, final long length) {
+        return new JdbcTemplate.PrepateStatementAwareCallback() {
+            @Override
+            public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                ps.setFetchSize(1);
+                ps.setString(1, name);
+                if (jdbcDirectory.getDialect().useInputStreamToInsertBlob()) {
+                    ps.setBinaryStream(2, is, length);
+                } else {
+                    ps.setBlob(2, new InputStreamBlob(is, length));
+                }
+                ps.setLong(3, length);
+                ps.setBoolean(4, false);
+            }
+        };
+    }
+
+    private byte[] readFully(final InputStream is, final int length) throws IOException {
+        final byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            final int read = is.read(data, offset, length - offset);
+            if (read < 0) {
+                throw new EOFException("read past EOF: " + name);
+            }
+            offset += read;
+        }
+        return data;
+    }
+
     protected void doAfterClose() throws IOException {
 
     }
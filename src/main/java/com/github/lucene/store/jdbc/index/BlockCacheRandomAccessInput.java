@@ -0,0 +1,145 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.apache.lucene.store.RandomAccessInput;
+
+import com.github.lucene.store.jdbc.cache.BlockCache;
+
+/**
+ * A {@link RandomAccessInput} over a range of a file, reading directly from
+ * the blocks of the {@link BlockCache}. The last used block is kept, so
+ * absolute reads falling in the same block do not go through the cache
+ * again, and values are decoded from the block without copying.
+ */
+final class BlockCacheRandomAccessInput implements RandomAccessInput {
+
+    private final BlockCache blockCache;
+
+    private final String table;
+
+    private final String name;
+
+    private final long fileLength;
+
+    private final long offset;
+
+    private final long length;
+
+    private final BlockCache.BlockLoader loader;
+
+    private final int blockSize;
+
+    // the last used block, replaced as a whole so that it is safe to share
+    private CachedBlock current;
+
+    BlockCacheRandomAccessInput(final BlockCache blockCache, final String table, final String name,
+            final long fileLength, final long offset, final long length, final BlockCache.BlockLoader loader) {
+        if (offset < 0 || length < 0 || offset + length > fileLength) {
+            throw new IllegalArgumentException("randomAccessSlice() out of bounds: " + name + " (offset=" + offset
+                    + ", length=" + length + ", fileLength=" + fileLength + ")");
+        }
+        this.blockCache = blockCache;
+        this.table = table;
+        this.name = name;
+        this.fileLength = fileLength;
+        this.offset = offset;
+        this.length = length;
+        this.loader = loader;
+        blockSize = blockCache.getBlockSize();
+    }
+
+    @Override
+    public byte readByte(final long pos) throws IOException {
+        checkBounds(pos, 1);
+        final long position = offset + pos;
+        final CachedBlock block = block(position / blockSize);
+        return block.data[(int) (position - block.start)];
+    }
+
+    @Override
+    public short readShort(final long pos) throws IOException {
+        checkBounds(pos, 2);
+        final long position = offset + pos;
+        final CachedBlock block = block(position / blockSize);
+        final int i = (int) (position - block.start);
+        if (i + 2 > block.data.length) {
+            return (short) ((readByte(pos) & 0xFF) << 8 | readByte(pos + 1) & 0xFF);
+        }
+        final byte[] b = block.data;
+        return (short) ((b[i] & 0xFF) << 8 | b[i + 1] & 0xFF);
+    }
+
+    @Override
+    public int readInt(final long pos) throws IOException {
+        checkBounds(pos, 4);
+        final long position = offset + pos;
+        final CachedBlock block = block(position / blockSize);
+        final int i = (int) (position - block.start);
+        if (i + 4 > block.data.length) {
+            return (readShort(pos) & 0xFFFF) << 16 | readShort(pos + 2) & 0xFFFF;
+        }
+        final byte[] b = block.data;
+        return (b[i] & 0xFF) << 24 | (b[i + 1] & 0xFF) << 16 | (b[i + 2] & 0xFF) << 8 | b[i + 3] & 0xFF;
+    }
+
+    @Override
+    public long readLong(final long pos) throws IOException {
+        return (long) readInt(pos) << 32 | readInt(pos + 4) & 0xFFFFFFFFL;
+    }
+
+    private void checkBounds(final long pos, final int size) throws EOFException {
+        if (pos < 0 || pos + size > length) {
+            throw new EOFException("read past EOF: " + this + " (pos=" + pos + ")");
+        }
+    }
+
+    private CachedBlock block(final long blockNumber) throws IOException {
+        CachedBlock block = current;
+        if (block == null || block.number != blockNumber) {
+            block = new CachedBlock(blockNumber, blockNumber * blockSize,
+                    blockCache.readBlock(table, name, fileLength, blockNumber, loader));
+            current = block;
+        }
+        return block;
+    }
+
+    @Override
+    public String toString() {
+        return "BlockCacheRandomAccessInput(" + table + "/" + name + ", offset=" + offset + ", length=" + length
+                + ")";
+    }
+
+    private static final class CachedBlock {
+
+        final long number;
+
+        final long start;
+
+        final byte[] data;
+
+        CachedBlock(final long number, final long start, final byte[] data) {
+            this.number = number;
+            this.start = start;
+            this.data = data;
+        }
+    }
+}
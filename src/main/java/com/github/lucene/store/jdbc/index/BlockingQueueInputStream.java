@@ -0,0 +1,101 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An <code>InputStream</code> reading the buffers handed over by another thread
+ * through a bounded queue. The producer ends the stream with {@link #END}, or
+ * fails it with {@link #ABORT} (the pending read then throws an
+ * <code>IOException</code>).
+ */
+class BlockingQueueInputStream extends InputStream {
+
+    static final byte[] END = new byte[0];
+
+    static final byte[] ABORT = new byte[0];
+
+    private final BlockingQueue<byte[]> queue;
+
+    private byte[] current;
+
+    private int currentPosition;
+
+    private boolean ended;
+
+    BlockingQueueInputStream(final BlockingQueue<byte[]> queue) {
+        this.queue = queue;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current[currentPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int offset, final int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int toCopy = Math.min(length, current.length - currentPosition);
+        System.arraycopy(current, currentPosition, b, offset, toCopy);
+        currentPosition += toCopy;
+        return toCopy;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - currentPosition;
+    }
+
+    private boolean fill() throws IOException {
+        while (current == null || currentPosition == current.length) {
+            if (ended) {
+                return false;
+            }
+            final byte[] next;
+            try {
+                next = queue.take();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for data");
+            }
+            if (next == ABORT) {
+                ended = true;
+                throw new IOException("Stream aborted by the writer");
+            }
+            if (next == END) {
+                ended = true;
+                current = null;
+                return false;
+            }
+            current = next;
+            currentPosition = 0;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RandomAccessInput;
+
+import com.github.lucene.store.jdbc.JdbcDirectory;
+import com.github.lucene.store.jdbc.JdbcFileEntrySettings;
+import com.github.lucene.store.jdbc.JdbcStoreException;
+import com.github.lucene.store.jdbc.cache.BlockCache;
+import com.github.lucene.store.jdbc.support.JdbcTemplate;
+
+/**
+ * An <code>IndexInput</code> implementation for chunked storage (see
+ * {@link com.github.lucene.store.jdbc.JdbcDirectorySettings#isChunkedStorage()}
+ * ). Every buffer refill fetches the chunk rows it spans using a single primary
+ * key range select. The last chunk fetched is kept, so buffers smaller than a
+ * chunk do not fetch it again.
+ * <p/>
+ * Like {@link FetchOnBufferReadJdbcIndexInput}, uses the directory
+ * {@link BlockCache} if one is configured (and {@link #BLOCK_CACHE_SETTING} is
+ * not disabled).
+ */
+public class ChunkedJdbcIndexInput extends JdbcBufferedIndexInput {
+
+    private String name;
+
+    // lazy intialize the length
+    private long totalLength = -1;
+
+    private JdbcDirectory jdbcDirectory;
+
+    private int chunkSize;
+
+    private BlockCache blockCache;
+
+    private int lastChunkNumber = -1;
+
+    private byte[] lastChunk;
+
+    private final BlockCache.BlockLoader blockLoader = new BlockCache.BlockLoader() {
+        @Override
+        public byte[] loadBlock(final long position, final int length) throws IOException {
+            final byte[] block = new byte[length];
+            fetchChunks(position, block, 0, length);
+            return block;
+        }
+    };
+
+    public ChunkedJdbcIndexInput() {
+        super("ChunkedJdbcIndexInput");
+    }
+
+    @Override
+    public void configure(final String name, final JdbcDirectory jdbcDirectory, final JdbcFileEntrySettings settings)
+            throws IOException {
+        super.configure(name, jdbcDirectory, settings);
+        if (!jdbcDirectory.getTable().isChunked()) {
+            throw new JdbcStoreException("Table [" + jdbcDirectory.getTable() + "] does not use chunked storage");
+        }
+        this.name = name;
+        this.jdbcDirectory = jdbcDirectory;
+        chunkSize = jdbcDirectory.getSettings().getChunkSize();
+        if (settings.getSettingAsBoolean(BLOCK_CACHE_SETTING, true)) {
+            blockCache = jdbcDirectory.getSettings().getBlockCache();
+        }
+    }
+
+    @Override
+    protected void readInternal(final byte[] b, final int offset, final int length) throws IOException {
+        if (blockCache != null) {
+            blockCache.read(jdbcDirectory.getCacheKey(), name, length(), getFilePointer(), b, offset,
+                    length, blockLoader);
+        } else {
+            fetchChunks(getFilePointer(), b, offset, length);
+        }
+    }
+
+    /**
+     * Reads the given range of the file, fetching the chunks it spans from the
+     * database (unless it is within the last fetched chunk).
+     */
+    private synchronized void fetchChunks(final long position, final byte[] b, final int offset, final int length)
+            throws IOException {
+        final int fromChunk = (int) (position / chunkSize) + 1;
+        final int toChunk = (int) ((position + length - 1) / chunkSize) + 1;
+        if (fromChunk == toChunk && fromChunk == lastChunkNumber) {
+            copyChunk(fromChunk, lastChunk, position, b, offset, length);
+            return;
+        }
+        jdbcDirectory.getJdbcTemplate().executeSelect(jdbcDirectory.getTable().sqlSelectChunksByName(),
+                new JdbcTemplate.ExecuteSelectCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setFetchSize(toChunk - fromChunk + 1);
+                        ps.setString(1, name);
+                        ps.setInt(2, fromChunk);
+                        ps.setInt(3, toChunk);
+                    }
+
+                    @Override
+                    public Object execute(final ResultSet rs) throws Exception {
+                        int expectedChunk = fromChunk;
+                        while (rs.next()) {
+                            final int chunkNumber = rs.getInt(1);
+                            if (chunkNumber != expectedChunk) {
+                                break;
+                            }
+                            final byte[] chunk = rs.getBytes(2);
+                            copyChunk(chunkNumber, chunk, position, b, offset, length);
+                            lastChunkNumber = chunkNumber;
+                            lastChunk = chunk;
+                            expectedChunk++;
+                        }
+                        if (expectedChunk <= toChunk) {
+                            throw new EOFException("read past EOF: " + name);
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Copies the part of the given chunk that overlaps the requested range.
+     */
+    private void copyChunk(final int chunkNumber, final byte[] chunk, final long position, final byte[] b,
+            final int offset, final int length) throws IOException {
+        final long chunkStart = (long) (chunkNumber - 1) * chunkSize;
+        final long start = Math.max(position, chunkStart);
+        final long end = Math.min(position + length, chunkStart + chunkSize);
+        if (chunk == null || chunk.length < end - chunkStart) {
+            throw new EOFException("read past EOF: " + name);
+        }
+        System.arraycopy(chunk, (int) (start - chunkStart), b, offset + (int) (start - position), (int) (end - start));
+    }
+
+    @Override
+    protected void seekInternal(final long pos) throws IOException {
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public synchronized long length() {
+        if (totalLength == -1) {
+            try {
+                totalLength = jdbcDirectory.fileLength(name);
+            } catch (final IOException e) {
+                // do nothing here for now, much better for performance
+            }
+        }
+        return totalLength;
+    }
+
+    @Override
+    public IndexInput slice(final String sliceDescription, final long offset, final long length) throws IOException {
+        return new SlicedIndexInput(sliceDescription, this, offset, length);
+    }
+
+    @Override
+    public RandomAccessInput randomAccessSlice(final long offset, final long length) throws IOException {
+        if (blockCache == null) {
+            return super.randomAccessSlice(offset, length);
+        }
+        return new BlockCacheRandomAccessInput(blockCache, jdbcDirectory.getCacheKey(), name,
+                length(), offset, length, blockLoader);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import org.apache.lucene.store.BufferedChecksum;
+import org.apache.lucene.store.IndexOutput;
+
+import com.github.lucene.store.jdbc.JdbcDirectory;
+import com.github.lucene.store.jdbc.JdbcFileEntrySettings;
+import com.github.lucene.store.jdbc.JdbcStoreException;
+import com.github.lucene.store.jdbc.support.JdbcTemplate;
+
+/**
+ * An <code>IndexOutput</code> implementation for chunked storage (see
+ * {@link com.github.lucene.store.jdbc.JdbcDirectorySettings#isChunkedStorage()}
+ * ). Buffers a single chunk in memory, and inserts it as a chunk row as soon as
+ * it is full.
+ * <p/>
+ * The file entry row (chunk <code>0</code>) is only inserted when the output is
+ * closed, so the file becomes visible once all of its chunks are written. The
+ * chunks left behind by an output that was never closed (for example, after
+ * a crash) are not listed by the directory, so they are deleted when an output
+ * with the same name is created.
+ * <p/>
+ * When {@link #UPLOAD_PARALLELISM_SETTING} is greater than <code>1</code>, the
+ * chunks are inserted concurrently by the upload executor of the file entry
+ * (see {@link JdbcDirectory#getUploadExecutor(JdbcFileEntrySettings)}), each
+ * upload using (and committing) its own connection, with up to that many
+ * chunks in flight. The file entry row is still inserted last, using the
+ * connection of the caller, once all the chunks were uploaded, so the file is
+ * published atomically. The chunks of a failed output are deleted using the
+ * connection of the caller (so it is up to the caller to commit). Chunks
+ * that can not be handed to the executor are inserted by the caller. The
+ * chunk uploads do not take part in the transaction of the caller, so the
+ * chunks are inserted one after the other using the connection of the caller
+ * when it is part of a transaction (see {@link JdbcDirectory#isInTransaction()}
+ * ): a rollback would leave the committed chunks behind, and the uploads could
+ * wait for locks held by the transaction.
+ */
+public class ChunkedJdbcIndexOutput extends IndexOutput implements JdbcIndexConfigurable {
+
+    /**
+     * The maximum number of chunks of a single output uploaded at the same time
+     * (each using its own connection). Defaults to <code>1</code>, inserting
+     * the chunks one after the other using the connection of the caller.
+     */
+    public static final String UPLOAD_PARALLELISM_SETTING = "indexOutput.upload.parallelism";
+
+    private String name;
+
+    private JdbcDirectory jdbcDirectory;
+
+    private JdbcFileEntrySettings settings;
+
+    private int parallelism;
+
+    private final ArrayDeque<Future<Void>> uploads = new ArrayDeque<Future<Void>>();
+
+    private byte[] chunk;
+
+    private int chunkPosition;
+
+    private int chunkNumber = 1;
+
+    private long position;
+
+    private final Checksum crc = new BufferedChecksum(new CRC32());
+
+    private boolean closed;
+
+    public ChunkedJdbcIndexOutput() {
+        super("ChunkedJdbcIndexOutput");
+    }
+
+    @Override
+    public void configure(final String name, final JdbcDirectory jdbcDirectory, final JdbcFileEntrySettings settings)
+            throws IOException {
+        if (!jdbcDirectory.getTable().isChunked()) {
+            throw new JdbcStoreException("Table [" + jdbcDirectory.getTable() + "] does not use chunked storage");
+        }
+        this.name = name;
+        this.jdbcDirectory = jdbcDirectory;
+        this.settings = settings;
+        parallelism = jdbcDirectory.isInTransaction() ? 1 : settings.getSettingAsInt(UPLOAD_PARALLELISM_SETTING, 1);
+        chunk = new byte[jdbcDirectory.getSettings().getChunkSize()];
+        // the chunks of an output that was never closed would collide with ours
+        deleteChunks();
+    }
+
+    private void deleteChunks() throws IOException {
+        jdbcDirectory.getJdbcTemplate().executeUpdate(jdbcDirectory.getTable().sqlDeleteByName(),
+                new JdbcTemplate.PrepateStatementAwareCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setString(1, name);
+                    }
+                });
+    }
+
+    @Override
+    public void writeByte(final byte b) throws IOException {
+        if (chunkPosition == chunk.length) {
+            flushChunk();
+        }
+        chunk[chunkPosition++] = b;
+        crc.update(b);
+        position++;
+    }
+
+    @Override
+    public void writeBytes(final byte[] b, int offset, int length) throws IOException {
+        crc.update(b, offset, length);
+        position += length;
+        while (length > 0) {
+            if (chunkPosition == chunk.length) {
+                flushChunk();
+            }
+            final int toCopy = Math.min(length, chunk.length - chunkPosition);
+            System.arraycopy(b, offset, chunk, chunkPosition, toCopy);
+            chunkPosition += toCopy;
+            offset += toCopy;
+            length -= toCopy;
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        if (chunkPosition == 0) {
+            return;
+        }
+        if (parallelism > 1) {
+            uploadChunk(chunkNumber++, chunk, chunkPosition);
+            // the uploaded chunk is still being read
+            chunk = new byte[chunk.length];
+        } else {
+            insertChunk(chunkNumber++, chunk, chunkPosition);
+        }
+        chunkPosition = 0;
+    }
+
+    private void uploadChunk(final int number, final byte[] value, final long size) throws IOException {
+        while (uploads.size() >= parallelism) {
+            waitForUpload(uploads.removeFirst());
+        }
+        final Future<Void> upload;
+        try {
+            upload = jdbcDirectory.getUploadExecutor(settings).submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    jdbcDirectory.getJdbcTemplate().executeUpdateAndCommit(jdbcDirectory.getTable().sqlInsertChunk(),
+                            new ChunkCallback(number, value, size));
+                    return null;
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // no upload thread available, insert it ourselves
+            insertChunk(number, value, size);
+            return;
+        }
+        uploads.addLast(upload);
+    }
+
+    private void waitForUpload(final Future<Void> upload) throws IOException {
+        try {
+            upload.get();
+        } catch (final ExecutionException e) {
+            abortUploads();
+            throw new JdbcStoreException("Failed to upload a chunk of [" + name + "]", e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortUploads();
+            throw new JdbcStoreException("Interrupted while uploading the chunks of [" + name + "]");
+        }
+    }
+
+    private void abortUploads() {
+        for (final Future<Void> upload : uploads) {
+            try {
+                upload.get();
+            } catch (final Exception e) {
+                // do nothing
+            }
+        }
+        uploads.clear();
+        // the file entry row was not inserted, so only chunks are deleted, as
+        // part of the transaction of the caller (which may hold some of them)
+        try {
+            deleteChunks();
+        } catch (final IOException e) {
+            // do nothing, the chunks are deleted by the next output anyhow
+        }
+    }
+
+    private void insertChunk(final int number, final byte[] value, final long size) throws IOException {
+        jdbcDirectory.getJdbcTemplate().executeUpdate(jdbcDirectory.getTable().sqlInsertChunk(),
+                new ChunkCallback(number, value, size));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flushChunk();
+        while (!uploads.isEmpty()) {
+            waitForUpload(uploads.removeFirst());
+        }
+        // the file entry is inserted last
+        insertChunk(0, null, position);
+    }
+
+    @Override
+    public long getFilePointer() {
+        return position;
+    }
+
+    @Override
+    public long getChecksum() throws IOException {
+        return crc.getValue();
+    }
+
+    private final class ChunkCallback implements JdbcTemplate.PrepateStatementAwareCallback {
+
+        private final int number;
+
+        private final byte[] value;
+
+        private final long size;
+
+        ChunkCallback(final int number, final byte[] value, final long size) {
+            this.number = number;
+            this.value = value;
+            this.size = size;
+        }
+
+        @Override
+        public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+            ps.setFetchSize(1);
+            ps.setString(1, name);
+            ps.setInt(2, number);
+            if (value == null) {
+                ps.setNull(3, jdbcDirectory.getTable().getValueColumnSqlType());
+            } else if (size == value.length) {
+                ps.setBytes(3, value);
+            } else {
+                final byte[] bytes = new byte[(int) size];
+                System.arraycopy(value, 0, bytes, 0, bytes.length);
+                ps.setBytes(3, bytes);
+            }
+            ps.setLong(4, size);
+            ps.setBoolean(5, false);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.sql.Blob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.apache.lucene.codecs.compressing.Decompressor;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.BytesRef;
+
+import com.github.lucene.store.jdbc.JdbcDirectory;
+import com.github.lucene.store.jdbc.JdbcFileEntrySettings;
+import com.github.lucene.store.jdbc.JdbcStoreException;
+import com.github.lucene.store.jdbc.support.JdbcTemplate;
+
+/**
+ * An <code>IndexInput</code> reading files written by
+ * {@link CompressedJdbcIndexOutput}. The block index is read when the input is
+ * opened, and each read only fetches and decompresses the blocks it covers.
+ * The last decompressed block is kept by the input (and each of its clones),
+ * so reading sequentially fetches every block once.
+ * <p/>
+ * The length and positions of the input are the uncompressed ones.
+ */
+public class CompressedJdbcIndexInput extends JdbcBufferedIndexInput {
+
+    private String name;
+
+    private JdbcDirectory jdbcDirectory;
+
+    // shared with the clones
+    private BlockIndex blockIndex;
+
+    private Decompressor decompressor;
+
+    private int currentBlock = -1;
+
+    private BytesRef currentBlockData = new BytesRef();
+
+    public CompressedJdbcIndexInput() {
+        super("CompressedJdbcIndexInput");
+    }
+
+    @Override
+    public void configure(final String name, final JdbcDirectory jdbcDirectory, final JdbcFileEntrySettings settings)
+            throws IOException {
+        super.configure(name, jdbcDirectory, settings);
+        this.name = name;
+        this.jdbcDirectory = jdbcDirectory;
+        blockIndex = (BlockIndex) jdbcDirectory.getJdbcTemplate().executeSelect(
+                jdbcDirectory.getTable().sqlSelectSizeValueByName(), new JdbcTemplate.ExecuteSelectCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setFetchSize(1);
+                        ps.setString(1, name);
+                    }
+
+                    @Override
+                    public Object execute(final ResultSet rs) throws Exception {
+                        if (!rs.next()) {
+                            throw new JdbcStoreException(
+                                    "No entry for [" + name + "] table " + jdbcDirectory.getTable());
+                        }
+                        return readBlockIndex(rs.getBlob(2), rs.getLong(3));
+                    }
+                });
+        decompressor = CompressedJdbcIndexOutput.compressionMode(blockIndex.modeId).newDecompressor();
+    }
+
+    private BlockIndex readBlockIndex(final Blob blob, final long length) throws Exception {
+        final long valueLength = blob.length();
+        if (valueLength < CompressedJdbcIndexOutput.FOOTER_LENGTH) {
+            throw new JdbcStoreException("[" + name + "] is not compressed");
+        }
+        final ByteArrayDataInput footer = new ByteArrayDataInput(blob.getBytes(
+                valueLength - CompressedJdbcIndexOutput.FOOTER_LENGTH + 1, CompressedJdbcIndexOutput.FOOTER_LENGTH));
+        final long indexOffset = footer.readLong();
+        final int blockCount = footer.readInt();
+        final int blockSize = footer.readInt();
+        final byte modeId = footer.readByte();
+        if (footer.readInt() != CompressedJdbcIndexOutput.MAGIC) {
+            throw new JdbcStoreException("[" + name + "] is not compressed");
+        }
+        // the offset of each block, and the end of the last one
+        final long[] offsets = new long[blockCount + 1];
+        if (blockCount > 0) {
+            final ByteArrayDataInput index = new ByteArrayDataInput(blob.getBytes(indexOffset + 1, blockCount * 8));
+            for (int i = 0; i < blockCount; i++) {
+                offsets[i] = index.readLong();
+            }
+        }
+        offsets[blockCount] = indexOffset;
+        return new BlockIndex(length, blockSize, modeId, offsets);
+    }
+
+    @Override
+    protected void readInternal(final byte[] b, int offset, int length) throws IOException {
+        long position = getFilePointer();
+        if (position + length > blockIndex.length) {
+            throw new EOFException("read past EOF: " + this);
+        }
+        while (length > 0) {
+            final int blockNumber = (int) (position / blockIndex.blockSize);
+            if (blockNumber != currentBlock) {
+                loadBlock(blockNumber);
+            }
+            final int blockOffset = (int) (position - (long) blockNumber * blockIndex.blockSize);
+            final int toCopy = Math.min(length, currentBlockData.length - blockOffset);
+            System.arraycopy(currentBlockData.bytes, currentBlockData.offset + blockOffset, b, offset, toCopy);
+            position += toCopy;
+            offset += toCopy;
+            length -= toCopy;
+        }
+    }
+
+    private void loadBlock(final int blockNumber) throws IOException {
+        final long start = blockIndex.offsets[blockNumber];
+        final int compressedLength = (int) (blockIndex.offsets[blockNumber + 1] - start);
+        final byte[] compressed = (byte[]) jdbcDirectory.getJdbcTemplate().executeSelect(
+                jdbcDirectory.getTable().sqlSelectSizeValueByName(), new JdbcTemplate.ExecuteSelectCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setFetchSize(1);
+                        ps.setString(1, name);
+                    }
+
+                    @Override
+                    public Object execute(final ResultSet rs) throws Exception {
+                        if (!rs.next()) {
+                            throw new JdbcStoreException(
+                                    "No entry for [" + name + "] table " + jdbcDirectory.getTable());
+                        }
+                        return rs.getBlob(2).getBytes(start + 1, compressedLength);
+                    }
+                });
+        final int blockLength = (int) Math.min(blockIndex.blockSize,
+                blockIndex.length - (long) blockNumber * blockIndex.blockSize);
+        decompressor.decompress(new ByteArrayDataInput(compressed), blockLength, 0, blockLength, currentBlockData);
+        currentBlock = blockNumber;
+    }
+
+    @Override
+    protected void seekInternal(final long pos) throws IOException {
+    }
+
+    @Override
+    public long length() {
+        return blockIndex.length;
+    }
+
+    @Override
+    public IndexInput clone() {
+        final CompressedJdbcIndexInput clone = (CompressedJdbcIndexInput) super.clone();
+        clone.decompressor = decompressor.clone();
+        clone.currentBlock = -1;
+        clone.currentBlockData = new BytesRef();
+        return clone;
+    }
+
+    @Override
+    public IndexInput slice(final String sliceDescription, final long offset, final long length) throws IOException {
+        return new SlicedIndexInput(sliceDescription, this, offset, length);
+    }
+
+    private static final class BlockIndex {
+
+        final long length;
+
+        final int blockSize;
+
+        final byte modeId;
+
+        final long[] offsets;
+
+        BlockIndex(final long length, final int blockSize, final byte modeId, final long[] offsets) {
+            this.length = length;
+            this.blockSize = blockSize;
+            this.modeId = modeId;
+            this.offsets = offsets;
+        }
+    }
+}
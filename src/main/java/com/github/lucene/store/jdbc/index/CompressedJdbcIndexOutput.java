@@ -0,0 +1,259 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.PreparedStatement;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import org.apache.lucene.codecs.compressing.CompressionMode;
+import org.apache.lucene.codecs.compressing.Compressor;
+import org.apache.lucene.store.BufferedChecksum;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.OutputStreamIndexOutput;
+import org.apache.lucene.util.ArrayUtil;
+
+import com.github.lucene.store.jdbc.JdbcDirectory;
+import com.github.lucene.store.jdbc.JdbcFileEntrySettings;
+import com.github.lucene.store.jdbc.JdbcStoreException;
+import com.github.lucene.store.jdbc.support.InputStreamBlob;
+import com.github.lucene.store.jdbc.support.JdbcTemplate;
+
+/**
+ * An <code>IndexOutput</code> that compresses the file in independent blocks
+ * of {@link #BLOCK_SIZE_SETTING} bytes, to be read by
+ * {@link CompressedJdbcIndexInput}, which only fetches and decompresses the
+ * blocks it reads. Meant for large files (stored fields, term vectors,
+ * compound files) when reading is bound by the database bandwidth rather than
+ * the CPU. Configured per file entry, for example:
+ *
+ * <pre>
+ * JdbcFileEntrySettings fdtSettings = new JdbcFileEntrySettings();
+ * fdtSettings.setClassSetting(JdbcFileEntrySettings.INDEX_INPUT_TYPE_SETTING, CompressedJdbcIndexInput.class);
+ * fdtSettings.setClassSetting(JdbcFileEntrySettings.INDEX_OUTPUT_TYPE_SETTING, CompressedJdbcIndexOutput.class);
+ * settings.registerFileEntrySettings(&quot;fdt&quot;, fdtSettings);
+ * </pre>
+ *
+ * The stored value holds the compressed blocks, followed by the index of the
+ * block offsets and a fixed size footer. The size of the file entry is the
+ * uncompressed length, so <code>fileLength</code> and the positions of the
+ * input are not affected. The compressed file is written to a temporary file,
+ * streamed to the database when the output is closed, and is never held until
+ * the directory is synced (see
+ * {@link com.github.lucene.store.jdbc.JdbcDirectorySettings#isGroupCommit()}).
+ * Can not be used with chunked storage.
+ */
+public class CompressedJdbcIndexOutput extends IndexOutput implements JdbcIndexConfigurable {
+
+    /**
+     * The size (in bytes) of an uncompressed block. Larger blocks compress
+     * better, smaller ones cost less to read randomly. Defaults to
+     * {@link #DEFAULT_BLOCK_SIZE}.
+     */
+    public static final String BLOCK_SIZE_SETTING = "indexOutput.compression.blockSize";
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * The compression mode, either {@link #MODE_FAST} (LZ4) or
+     * {@link #MODE_HIGH} (DEFLATE). Defaults to {@link #MODE_FAST}.
+     */
+    public static final String MODE_SETTING = "indexOutput.compression.mode";
+
+    public static final String MODE_FAST = "fast";
+
+    public static final String MODE_HIGH = "high";
+
+    // footer: index offset, block count, block size, mode and magic
+    static final int FOOTER_LENGTH = 8 + 4 + 4 + 1 + 4;
+
+    static final int MAGIC = 0x4a444243;
+
+    static final byte MODE_FAST_ID = 0;
+
+    static final byte MODE_HIGH_ID = 1;
+
+    private static final int TEMP_FILE_BUFFER_SIZE = 8192;
+
+    private String name;
+
+    private JdbcDirectory jdbcDirectory;
+
+    private byte modeId;
+
+    private Compressor compressor;
+
+    private byte[] block;
+
+    private int blockPosition;
+
+    private long[] blockOffsets = new long[16];
+
+    private int blockCount;
+
+    private File tempFile;
+
+    private IndexOutput compressed;
+
+    private long position;
+
+    private final Checksum crc = new BufferedChecksum(new CRC32());
+
+    private boolean closed;
+
+    public CompressedJdbcIndexOutput() {
+        super("CompressedJdbcIndexOutput");
+    }
+
+    @Override
+    public void configure(final String name, final JdbcDirectory jdbcDirectory, final JdbcFileEntrySettings settings)
+            throws IOException {
+        if (jdbcDirectory.getTable().isChunked()) {
+            throw new JdbcStoreException("Table [" + jdbcDirectory.getTable() + "] uses chunked storage");
+        }
+        this.name = name;
+        this.jdbcDirectory = jdbcDirectory;
+        final String mode = settings.getSetting(MODE_SETTING, MODE_FAST);
+        if (MODE_FAST.equals(mode)) {
+            modeId = MODE_FAST_ID;
+        } else if (MODE_HIGH.equals(mode)) {
+            modeId = MODE_HIGH_ID;
+        } else {
+            throw new JdbcStoreException("Unknown compression mode [" + mode + "] for [" + name + "]");
+        }
+        compressor = compressionMode(modeId).newCompressor();
+        block = new byte[settings.getSettingAsInt(BLOCK_SIZE_SETTING, DEFAULT_BLOCK_SIZE)];
+        tempFile = File.createTempFile(
+                jdbcDirectory.getTable().getName() + "_" + name + "_" + System.currentTimeMillis(), ".ljt");
+        compressed = new OutputStreamIndexOutput("CompressedJdbcIndexOutput(" + tempFile + ")",
+                new FileOutputStream(tempFile), TEMP_FILE_BUFFER_SIZE);
+    }
+
+    static CompressionMode compressionMode(final byte modeId) throws IOException {
+        switch (modeId) {
+        case MODE_FAST_ID:
+            return CompressionMode.FAST;
+        case MODE_HIGH_ID:
+            return CompressionMode.HIGH_COMPRESSION;
+        default:
+            throw new IOException("Unknown compression mode [" + modeId + "]");
+        }
+    }
+
+    @Override
+    public void writeByte(final byte b) throws IOException {
+        if (blockPosition == block.length) {
+            flushBlock();
+        }
+        block[blockPosition++] = b;
+        crc.update(b);
+        position++;
+    }
+
+    @Override
+    public void writeBytes(final byte[] b, int offset, int length) throws IOException {
+        crc.update(b, offset, length);
+        position += length;
+        while (length > 0) {
+            if (blockPosition == block.length) {
+                flushBlock();
+            }
+            final int toCopy = Math.min(length, block.length - blockPosition);
+            System.arraycopy(b, offset, block, blockPosition, toCopy);
+            blockPosition += toCopy;
+            offset += toCopy;
+            length -= toCopy;
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockPosition == 0) {
+            return;
+        }
+        blockOffsets = ArrayUtil.grow(blockOffsets, blockCount + 1);
+        blockOffsets[blockCount++] = compressed.getFilePointer();
+        compressor.compress(block, 0, blockPosition, compressed);
+        blockPosition = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flushBlock();
+            final long indexOffset = compressed.getFilePointer();
+            for (int i = 0; i < blockCount; i++) {
+                compressed.writeLong(blockOffsets[i]);
+            }
+            compressed.writeLong(indexOffset);
+            compressed.writeInt(blockCount);
+            compressed.writeInt(block.length);
+            compressed.writeByte(modeId);
+            compressed.writeInt(MAGIC);
+            final long length = compressed.getFilePointer();
+            compressed.close();
+            block = null;
+            final InputStream is = new BufferedInputStream(new FileInputStream(tempFile));
+            try {
+                insert(is, length);
+            } finally {
+                is.close();
+            }
+        } finally {
+            compressed.close();
+            tempFile.delete();
+        }
+    }
+
+    private void insert(final InputStream is, final long length) throws IOException {
+        jdbcDirectory.getJdbcTemplate().executeUpdate(jdbcDirectory.getTable().sqlInsert(),
+                new JdbcTemplate.PrepateStatementAwareCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setFetchSize(1);
+                        ps.setString(1, name);
+                        if (jdbcDirectory.getDialect().useInputStreamToInsertBlob()) {
+                            ps.setBinaryStream(2, is, length);
+                        } else {
+                            ps.setBlob(2, new InputStreamBlob(is, length));
+                        }
+                        // the uncompressed length
+                        ps.setLong(3, position);
+                        ps.setBoolean(4, false);
+                    }
+                });
+    }
+
+    @Override
+    public long getFilePointer() {
+        return position;
+    }
+
+    @Override
+    public long getChecksum() throws IOException {
+        return crc.getValue();
+    }
+}
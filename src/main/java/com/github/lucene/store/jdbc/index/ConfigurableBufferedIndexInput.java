@@ -30,6 +30,9 @@ public abstract class ConfigurableBufferedIndexInput extends IndexInput {
     protected int bufferLength = 0; // end of valid bytes
     protected int bufferPosition = 0; // next byte to read
 
+    private long lastReadEnd = -1; // end position of the last readInternal
+    private int sequentialReads = 0; // number of consecutive contiguous reads
+
     @Override
     public byte readByte() throws IOException {
         if (bufferPosition >= bufferLength) {
@@ -121,6 +124,7 @@ public abstract class ConfigurableBufferedIndexInput extends IndexInput {
                 if (after > length()) {
                     throw new IOException("read past EOF");
                 }
+                trackRead(after - len, len);
                 readInternal(b, offset, len);
                 bufferStart = after;
                 bufferPosition = 0;
@@ -144,12 +148,32 @@ public abstract class ConfigurableBufferedIndexInput extends IndexInput {
             buffer = new byte[bufferSize]; // allocate buffer lazily
             seekInternal(bufferStart);
         }
+        trackRead(start, bufferLength);
         readInternal(buffer, 0, bufferLength);
 
         bufferStart = start;
         bufferPosition = 0;
     }
 
+    private void trackRead(final long start, final int length) {
+        if (start == lastReadEnd) {
+            sequentialReads++;
+        } else {
+            sequentialReads = 0;
+        }
+        lastReadEnd = start + length;
+    }
+
+    /**
+     * Returns the number of consecutive {@link #readInternal(byte[],int,int)}
+     * calls (not counting the first one) that started where the previous one
+     * ended. A value greater than <code>0</code> indicates the file is being
+     * read sequentially.
+     */
+    protected int getSequentialReads() {
+        return sequentialReads;
+    }
+
     /**
      * Expert: implements buffer refill. Reads bytes from the current position
      * in the input.
@@ -196,6 +220,8 @@ public abstract class ConfigurableBufferedIndexInput extends IndexInput {
         clone.bufferLength = 0;
         clone.bufferPosition = 0;
         clone.bufferStart = getFilePointer();
+        clone.lastReadEnd = -1;
+        clone.sequentialReads = 0;
 
         return clone;
     }
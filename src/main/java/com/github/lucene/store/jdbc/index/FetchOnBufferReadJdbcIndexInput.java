@@ -16,7 +16,6 @@
 
 package com.github.lucene.store.jdbc.index;
 
-import java.io.EOFException;
 import java.io.IOException;
 import java.sql.Blob;
 import java.sql.PreparedStatement;
@@ -25,6 +24,7 @@ import java.sql.ResultSet;
 import org.apache.lucene.store.BufferedIndexInput;
 import org.apache.lucene.store.ChecksumIndexInput;
 import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RandomAccessInput;
 import org.apache.lucene.store.RAMInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,11 +32,28 @@ import org.slf4j.LoggerFactory;
 import com.github.lucene.store.jdbc.JdbcDirectory;
 import com.github.lucene.store.jdbc.JdbcFileEntrySettings;
 import com.github.lucene.store.jdbc.JdbcStoreException;
+import com.github.lucene.store.jdbc.cache.BlockCache;
 import com.github.lucene.store.jdbc.support.JdbcTemplate;
 
 /**
  * An <code>IndexInput</code> implementation, that for every buffer refill will
  * go and fetch the data from the database.
+ * <p/>
+ * If the directory has a {@link BlockCache} configured (and
+ * {@link #BLOCK_CACHE_SETTING} is not disabled), buffer refills are served from
+ * the cache, and only blocks missing from it are fetched from the database.
+ * Random access slices (used by doc values) then read directly from the
+ * cached blocks.
+ * <p/>
+ * Supports reading ahead when the file is read sequentially (see
+ * {@link #READ_AHEAD_WINDOW_SETTING}).
+ * <p/>
+ * When {@link #PIN_LOB_SETTING} is enabled, the input (and its clones) keeps
+ * the blob open for its lifetime, using a read only connection borrowed from
+ * the directory pinned connection pool (see
+ * {@link JdbcDirectory#getPinnedConnectionPool()}), so reading the file
+ * sequentially costs a single query. If the pool is exhausted, the data is
+ * queried for each read as usual.
  *
  * @author kimchy
  */
@@ -44,6 +61,14 @@ public class FetchOnBufferReadJdbcIndexInput extends JdbcBufferedIndexInput {
 
     private static final Logger logger = LoggerFactory.getLogger(FetchOnBufferReadJdbcIndexInput.class);
 
+    /**
+     * Should the input keep the blob (and a connection) open for its lifetime.
+     * Since the connection runs its own transaction, should only be enabled
+     * if files are not read within the (lock holding) transaction writing
+     * them. Defaults to <code>false</code>.
+     */
+    public static final String PIN_LOB_SETTING = "indexInput.pinLob";
+
     private String name;
 
     // lazy intialize the length
@@ -53,6 +78,18 @@ public class FetchOnBufferReadJdbcIndexInput extends JdbcBufferedIndexInput {
 
     private JdbcDirectory jdbcDirectory;
 
+    private BlockCache blockCache;
+
+    // shared with the clones
+    private PinnedLob pinnedLob;
+
+    private final BlockCache.BlockLoader blockLoader = new BlockCache.BlockLoader() {
+        @Override
+        public byte[] loadBlock(final long position, final int length) throws IOException {
+            return fetchBlock(position, length);
+        }
+    };
+
     public FetchOnBufferReadJdbcIndexInput() {
         super("FetchOnBufferReadJdbcIndexInput");
     }
@@ -63,6 +100,12 @@ public class FetchOnBufferReadJdbcIndexInput extends JdbcBufferedIndexInput {
         super.configure(name, jdbcDirectory, settings);
         this.jdbcDirectory = jdbcDirectory;
         this.name = name;
+        if (settings.getSettingAsBoolean(BLOCK_CACHE_SETTING, true)) {
+            blockCache = jdbcDirectory.getSettings().getBlockCache();
+        }
+        if (settings.getSettingAsBoolean(PIN_LOB_SETTING, false)) {
+            pinnedLob = new PinnedLob(jdbcDirectory, name);
+        }
     }
 
     // Overriding refill here since we can execute a single query to get both
@@ -74,6 +117,12 @@ public class FetchOnBufferReadJdbcIndexInput extends JdbcBufferedIndexInput {
     // Performance is much better this way!
     @Override
     protected void refill() throws IOException {
+        if (blockCache != null || isReadAheadEnabled() || pinnedLob != null) {
+            // the length is fetched once, and the data is read from the cache
+            // (or read ahead, or from the pinned blob)
+            super.refill();
+            return;
+        }
         jdbcDirectory.getJdbcTemplate().executeSelect(jdbcDirectory.getTable().sqlSelectSizeValueByName(),
                 new JdbcTemplate.ExecuteSelectCallback() {
                     @Override
@@ -124,6 +173,21 @@ public class FetchOnBufferReadJdbcIndexInput extends JdbcBufferedIndexInput {
 
     @Override
     protected synchronized void readInternal(final byte[] b, final int offset, final int length) throws IOException {
+        if (readAhead(getFilePointer(), b, offset, length)) {
+            return;
+        }
+        if (blockCache != null) {
+            blockCache.read(jdbcDirectory.getCacheKey(), name, length(), getFilePointer(), b, offset,
+                    length, blockLoader);
+            return;
+        }
+        if (pinnedLob != null) {
+            final byte[] bytes = pinnedLob.read(getFilePointer(), length);
+            if (bytes != null) {
+                System.arraycopy(bytes, 0, b, offset, length);
+                return;
+            }
+        }
         jdbcDirectory.getJdbcTemplate().executeSelect(jdbcDirectory.getTable().sqlSelectSizeValueByName(),
                 new JdbcTemplate.ExecuteSelectCallback() {
                     @Override
@@ -150,6 +214,53 @@ public class FetchOnBufferReadJdbcIndexInput extends JdbcBufferedIndexInput {
                 });
     }
 
+    @Override
+    protected boolean supportsReadAhead() {
+        return true;
+    }
+
+    @Override
+    protected byte[] fetchReadAhead(final long position, final int length) throws IOException {
+        if (blockCache != null) {
+            final byte[] b = new byte[length];
+            blockCache.read(jdbcDirectory.getCacheKey(), name, length(), position, b, 0, length,
+                    blockLoader);
+            return b;
+        }
+        return fetchBlock(position, length);
+    }
+
+    /**
+     * Fetches a single block of the file from the database (on block cache
+     * misses).
+     */
+    private byte[] fetchBlock(final long blockPosition, final int blockLength) throws IOException {
+        if (pinnedLob != null) {
+            final byte[] bytes = pinnedLob.read(blockPosition, blockLength);
+            if (bytes != null) {
+                return bytes;
+            }
+        }
+        return (byte[]) jdbcDirectory.getJdbcTemplate().executeSelect(
+                jdbcDirectory.getTable().sqlSelectSizeValueByName(), new JdbcTemplate.ExecuteSelectCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setFetchSize(1);
+                        ps.setString(1, name);
+                    }
+
+                    @Override
+                    public Object execute(final ResultSet rs) throws Exception {
+                        if (!rs.next()) {
+                            throw new JdbcStoreException(
+                                    "No entry for [" + name + "] table " + jdbcDirectory.getTable());
+                        }
+                        final Blob blob = rs.getBlob(2);
+                        return blob.getBytes(blockPosition + 1, blockLength);
+                    }
+                });
+    }
+
     /**
      * A helper methods that already reads an open blob
      */
@@ -174,6 +285,10 @@ public class FetchOnBufferReadJdbcIndexInput extends JdbcBufferedIndexInput {
 
     @Override
     public void close() throws IOException {
+        super.close();
+        if (pinnedLob != null) {
+            pinnedLob.close();
+        }
     }
 
     @Override
@@ -199,56 +314,12 @@ public class FetchOnBufferReadJdbcIndexInput extends JdbcBufferedIndexInput {
         return new SlicedIndexInput(sliceDescription, this, offset, length);
     }
 
-    /**
-     * Implementation of an IndexInput that reads from a portion of a file.
-     */
-    private static final class SlicedIndexInput extends BufferedIndexInput {
-        IndexInput base;
-        long fileOffset;
-        long length;
-
-        SlicedIndexInput(final String sliceDescription, final IndexInput base, final long offset, final long length) {
-            super(sliceDescription == null ? base.toString() : base.toString() + " [slice=" + sliceDescription + "]",
-                    BufferedIndexInput.BUFFER_SIZE);
-            if (offset < 0 || length < 0 || offset + length > base.length()) {
-                throw new IllegalArgumentException("slice() " + sliceDescription + " out of bounds: " + base);
-            }
-            this.base = base.clone();
-            fileOffset = offset;
-            this.length = length;
-        }
-
-        @Override
-        public SlicedIndexInput clone() {
-            final SlicedIndexInput clone = (SlicedIndexInput) super.clone();
-            clone.base = base.clone();
-            clone.fileOffset = fileOffset;
-            clone.length = length;
-            return clone;
-        }
-
-        @Override
-        protected void readInternal(final byte[] b, final int offset, final int len) throws IOException {
-            final long start = getFilePointer();
-            if (start + len > length) {
-                throw new EOFException("read past EOF: " + this);
-            }
-            base.seek(fileOffset + start);
-            base.readBytes(b, offset, len, false);
-        }
-
-        @Override
-        protected void seekInternal(final long pos) {
-        }
-
-        @Override
-        public void close() throws IOException {
-            base.close();
-        }
-
-        @Override
-        public long length() {
-            return length;
+    @Override
+    public RandomAccessInput randomAccessSlice(final long offset, final long length) throws IOException {
+        if (blockCache == null) {
+            return super.randomAccessSlice(offset, length);
         }
+        return new BlockCacheRandomAccessInput(blockCache, jdbcDirectory.getCacheKey(), name,
+                length(), offset, length, blockLoader);
     }
 }
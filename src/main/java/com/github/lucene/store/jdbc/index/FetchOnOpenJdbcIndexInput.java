@@ -16,14 +16,14 @@
 
 package com.github.lucene.store.jdbc.index;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.sql.Blob;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 
 import org.apache.lucene.store.IndexInput;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.apache.lucene.store.RandomAccessInput;
 
 import com.github.lucene.store.jdbc.JdbcDirectory;
 import com.github.lucene.store.jdbc.JdbcFileEntrySettings;
@@ -34,13 +34,21 @@ import com.github.lucene.store.jdbc.support.JdbcTemplate;
  * An <code>IndexInput</code> implementation that will read all the relevant
  * data from the database when created, and will cache it untill it is closed.
  * <p/>
- * Used for small file entries in the database like the segments file.
+ * Used for small file entries in the database like the segments file. The
+ * data is held in a single array, so files larger than 2GB can not be opened
+ * (see {@link FetchOnOpenOffHeapJdbcIndexInput}).
+ * <p/>
+ * When the directory prefetches the small files of a segment (see
+ * {@link com.github.lucene.store.jdbc.JdbcDirectorySettings#getSegmentPrefetchThreshold()}
+ * ), the data is taken from the prefetched files instead.
+ * <p/>
+ * Clones and slices share the data read when the input was created, slices
+ * being a view over a range of it. Also implements {@link RandomAccessInput},
+ * so random access slices (used by doc values) read directly from the data.
  *
  * @author kimchy
  */
-public class FetchOnOpenJdbcIndexInput extends IndexInput implements JdbcIndexConfigurable {
-
-    private static final Logger logger = LoggerFactory.getLogger(FetchOnOpenJdbcIndexInput.class);
+public class FetchOnOpenJdbcIndexInput extends IndexInput implements RandomAccessInput, JdbcIndexConfigurable {
 
     // There is no synchronizaiton since Lucene RAMDirecoty performs no
     // synchronizations.
@@ -50,15 +58,32 @@ public class FetchOnOpenJdbcIndexInput extends IndexInput implements JdbcIndexCo
         super("FetchOnOpenJdbcIndexInput");
     }
 
+    private FetchOnOpenJdbcIndexInput(final String resourceDescription, final byte[] data, final int dataOffset,
+            final int length) {
+        super(resourceDescription);
+        this.data = data;
+        this.dataOffset = dataOffset;
+        this.length = length;
+    }
+
     private int length;
 
     private int position = 0;
 
     private byte[] data;
 
+    // the start of this input (which might be a slice) in the data
+    private int dataOffset = 0;
+
     @Override
     public void configure(final String name, final JdbcDirectory jdbcDirectory, final JdbcFileEntrySettings settings)
             throws IOException {
+        final byte[] prefetched = jdbcDirectory.getPrefetchedData(name);
+        if (prefetched != null) {
+            data = prefetched;
+            length = prefetched.length;
+            return;
+        }
         jdbcDirectory.getJdbcTemplate().executeSelect(jdbcDirectory.getTable().sqlSelectSizeValueByName(),
                 new JdbcTemplate.ExecuteSelectCallback() {
                     @Override
@@ -73,7 +98,12 @@ public class FetchOnOpenJdbcIndexInput extends IndexInput implements JdbcIndexCo
                             throw new JdbcStoreException(
                                     "No entry for [" + name + "] table " + jdbcDirectory.getTable());
                         }
-                        length = rs.getInt(3);
+                        final long size = rs.getLong(3);
+                        if (size > Integer.MAX_VALUE) {
+                            throw new JdbcStoreException("Can not read [" + name + "] into a single array, [" + size
+                                    + "] bytes is larger than 2GB");
+                        }
+                        length = (int) size;
 
                         final Blob blob = rs.getBlob(2);
                         data = blob.getBytes(1, length);
@@ -87,15 +117,53 @@ public class FetchOnOpenJdbcIndexInput extends IndexInput implements JdbcIndexCo
 
     @Override
     public byte readByte() throws IOException {
-        return data[position++];
+        if (position >= length) {
+            throw new EOFException("read past EOF: " + this);
+        }
+        return data[dataOffset + position++];
     }
 
     @Override
     public void readBytes(final byte[] b, final int offset, final int len) throws IOException {
-        System.arraycopy(data, position, b, offset, len);
+        if (position + len > length) {
+            throw new EOFException("read past EOF: " + this);
+        }
+        System.arraycopy(data, dataOffset + position, b, offset, len);
         position += len;
     }
 
+    @Override
+    public byte readByte(final long pos) throws IOException {
+        checkBounds(pos, 1);
+        return data[dataOffset + (int) pos];
+    }
+
+    @Override
+    public short readShort(final long pos) throws IOException {
+        checkBounds(pos, 2);
+        final int i = dataOffset + (int) pos;
+        return (short) ((data[i] & 0xFF) << 8 | data[i + 1] & 0xFF);
+    }
+
+    @Override
+    public int readInt(final long pos) throws IOException {
+        checkBounds(pos, 4);
+        final int i = dataOffset + (int) pos;
+        return (data[i] & 0xFF) << 24 | (data[i + 1] & 0xFF) << 16 | (data[i + 2] & 0xFF) << 8 | data[i + 3] & 0xFF;
+    }
+
+    @Override
+    public long readLong(final long pos) throws IOException {
+        checkBounds(pos, 8);
+        return (long) readInt(pos) << 32 | readInt(pos + 4) & 0xFFFFFFFFL;
+    }
+
+    private void checkBounds(final long pos, final int size) throws EOFException {
+        if (pos < 0 || pos + size > length) {
+            throw new EOFException("read past EOF: " + this + " (pos=" + pos + ")");
+        }
+    }
+
     @Override
     public void close() throws IOException {
 
@@ -118,8 +186,11 @@ public class FetchOnOpenJdbcIndexInput extends IndexInput implements JdbcIndexCo
 
     @Override
     public IndexInput slice(final String sliceDescription, final long offset, final long length) throws IOException {
-        // TODO Auto-generated method stub
-        logger.debug("FetchOnOpenJdbcIndexInput.slice()");
-        return null;
+        if (offset < 0 || length < 0 || offset + length > this.length) {
+            throw new IllegalArgumentException("slice() " + sliceDescription + " out of bounds: " + this);
+        }
+        return new FetchOnOpenJdbcIndexInput(
+                sliceDescription == null ? toString() : toString() + " [slice=" + sliceDescription + "]", data,
+                dataOffset + (int) offset, (int) length);
     }
 }
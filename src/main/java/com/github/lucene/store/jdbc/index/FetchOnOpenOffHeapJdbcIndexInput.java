@@ -0,0 +1,307 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.sql.Blob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RandomAccessInput;
+
+import com.github.lucene.store.jdbc.JdbcDirectory;
+import com.github.lucene.store.jdbc.JdbcFileEntrySettings;
+import com.github.lucene.store.jdbc.JdbcStoreException;
+import com.github.lucene.store.jdbc.cache.OffHeapMemoryTracker;
+import com.github.lucene.store.jdbc.support.JdbcTemplate;
+
+/**
+ * An <code>IndexInput</code> implementation that, like
+ * {@link FetchOnOpenJdbcIndexInput}, reads all the data from the database when
+ * created, but streams it into pages of direct (off heap) memory instead of a
+ * single heap array, so large files do not end up in the old generation.
+ * <p/>
+ * Positions and lengths are 64 bits, so files larger than 2GB can be read from
+ * tables with a 64 bit <code>size_</code> column (see
+ * {@link com.github.lucene.store.jdbc.dialect.Dialect#getBigNumberType()}).
+ * Tables created before the column was 64 bits are limited to 2GB files.
+ * <p/>
+ * The page size can be configured under the {@link #PAGE_SIZE_SETTING} name
+ * (rounded down to a power of two). The memory is reserved from the directory
+ * {@link OffHeapMemoryTracker} (see
+ * {@link com.github.lucene.store.jdbc.JdbcDirectorySettings#getOffHeapMemoryTracker()}
+ * ) and released when the input is closed. Opening the input fails if the
+ * tracker maximum size would be exceeded.
+ * <p/>
+ * Clones and slices share the pages of the input they were created from.
+ */
+public class FetchOnOpenOffHeapJdbcIndexInput extends IndexInput implements RandomAccessInput,
+        JdbcIndexConfigurable {
+
+    /**
+     * The size (in bytes) of the off heap pages. Defaults to
+     * {@link #DEFAULT_PAGE_SIZE}.
+     */
+    public static final String PAGE_SIZE_SETTING = "indexInput.offHeap.pageSize";
+
+    public static final int DEFAULT_PAGE_SIZE = 1024 * 1024;
+
+    private ByteBuffer[] pages;
+
+    private int pageShift;
+
+    private long pageMask;
+
+    // the start of this input (which might be a slice) in the pages
+    private long offset;
+
+    private long length;
+
+    private long position;
+
+    // a duplicate of the page currently read, so that clones do not share
+    // buffer positions
+    private ByteBuffer currentPage;
+
+    private int currentPageIndex = -1;
+
+    // only set on the input that reserved the memory, until it is closed
+    private OffHeapMemoryTracker offHeapMemoryTracker;
+
+    public FetchOnOpenOffHeapJdbcIndexInput() {
+        super("FetchOnOpenOffHeapJdbcIndexInput");
+    }
+
+    private FetchOnOpenOffHeapJdbcIndexInput(final String resourceDescription, final ByteBuffer[] pages,
+            final int pageShift, final long offset, final long length) {
+        super(resourceDescription);
+        this.pages = pages;
+        this.pageShift = pageShift;
+        pageMask = (1L << pageShift) - 1;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public void configure(final String name, final JdbcDirectory jdbcDirectory, final JdbcFileEntrySettings settings)
+            throws IOException {
+        final int pageSize = Integer.highestOneBit(Math.max(1, settings.getSettingAsInt(PAGE_SIZE_SETTING,
+                DEFAULT_PAGE_SIZE)));
+        pageShift = Integer.numberOfTrailingZeros(pageSize);
+        pageMask = pageSize - 1;
+        final OffHeapMemoryTracker tracker = jdbcDirectory.getSettings().getOffHeapMemoryTracker();
+        jdbcDirectory.getJdbcTemplate().executeSelect(jdbcDirectory.getTable().sqlSelectSizeValueByName(),
+                new JdbcTemplate.ExecuteSelectCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setFetchSize(1);
+                        ps.setString(1, name);
+                    }
+
+                    @Override
+                    public Object execute(final ResultSet rs) throws Exception {
+                        if (!rs.next()) {
+                            throw new JdbcStoreException(
+                                    "No entry for [" + name + "] table " + jdbcDirectory.getTable());
+                        }
+                        length = rs.getLong(3);
+                        final Blob blob = rs.getBlob(2);
+                        if (length > 0 && blob.length() < length) {
+                            throw new JdbcStoreException("Can not read [" + name + "] off heap, the value has ["
+                                    + blob.length() + "] bytes and the size [" + length + "]");
+                        }
+                        if (tracker != null && !tracker.tryReserve(length)) {
+                            throw new JdbcStoreException("Can not read [" + name + "] off heap, [" + length
+                                    + "] bytes would exceed " + tracker);
+                        }
+                        try {
+                            readPages(blob, pageSize);
+                        } catch (final Exception e) {
+                            if (tracker != null) {
+                                tracker.release(length);
+                            }
+                            throw e;
+                        }
+                        offHeapMemoryTracker = tracker;
+                        return null;
+                    }
+                });
+    }
+
+    private void readPages(final Blob blob, final int pageSize) throws IOException, SQLException {
+        pages = new ByteBuffer[(int) ((length + pageSize - 1) >>> pageShift)];
+        final InputStream is = blob.getBinaryStream();
+        try {
+            final ReadableByteChannel channel = Channels.newChannel(is);
+            long remaining = length;
+            for (int i = 0; i < pages.length; i++) {
+                final ByteBuffer page = ByteBuffer.allocateDirect((int) Math.min(pageSize, remaining));
+                while (page.hasRemaining()) {
+                    if (channel.read(page) < 0) {
+                        throw new EOFException("read past EOF");
+                    }
+                }
+                page.clear();
+                pages[i] = page;
+                remaining -= page.capacity();
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    private ByteBuffer page(final long pos) {
+        final int index = (int) (pos >>> pageShift);
+        if (index != currentPageIndex) {
+            currentPage = pages[index].duplicate();
+            currentPageIndex = index;
+        }
+        return currentPage;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        if (position >= length) {
+            throw new EOFException("read past EOF: " + this);
+        }
+        final long pos = offset + position;
+        final byte b = page(pos).get((int) (pos & pageMask));
+        position++;
+        return b;
+    }
+
+    @Override
+    public void readBytes(final byte[] b, int offset, int len) throws IOException {
+        if (position + len > length) {
+            throw new EOFException("read past EOF: " + this);
+        }
+        while (len > 0) {
+            final long pos = this.offset + position;
+            final ByteBuffer page = page(pos);
+            final int pageOffset = (int) (pos & pageMask);
+            final int toRead = Math.min(len, page.capacity() - pageOffset);
+            page.position(pageOffset);
+            page.get(b, offset, toRead);
+            offset += toRead;
+            len -= toRead;
+            position += toRead;
+        }
+    }
+
+    @Override
+    public byte readByte(final long pos) throws IOException {
+        checkBounds(pos, 1);
+        final long p = offset + pos;
+        return pages[(int) (p >>> pageShift)].get((int) (p & pageMask));
+    }
+
+    @Override
+    public short readShort(final long pos) throws IOException {
+        checkBounds(pos, 2);
+        final long p = offset + pos;
+        final ByteBuffer page = pages[(int) (p >>> pageShift)];
+        final int pageOffset = (int) (p & pageMask);
+        if (pageOffset + 2 <= page.capacity()) {
+            return page.getShort(pageOffset);
+        }
+        return (short) ((readByte(pos) & 0xFF) << 8 | readByte(pos + 1) & 0xFF);
+    }
+
+    @Override
+    public int readInt(final long pos) throws IOException {
+        checkBounds(pos, 4);
+        final long p = offset + pos;
+        final ByteBuffer page = pages[(int) (p >>> pageShift)];
+        final int pageOffset = (int) (p & pageMask);
+        if (pageOffset + 4 <= page.capacity()) {
+            return page.getInt(pageOffset);
+        }
+        return (readShort(pos) & 0xFFFF) << 16 | readShort(pos + 2) & 0xFFFF;
+    }
+
+    @Override
+    public long readLong(final long pos) throws IOException {
+        checkBounds(pos, 8);
+        final long p = offset + pos;
+        final ByteBuffer page = pages[(int) (p >>> pageShift)];
+        final int pageOffset = (int) (p & pageMask);
+        if (pageOffset + 8 <= page.capacity()) {
+            return page.getLong(pageOffset);
+        }
+        return (long) readInt(pos) << 32 | readInt(pos + 4) & 0xFFFFFFFFL;
+    }
+
+    private void checkBounds(final long pos, final int size) throws EOFException {
+        if (pos < 0 || pos + size > length) {
+            throw new EOFException("read past EOF: " + this + " (pos=" + pos + ")");
+        }
+    }
+
+    @Override
+    public long getFilePointer() {
+        return position;
+    }
+
+    @Override
+    public void seek(final long pos) throws IOException {
+        if (pos < 0 || pos > length) {
+            throw new EOFException("seek past EOF: " + this + " (pos=" + pos + ")");
+        }
+        position = pos;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the pages are freed once unreachable (clones might still use them)
+        if (offHeapMemoryTracker != null) {
+            offHeapMemoryTracker.release(length);
+            offHeapMemoryTracker = null;
+        }
+    }
+
+    @Override
+    public FetchOnOpenOffHeapJdbcIndexInput clone() {
+        final FetchOnOpenOffHeapJdbcIndexInput clone = (FetchOnOpenOffHeapJdbcIndexInput) super.clone();
+        clone.currentPage = null;
+        clone.currentPageIndex = -1;
+        clone.offHeapMemoryTracker = null;
+        return clone;
+    }
+
+    @Override
+    public IndexInput slice(final String sliceDescription, final long offset, final long length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > this.length) {
+            throw new IllegalArgumentException("slice() " + sliceDescription + " out of bounds: " + this);
+        }
+        return new FetchOnOpenOffHeapJdbcIndexInput(
+                sliceDescription == null ? toString() : toString() + " [slice=" + sliceDescription + "]", pages,
+                pageShift, this.offset + offset, length);
+    }
+}
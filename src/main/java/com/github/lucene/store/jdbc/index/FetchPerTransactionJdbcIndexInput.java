@@ -24,8 +24,6 @@ import java.sql.ResultSet;
 import java.util.HashMap;
 
 import org.apache.lucene.store.IndexInput;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import com.github.lucene.store.jdbc.JdbcDirectory;
 import com.github.lucene.store.jdbc.JdbcFileEntrySettings;
@@ -45,13 +43,14 @@ import com.github.lucene.store.jdbc.support.JdbcTable;
  * {@link org.apache.lucene.store.jdbc.datasource.TransactionAwareDataSourceProxy}
  * . If using JTA for example, a transcation synchronization should be
  * registered with JTA to clear the blobs.
+ * <p/>
+ * Slices read from the same transaction bound blob as the input they were
+ * created from, starting at their offset in it.
  *
  * @author kimchy
  */
 public class FetchPerTransactionJdbcIndexInput extends JdbcBufferedIndexInput {
 
-    private static final Logger logger = LoggerFactory.getLogger(FetchPerTransactionJdbcIndexInput.class);
-
     private static final Object blobHolderLock = new Object();
 
     private static final ThreadLocal<HashMap<Object, HashMap<String, Blob>>> blobHolder = new ThreadLocal<HashMap<Object, HashMap<String, Blob>>>();
@@ -145,6 +144,9 @@ public class FetchPerTransactionJdbcIndexInput extends JdbcBufferedIndexInput {
 
     private long position = 1;
 
+    // the start of this input (which might be a slice) in the blob
+    private long blobOffset = 0;
+
     private JdbcDirectory jdbcDirectory;
 
     @Override
@@ -268,7 +270,7 @@ public class FetchPerTransactionJdbcIndexInput extends JdbcBufferedIndexInput {
         if (position + length > length() + 1) {
             System.err.println("BAD");
         }
-        final byte[] bytesRead = blob.getBytes(position, length);
+        final byte[] bytesRead = blob.getBytes(blobOffset + position, length);
         if (bytesRead.length != length) {
             throw new IOException("read past EOF");
         }
@@ -305,9 +307,15 @@ public class FetchPerTransactionJdbcIndexInput extends JdbcBufferedIndexInput {
 
     @Override
     public IndexInput slice(final String sliceDescription, final long offset, final long length) throws IOException {
-        // TODO Auto-generated method stub
-        logger.debug("FetchPerTransactionJdbcIndexInput.slice()");
-        return null;
+        if (offset < 0 || length < 0 || offset + length > length()) {
+            throw new IllegalArgumentException("slice() " + sliceDescription + " out of bounds: " + this);
+        }
+        final FetchPerTransactionJdbcIndexInput slice = (FetchPerTransactionJdbcIndexInput) clone();
+        slice.blobOffset = blobOffset + offset;
+        slice.totalLength = length;
+        slice.bufferStart = 0;
+        slice.position = 1;
+        return slice;
     }
 
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RandomAccessInput;
+
+import com.github.lucene.store.jdbc.JdbcDirectory;
+import com.github.lucene.store.jdbc.JdbcFileEntrySettings;
+import com.github.lucene.store.jdbc.JdbcStoreException;
+import com.github.lucene.store.jdbc.cache.BlockCache;
+import com.github.lucene.store.jdbc.dialect.Dialect;
+import com.github.lucene.store.jdbc.support.JdbcTemplate;
+
+/**
+ * An <code>IndexInput</code> implementation, that for every buffer refill
+ * selects only the required range of the blob on the database side (see
+ * {@link Dialect#getBlobRangeSelectString(String)}). Each refill transfers
+ * exactly the bytes it needs, without fetching a blob locator first.
+ * <p/>
+ * Can only be used with dialects that support blob range selects (see
+ * {@link Dialect#supportsBlobRangeSelect()}).
+ * <p/>
+ * Like {@link FetchOnBufferReadJdbcIndexInput}, uses the directory
+ * {@link BlockCache} if one is configured (and {@link #BLOCK_CACHE_SETTING} is
+ * not disabled), and supports reading ahead (see
+ * {@link #READ_AHEAD_WINDOW_SETTING}).
+ */
+public class FetchRangeOnBufferReadJdbcIndexInput extends JdbcBufferedIndexInput {
+
+    private String name;
+
+    // lazy intialize the length
+    private long totalLength = -1;
+
+    private JdbcDirectory jdbcDirectory;
+
+    private BlockCache blockCache;
+
+    private final BlockCache.BlockLoader blockLoader = new BlockCache.BlockLoader() {
+        @Override
+        public byte[] loadBlock(final long position, final int length) throws IOException {
+            final byte[] block = new byte[length];
+            fetchRange(position, block, 0, length);
+            return block;
+        }
+    };
+
+    public FetchRangeOnBufferReadJdbcIndexInput() {
+        super("FetchRangeOnBufferReadJdbcIndexInput");
+    }
+
+    @Override
+    public void configure(final String name, final JdbcDirectory jdbcDirectory, final JdbcFileEntrySettings settings)
+            throws IOException {
+        super.configure(name, jdbcDirectory, settings);
+        if (!jdbcDirectory.getDialect().supportsBlobRangeSelect()) {
+            throw new JdbcStoreException("Dialect [" + jdbcDirectory.getDialect().getClass().getName()
+                    + "] does not support blob range selects, can not use [" + getClass().getName() + "]");
+        }
+        this.jdbcDirectory = jdbcDirectory;
+        this.name = name;
+        if (settings.getSettingAsBoolean(BLOCK_CACHE_SETTING, true)) {
+            blockCache = jdbcDirectory.getSettings().getBlockCache();
+        }
+    }
+
+    @Override
+    protected void readInternal(final byte[] b, final int offset, final int length) throws IOException {
+        if (readAhead(getFilePointer(), b, offset, length)) {
+            return;
+        }
+        if (blockCache != null) {
+            blockCache.read(jdbcDirectory.getCacheKey(), name, length(), getFilePointer(), b, offset,
+                    length, blockLoader);
+        } else {
+            fetchRange(getFilePointer(), b, offset, length);
+        }
+    }
+
+    @Override
+    protected boolean supportsReadAhead() {
+        return true;
+    }
+
+    @Override
+    protected byte[] fetchReadAhead(final long position, final int length) throws IOException {
+        final byte[] b = new byte[length];
+        if (blockCache != null) {
+            blockCache.read(jdbcDirectory.getCacheKey(), name, length(), position, b, 0, length,
+                    blockLoader);
+        } else {
+            fetchRange(position, b, 0, length);
+        }
+        return b;
+    }
+
+    /**
+     * Fetches the given range of the file from the database, splitting it into
+     * several selects if it exceeds {@link Dialect#getBlobRangeSelectMaxLength()}.
+     */
+    private void fetchRange(long position, final byte[] b, int offset, int length) throws IOException {
+        final Dialect dialect = jdbcDirectory.getDialect();
+        final int maxLength = dialect.getBlobRangeSelectMaxLength();
+        while (length > 0) {
+            final long rangePosition = position;
+            final int rangeLength = Math.min(length, maxLength);
+            final byte[] bytesRead = (byte[]) jdbcDirectory.getJdbcTemplate().executeSelect(
+                    jdbcDirectory.getTable().sqlSelectValueRangeByName(), new JdbcTemplate.ExecuteSelectCallback() {
+                        @Override
+                        public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                            ps.setFetchSize(1);
+                            if (dialect.isBlobRangeSelectLengthFirst()) {
+                                ps.setInt(1, rangeLength);
+                                ps.setLong(2, rangePosition + 1);
+                            } else {
+                                ps.setLong(1, rangePosition + 1);
+                                ps.setInt(2, rangeLength);
+                            }
+                            ps.setString(3, name);
+                        }
+
+                        @Override
+                        public Object execute(final ResultSet rs) throws Exception {
+                            if (!rs.next()) {
+                                throw new JdbcStoreException(
+                                        "No entry for [" + name + "] table " + jdbcDirectory.getTable());
+                            }
+                            return rs.getBytes(1);
+                        }
+                    });
+            if (bytesRead == null || bytesRead.length != rangeLength) {
+                throw new IOException("read past EOF");
+            }
+            System.arraycopy(bytesRead, 0, b, offset, rangeLength);
+            position += rangeLength;
+            offset += rangeLength;
+            length -= rangeLength;
+        }
+    }
+
+    @Override
+    protected void seekInternal(final long pos) throws IOException {
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+    }
+
+    @Override
+    public synchronized long length() {
+        if (totalLength == -1) {
+            try {
+                totalLength = jdbcDirectory.fileLength(name);
+            } catch (final IOException e) {
+                // do nothing here for now, much better for performance
+            }
+        }
+        return totalLength;
+    }
+
+    @Override
+    public IndexInput slice(final String sliceDescription, final long offset, final long length) throws IOException {
+        return new SlicedIndexInput(sliceDescription, this, offset, length);
+    }
+
+    @Override
+    public RandomAccessInput randomAccessSlice(final long offset, final long length) throws IOException {
+        if (blockCache == null) {
+            return super.randomAccessSlice(offset, length);
+        }
+        return new BlockCacheRandomAccessInput(blockCache, jdbcDirectory.getCacheKey(), name,
+                length(), offset, length, blockLoader);
+    }
+}
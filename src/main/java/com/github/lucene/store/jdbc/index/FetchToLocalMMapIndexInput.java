@@ -0,0 +1,193 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Blob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RandomAccessInput;
+
+import com.github.lucene.store.jdbc.JdbcDirectory;
+import com.github.lucene.store.jdbc.JdbcFileEntrySettings;
+import com.github.lucene.store.jdbc.JdbcStoreException;
+import com.github.lucene.store.jdbc.cache.LocalFileCache;
+import com.github.lucene.store.jdbc.support.JdbcTemplate;
+
+/**
+ * An <code>IndexInput</code> implementation that copies the file to the local
+ * disk mirror (see
+ * {@link com.github.lucene.store.jdbc.JdbcDirectorySettings#getLocalFileCache()}
+ * ) unless it already holds a copy matching the size and last modified time of
+ * the file entry, and serves all the reads, clones and slices from a memory
+ * mapped file, the same way <code>MMapDirectory</code> does.
+ * <p/>
+ * Useful for large, read heavy, file entries. Requires a local file cache to
+ * be configured.
+ */
+public class FetchToLocalMMapIndexInput extends IndexInput implements JdbcIndexConfigurable {
+
+    private static final int COPY_BUFFER_SIZE = 16 * 1024;
+
+    private IndexInput mmapInput;
+
+    public FetchToLocalMMapIndexInput() {
+        super("FetchToLocalMMapIndexInput");
+    }
+
+    @Override
+    public void configure(final String name, final JdbcDirectory jdbcDirectory, final JdbcFileEntrySettings settings)
+            throws IOException {
+        final LocalFileCache localFileCache = jdbcDirectory.getSettings().getLocalFileCache();
+        if (localFileCache == null) {
+            throw new JdbcStoreException("No local file cache configured for table [" + jdbcDirectory.getTable()
+                    + "], can not use [" + getClass().getName() + "]");
+        }
+        jdbcDirectory.validateLocalFileCache();
+        mmapInput = localFileCache.openInput(jdbcDirectory.getCacheKey(), name, fetchMetadata(name, jdbcDirectory),
+                new LocalFileCache.FileLoader() {
+                    @Override
+                    public void loadFile(final OutputStream os) throws IOException {
+                        copyFile(name, jdbcDirectory, os);
+                    }
+                });
+    }
+
+    private static LocalFileCache.FileMetadata fetchMetadata(final String name, final JdbcDirectory jdbcDirectory)
+            throws IOException {
+        return (LocalFileCache.FileMetadata) jdbcDirectory.getJdbcTemplate().executeSelect(
+                jdbcDirectory.getTable().sqlSelectSizeLastModifiedByName(), new JdbcTemplate.ExecuteSelectCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setFetchSize(1);
+                        ps.setString(1, name);
+                    }
+
+                    @Override
+                    public Object execute(final ResultSet rs) throws Exception {
+                        if (!rs.next()) {
+                            throw new JdbcStoreException(
+                                    "No entry for [" + name + "] table " + jdbcDirectory.getTable());
+                        }
+                        return new LocalFileCache.FileMetadata(rs.getLong(1), rs.getTimestamp(2).getTime());
+                    }
+                });
+    }
+
+    private static void copyFile(final String name, final JdbcDirectory jdbcDirectory, final OutputStream os)
+            throws IOException {
+        jdbcDirectory.getJdbcTemplate().executeSelect(jdbcDirectory.getTable().sqlSelectSizeValueByName(),
+                new JdbcTemplate.ExecuteSelectCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setFetchSize(1);
+                        ps.setString(1, name);
+                    }
+
+                    @Override
+                    public Object execute(final ResultSet rs) throws Exception {
+                        if (!rs.next()) {
+                            throw new JdbcStoreException(
+                                    "No entry for [" + name + "] table " + jdbcDirectory.getTable());
+                        }
+                        final Blob blob = rs.getBlob(2);
+                        final InputStream is = blob.getBinaryStream();
+                        try {
+                            final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                            int read;
+                            while ((read = is.read(buffer)) != -1) {
+                                os.write(buffer, 0, read);
+                            }
+                        } finally {
+                            is.close();
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        return mmapInput.readByte();
+    }
+
+    @Override
+    public void readBytes(final byte[] b, final int offset, final int len) throws IOException {
+        mmapInput.readBytes(b, offset, len);
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return mmapInput.readShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return mmapInput.readInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return mmapInput.readLong();
+    }
+
+    @Override
+    public long getFilePointer() {
+        return mmapInput.getFilePointer();
+    }
+
+    @Override
+    public void seek(final long pos) throws IOException {
+        mmapInput.seek(pos);
+    }
+
+    @Override
+    public long length() {
+        return mmapInput.length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mmapInput.close();
+    }
+
+    @Override
+    public IndexInput slice(final String sliceDescription, final long offset, final long length) throws IOException {
+        return mmapInput.slice(sliceDescription, offset, length);
+    }
+
+    @Override
+    public RandomAccessInput randomAccessSlice(final long offset, final long length) throws IOException {
+        return mmapInput.randomAccessSlice(offset, length);
+    }
+
+    @Override
+    public FetchToLocalMMapIndexInput clone() {
+        final FetchToLocalMMapIndexInput clone = (FetchToLocalMMapIndexInput) super.clone();
+        clone.mmapInput = mmapInput.clone();
+        return clone;
+    }
+
+    @Override
+    public String toString() {
+        return "FetchToLocalMMapIndexInput(" + mmapInput + ")";
+    }
+}
@@ -22,6 +22,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +37,18 @@ import com.github.lucene.store.jdbc.JdbcFileEntrySettings;
  * <p/>
  * Usefull for large files that are known in advance to be larger then the
  * acceptable threshold configured in {@link RAMAndFileJdbcIndexOutput}.
+ * <p/>
+ * When {@link #WRITE_BEHIND_SETTING} is set, closing the output only syncs the
+ * temporary file to disk, and hands its upload to the upload executor of the
+ * file entry (see
+ * {@link JdbcDirectory#getUploadExecutor(JdbcFileEntrySettings)}), which
+ * inserts (and commits) it using its own connection. Until the upload is
+ * completed, the directory waits for it before accessing the file, and
+ * <code>sync</code> waits for the uploads of the files it is given (see
+ * {@link JdbcDirectory#awaitUpload(String)}). If no upload thread is
+ * available, or if the caller is part of a transaction (see
+ * {@link JdbcDirectory#isInTransaction()}), the file is inserted when the
+ * output is closed, using the connection of the caller.
  *
  * @author kimchy
  */
@@ -42,10 +56,20 @@ public class FileJdbcIndexOutput extends AbstractJdbcIndexOutput {
 
     private static final Logger logger = LoggerFactory.getLogger(FileJdbcIndexOutput.class);
 
+    /**
+     * Should the file be uploaded to the database in the background once the
+     * output is closed. Defaults to <code>false</code>.
+     */
+    public static final String WRITE_BEHIND_SETTING = "indexOutput.writeBehind";
+
     private RandomAccessFile file = null;
 
     private File tempFile;
 
+    private JdbcFileEntrySettings settings;
+
+    private boolean writeBehind;
+
     public FileJdbcIndexOutput() {
         super("FileJdbcIndexOutput");
     }
@@ -59,6 +83,8 @@ public class FileJdbcIndexOutput extends AbstractJdbcIndexOutput {
         file = new RandomAccessFile(tempFile, "rw");
         this.jdbcDirectory = jdbcDirectory;
         this.name = name;
+        this.settings = settings;
+        writeBehind = settings.getSettingAsBoolean(WRITE_BEHIND_SETTING, false);
     }
 
     @Override
@@ -85,6 +111,74 @@ public class FileJdbcIndexOutput extends AbstractJdbcIndexOutput {
         return new BufferedInputStream(new FileInputStream(file.getFD()));
     }
 
+    @Override
+    public void close() throws IOException {
+        if (!writeBehind) {
+            super.close();
+            return;
+        }
+        if (file == null) {
+            // already closed
+            return;
+        }
+        flush();
+        final long length = length();
+        if (jdbcDirectory.canHoldUntilSync(length)) {
+            super.close();
+            return;
+        }
+        if (jdbcDirectory.isInTransaction()) {
+            // the upload would commit on its own, and could be blocked by our locks
+            if (logger.isDebugEnabled()) {
+                logger.debug("Not writing [" + name + "] behind from within a transaction, inserting it");
+            }
+            super.close();
+            return;
+        }
+        // durable on the local disk before handing it over
+        file.getFD().sync();
+        file.close();
+        file = null;
+        final File uploadFile = tempFile;
+        tempFile = null;
+        try {
+            jdbcDirectory.registerUpload(name, jdbcDirectory.getUploadExecutor(settings).submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        insertFile(uploadFile, length, true);
+                    } finally {
+                        uploadFile.delete();
+                    }
+                    return null;
+                }
+            }));
+        } catch (final RejectedExecutionException e) {
+            // all the upload threads are busy, upload it ourselves
+            try {
+                insertFile(uploadFile, length, false);
+            } finally {
+                uploadFile.delete();
+            }
+        }
+    }
+
+    private void insertFile(final File uploadFile, final long length, final boolean ownTransaction)
+            throws IOException {
+        final InputStream is = new BufferedInputStream(new FileInputStream(uploadFile));
+        try {
+            if (ownTransaction) {
+                jdbcDirectory.getJdbcTemplate().executeUpdateAndCommit(jdbcDirectory.getTable().sqlInsert(),
+                        insertCallback(is, length));
+            } else {
+                jdbcDirectory.getJdbcTemplate().executeUpdate(jdbcDirectory.getTable().sqlInsert(),
+                        insertCallback(is, length));
+            }
+        } finally {
+            is.close();
+        }
+    }
+
     @Override
     protected void doBeforeClose() throws IOException {
         file.seek(0);
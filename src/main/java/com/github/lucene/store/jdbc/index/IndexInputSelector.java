@@ -0,0 +1,53 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+
+import com.github.lucene.store.jdbc.JdbcDirectory;
+
+/**
+ * Selects the <code>IndexInput</code> implementation used to read a file when
+ * it is opened, based on its size and the <code>IOContext</code> it is opened
+ * with, instead of only on the file entry settings of its extension.
+ * <p/>
+ * The selected input is configured using the file entry settings of the file,
+ * just like the one set under
+ * {@link com.github.lucene.store.jdbc.JdbcFileEntrySettings#INDEX_INPUT_TYPE_SETTING}
+ * .
+ *
+ * @see com.github.lucene.store.jdbc.JdbcDirectorySettings#setIndexInputSelector(IndexInputSelector)
+ */
+public interface IndexInputSelector {
+
+    /**
+     * Returns the <code>IndexInput</code> class used to read the given file,
+     * or <code>null</code> to use the one configured for its file entry.
+     *
+     * @param name
+     *            The name of the file
+     * @param length
+     *            The length of the file (in bytes)
+     * @param context
+     *            The context the file is opened with
+     * @param jdbcDirectory
+     *            The directory the file is opened from
+     */
+    Class<? extends IndexInput> selectIndexInput(String name, long length, IOContext context,
+            JdbcDirectory jdbcDirectory);
+}
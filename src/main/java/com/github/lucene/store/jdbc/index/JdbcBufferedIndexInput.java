@@ -17,18 +17,44 @@
 package com.github.lucene.store.jdbc.index;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.lucene.store.IndexInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.github.lucene.store.jdbc.JdbcDirectory;
 import com.github.lucene.store.jdbc.JdbcFileEntrySettings;
 
 /**
  * A simple base class that performs index input memory based buffering. The
- * buffer size can be configured under the {@link #BUFFER_SIZE_SETTING} name.
+ * buffer size can be configured under the {@link #BUFFER_SIZE_SETTING} name,
+ * and the usage of the block cache under the {@link #BLOCK_CACHE_SETTING}
+ * name.
+ * <p/>
+ * Inputs that support it (see {@link #supportsReadAhead()}) can read ahead
+ * when the file is read sequentially: once a few contiguous buffers were read,
+ * the next {@link #READ_AHEAD_WINDOW_SETTING} buffers are fetched in the
+ * background (using the directory read ahead executor of the file entry, see
+ * {@link JdbcDirectory#getReadAheadExecutor(JdbcFileEntrySettings)}), and are
+ * handed to the input when it gets there. Read ahead is disabled by default,
+ * and is never used for files written within the transaction of the caller
+ * that is still in progress (see
+ * {@link JdbcDirectory#hasUncommittedWrites(String)}).
  *
  * @author kimchy
  */
 public abstract class JdbcBufferedIndexInput extends ConfigurableBufferedIndexInput implements JdbcIndexConfigurable {
 
+    private static final Logger logger = LoggerFactory.getLogger(JdbcBufferedIndexInput.class);
+
     /**
      * The buffer size setting name. See
      * {@link JdbcFileEntrySettings#setIntSetting(String,int)}. Should be set in
@@ -36,6 +62,38 @@ public abstract class JdbcBufferedIndexInput extends ConfigurableBufferedIndexIn
      */
     public static final String BUFFER_SIZE_SETTING = "indexInput.bufferSize";
 
+    /**
+     * Should reads go through the directory block cache (see
+     * {@link com.github.lucene.store.jdbc.JdbcDirectorySettings#getBlockCache()}
+     * ). Only applies to inputs that support it, and when the directory has a
+     * block cache. Defaults to <code>true</code>.
+     */
+    public static final String BLOCK_CACHE_SETTING = "indexInput.blockCache";
+
+    /**
+     * The number of buffers to read ahead when the file is read sequentially.
+     * Defaults to <code>0</code> (no read ahead).
+     */
+    public static final String READ_AHEAD_WINDOW_SETTING = "indexInput.readAhead.window";
+
+    /**
+     * The number of threads of the read ahead executor of the file entry (each
+     * using its own connection). Defaults to {@link #DEFAULT_READ_AHEAD_THREADS}.
+     */
+    public static final String READ_AHEAD_THREADS_SETTING = "indexInput.readAhead.threads";
+
+    public static final int DEFAULT_READ_AHEAD_THREADS = 2;
+
+    // the number of contiguous reads after which the access is considered
+    // sequential
+    private static final int READ_AHEAD_SEQUENTIAL_READS = 2;
+
+    private int readAheadWindow;
+
+    private ExecutorService readAheadExecutor;
+
+    private TreeMap<Long, ReadAhead> readAheads;
+
     protected JdbcBufferedIndexInput(final String resourceDescription) {
         super(resourceDescription, BUFFER_SIZE);
     }
@@ -44,5 +102,148 @@ public abstract class JdbcBufferedIndexInput extends ConfigurableBufferedIndexIn
     public void configure(final String name, final JdbcDirectory jdbcDirectory, final JdbcFileEntrySettings settings)
             throws IOException {
         setBufferSize(settings.getSettingAsInt(BUFFER_SIZE_SETTING, BUFFER_SIZE));
+        readAheadWindow = settings.getSettingAsInt(READ_AHEAD_WINDOW_SETTING, 0);
+        // files written within our (uncommitted) transaction can not be read by
+        // the read ahead connections, which would wait for it to complete
+        if (readAheadWindow > 0 && supportsReadAhead() && !jdbcDirectory.hasUncommittedWrites(name)) {
+            readAheadExecutor = jdbcDirectory.getReadAheadExecutor(settings);
+            readAheads = new TreeMap<Long, ReadAhead>();
+        }
+    }
+
+    /**
+     * Does the input support reading ahead (see
+     * {@link #fetchReadAhead(long, int)}). Defaults to <code>false</code>.
+     */
+    protected boolean supportsReadAhead() {
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if read ahead is enabled for this input.
+     */
+    protected boolean isReadAheadEnabled() {
+        return readAheads != null;
+    }
+
+    /**
+     * Fetches the given range of the file. Called by the read ahead executor
+     * threads, so must not use the input position.
+     */
+    protected byte[] fetchReadAhead(final long position, final int length) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Should be called by inputs that support read ahead at the beginning of
+     * {@link #readInternal(byte[], int, int)}. Hands over the data if it was
+     * already read ahead, and schedules the read ahead of the next buffers if
+     * the file is read sequentially.
+     *
+     * @return <code>true</code> if the data was read ahead and copied to the
+     *         given array, <code>false</code> if it should be read by the
+     *         caller
+     */
+    protected boolean readAhead(final long position, final byte[] b, final int offset, final int length)
+            throws IOException {
+        if (readAheads == null) {
+            return false;
+        }
+        if (getSequentialReads() < READ_AHEAD_SEQUENTIAL_READS) {
+            cancelReadAheads(Long.MAX_VALUE);
+            return false;
+        }
+        // discard whatever was skipped
+        cancelReadAheads(position);
+        final ReadAhead readAhead = readAheads.remove(position);
+        boolean read = false;
+        if (readAhead != null && readAhead.length == length) {
+            try {
+                System.arraycopy(readAhead.future.get(), 0, b, offset, length);
+                read = true;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for read ahead of [" + this + "]");
+            } catch (final ExecutionException e) {
+                // might not be visible to other connections, read it
+                // ourselves
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Read ahead of [" + this + "] at [" + position + "] failed", e.getCause());
+                }
+            }
+        } else if (readAhead != null) {
+            readAhead.future.cancel(false);
+        }
+        scheduleReadAheads(position + length);
+        return read;
+    }
+
+    private void scheduleReadAheads(final long from) {
+        final long fileLength = length();
+        long position = readAheads.isEmpty() ? from : Math.max(from, readAheads.lastEntry().getValue().end());
+        while (readAheads.size() < readAheadWindow && position < fileLength) {
+            final long readAheadPosition = position;
+            final int readAheadLength = (int) Math.min(bufferSize, fileLength - position);
+            final Future<byte[]> future;
+            try {
+                future = readAheadExecutor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return fetchReadAhead(readAheadPosition, readAheadLength);
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                // the executor is busy (or closed), try on the next read
+                return;
+            }
+            readAheads.put(readAheadPosition, new ReadAhead(readAheadPosition, readAheadLength, future));
+            position += readAheadLength;
+        }
+    }
+
+    private void cancelReadAheads(final long before) {
+        if (readAheads.isEmpty()) {
+            return;
+        }
+        for (final Iterator<Map.Entry<Long, ReadAhead>> it = readAheads.headMap(before).entrySet().iterator(); it
+                .hasNext();) {
+            it.next().getValue().future.cancel(false);
+            it.remove();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (readAheads != null) {
+            cancelReadAheads(Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public IndexInput clone() {
+        final JdbcBufferedIndexInput clone = (JdbcBufferedIndexInput) super.clone();
+        if (readAheads != null) {
+            clone.readAheads = new TreeMap<Long, ReadAhead>();
+        }
+        return clone;
+    }
+
+    private static final class ReadAhead {
+
+        final long position;
+
+        final int length;
+
+        final Future<byte[]> future;
+
+        ReadAhead(final long position, final int length, final Future<byte[]> future) {
+            this.position = position;
+            this.length = length;
+            this.future = future;
+        }
+
+        long end() {
+            return position + length;
+        }
     }
 }
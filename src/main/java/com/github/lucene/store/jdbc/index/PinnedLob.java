@@ -0,0 +1,156 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.sql.Blob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.lucene.store.jdbc.JdbcDirectory;
+import com.github.lucene.store.jdbc.JdbcStoreException;
+import com.github.lucene.store.jdbc.datasource.DataSourceUtils;
+import com.github.lucene.store.jdbc.datasource.ReadOnlyConnectionPool;
+
+/**
+ * The LOB handle of a file entry, kept open (along with its result set and
+ * connection, borrowed from the directory pinned connection pool) for the
+ * lifetime of an index input and its clones. A handle that went stale is
+ * reopened.
+ * <p/>
+ * Files that are not visible to the pinned connection (written by a
+ * transaction that was not committed yet) are not pinned, and should be read
+ * as usual.
+ */
+final class PinnedLob {
+
+    private static final Logger logger = LoggerFactory.getLogger(PinnedLob.class);
+
+    private final JdbcDirectory jdbcDirectory;
+
+    private final String name;
+
+    private ReadOnlyConnectionPool pool;
+
+    private Connection connection;
+
+    private PreparedStatement ps;
+
+    private ResultSet rs;
+
+    private Blob blob;
+
+    private boolean closed;
+
+    PinnedLob(final JdbcDirectory jdbcDirectory, final String name) {
+        this.jdbcDirectory = jdbcDirectory;
+        this.name = name;
+    }
+
+    /**
+     * Reads <code>length</code> bytes starting at the given (zero based)
+     * position. Returns <code>null</code> if no connection could be pinned, in
+     * which case the caller should read the data itself.
+     */
+    synchronized byte[] read(final long position, final int length) throws IOException {
+        if (closed) {
+            return null;
+        }
+        for (int attempt = 0;; attempt++) {
+            if (blob == null && !open()) {
+                return null;
+            }
+            try {
+                final byte[] bytes = blob.getBytes(position + 1, length);
+                if (bytes.length != length) {
+                    throw new EOFException("read past EOF: " + name);
+                }
+                return bytes;
+            } catch (final SQLException e) {
+                release(true);
+                if (attempt > 0) {
+                    throw new JdbcStoreException("Failed to read pinned blob [" + name + "]", e);
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Pinned blob [" + name + "] went stale, reopening it", e);
+                }
+            }
+        }
+    }
+
+    private boolean open() throws IOException {
+        pool = jdbcDirectory.getPinnedConnectionPool();
+        final Connection con;
+        try {
+            con = pool.tryBorrow();
+        } catch (final SQLException e) {
+            throw new JdbcStoreException("Failed to borrow a pinned connection for [" + name + "]", e);
+        }
+        if (con == null) {
+            return false;
+        }
+        connection = con;
+        boolean success = false;
+        try {
+            ps = con.prepareStatement(jdbcDirectory.getTable().sqlSelectSizeValueByName());
+            ps.setFetchSize(1);
+            ps.setString(1, name);
+            rs = ps.executeQuery();
+            if (!rs.next()) {
+                // not visible to other transactions yet, stop pinning it
+                closed = true;
+                return false;
+            }
+            blob = rs.getBlob(2);
+            success = true;
+            return true;
+        } catch (final SQLException e) {
+            throw new JdbcStoreException("Failed to pin blob [" + name + "]", e);
+        } finally {
+            if (!success) {
+                release(true);
+            }
+        }
+    }
+
+    private void release(final boolean broken) {
+        DataSourceUtils.closeResultSet(rs);
+        DataSourceUtils.closeStatement(ps);
+        pool.release(connection, broken);
+        blob = null;
+        rs = null;
+        ps = null;
+        connection = null;
+    }
+
+    /**
+     * Releases the pinned connection. Later reads return <code>null</code>.
+     */
+    synchronized void close() {
+        closed = true;
+        if (connection != null) {
+            release(false);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+
+import com.github.lucene.store.jdbc.JdbcDirectory;
+
+/**
+ * An {@link IndexInputSelector} picking the input based on the size of the
+ * file:
+ * <ul>
+ * <li>Files up to the small file threshold are read at once using a
+ * {@link FetchOnOpenJdbcIndexInput} (and benefit from the segment prefetch, see
+ * {@link com.github.lucene.store.jdbc.JdbcDirectorySettings#getSegmentPrefetchThreshold()}
+ * ).</li>
+ * <li>Files from the large file threshold are mirrored on the local disk using
+ * a {@link FetchToLocalMMapIndexInput}, if a local file cache is configured
+ * and the file is not opened for a merge or read once (in which case the
+ * mirror would not be reused).</li>
+ * <li>Other files use the input configured for their file entry, normally a
+ * buffered one reading ranges of the file.</li>
+ * </ul>
+ */
+public class SizeAdaptiveIndexInputSelector implements IndexInputSelector {
+
+    /**
+     * The default small file threshold (in bytes). Currently 64K.
+     */
+    public static final long DEFAULT_SMALL_FILE_THRESHOLD = 64 * 1024;
+
+    /**
+     * The default large file threshold (in bytes). Currently 32M.
+     */
+    public static final long DEFAULT_LARGE_FILE_THRESHOLD = 32 * 1024 * 1024;
+
+    private final long smallFileThreshold;
+
+    private final long largeFileThreshold;
+
+    /**
+     * Creates a new selector using the default thresholds.
+     */
+    public SizeAdaptiveIndexInputSelector() {
+        this(DEFAULT_SMALL_FILE_THRESHOLD, DEFAULT_LARGE_FILE_THRESHOLD);
+    }
+
+    /**
+     * Creates a new selector.
+     *
+     * @param smallFileThreshold
+     *            The maximum size (in bytes) of the files read at once
+     * @param largeFileThreshold
+     *            The minimum size (in bytes) of the files mirrored on the
+     *            local disk
+     */
+    public SizeAdaptiveIndexInputSelector(final long smallFileThreshold, final long largeFileThreshold) {
+        if (smallFileThreshold > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("smallFileThreshold must fit in an int (got " + smallFileThreshold
+                    + ")");
+        }
+        this.smallFileThreshold = smallFileThreshold;
+        this.largeFileThreshold = largeFileThreshold;
+    }
+
+    @Override
+    public Class<? extends IndexInput> selectIndexInput(final String name, final long length,
+            final IOContext context, final JdbcDirectory jdbcDirectory) {
+        if (length <= smallFileThreshold) {
+            return FetchOnOpenJdbcIndexInput.class;
+        }
+        if (length >= largeFileThreshold && jdbcDirectory.getSettings().getLocalFileCache() != null
+                && context.context != IOContext.Context.MERGE && !context.readOnce) {
+            return FetchToLocalMMapIndexInput.class;
+        }
+        return null;
+    }
+
+    public long getSmallFileThreshold() {
+        return smallFileThreshold;
+    }
+
+    public long getLargeFileThreshold() {
+        return largeFileThreshold;
+    }
+}
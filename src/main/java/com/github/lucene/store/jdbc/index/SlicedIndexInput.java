@@ -0,0 +1,94 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.apache.lucene.store.BufferedIndexInput;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RandomAccessInput;
+
+/**
+ * Implementation of an IndexInput that reads from a portion of a file.
+ */
+final class SlicedIndexInput extends BufferedIndexInput {
+    IndexInput base;
+    long fileOffset;
+    long length;
+
+    SlicedIndexInput(final String sliceDescription, final IndexInput base, final long offset, final long length) {
+        super(sliceDescription == null ? base.toString() : base.toString() + " [slice=" + sliceDescription + "]",
+                BufferedIndexInput.BUFFER_SIZE);
+        if (offset < 0 || length < 0 || offset + length > base.length()) {
+            throw new IllegalArgumentException("slice() " + sliceDescription + " out of bounds: " + base);
+        }
+        this.base = base.clone();
+        fileOffset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public SlicedIndexInput clone() {
+        final SlicedIndexInput clone = (SlicedIndexInput) super.clone();
+        clone.base = base.clone();
+        clone.fileOffset = fileOffset;
+        clone.length = length;
+        return clone;
+    }
+
+    @Override
+    protected void readInternal(final byte[] b, final int offset, final int len) throws IOException {
+        final long start = getFilePointer();
+        if (start + len > length) {
+            throw new EOFException("read past EOF: " + this);
+        }
+        base.seek(fileOffset + start);
+        base.readBytes(b, offset, len, false);
+    }
+
+    @Override
+    protected void seekInternal(final long pos) {
+    }
+
+    @Override
+    public void close() throws IOException {
+        base.close();
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public IndexInput slice(final String sliceDescription, final long offset, final long length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > this.length) {
+            throw new IllegalArgumentException("slice() " + sliceDescription + " out of bounds: " + this);
+        }
+        return new SlicedIndexInput(sliceDescription, base, fileOffset + offset, length);
+    }
+
+    @Override
+    public RandomAccessInput randomAccessSlice(final long offset, final long length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > this.length) {
+            throw new IllegalArgumentException("randomAccessSlice() out of bounds: " + this);
+        }
+        // let the base input serve it natively (if it can)
+        return base.randomAccessSlice(fileOffset + offset, length);
+    }
+}
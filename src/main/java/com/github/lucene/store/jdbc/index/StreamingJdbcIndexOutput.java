@@ -0,0 +1,440 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import org.apache.lucene.store.BufferedChecksum;
+import org.apache.lucene.store.IndexOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.lucene.store.jdbc.JdbcDirectory;
+import com.github.lucene.store.jdbc.JdbcFileEntrySettings;
+import com.github.lucene.store.jdbc.JdbcStoreException;
+import com.github.lucene.store.jdbc.support.InputStreamBlob;
+import com.github.lucene.store.jdbc.support.JdbcTemplate;
+
+/**
+ * An <code>IndexOutput</code> that streams the file to the database while it
+ * is being written, without keeping it in memory or in a temporary file.
+ * <p/>
+ * The first {@link #STREAM_THRESHOLD_SETTING} bytes are kept in memory, and
+ * files smaller than that are inserted when the output is closed (like
+ * {@link RAMJdbcIndexOutput}). Once the threshold is reached, an upload is
+ * started on the upload executor of the file entry (see
+ * {@link JdbcDirectory#getUploadExecutor(JdbcFileEntrySettings)}): it inserts
+ * the file under a temporary name, marked as deleted, reading the value from a
+ * stream fed with the buffers written to the output (at most
+ * {@link #STREAM_QUEUE_SIZE_SETTING} buffers are pending at any time). When
+ * the output is closed, the upload is completed and the row is renamed to the
+ * file name and unmarked, using the connection of the caller.
+ * <p/>
+ * The upload uses its own connection, and is committed on its own. A failed or
+ * abandoned upload only leaves a row marked as deleted, purged by
+ * {@link JdbcDirectory#deleteMarkDeleted()}. The upload fails if it makes no
+ * progress for {@link #UPLOAD_TIMEOUT_SETTING} seconds, instead of blocking the
+ * writer.
+ * <p/>
+ * If no upload thread is available, if the file name leaves no room for the
+ * temporary suffix, or if the caller is part of a transaction (whose locks
+ * could block the upload, see {@link JdbcDirectory#isInTransaction()}), the
+ * output falls back to a {@link FileJdbcIndexOutput}, writing the rest of the
+ * file to a temporary file and inserting it when closed.
+ * <p/>
+ * Can not be used with chunked storage, where
+ * {@link ChunkedJdbcIndexOutput} already inserts the chunks as they are
+ * written.
+ */
+public class StreamingJdbcIndexOutput extends IndexOutput implements JdbcIndexConfigurable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingJdbcIndexOutput.class);
+
+    /**
+     * The number of bytes kept in memory before the file is streamed to the
+     * database. Defaults to {@link #DEFAULT_STREAM_THRESHOLD}.
+     */
+    public static final String STREAM_THRESHOLD_SETTING = "indexOutput.stream.threshold";
+
+    public static final int DEFAULT_STREAM_THRESHOLD = 64 * 1024;
+
+    /**
+     * The number of buffers (of {@link JdbcBufferedIndexOutput#BUFFER_SIZE_SETTING}
+     * bytes) waiting to be uploaded before the writer blocks. Defaults to
+     * {@link #DEFAULT_STREAM_QUEUE_SIZE}.
+     */
+    public static final String STREAM_QUEUE_SIZE_SETTING = "indexOutput.stream.queueSize";
+
+    public static final int DEFAULT_STREAM_QUEUE_SIZE = 16;
+
+    /**
+     * The number of threads of the upload executor of the file entry (each
+     * using its own connection), which is also the maximum number of files
+     * streamed at the same time. Defaults to {@link #DEFAULT_UPLOAD_THREADS}.
+     */
+    public static final String UPLOAD_THREADS_SETTING = "indexOutput.upload.threads";
+
+    public static final int DEFAULT_UPLOAD_THREADS = 4;
+
+    /**
+     * The number of seconds the upload may go without progress (the insert
+     * statement waiting, or the writer waiting for queue space or for the
+     * upload to complete) before it is aborted and the output fails. Defaults
+     * to {@link #DEFAULT_UPLOAD_TIMEOUT}.
+     */
+    public static final String UPLOAD_TIMEOUT_SETTING = "indexOutput.upload.timeout";
+
+    public static final int DEFAULT_UPLOAD_TIMEOUT = 300;
+
+    // how often the writer checks the upload while waiting for queue space
+    private static final long OFFER_WAIT_MILLIS = 100;
+
+    private static final AtomicLong tempNameCounter = new AtomicLong();
+
+    private String name;
+
+    private JdbcDirectory jdbcDirectory;
+
+    private JdbcFileEntrySettings settings;
+
+    private byte[] buffer;
+
+    private int bufferPosition;
+
+    private long position;
+
+    private final Checksum crc = new BufferedChecksum(new CRC32());
+
+    private int streamThreshold;
+
+    private int queueSize;
+
+    private int uploadTimeout;
+
+    private final List<byte[]> pending = new ArrayList<byte[]>();
+
+    private long pendingLength;
+
+    private FileJdbcIndexOutput fallbackOutput;
+
+    private String tempName;
+
+    private BlockingQueue<byte[]> queue;
+
+    private Future<Void> upload;
+
+    private boolean closed;
+
+    public StreamingJdbcIndexOutput() {
+        super("StreamingJdbcIndexOutput");
+    }
+
+    @Override
+    public void configure(final String name, final JdbcDirectory jdbcDirectory, final JdbcFileEntrySettings settings)
+            throws IOException {
+        if (jdbcDirectory.getTable().isChunked()) {
+            throw new JdbcStoreException("Table [" + jdbcDirectory.getTable() + "] uses chunked storage");
+        }
+        this.name = name;
+        this.jdbcDirectory = jdbcDirectory;
+        this.settings = settings;
+        buffer = new byte[settings.getSettingAsInt(JdbcBufferedIndexOutput.BUFFER_SIZE_SETTING,
+                ConfigurableBufferedIndexOutput.DEFAULT_BUFFER_SIZE)];
+        streamThreshold = settings.getSettingAsInt(STREAM_THRESHOLD_SETTING, DEFAULT_STREAM_THRESHOLD);
+        queueSize = settings.getSettingAsInt(STREAM_QUEUE_SIZE_SETTING, DEFAULT_STREAM_QUEUE_SIZE);
+        uploadTimeout = settings.getSettingAsInt(UPLOAD_TIMEOUT_SETTING, DEFAULT_UPLOAD_TIMEOUT);
+    }
+
+    @Override
+    public void writeByte(final byte b) throws IOException {
+        if (bufferPosition == buffer.length) {
+            flushBuffer();
+        }
+        buffer[bufferPosition++] = b;
+        crc.update(b);
+        position++;
+    }
+
+    @Override
+    public void writeBytes(final byte[] b, int offset, int length) throws IOException {
+        crc.update(b, offset, length);
+        position += length;
+        while (length > 0) {
+            if (bufferPosition == buffer.length) {
+                flushBuffer();
+            }
+            final int toCopy = Math.min(length, buffer.length - bufferPosition);
+            System.arraycopy(b, offset, buffer, bufferPosition, toCopy);
+            bufferPosition += toCopy;
+            offset += toCopy;
+            length -= toCopy;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        // the full buffer is handed over, and a new one is used
+        final byte[] full = buffer;
+        buffer = new byte[full.length];
+        bufferPosition = 0;
+        if (upload != null) {
+            put(full);
+            return;
+        }
+        if (fallbackOutput != null) {
+            fallbackOutput.writeBytes(full, 0, full.length);
+            return;
+        }
+        pending.add(full);
+        pendingLength += full.length;
+        if (pendingLength >= streamThreshold) {
+            startUpload();
+        }
+    }
+
+    private void startUpload() throws IOException {
+        tempName = name + "~" + Long.toString(tempNameCounter.incrementAndGet(), Character.MAX_RADIX);
+        if (tempName.length() > jdbcDirectory.getSettings().getNameColumnLength()) {
+            fallBack();
+            return;
+        }
+        if (jdbcDirectory.isInTransaction()) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Not streaming [" + name + "] from within a transaction, using a temporary file");
+            }
+            fallBack();
+            return;
+        }
+        queue = new ArrayBlockingQueue<byte[]>(queueSize);
+        final BlockingQueueInputStream is = new BlockingQueueInputStream(queue);
+        try {
+            upload = jdbcDirectory.getUploadExecutor(settings).submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    insertTempEntry(is);
+                    return null;
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // all the upload threads are busy
+            if (logger.isDebugEnabled()) {
+                logger.debug("No upload thread available for [" + name + "], using a temporary file");
+            }
+            fallBack();
+            return;
+        }
+        for (final byte[] b : pending) {
+            put(b);
+        }
+        pending.clear();
+        pendingLength = 0;
+    }
+
+    private void fallBack() throws IOException {
+        fallbackOutput = new FileJdbcIndexOutput();
+        fallbackOutput.configure(name, jdbcDirectory, settings);
+        for (final byte[] b : pending) {
+            fallbackOutput.writeBytes(b, 0, b.length);
+        }
+        pending.clear();
+        pendingLength = 0;
+    }
+
+    private void insertTempEntry(final InputStream is) throws IOException {
+        jdbcDirectory.getJdbcTemplate().executeUpdateAndCommit(jdbcDirectory.getTable().sqlInsert(),
+                new JdbcTemplate.PrepateStatementAwareCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setQueryTimeout(uploadTimeout);
+                        ps.setString(1, tempName);
+                        if (jdbcDirectory.getDialect().useInputStreamToInsertBlob()) {
+                            ps.setBinaryStream(2, is);
+                        } else {
+                            ps.setBlob(2, is);
+                        }
+                        ps.setLong(3, 0);
+                        ps.setBoolean(4, true);
+                    }
+                });
+    }
+
+    private void put(final byte[] b) throws IOException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(uploadTimeout);
+        try {
+            while (!queue.offer(b, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (upload.isDone()) {
+                    throw uploadFailure();
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    abort();
+                    throw new JdbcStoreException("Timed out after " + uploadTimeout + " seconds streaming ["
+                            + name + "] to the database");
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new InterruptedIOException("Interrupted while streaming [" + name + "]");
+        }
+    }
+
+    private void abort() {
+        // only the writer adds to the queue, so there is room after clearing it
+        queue.clear();
+        queue.offer(BlockingQueueInputStream.ABORT);
+        upload.cancel(false);
+    }
+
+    private JdbcStoreException uploadFailure() {
+        try {
+            upload.get();
+        } catch (final ExecutionException e) {
+            return new JdbcStoreException("Failed to stream [" + name + "] to the database", e.getCause());
+        } catch (final Exception e) {
+            return new JdbcStoreException("Failed to stream [" + name + "] to the database", e);
+        }
+        return new JdbcStoreException("Stream of [" + name + "] ended before the output was closed");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        final byte[] last = Arrays.copyOf(buffer, bufferPosition);
+        buffer = null;
+        if (fallbackOutput != null) {
+            fallbackOutput.writeBytes(last, 0, last.length);
+            fallbackOutput.close();
+            return;
+        }
+        if (upload == null) {
+            if (last.length > 0) {
+                pending.add(last);
+                pendingLength += last.length;
+            }
+            insertPending();
+            return;
+        }
+        if (last.length > 0) {
+            put(last);
+        }
+        put(BlockingQueueInputStream.END);
+        try {
+            upload.get(uploadTimeout, TimeUnit.SECONDS);
+        } catch (final ExecutionException e) {
+            throw new JdbcStoreException("Failed to stream [" + name + "] to the database", e.getCause());
+        } catch (final TimeoutException e) {
+            abort();
+            throw new JdbcStoreException("Timed out after " + uploadTimeout + " seconds streaming [" + name
+                    + "] to the database");
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new InterruptedIOException("Interrupted while streaming [" + name + "]");
+        }
+        jdbcDirectory.getJdbcTemplate().executeUpdate(jdbcDirectory.getTable().sqlUpdateNameSizeDeletedByName(),
+                new JdbcTemplate.PrepateStatementAwareCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setFetchSize(1);
+                        ps.setString(1, name);
+                        ps.setLong(2, position);
+                        ps.setBoolean(3, false);
+                        ps.setString(4, tempName);
+                    }
+                });
+    }
+
+    private void insertPending() throws IOException {
+        if (jdbcDirectory.canHoldUntilSync(pendingLength)) {
+            // group commit, inserted when the directory is synced
+            final byte[] data = new byte[(int) pendingLength];
+            int offset = 0;
+            for (final byte[] b : pending) {
+                System.arraycopy(b, 0, data, offset, b.length);
+                offset += b.length;
+            }
+            jdbcDirectory.holdUntilSync(name, data);
+            pending.clear();
+            pendingLength = 0;
+            return;
+        }
+        final List<InputStream> streams = new ArrayList<InputStream>(pending.size());
+        for (final byte[] b : pending) {
+            streams.add(new ByteArrayInputStream(b));
+        }
+        final long length = pendingLength;
+        jdbcDirectory.getJdbcTemplate().executeUpdate(jdbcDirectory.getTable().sqlInsert(),
+                new JdbcTemplate.PrepateStatementAwareCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setFetchSize(1);
+                        ps.setString(1, name);
+                        final InputStream is = new SequenceInputStream(Collections.enumeration(streams));
+                        if (jdbcDirectory.getDialect().useInputStreamToInsertBlob()) {
+                            ps.setBinaryStream(2, is, length);
+                        } else {
+                            ps.setBlob(2, new InputStreamBlob(is, length));
+                        }
+                        ps.setLong(3, length);
+                        ps.setBoolean(4, false);
+                    }
+                });
+        pending.clear();
+        pendingLength = 0;
+    }
+
+    @Override
+    public long getFilePointer() {
+        return position;
+    }
+
+    @Override
+    public long getChecksum() throws IOException {
+        return crc.getValue();
+    }
+
+    /**
+     * Returns <code>true</code> if the file is being streamed to the database
+     * (rather than written to a temporary file, or kept in memory until the
+     * output is closed).
+     */
+    public boolean isStreaming() {
+        return upload != null;
+    }
+}
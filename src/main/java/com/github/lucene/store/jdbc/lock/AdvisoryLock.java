@@ -0,0 +1,233 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.lock;
+
+import java.io.IOException;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.concurrent.Executor;
+
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.lucene.store.jdbc.JdbcDirectory;
+import com.github.lucene.store.jdbc.JdbcStoreException;
+import com.github.lucene.store.jdbc.datasource.DataSourceUtils;
+import com.github.lucene.store.jdbc.datasource.TransactionAwareDataSourceProxy;
+import com.github.lucene.store.jdbc.dialect.Dialect;
+
+/**
+ * A lock based on the native advisory locks of the database (see
+ * {@link Dialect#supportsAdvisoryLocks()}), such as
+ * <code>pg_try_advisory_lock</code> on PostgreSQL or <code>get_lock</code> on
+ * MySQL.
+ * <p/>
+ * The lock is held by a dedicated connection, taken from the data source the
+ * directory was created with (bypassing the
+ * {@link TransactionAwareDataSourceProxy}, if any) and kept open until the
+ * lock is released. It does not touch the directory table, and does not
+ * depend on the transaction of the caller. The lock is named after the
+ * (qualified) table and the name of the lock, and is released by the
+ * database if the connection is closed (for example, if the process
+ * crashes).
+ * <p/>
+ * {@link #ensureValid()} checks the connection is still valid (see
+ * {@link Connection#isValid(int)}), which may go to the database. If the lock
+ * can not be released, the connection is aborted rather than returned to a
+ * pool while it may still hold the lock.
+ * <p/>
+ * If the dialect supports it (see {@link Dialect#supportsAdvisoryLockWait()}),
+ * the database waits for the lock when the directory is configured to wait
+ * for locks.
+ */
+public class AdvisoryLock extends Lock implements WaitableJdbcLock {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdvisoryLock.class);
+
+    // the number of seconds to wait for the connection to be validated
+    private static final int VALID_TIMEOUT = 5;
+
+    // aborts the connection on the thread releasing the lock
+    private static final Executor ABORT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    private JdbcDirectory jdbcDirectory;
+
+    private Dialect dialect;
+
+    private String name;
+
+    private String lockName;
+
+    private Connection connection;
+
+    private volatile boolean closed;
+
+    @Override
+    public void configure(final JdbcDirectory jdbcDirectory, final String name) throws IOException {
+        this.jdbcDirectory = jdbcDirectory;
+        this.name = name;
+        dialect = jdbcDirectory.getDialect();
+        if (!dialect.supportsAdvisoryLocks()) {
+            throw new JdbcStoreException("Dialect [" + dialect.getClass().getName()
+                    + "] does not support advisory locks");
+        }
+        lockName = jdbcDirectory.getTable().getQualifiedName() + "/" + name;
+    }
+
+    @Override
+    public void initializeDatabase(final JdbcDirectory jdbcDirectory) {
+        // do nothing
+    }
+
+    @Override
+    public void obtain() throws IOException {
+        obtain(dialect.getAdvisoryLockString());
+    }
+
+    @Override
+    public boolean supportsWait() {
+        return dialect.supportsAdvisoryLockWait();
+    }
+
+    @Override
+    public void obtain(final long timeout) throws IOException {
+        obtain(dialect.getAdvisoryLockWaitString(SelectForUpdateLock.toSeconds(timeout)));
+    }
+
+    private void obtain(final String sql) throws IOException {
+        boolean obtained = false;
+        try {
+            connection = DataSourceUtils.getTargetDataSource(jdbcDirectory.getDataSource()).getConnection();
+            if (!connection.getAutoCommit()) {
+                connection.setAutoCommit(true);
+            }
+            obtained = execute(sql, true);
+        } catch (final SQLException e) {
+            throw new JdbcStoreException("Failed to obtain advisory lock [" + this + "]", e);
+        } finally {
+            if (!obtained) {
+                closeConnection();
+            }
+        }
+        if (!obtained) {
+            throw new LockObtainFailedException("Lock instance already obtained: " + this);
+        }
+    }
+
+    private boolean execute(final String sql, final boolean lock) throws SQLException {
+        if (dialect.isAdvisoryLockCallable()) {
+            final CallableStatement cs = connection.prepareCall(sql);
+            try {
+                cs.setString(1, lockName);
+                if (lock) {
+                    cs.registerOutParameter(2, Types.INTEGER);
+                }
+                cs.execute();
+                return lock && cs.getInt(2) == 1;
+            } finally {
+                DataSourceUtils.closeStatement(cs);
+            }
+        }
+        final PreparedStatement ps = connection.prepareStatement(sql);
+        ResultSet rs = null;
+        try {
+            ps.setString(1, lockName);
+            if (!lock) {
+                ps.execute();
+                return false;
+            }
+            rs = ps.executeQuery();
+            return rs.next() && rs.getBoolean(1);
+        } finally {
+            DataSourceUtils.closeResultSet(rs);
+            DataSourceUtils.closeStatement(ps);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            throw new AlreadyClosedException("Lock was already released: " + this);
+        }
+        closed = true;
+        try {
+            execute(dialect.getAdvisoryUnlockString(), false);
+        } catch (final SQLException e) {
+            abortConnection();
+            throw new JdbcStoreException("Failed to release advisory lock [" + this + "]", e);
+        }
+        closeConnection();
+    }
+
+    // closes the connection physically, releasing the lock it may still hold
+    private void abortConnection() {
+        try {
+            connection.abort(ABORT_EXECUTOR);
+            connection = null;
+        } catch (final SQLException e) {
+            logger.warn("Failed to abort the connection of lock [" + this + "]", e);
+        } catch (final AbstractMethodError e) {
+            // a driver older than JDBC 4.1
+            logger.warn("Failed to abort the connection of lock [" + this + "]", e);
+        }
+        closeConnection();
+    }
+
+    private void closeConnection() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (final SQLException e) {
+            logger.debug("Failed to close the connection of lock [" + this + "]", e);
+        }
+        connection = null;
+    }
+
+    @Override
+    public void ensureValid() throws IOException {
+        if (closed) {
+            throw new AlreadyClosedException("Lock instance already released: " + this);
+        }
+        final Connection connection = this.connection;
+        try {
+            if (connection == null || !connection.isValid(VALID_TIMEOUT)) {
+                throw new AlreadyClosedException("Connection of lock is no longer valid: " + this);
+            }
+        } catch (final SQLException e) {
+            throw new JdbcStoreException("Failed to check the connection of lock [" + this + "]", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AdvisoryLock[" + name + "/" + jdbcDirectory.getTable() + "]";
+    }
+}
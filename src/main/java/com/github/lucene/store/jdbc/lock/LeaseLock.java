@@ -0,0 +1,243 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.lock;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.lucene.store.jdbc.JdbcDirectory;
+import com.github.lucene.store.jdbc.JdbcStoreException;
+import com.github.lucene.store.jdbc.datasource.DataSourceUtils;
+import com.github.lucene.store.jdbc.support.JdbcTable;
+import com.github.lucene.store.jdbc.support.JdbcTemplate;
+
+/**
+ * A lock held for a lease that its owner keeps renewing, so a lock left behind
+ * by a crashed process can be recovered without manual intervention.
+ * <p/>
+ * The lock entry stores the expiry of the lease (in the last modified column,
+ * its size is <code>0</code>). The expiry is rounded up to the second, so
+ * every dialect stores it exactly, and also identifies the owner of the lease:
+ * the owner only renews or deletes the entry if it still holds the expiry it
+ * last wrote. While the lock is held, a
+ * heartbeat (see {@link JdbcDirectory#getLockHeartbeatExecutor()}) renews the
+ * lease every {@link com.github.lucene.store.jdbc.JdbcDirectorySettings#getLockHeartbeatInterval()}
+ * milliseconds. If the owner stops renewing it, the lock can be taken over,
+ * using a single conditional update, once the lease expired (see
+ * {@link com.github.lucene.store.jdbc.JdbcDirectorySettings#getLockLeaseDuration()}).
+ * <p/>
+ * {@link #ensureValid()} checks the lease locally and never goes to the
+ * database: the lock is valid as long as the last successful renewal is
+ * younger than the lease duration. Lease expiries are computed using the
+ * clock of each process, so the lease duration should be well above the
+ * clock skew between the processes sharing the index.
+ * <p/>
+ * The lock entry is updated using dedicated connections, taken from the data
+ * source the directory was created with (bypassing the
+ * {@link com.github.lucene.store.jdbc.datasource.TransactionAwareDataSourceProxy},
+ * if any). Each update is committed on its own, outside of the transaction of
+ * the caller, for the lease to be visible to the other processes while it is
+ * held.
+ */
+public class LeaseLock extends Lock implements JdbcLock {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaseLock.class);
+
+    private JdbcDirectory jdbcDirectory;
+
+    private String name;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private long leaseDuration;
+
+    // the expiry of the lease as last written, identifying the owner
+    private Timestamp expiry;
+
+    private ScheduledFuture<?> heartbeat;
+
+    // System.nanoTime() based deadline of the lease, as last renewed
+    private volatile long validUntil;
+
+    private volatile boolean lost;
+
+    private volatile boolean closed;
+
+    @Override
+    public void configure(final JdbcDirectory jdbcDirectory, final String name) throws IOException {
+        this.jdbcDirectory = jdbcDirectory;
+        this.name = name;
+        jdbcTemplate = new JdbcTemplate(DataSourceUtils.getTargetDataSource(jdbcDirectory.getDataSource()));
+        leaseDuration = jdbcDirectory.getSettings().getLockLeaseDuration();
+    }
+
+    // whole seconds are stored exactly whatever the precision of the column
+    private Timestamp expiry(final long now) {
+        final long expiry = now + leaseDuration;
+        return new Timestamp((expiry + 999) / 1000 * 1000);
+    }
+
+    @Override
+    public void initializeDatabase(final JdbcDirectory jdbcDirectory) {
+        // do nothing
+    }
+
+    @Override
+    public void obtain() throws IOException {
+        final JdbcTable table = jdbcDirectory.getTable();
+        final long start = System.nanoTime();
+        final long now = System.currentTimeMillis();
+        final Timestamp expiry = expiry(now);
+        // take over an expired lease
+        final int count = jdbcTemplate.executeUpdateAndCommit(table.sqlTakeOverLease(),
+                new JdbcTemplate.PrepateStatementAwareCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setTimestamp(1, expiry);
+                        ps.setString(2, name);
+                        ps.setTimestamp(3, new Timestamp(now));
+                    }
+                });
+        if (count == 0) {
+            if (jdbcDirectory.getDialect().useExistsBeforeInsertLock() && jdbcDirectory.fileExists(name)) {
+                throw new LockObtainFailedException("Lock instance already obtained: " + this);
+            }
+            try {
+                jdbcTemplate.executeUpdateAndCommit(table.sqlInsertLease(),
+                        new JdbcTemplate.PrepateStatementAwareCallback() {
+                            @Override
+                            public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                                ps.setString(1, name);
+                                ps.setNull(2, table.getValueColumnSqlType());
+                                ps.setLong(3, 0);
+                                ps.setTimestamp(4, expiry);
+                                ps.setBoolean(5, false);
+                            }
+                        });
+            } catch (final JdbcStoreException e) {
+                throw new LockObtainFailedException("Lock instance already obtained: " + this, e);
+            }
+        } else if (logger.isInfoEnabled()) {
+            logger.info("Took over the expired lease of lock [" + this + "]");
+        }
+        synchronized (this) {
+            this.expiry = expiry;
+        }
+        validUntil = start + TimeUnit.MILLISECONDS.toNanos(leaseDuration);
+        final long interval = jdbcDirectory.getSettings().getLockHeartbeatInterval();
+        try {
+            heartbeat = jdbcDirectory.getLockHeartbeatExecutor().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    renew();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            release();
+            throw new LockObtainFailedException("Failed to schedule the renewal of lock [" + this + "]", e);
+        }
+    }
+
+    /**
+     * Renews the lease, called by the heartbeat.
+     */
+    synchronized void renew() {
+        if (closed || lost) {
+            return;
+        }
+        final long start = System.nanoTime();
+        final Timestamp current = expiry;
+        final Timestamp expiry = expiry(System.currentTimeMillis());
+        try {
+            final int count = jdbcTemplate.executeUpdateAndCommit(jdbcDirectory.getTable().sqlRenewLease(),
+                    new JdbcTemplate.PrepateStatementAwareCallback() {
+                        @Override
+                        public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                            ps.setTimestamp(1, expiry);
+                            ps.setString(2, name);
+                            ps.setTimestamp(3, current);
+                        }
+                    });
+            if (count == 0) {
+                lost = true;
+                logger.warn("Lost the lease of lock [{}], it was taken over", this);
+                heartbeat.cancel(false);
+            } else {
+                this.expiry = expiry;
+                validUntil = start + TimeUnit.MILLISECONDS.toNanos(leaseDuration);
+            }
+        } catch (final Exception e) {
+            // the lease expires on its own if the renewals keep failing
+            logger.warn("Failed to renew the lease of lock [" + this + "]", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            throw new AlreadyClosedException("Lock was already released: " + this);
+        }
+        closed = true;
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+        }
+        release();
+    }
+
+    private synchronized void release() throws IOException {
+        final Timestamp current = expiry;
+        final int count = jdbcTemplate.executeUpdateAndCommit(jdbcDirectory.getTable().sqlDeleteLease(),
+                new JdbcTemplate.PrepateStatementAwareCallback() {
+                    @Override
+                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                        ps.setString(1, name);
+                        ps.setTimestamp(2, current);
+                    }
+                });
+        if (count == 0) {
+            logger.warn("Lock [{}] was taken over before being released", this);
+        }
+    }
+
+    @Override
+    public void ensureValid() throws IOException {
+        if (closed) {
+            throw new AlreadyClosedException("Lock instance already released: " + this);
+        }
+        if (lost) {
+            throw new AlreadyClosedException("Lease of lock was taken over: " + this);
+        }
+        if (System.nanoTime() - validUntil >= 0) {
+            throw new AlreadyClosedException("Lease of lock expired: " + this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LeaseLock[" + name + "/" + jdbcDirectory.getTable() + "]";
+    }
+}
@@ -18,7 +18,6 @@ package com.github.lucene.store.jdbc.lock;
 
 import java.io.IOException;
 import java.sql.PreparedStatement;
-import java.sql.Types;
 
 import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Lock;
@@ -72,7 +71,7 @@ public class PhantomReadLock extends Lock implements JdbcLock {
                     public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
                         ps.setFetchSize(1);
                         ps.setString(1, name);
-                        ps.setNull(2, Types.BLOB);
+                        ps.setNull(2, jdbcDirectory.getTable().getValueColumnSqlType());
                         ps.setLong(3, 0);
                         ps.setBoolean(4, false);
                     }
@@ -19,7 +19,7 @@ package com.github.lucene.store.jdbc.lock;
 import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.Types;
+import java.sql.SQLException;
 
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.store.Lock;
@@ -36,20 +36,33 @@ import com.github.lucene.store.jdbc.support.JdbcTemplate;
  * <p/>
  * Note, that not all databases support select ... for update, if the database
  * (dialect) does not support it, a exception will be thrown (see
- * {@link org.apache.lucene.store.jdbc.dialect.Dialect#supportsForUpdate()} .
+ * {@link com.github.lucene.store.jdbc.dialect.Dialect#supportsForUpdate()} .
  * <p/>
  * Also note, that when using select for update locking, when the database is
  * created, the commit and write locks will be created and the select for update
  * will be performed on them. If one wishes to switch to
- * {@link org.apache.lucene.store.jdbc.lock.PhantomReadLock}, they must be
+ * {@link com.github.lucene.store.jdbc.lock.PhantomReadLock}, they must be
  * manually deleted.
  * <p/>
  * The lock is released when the transaction is committed, and not when the
  * release method is called.
+ * <p/>
+ * If the dialect supports it (see
+ * {@link com.github.lucene.store.jdbc.dialect.Dialect#supportsForUpdateWait()}),
+ * the database waits for the row lock when the directory is configured to
+ * wait for locks.
+ * <p/>
+ * A row locked by someone else (see
+ * {@link com.github.lucene.store.jdbc.dialect.Dialect#isLockContention(SQLException)})
+ * fails the obtain with a {@link LockObtainFailedException}. The select is
+ * bounded by the query timeout of the directory (see
+ * {@link com.github.lucene.store.jdbc.JdbcDirectorySettings#getQueryTimeout()}),
+ * so databases without a no wait clause do not block forever. When waiting
+ * for the lock, it is bounded by the requested timeout instead.
  *
  * @author kimchy
  */
-public class SelectForUpdateLock extends Lock implements JdbcLock {
+public class SelectForUpdateLock extends Lock implements WaitableJdbcLock {
 
     private static final Logger logger = LoggerFactory.getLogger(SelectForUpdateLock.class);
 
@@ -74,7 +87,7 @@ public class SelectForUpdateLock extends Lock implements JdbcLock {
                     public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
                         ps.setFetchSize(1);
                         ps.setString(1, IndexWriter.WRITE_LOCK_NAME);
-                        ps.setNull(2, Types.BLOB);
+                        ps.setNull(2, jdbcDirectory.getTable().getValueColumnSqlType());
                         ps.setLong(3, 0);
                         ps.setBoolean(4, false);
                     }
@@ -83,23 +96,56 @@ public class SelectForUpdateLock extends Lock implements JdbcLock {
 
     @Override
     public void obtain() throws IOException {
-        jdbcDirectory.getJdbcTemplate().executeSelect(jdbcDirectory.getTable().sqlSelectNameForUpdateNoWait(),
-                new JdbcTemplate.ExecuteSelectCallback() {
+        obtain(jdbcDirectory.getTable().sqlSelectNameForUpdateNoWait(), jdbcDirectory.getSettings().getQueryTimeout());
+    }
 
-                    @Override
-                    public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
-                        ps.setFetchSize(1);
-                        ps.setString(1, name);
-                    }
+    @Override
+    public boolean supportsWait() {
+        return jdbcDirectory.getDialect().supportsForUpdateWait();
+    }
 
-                    @Override
-                    public Object execute(final ResultSet rs) throws Exception {
-                        if (!rs.next()) {
-                            throw new LockObtainFailedException("Lock instance already obtained: " + this);
-                        }
-                        return null;
+    @Override
+    public void obtain(final long timeout) throws IOException {
+        obtain(jdbcDirectory.getTable().sqlSelectNameForUpdateWait(toSeconds(timeout)), toSeconds(timeout));
+    }
+
+    /**
+     * Converts the given timeout (in milliseconds) to seconds, rounding up.
+     */
+    static int toSeconds(final long timeout) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (timeout + 999) / 1000));
+    }
+
+    private void obtain(final String sql, final int queryTimeout) throws IOException {
+        try {
+            jdbcDirectory.getJdbcTemplate().executeSelect(sql, new JdbcTemplate.ExecuteSelectCallback() {
+
+                @Override
+                public void fillPrepareStatement(final PreparedStatement ps) throws Exception {
+                    ps.setFetchSize(1);
+                    ps.setQueryTimeout(queryTimeout);
+                    ps.setString(1, name);
+                }
+
+                @Override
+                public Object execute(final ResultSet rs) throws Exception {
+                    if (!rs.next()) {
+                        throw new LockObtainFailedException(
+                                "Lock instance already obtained: " + SelectForUpdateLock.this);
                     }
-                });
+                    return null;
+                }
+            });
+        } catch (final JdbcStoreException e) {
+            if (e.getCause() instanceof LockObtainFailedException) {
+                throw (LockObtainFailedException) e.getCause();
+            }
+            if (e.getCause() instanceof SQLException
+                    && jdbcDirectory.getDialect().isLockContention((SQLException) e.getCause())) {
+                throw new LockObtainFailedException("Lock instance already obtained: " + this, e.getCause());
+            }
+            throw e;
+        }
     }
 
     @Override
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.lock;
+
+import java.io.IOException;
+
+/**
+ * A {@link JdbcLock} that can have the database wait for the lock to be
+ * released, instead of the directory retrying to obtain it (see
+ * {@link com.github.lucene.store.jdbc.JdbcDirectorySettings#getLockWaitTimeout()}).
+ */
+public interface WaitableJdbcLock extends JdbcLock {
+
+    /**
+     * Returns <code>true</code> if the database can wait for the lock (usually
+     * depends on the dialect).
+     */
+    boolean supportsWait();
+
+    /**
+     * Obtains the lock, having the database wait for it to be released for
+     * (about) the given timeout.
+     *
+     * @param timeout
+     *            The maximum time to wait (in milliseconds)
+     * @throws org.apache.lucene.store.LockObtainFailedException
+     *             If the lock was not obtained in time
+     * @throws java.io.IOException
+     */
+    void obtain(long timeout) throws IOException;
+}
@@ -16,6 +16,8 @@
 
 package com.github.lucene.store.jdbc.support;
 
+import java.sql.Types;
+
 import org.apache.lucene.index.IndexWriter;
 
 import com.github.lucene.store.jdbc.JdbcDirectorySettings;
@@ -29,6 +31,9 @@ import com.github.lucene.store.jdbc.dialect.Dialect;
  */
 public class JdbcTable {
 
+    // the escape character of like patterns
+    private static final char LIKE_ESCAPE = '!';
+
     private final Dialect dialect;
 
     private final JdbcDirectorySettings settings;
@@ -53,18 +58,34 @@ public class JdbcTable {
     private final String sqlMarkDeleteByName;
     private final String sqlUpdateNameByName;
     private final String sqlSelectSizeByName;
+    private final String sqlSelectSizeLastModifiedByName;
+    private final String sqlSelectNamesSizeLastModified;
+    private final String sqlSelectNamesSizeLastModifiedDeleted;
+    private final String sqlSelectSizeLastModifiedDeletedByName;
     private final String sqlInsert;
     private final String sqlUpdateSizeLastModifiedByName;
+    private final String sqlUpdateNameSizeDeletedByName;
     private final String sqlSelectSizeValueByName;
+    private final String sqlSelectValueRangeByName;
     private final String sqlDeletaAll;
     private final String sqlDeletaMarkDeleteByDelta;
+    private final String sqlSelectNamesMarkDeleteByDelta;
     private final String sqlSelectNameForUpdateNoWait;
+    private final String sqlSelectNamesByPrefix;
+    private final String sqlInsertChunk;
+    private final String sqlSelectChunksByName;
+    private final String sqlSelectNameSizeValueByPrefix;
+    private final String sqlInsertLease;
+    private final String sqlTakeOverLease;
+    private final String sqlRenewLease;
+    private final String sqlDeleteLease;
 
     private final JdbcColumn nameColumn;
     private final JdbcColumn valueColumn;
     private final JdbcColumn sizeColumn;
     private final JdbcColumn lastModifiedColumn;
     private final JdbcColumn deletedColumn;
+    private final JdbcColumn chunkColumn;
 
     public JdbcTable(final JdbcDirectorySettings settings, final Dialect dialect, final String name) {
         this(settings, dialect, name, settings.getTableCatalog(), settings.getTableSchema());
@@ -80,21 +101,40 @@ public class JdbcTable {
         nameColumn = new JdbcColumn(dialect, settings.getNameColumnName(), 1,
                 dialect.getVarcharType(settings.getNameColumnLength()));
         valueColumn = new JdbcColumn(dialect, settings.getValueColumnName(), 2,
-                dialect.getBlobType(settings.getValueColumnLengthInK()));
-        sizeColumn = new JdbcColumn(dialect, settings.getSizeColumnName(), 3, dialect.getNumberType());
+                settings.isChunkedStorage() ? dialect.getVarbinaryType(settings.getChunkSize())
+                        : dialect.getBlobType(settings.getValueColumnLengthInK()));
+        sizeColumn = new JdbcColumn(dialect, settings.getSizeColumnName(), 3, dialect.getBigNumberType());
         lastModifiedColumn = new JdbcColumn(dialect, settings.getLastModifiedColumnName(), 4,
                 dialect.getTimestampType());
         deletedColumn = new JdbcColumn(dialect, settings.getDeletedColumnName(), 5, dialect.getBitType());
+        if (settings.isChunkedStorage()) {
+            chunkColumn = new JdbcColumn(dialect, settings.getChunkColumnName(), 6, dialect.getNumberType());
+        } else {
+            chunkColumn = null;
+        }
+
+        // with chunked storage, only the first (chunk 0) row holds the file
+        // entry
+        final String entryRowCondition = chunkColumn == null ? ""
+                : " and " + chunkColumn.getQuotedName() + " = 0";
 
         final StringBuffer sb = new StringBuffer();
 
-        sqlCreate = sb.append("create table ").append(getQualifiedName()).append(" (").append(nameColumn.getName())
-                .append(' ').append(nameColumn.getType()).append(" not null, ").append(valueColumn.getName())
-                .append(' ').append(valueColumn.getType()).append(" , ").append(sizeColumn.getName()).append(' ')
+        sb.append("create table ").append(getQualifiedName()).append(" (").append(nameColumn.getName()).append(' ')
+                .append(nameColumn.getType()).append(" not null, ").append(valueColumn.getName()).append(' ')
+                .append(valueColumn.getType()).append(" , ").append(sizeColumn.getName()).append(' ')
                 .append(sizeColumn.getType()).append(" , ").append(lastModifiedColumn.getName()).append(' ')
                 .append(lastModifiedColumn.getType()).append(" , ").append(deletedColumn.getName()).append(' ')
-                .append(deletedColumn.getType()).append(", " + "primary key (").append(nameColumn.getName())
-                .append(") ) ").append(getTableTypeString(dialect)).toString();
+                .append(deletedColumn.getType());
+        if (chunkColumn != null) {
+            sb.append(" , ").append(chunkColumn.getName()).append(' ').append(chunkColumn.getType())
+                    .append(" default 0 not null");
+        }
+        sb.append(", " + "primary key (").append(nameColumn.getName());
+        if (chunkColumn != null) {
+            sb.append(", ").append(chunkColumn.getName());
+        }
+        sqlCreate = sb.append(") ) ").append(getTableTypeString(dialect)).toString();
 
         sb.setLength(0);
         sb.append("drop table ");
@@ -110,17 +150,23 @@ public class JdbcTable {
         sb.setLength(0);
         sqlSelectNames = sb.append("select ").append(nameColumn.getQuotedName()).append(" from ")
                 .append(getQualifiedName()).append(" where ").append(deletedColumn.getQuotedName()).append(" = ?")
-                .toString();
+                .append(entryRowCondition).toString();
+
+        sb.setLength(0);
+        sqlSelectNamesByPrefix = sb.append("select ").append(nameColumn.getQuotedName()).append(" from ")
+                .append(getQualifiedName()).append(" where ").append(nameColumn.getQuotedName())
+                .append(" like ? escape '").append(LIKE_ESCAPE).append("' and ").append(deletedColumn.getQuotedName())
+                .append(" = ?").append(entryRowCondition).toString();
 
         sb.setLength(0);
         sqlSelectNameExists = sb.append("select ").append(deletedColumn.getQuotedName()).append(" from ")
                 .append(getQualifiedName()).append(" where ").append(nameColumn.getQuotedName()).append(" = ?")
-                .toString();
+                .append(entryRowCondition).toString();
 
         sb.setLength(0);
         sqlSelecltLastModifiedByName = sb.append("select ").append(lastModifiedColumn.getQuotedName()).append(" from ")
                 .append(getQualifiedName()).append(" where ").append(nameColumn.getQuotedName()).append(" = ?")
-                .toString();
+                .append(entryRowCondition).toString();
 
         sb.setLength(0);
         sqlUpdateLastModifiedByName = sb.append("update ").append(getQualifiedName()).append(" set ")
@@ -136,21 +182,64 @@ public class JdbcTable {
                 .append(deletedColumn.getQuotedName()).append(" = ?").append(" and ")
                 .append(lastModifiedColumn.getQuotedName()).append(" < ?").toString();
 
+        sb.setLength(0);
+        sqlSelectNamesMarkDeleteByDelta = sb.append("select ").append(nameColumn.getQuotedName()).append(" from ")
+                .append(getQualifiedName()).append(" where ").append(deletedColumn.getQuotedName()).append(" = ?")
+                .append(" and ").append(lastModifiedColumn.getQuotedName()).append(" < ?").append(entryRowCondition)
+                .toString();
+
         sb.setLength(0);
         sqlUpdateNameByName = sb.append("update ").append(getQualifiedName()).append(" set ")
                 .append(nameColumn.getQuotedName()).append(" = ?" + " where ").append(nameColumn.getQuotedName())
                 .append(" = ?").toString();
 
+        if (dialect.supportsBlobRangeSelect()) {
+            sb.setLength(0);
+            sqlSelectValueRangeByName = sb.append("select ")
+                    .append(dialect.getBlobRangeSelectString(valueColumn.getQuotedName())).append(" as x from ")
+                    .append(getQualifiedName()).append(" where ").append(nameColumn.getQuotedName()).append(" = ?")
+                    .toString();
+        } else {
+            sqlSelectValueRangeByName = null;
+        }
+
         sb.setLength(0);
         sqlSelectNameForUpdateNoWait = sb.append("select ").append(nameColumn.getQuotedName()).append(" from ")
                 .append(getQualifiedName()).append(" where ").append(nameColumn.getQuotedName()).append(" = ?")
-                .append(dialect.getForUpdateNowaitString()).toString();
+                .append(entryRowCondition).append(dialect.getForUpdateNowaitString()).toString();
 
         sb.setLength(0);
         sqlSelectSizeByName = sb.append("select ").append(sizeColumn.getQuotedName()).append(" from ")
                 .append(getQualifiedName()).append(" where ").append(nameColumn.getQuotedName()).append(" = ?")
+                .append(entryRowCondition).toString();
+
+        sb.setLength(0);
+        sqlSelectSizeLastModifiedByName = sb.append("select ").append(sizeColumn.getQuotedName()).append(", ")
+                .append(lastModifiedColumn.getQuotedName()).append(" from ").append(getQualifiedName())
+                .append(" where ").append(nameColumn.getQuotedName()).append(" = ?").append(entryRowCondition)
                 .toString();
 
+        sb.setLength(0);
+        sqlSelectNamesSizeLastModified = sb.append("select ").append(nameColumn.getQuotedName()).append(", ")
+                .append(sizeColumn.getQuotedName()).append(", ").append(lastModifiedColumn.getQuotedName())
+                .append(" from ").append(getQualifiedName()).append(" where ").append(deletedColumn.getQuotedName())
+                .append(" = ?").append(entryRowCondition).toString();
+
+        sb.setLength(0);
+        sb.append("select ").append(nameColumn.getQuotedName()).append(", ").append(sizeColumn.getQuotedName())
+                .append(", ").append(lastModifiedColumn.getQuotedName()).append(", ")
+                .append(deletedColumn.getQuotedName()).append(" from ").append(getQualifiedName());
+        if (chunkColumn != null) {
+            sb.append(" where ").append(chunkColumn.getQuotedName()).append(" = 0");
+        }
+        sqlSelectNamesSizeLastModifiedDeleted = sb.toString();
+
+        sb.setLength(0);
+        sqlSelectSizeLastModifiedDeletedByName = sb.append("select ").append(sizeColumn.getQuotedName()).append(", ")
+                .append(lastModifiedColumn.getQuotedName()).append(", ").append(deletedColumn.getQuotedName())
+                .append(" from ").append(getQualifiedName()).append(" where ").append(nameColumn.getQuotedName())
+                .append(" = ?").append(entryRowCondition).toString();
+
         sb.setLength(0);
         sqlInsert = sb.append("insert into ").append(getQualifiedName()).append(" (").append(nameColumn.getQuotedName())
                 .append(", ").append(valueColumn.getQuotedName()).append(", ").append(sizeColumn.getQuotedName())
@@ -164,12 +253,43 @@ public class JdbcTable {
                 .append(" = ").append(dialect.getCurrentTimestampFunction()).append(" where ")
                 .append(nameColumn.getQuotedName()).append(" = ?").toString();
 
+        sb.setLength(0);
+        sqlUpdateNameSizeDeletedByName = sb.append("update ").append(getQualifiedName()).append(" set ")
+                .append(nameColumn.getQuotedName()).append(" = ? , ").append(sizeColumn.getQuotedName())
+                .append(" = ? , ").append(lastModifiedColumn.getQuotedName()).append(" = ")
+                .append(dialect.getCurrentTimestampFunction()).append(" , ").append(deletedColumn.getQuotedName())
+                .append(" = ? where ").append(nameColumn.getQuotedName()).append(" = ?").toString();
+
         sb.setLength(0);
         sqlMarkDeleteByName = sb.append("update ").append(getQualifiedName()).append(" set ")
                 .append(deletedColumn.getQuotedName()).append(" = ? , ").append(lastModifiedColumn.getQuotedName())
                 .append(" = ").append(dialect.getCurrentTimestampFunction()).append(" where ")
                 .append(nameColumn.getQuotedName()).append(" = ?").toString();
 
+        // leases (see LeaseLock) keep the expiry in the last modified column,
+        // which also identifies the owner of the lease
+        sb.setLength(0);
+        sqlInsertLease = sb.append("insert into ").append(getQualifiedName()).append(" (")
+                .append(nameColumn.getQuotedName()).append(", ").append(valueColumn.getQuotedName()).append(", ")
+                .append(sizeColumn.getQuotedName()).append(", ").append(lastModifiedColumn.getQuotedName())
+                .append(", ").append(deletedColumn.getQuotedName()).append(") values ( ?, ?, ?, ?, ? )").toString();
+
+        sb.setLength(0);
+        sqlTakeOverLease = sb.append("update ").append(getQualifiedName()).append(" set ")
+                .append(sizeColumn.getQuotedName()).append(" = 0 , ").append(lastModifiedColumn.getQuotedName())
+                .append(" = ? where ").append(nameColumn.getQuotedName()).append(" = ? and ")
+                .append(lastModifiedColumn.getQuotedName()).append(" < ?").toString();
+
+        sb.setLength(0);
+        sqlRenewLease = sb.append("update ").append(getQualifiedName()).append(" set ")
+                .append(lastModifiedColumn.getQuotedName()).append(" = ? where ").append(nameColumn.getQuotedName())
+                .append(" = ? and ").append(lastModifiedColumn.getQuotedName()).append(" = ?").toString();
+
+        sb.setLength(0);
+        sqlDeleteLease = sb.append("delete from ").append(getQualifiedName()).append(" where ")
+                .append(nameColumn.getQuotedName()).append(" = ? and ").append(lastModifiedColumn.getQuotedName())
+                .append(" = ?").toString();
+
         sb.setLength(0);
         sqlSelectSizeValueByName = sb.append("select ").append(nameColumn.getQuotedName()).append(", ")
                 .append(dialect.openBlobSelectQuote()).append(valueColumn.getQuotedName())
@@ -181,6 +301,78 @@ public class JdbcTable {
         sqlDeletaAll = sb.append("delete from ").append(getQualifiedName()).append(" where ")
                 .append(nameColumn.getQuotedName()).append(" <> '").append(IndexWriter.WRITE_LOCK_NAME).append("'")
                 .toString();
+
+        if (chunkColumn != null) {
+            sb.setLength(0);
+            sqlInsertChunk = sb.append("insert into ").append(getQualifiedName()).append(" (")
+                    .append(nameColumn.getQuotedName()).append(", ").append(chunkColumn.getQuotedName()).append(", ")
+                    .append(valueColumn.getQuotedName()).append(", ").append(sizeColumn.getQuotedName()).append(", ")
+                    .append(lastModifiedColumn.getQuotedName()).append(", ").append(deletedColumn.getQuotedName())
+                    .append(") values ( ?, ?, ?, ?, ").append(dialect.getCurrentTimestampFunction()).append(", ?")
+                    .append(" )").toString();
+
+            sb.setLength(0);
+            sqlSelectChunksByName = sb.append("select ").append(chunkColumn.getQuotedName()).append(", ")
+                    .append(valueColumn.getQuotedName()).append(" from ").append(getQualifiedName())
+                    .append(" where ").append(nameColumn.getQuotedName()).append(" = ? and ")
+                    .append(chunkColumn.getQuotedName()).append(" between ? and ? order by ")
+                    .append(chunkColumn.getQuotedName()).toString();
+            sqlSelectNameSizeValueByPrefix = null;
+        } else {
+            sqlInsertChunk = null;
+            sqlSelectChunksByName = null;
+
+            sb.setLength(0);
+            sqlSelectNameSizeValueByPrefix = sb.append("select ").append(nameColumn.getQuotedName()).append(", ")
+                    .append(sizeColumn.getQuotedName()).append(", ").append(dialect.openBlobSelectQuote())
+                    .append(valueColumn.getQuotedName()).append(dialect.closeBlobSelectQuote()).append(" as x from ")
+                    .append(getQualifiedName()).append(" where (").append(nameColumn.getQuotedName())
+                    .append(" like ? escape '").append(LIKE_ESCAPE).append("' or ").append(nameColumn.getQuotedName())
+                    .append(" like ? escape '").append(LIKE_ESCAPE).append("') and ").append(sizeColumn.getQuotedName())
+                    .append(" <= ? and ").append(deletedColumn.getQuotedName()).append(" = ?").toString();
+        }
+    }
+
+    /**
+     * Returns the sql copying a file entry (all of its rows with chunked
+     * storage) from the given table, which must have the same layout and be
+     * in the same database. The parameters are the target name, the source
+     * name and the deleted flag of the source rows.
+     */
+    public String sqlCopyByName(final JdbcTable source) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("insert into ").append(getQualifiedName()).append(" (").append(nameColumn.getQuotedName())
+                .append(", ").append(valueColumn.getQuotedName()).append(", ").append(sizeColumn.getQuotedName())
+                .append(", ").append(lastModifiedColumn.getQuotedName()).append(", ")
+                .append(deletedColumn.getQuotedName());
+        if (chunkColumn != null) {
+            sb.append(", ").append(chunkColumn.getQuotedName());
+        }
+        sb.append(") select ?, ").append(source.valueColumn.getQuotedName()).append(", ")
+                .append(source.sizeColumn.getQuotedName()).append(", ").append(dialect.getCurrentTimestampFunction())
+                .append(", ").append(source.deletedColumn.getQuotedName());
+        if (chunkColumn != null) {
+            sb.append(", ").append(source.chunkColumn.getQuotedName());
+        }
+        return sb.append(" from ").append(source.getQualifiedName()).append(" where ")
+                .append(source.nameColumn.getQuotedName()).append(" = ? and ")
+                .append(source.deletedColumn.getQuotedName()).append(" = ?").toString();
+    }
+
+    /**
+     * Escapes the <code>like</code> wildcards of the given value, to be used
+     * as a (literal) prefix in {@link #sqlSelectNameSizeValueByPrefix()}.
+     */
+    public static String escapeLike(final String value) {
+        final StringBuilder sb = new StringBuilder(value.length() + 4);
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == LIKE_ESCAPE || c == '_' || c == '%') {
+                sb.append(LIKE_ESCAPE);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
     }
 
     private String getTableTypeString(final Dialect dialect) {
@@ -250,6 +442,15 @@ public class JdbcTable {
         return sqlSelectNames;
     }
 
+    /**
+     * Returns the sql selecting the names of the file entries matching a
+     * <code>like</code> pattern (see {@link #escapeLike(String)}), and with
+     * the given deleted flag.
+     */
+    public String sqlSelectNamesByPrefix() {
+        return sqlSelectNamesByPrefix;
+    }
+
     public String sqlSelectNameExists() {
         return sqlSelectNameExists;
     }
@@ -274,10 +475,38 @@ public class JdbcTable {
         return sqlSelectSizeByName;
     }
 
+    public String sqlSelectSizeLastModifiedByName() {
+        return sqlSelectSizeLastModifiedByName;
+    }
+
+    public String sqlSelectNamesSizeLastModified() {
+        return sqlSelectNamesSizeLastModified;
+    }
+
+    /**
+     * Selects the name, size, last modified time and deleted flag of all the
+     * file entries.
+     */
+    public String sqlSelectNamesSizeLastModifiedDeleted() {
+        return sqlSelectNamesSizeLastModifiedDeleted;
+    }
+
+    /**
+     * Selects the size, last modified time and deleted flag of a file entry
+     * by its name.
+     */
+    public String sqlSelectSizeLastModifiedDeletedByName() {
+        return sqlSelectSizeLastModifiedDeletedByName;
+    }
+
     public String sqlDeletaMarkDeleteByDelta() {
         return sqlDeletaMarkDeleteByDelta;
     }
 
+    public String sqlSelectNamesMarkDeleteByDelta() {
+        return sqlSelectNamesMarkDeleteByDelta;
+    }
+
     public String sqlInsert() {
         return sqlInsert;
     }
@@ -286,6 +515,46 @@ public class JdbcTable {
         return sqlUpdateSizeLastModifiedByName;
     }
 
+    /**
+     * Renames a file entry and updates its size and deleted flag (used to
+     * publish a file uploaded under a temporary name).
+     */
+    public String sqlUpdateNameSizeDeletedByName() {
+        return sqlUpdateNameSizeDeletedByName;
+    }
+
+    /**
+     * Inserts a lease entry. The parameters are the name, the value, the
+     * size, the expiry and the deleted flag.
+     */
+    public String sqlInsertLease() {
+        return sqlInsertLease;
+    }
+
+    /**
+     * Takes over a lease entry if it expired. The parameters are the new
+     * expiry, the name and the current time.
+     */
+    public String sqlTakeOverLease() {
+        return sqlTakeOverLease;
+    }
+
+    /**
+     * Renews a lease entry if still owned. The parameters are the new expiry,
+     * the name and the current expiry.
+     */
+    public String sqlRenewLease() {
+        return sqlRenewLease;
+    }
+
+    /**
+     * Deletes a lease entry if still owned. The parameters are the name and
+     * the current expiry.
+     */
+    public String sqlDeleteLease() {
+        return sqlDeleteLease;
+    }
+
     public String sqlSelectSizeValueByName() {
         return sqlSelectSizeValueByName;
     }
@@ -294,10 +563,76 @@ public class JdbcTable {
         return sqlSelectNameForUpdateNoWait;
     }
 
+    /**
+     * Same as {@link #sqlSelectNameForUpdateNoWait()}, only waits for the given
+     * number of seconds for the row lock (see
+     * {@link Dialect#supportsForUpdateWait()}).
+     */
+    public String sqlSelectNameForUpdateWait(final int seconds) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("select ").append(nameColumn.getQuotedName()).append(" from ").append(getQualifiedName())
+                .append(" where ").append(nameColumn.getQuotedName()).append(" = ?");
+        if (chunkColumn != null) {
+            sb.append(" and ").append(chunkColumn.getQuotedName()).append(" = 0");
+        }
+        return sb.append(dialect.getForUpdateWaitString(seconds)).toString();
+    }
+
     public String sqlMarkDeleteByName() {
         return sqlMarkDeleteByName;
     }
 
+    /**
+     * Selects a range of the value column on the server side, <code>null</code>
+     * if the dialect does not support it (see
+     * {@link Dialect#supportsBlobRangeSelect()}).
+     */
+    public String sqlSelectValueRangeByName() {
+        return sqlSelectValueRangeByName;
+    }
+
+    /**
+     * Inserts a single chunk row (name, chunk number, value, size and deleted
+     * flag), <code>null</code> if not using chunked storage.
+     */
+    public String sqlInsertChunk() {
+        return sqlInsertChunk;
+    }
+
+    /**
+     * Selects the chunk number and value of a range (inclusive) of chunk rows,
+     * <code>null</code> if not using chunked storage.
+     */
+    public String sqlSelectChunksByName() {
+        return sqlSelectChunksByName;
+    }
+
+    /**
+     * Selects the name, size and value of the (not deleted) file entries
+     * matching either of two <code>like</code> patterns (escaped using
+     * {@link #escapeLike(String)}) up to a given size, <code>null</code> if
+     * using chunked storage.
+     */
+    public String sqlSelectNameSizeValueByPrefix() {
+        return sqlSelectNameSizeValueByPrefix;
+    }
+
+    /**
+     * Returns <code>true</code> if the table uses chunked storage (see
+     * {@link JdbcDirectorySettings#isChunkedStorage()}).
+     */
+    public boolean isChunked() {
+        return chunkColumn != null;
+    }
+
+    /**
+     * The sql type of the value column, to be used when setting it to
+     * <code>null</code>.
+     */
+    public int getValueColumnSqlType() {
+        return chunkColumn != null ? Types.VARBINARY : Types.BLOB;
+    }
+
     public String sqlDeletaAll() {
         return sqlDeletaAll;
     }
@@ -164,9 +164,9 @@ public class JdbcTemplate {
      * A template method to execute a simple sql update. The jdbc
      * <code>Connection</code>, and <code>PreparedStatement</code> are managed
      * by the template. A <code>PreparedStatement</code> can be used to set
-     * values to the given sql.
+     * values to the given sql. Returns the number of updated rows.
      */
-    public void executeUpdate(final String sql, final PrepateStatementAwareCallback callback)
+    public int executeUpdate(final String sql, final PrepateStatementAwareCallback callback)
             throws JdbcStoreException {
         final Connection con = DataSourceUtils.getConnection(dataSource);
         PreparedStatement ps = null;
@@ -174,7 +174,7 @@ public class JdbcTemplate {
             ps = con.prepareStatement(sql);
             // ps.setQueryTimeout(settings.getQueryTimeout());
             callback.fillPrepareStatement(ps);
-            ps.executeUpdate();
+            return ps.executeUpdate();
         } catch (final JdbcStoreException e) {
             if (log.isTraceEnabled()) {
                 log.trace("Failed to execute sql [" + sql + "]", e);
@@ -191,6 +191,47 @@ public class JdbcTemplate {
         }
     }
 
+    /**
+     * Same as {@link #executeUpdate(String, PrepateStatementAwareCallback)},
+     * only commits the update (or rolls it back on failure) whatever the auto
+     * commit mode of the connection is. Meant to be used by background threads
+     * working on a connection of their own (no connection is bound to them),
+     * outside of the transaction of the caller. Returns the number of updated
+     * rows.
+     */
+    public int executeUpdateAndCommit(final String sql, final PrepateStatementAwareCallback callback)
+            throws JdbcStoreException {
+        final Connection con = DataSourceUtils.getConnection(dataSource);
+        PreparedStatement ps = null;
+        try {
+            ps = con.prepareStatement(sql);
+            callback.fillPrepareStatement(ps);
+            final int count = ps.executeUpdate();
+            if (!con.getAutoCommit()) {
+                con.commit();
+            }
+            return count;
+        } catch (final Exception e) {
+            try {
+                if (!con.getAutoCommit()) {
+                    con.rollback();
+                }
+            } catch (final SQLException ex) {
+                // do nothing
+            }
+            if (log.isTraceEnabled()) {
+                log.trace("Failed to execute sql [" + sql + "]", e);
+            }
+            if (e instanceof JdbcStoreException) {
+                throw (JdbcStoreException) e;
+            }
+            throw new JdbcStoreException("Failed to execute sql [" + sql + "]", e);
+        } finally {
+            DataSourceUtils.closeStatement(ps);
+            DataSourceUtils.releaseConnection(con);
+        }
+    }
+
     /**
      * A template method to execute a simpel sql update (with no need for data
      * initialization).
@@ -266,4 +307,121 @@ public class JdbcTemplate {
             DataSourceUtils.releaseConnection(con);
         }
     }
+
+    /**
+     * Same as {@link #executeBatchInTransaction(String, PrepateStatementAwareCallback)},
+     * only executes several batches, in order, using the same connection and
+     * the same transaction. If the connection is in auto commit mode, it is
+     * switched to manual commit for the batches, and they are committed (or
+     * rolled back on failure) together. Otherwise, the batches are part of the
+     * current transaction, committed at the end if the connection is
+     * controlled by us (see
+     * {@link DataSourceUtils#commitConnectionIfPossible(Connection)}). Returns
+     * the update counts of each batch.
+     */
+    public int[][] executeBatches(final String[] sqls, final PrepateStatementAwareCallback[] callbacks)
+            throws JdbcStoreException {
+        final Connection con = DataSourceUtils.getConnection(dataSource);
+        PreparedStatement ps = null;
+        String sql = null;
+        boolean autoCommit = false;
+        try {
+            autoCommit = con.getAutoCommit();
+            if (autoCommit) {
+                con.setAutoCommit(false);
+            }
+            final int[][] result = new int[sqls.length][];
+            for (int i = 0; i < sqls.length; i++) {
+                sql = sqls[i];
+                ps = con.prepareStatement(sql);
+                callbacks[i].fillPrepareStatement(ps);
+                result[i] = ps.executeBatch();
+                DataSourceUtils.closeStatement(ps);
+                ps = null;
+            }
+            if (autoCommit) {
+                con.commit();
+            } else {
+                DataSourceUtils.commitConnectionIfPossible(con);
+            }
+            return result;
+        } catch (final Exception e) {
+            if (autoCommit) {
+                try {
+                    con.rollback();
+                } catch (final SQLException ex) {
+                    // do nothing
+                }
+            }
+            if (log.isTraceEnabled()) {
+                log.trace("Failed to execute sql [" + sql + "]", e);
+            }
+            if (e instanceof JdbcStoreException) {
+                throw (JdbcStoreException) e;
+            }
+            throw new JdbcStoreException("Failed to execute sql [" + sql + "]", e);
+        } finally {
+            DataSourceUtils.closeStatement(ps);
+            if (autoCommit) {
+                try {
+                    con.setAutoCommit(true);
+                } catch (final SQLException e) {
+                    // do nothing
+                }
+            }
+            DataSourceUtils.releaseConnection(con);
+        }
+    }
+
+    /**
+     * Same as {@link #executeBatch(String, PrepateStatementAwareCallback)},
+     * only executes the batch in a single transaction. If the connection is in
+     * auto commit mode, it is switched to manual commit for the batch, and the
+     * batch is committed (or rolled back on failure). Otherwise, the batch is
+     * part of the current transaction.
+     */
+    public int[] executeBatchInTransaction(final String sql, final PrepateStatementAwareCallback callback)
+            throws JdbcStoreException {
+        final Connection con = DataSourceUtils.getConnection(dataSource);
+        PreparedStatement ps = null;
+        boolean autoCommit = false;
+        try {
+            autoCommit = con.getAutoCommit();
+            if (autoCommit) {
+                con.setAutoCommit(false);
+            }
+            ps = con.prepareStatement(sql);
+            callback.fillPrepareStatement(ps);
+            final int[] result = ps.executeBatch();
+            if (autoCommit) {
+                con.commit();
+            }
+            return result;
+        } catch (final Exception e) {
+            if (autoCommit) {
+                try {
+                    con.rollback();
+                } catch (final SQLException ex) {
+                    // do nothing
+                }
+            }
+            if (log.isTraceEnabled()) {
+                log.trace("Failed to execute sql [" + sql + "]", e);
+            }
+            if (e instanceof JdbcStoreException) {
+                throw (JdbcStoreException) e;
+            }
+            throw new JdbcStoreException("Failed to execute sql [" + sql + "]", e);
+        } finally {
+            DataSourceUtils.closeStatement(ps);
+            if (autoCommit) {
+                try {
+                    con.setAutoCommit(true);
+                } catch (final SQLException e) {
+                    // do nothing
+                }
+            }
+            DataSourceUtils.releaseConnection(con);
+        }
+    }
 }
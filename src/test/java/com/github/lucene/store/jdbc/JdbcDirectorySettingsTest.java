@@ -41,6 +41,12 @@ public class JdbcDirectorySettingsTest extends TestCase {
         assertEquals(10, settings.getQueryTimeout());
 
         assertEquals(60 * 60 * 1000, settings.getDeleteMarkDeletedDelta());
+
+        assertFalse(settings.isChunkedStorage());
+        assertEquals("chunk_", settings.getChunkColumnName());
+        assertEquals(16 * 1024, settings.getChunkSize());
+
+        assertNull(settings.getBlockCache());
     }
 
     public void testFileEntrySettings() {
@@ -111,4 +111,20 @@ public class JdbcFileEntrySettingsTest extends TestCase {
         value1 = settings.getSettingAsClass("value1", Class.class);
         assertEquals(Object.class, value1);
     }
+
+    public void testOverride() {
+        final JdbcFileEntrySettings settings = new JdbcFileEntrySettings();
+        settings.setIntSetting("value1", 1);
+        settings.setIntSetting("value2", 2);
+
+        final JdbcFileEntrySettings override = new JdbcFileEntrySettings(settings);
+        override.setIntSetting("value2", 20);
+        assertSame(settings, override.getDefaults());
+        assertEquals(1, override.getSettingAsInt("value1", -1));
+        assertEquals(20, override.getSettingAsInt("value2", -1));
+        assertEquals(2, settings.getSettingAsInt("value2", -1));
+
+        settings.setIntSetting("value1", 10);
+        assertEquals(10, override.getSettingAsInt("value1", -1));
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.cache;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class BlockCacheTest extends TestCase {
+
+    private static final int BLOCK_SIZE = 4;
+
+    private final byte[] data = new byte[10];
+
+    private int loads;
+
+    private final BlockCache.BlockLoader loader = new BlockCache.BlockLoader() {
+        @Override
+        public byte[] loadBlock(final long position, final int length) throws IOException {
+            loads++;
+            final byte[] block = new byte[length];
+            System.arraycopy(data, (int) position, block, 0, length);
+            return block;
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        loads = 0;
+    }
+
+    public void testReadAcrossBlocks() throws Exception {
+        final BlockCache cache = new BlockCache(64 * 1024, BLOCK_SIZE);
+        final byte[] b = new byte[7];
+        cache.read("t", "f", data.length, 2, b, 0, 7, loader);
+        for (int i = 0; i < b.length; i++) {
+            assertEquals(i + 2, b[i]);
+        }
+        assertEquals(3, loads);
+        assertEquals(3, cache.getMissCount());
+
+        cache.read("t", "f", data.length, 8, b, 0, 2, loader);
+        assertEquals(8, b[0]);
+        assertEquals(9, b[1]);
+        assertEquals(3, loads);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testReadPastEOF() throws Exception {
+        final BlockCache cache = new BlockCache(64 * 1024, BLOCK_SIZE);
+        try {
+            cache.read("t", "f", data.length, 8, new byte[4], 0, 4, loader);
+            fail();
+        } catch (final EOFException e) {
+            // all is well
+        }
+    }
+
+    public void testInvalidate() throws Exception {
+        final BlockCache cache = new BlockCache(64 * 1024, BLOCK_SIZE);
+        final byte[] b = new byte[1];
+        cache.read("t", "f", data.length, 0, b, 0, 1, loader);
+        cache.read("t", "g", data.length, 0, b, 0, 1, loader);
+        cache.read("u", "f", data.length, 0, b, 0, 1, loader);
+        assertEquals(3, loads);
+
+        cache.invalidate("t", "f");
+        cache.read("t", "g", data.length, 0, b, 0, 1, loader);
+        cache.read("u", "f", data.length, 0, b, 0, 1, loader);
+        assertEquals(3, loads);
+        cache.read("t", "f", data.length, 0, b, 0, 1, loader);
+        assertEquals(4, loads);
+
+        cache.invalidateAll("t");
+        cache.read("t", "g", data.length, 0, b, 0, 1, loader);
+        cache.read("u", "f", data.length, 0, b, 0, 1, loader);
+        assertEquals(5, loads);
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testEviction() throws Exception {
+        // a single segment can only hold one block
+        final BlockCache cache = new BlockCache(16 * 120, BLOCK_SIZE);
+        final byte[] b = new byte[1];
+        for (int i = 0; i < 100; i++) {
+            cache.read("t", "f" + i, data.length, 0, b, 0, 1, loader);
+        }
+        assertTrue(cache.getEvictionCount() > 0);
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class FileMetadataCacheTest extends TestCase {
+
+    private Map<String, FileMetadataCache.Entry> files;
+
+    private FileMetadataCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        files = new HashMap<String, FileMetadataCache.Entry>();
+        files.put("_0.cfs", new FileMetadataCache.Entry(10, 1, false));
+        files.put("_1.cfs", new FileMetadataCache.Entry(20, 1, true));
+        files.put("segments_1", new FileMetadataCache.Entry(5, 1, false));
+        cache = new FileMetadataCache(new FileMetadataCache.Loader() {
+            @Override
+            public Map<String, FileMetadataCache.Entry> loadAll() throws IOException {
+                return new HashMap<String, FileMetadataCache.Entry>(files);
+            }
+
+            @Override
+            public Collection<String> loadSegmentsFileNames() throws IOException {
+                final ArrayList<String> names = new ArrayList<String>();
+                for (final Map.Entry<String, FileMetadataCache.Entry> entry : files.entrySet()) {
+                    if (entry.getKey().startsWith("segments_") && !entry.getValue().isDeleted()) {
+                        names.add(entry.getKey());
+                    }
+                }
+                return names;
+            }
+        }, 0);
+    }
+
+    public void testLoadOnce() throws IOException {
+        assertEquals(10, cache.get("_0.cfs").getSize());
+        assertTrue(cache.get("_1.cfs").isDeleted());
+        assertNull(cache.get("_2.cfs"));
+        final String[] names = cache.listAll();
+        Arrays.sort(names);
+        assertEquals(Arrays.asList("_0.cfs", "segments_1"), Arrays.asList(names));
+        assertEquals(1, cache.getRefreshCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testLocalChanges() throws IOException {
+        assertEquals(2, cache.listAll().length);
+        cache.created("_2.cfs");
+        assertFalse(cache.get("_2.cfs").isKnown());
+        cache.put("_2.cfs", new FileMetadataCache.Entry(30, 2, false));
+        assertEquals(30, cache.get("_2.cfs").getSize());
+
+        cache.renamed("_2.cfs", "_3.cfs");
+        assertNull(cache.get("_2.cfs"));
+        assertEquals(30, cache.get("_3.cfs").getSize());
+
+        cache.deleted("_3.cfs");
+        assertTrue(cache.get("_3.cfs").isDeleted());
+        assertEquals(2, cache.listAll().length);
+        assertEquals(1, cache.getRefreshCount());
+    }
+
+    public void testRefreshOnNewGeneration() throws IOException {
+        assertNotNull(cache.get("segments_1"));
+        files.put("_2.cfs", new FileMetadataCache.Entry(30, 2, false));
+        files.put("segments_2", new FileMetadataCache.Entry(6, 2, false));
+        // older generations do not trigger a refresh
+        assertNull(cache.get("segments_0"));
+        assertEquals(1, cache.getRefreshCount());
+        assertNull(cache.get("_2.cfs"));
+
+        assertEquals(6, cache.get("segments_2").getSize());
+        assertEquals(2, cache.getRefreshCount());
+        assertEquals(30, cache.get("_2.cfs").getSize());
+
+        // generations written locally do not trigger a refresh
+        cache.created("segments_3");
+        assertNotNull(cache.get("segments_3"));
+        cache.created("pending_segments_4");
+        cache.renamed("pending_segments_4", "segments_4");
+        assertNotNull(cache.get("segments_4"));
+        assertEquals(2, cache.getRefreshCount());
+    }
+
+    public void testRefreshOnListAllWithOtherCommit() throws IOException {
+        assertEquals(2, cache.listAll().length);
+        files.put("_2.cfs", new FileMetadataCache.Entry(30, 2, false));
+        files.put("segments_2", new FileMetadataCache.Entry(6, 2, false));
+        assertEquals(4, cache.listAll().length);
+        assertEquals(2, cache.getRefreshCount());
+
+        // a deleted commit is not listed
+        files.remove("segments_1");
+        assertEquals(3, cache.listAll().length);
+        assertEquals(3, cache.getRefreshCount());
+
+        // no refresh while the commits are the same
+        files.put("_3.cfs", new FileMetadataCache.Entry(30, 2, false));
+        assertEquals(3, cache.listAll().length);
+        assertEquals(3, cache.getRefreshCount());
+    }
+
+    public void testRefreshInterval() throws Exception {
+        cache = new FileMetadataCache(new FileMetadataCache.Loader() {
+            @Override
+            public Map<String, FileMetadataCache.Entry> loadAll() throws IOException {
+                return new HashMap<String, FileMetadataCache.Entry>(files);
+            }
+
+            @Override
+            public Collection<String> loadSegmentsFileNames() throws IOException {
+                final ArrayList<String> names = new ArrayList<String>();
+                for (final Map.Entry<String, FileMetadataCache.Entry> entry : files.entrySet()) {
+                    if (entry.getKey().startsWith("segments_") && !entry.getValue().isDeleted()) {
+                        names.add(entry.getKey());
+                    }
+                }
+                return names;
+            }
+        }, 10);
+        assertNull(cache.get("_2.cfs"));
+        files.put("_2.cfs", new FileMetadataCache.Entry(30, 2, false));
+        Thread.sleep(20);
+        assertEquals(30, cache.get("_2.cfs").getSize());
+        assertEquals(2, cache.getRefreshCount());
+    }
+
+    public void testClear() throws IOException {
+        assertFalse(cache.get("_0.cfs").isDeleted());
+        cache.deleted("_0.cfs");
+        assertTrue(cache.get("_0.cfs").isDeleted());
+        cache.clear();
+        assertFalse(cache.get("_0.cfs").isDeleted());
+        assertEquals(2, cache.getRefreshCount());
+    }
+}
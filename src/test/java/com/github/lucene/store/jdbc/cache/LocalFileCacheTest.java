@@ -0,0 +1,173 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.lucene.store.jdbc.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.store.IndexInput;
+
+import junit.framework.TestCase;
+
+public class LocalFileCacheTest extends TestCase {
+
+    private Path directory;
+
+    private int loads;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("local-file-cache");
+        loads = 0;
+    }
+
+    private LocalFileCache.FileLoader loader(final int length) {
+        return new LocalFileCache.FileLoader() {
+            @Override
+            public void loadFile(final OutputStream os) throws IOException {
+                loads++;
+                for (int i = 0; i < length; i++) {
+                    os.write(i);
+                }
+            }
+        };
+    }
+
+    private void read(final LocalFileCache cache, final String name, final LocalFileCache.FileMetadata metadata)
+            throws IOException {
+        final IndexInput input = cache.openInput("t", name, metadata, loader((int) metadata.getSize()));
+        try {
+            assertEquals(metadata.getSize(), input.length());
+            for (int i = 0; i < metadata.getSize(); i++) {
+                assertEquals((byte) i, input.readByte());
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    public void testCopyOnce() throws Exception {
+        final LocalFileCache cache = new LocalFileCache(directory);
+        final LocalFileCache.FileMetadata metadata = new LocalFileCache.FileMetadata(10, 1);
+        read(cache, "f", metadata);
+        read(cache, "f", metadata);
+        assertEquals(1, loads);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // a different last modified time means a different file
+        read(cache, "f", new LocalFileCache.FileMetadata(10, 2));
+        assertEquals(2, loads);
+        assertEquals(10, cache.getSize());
+    }
+
+    public void testInvalidate() throws Exception {
+        final LocalFileCache cache = new LocalFileCache(directory);
+        final LocalFileCache.FileMetadata metadata = new LocalFileCache.FileMetadata(10, 1);
+        read(cache, "f", metadata);
+        cache.invalidate("t", "f");
+        assertEquals(0, cache.getSize());
+        read(cache, "f", metadata);
+        assertEquals(2, loads);
+    }
+
+    public void testTablesSanitizedToTheSameName() throws Exception {
+        final LocalFileCache cache = new LocalFileCache(directory);
+        final LocalFileCache.FileMetadata metadata = new LocalFileCache.FileMetadata(10, 1);
+        cache.openInput("a/b", "f", metadata, loader(10)).close();
+        cache.openInput("a_b", "f", metadata, loader(10)).close();
+        assertEquals(2, loads);
+        assertEquals(20, cache.getSize());
+        cache.invalidate("a/b", "f");
+        cache.openInput("a_b", "f", metadata, loader(10)).close();
+        assertEquals(2, loads);
+    }
+
+    public void testEviction() throws Exception {
+        final LocalFileCache cache = new LocalFileCache(directory, 25, false);
+        read(cache, "f1", new LocalFileCache.FileMetadata(10, 1));
+        read(cache, "f2", new LocalFileCache.FileMetadata(10, 1));
+        read(cache, "f1", new LocalFileCache.FileMetadata(10, 1));
+        read(cache, "f3", new LocalFileCache.FileMetadata(10, 1));
+        assertEquals(3, loads);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(20, cache.getSize());
+
+        // f2 was the least recently used
+        read(cache, "f1", new LocalFileCache.FileMetadata(10, 1));
+        assertEquals(3, loads);
+        read(cache, "f2", new LocalFileCache.FileMetadata(10, 1));
+        assertEquals(4, loads);
+    }
+
+    public void testNotPersistent() throws Exception {
+        final LocalFileCache.FileMetadata metadata = new LocalFileCache.FileMetadata(10, 1);
+        read(new LocalFileCache(directory), "f", metadata);
+        read(new LocalFileCache(directory), "f", metadata);
+        assertEquals(2, loads);
+    }
+
+    public void testPersistent() throws Exception {
+        final LocalFileCache.FileMetadata metadata1 = new LocalFileCache.FileMetadata(10, 1);
+        final LocalFileCache.FileMetadata metadata2 = new LocalFileCache.FileMetadata(5, 1);
+        LocalFileCache cache = new LocalFileCache(directory, Long.MAX_VALUE, true);
+        read(cache, "f1", metadata1);
+        read(cache, "f2", metadata2);
+        assertEquals(2, loads);
+
+        // restart, f2 was rewritten in the meantime
+        cache = new LocalFileCache(directory, Long.MAX_VALUE, true);
+        final Map<String, LocalFileCache.FileMetadata> databaseFiles =
+                new HashMap<String, LocalFileCache.FileMetadata>();
+        databaseFiles.put("f1", metadata1);
+        databaseFiles.put("f2", new LocalFileCache.FileMetadata(5, 2));
+        cache.validate("t", databaseFiles);
+        assertEquals(10, cache.getSize());
+        read(cache, "f1", metadata1);
+        assertEquals(2, loads);
+        assertEquals(1, cache.getHitCount());
+        read(cache, "f2", databaseFiles.get("f2"));
+        assertEquals(3, loads);
+    }
+
+    public void testPersistentMetadataRecords() throws Exception {
+        LocalFileCache cache = new LocalFileCache(directory, Long.MAX_VALUE, true);
+        // enough new versions to rewrite the metadata file a few times
+        for (int i = 1; i <= 250; i++) {
+            read(cache, "f1", new LocalFileCache.FileMetadata(10, i));
+            read(cache, "f" + i % 3, new LocalFileCache.FileMetadata(5, i));
+        }
+        cache.invalidate("t", "f0");
+        final int loaded = loads;
+
+        cache = new LocalFileCache(directory, Long.MAX_VALUE, true);
+        final Map<String, LocalFileCache.FileMetadata> databaseFiles =
+                new HashMap<String, LocalFileCache.FileMetadata>();
+        databaseFiles.put("f1", new LocalFileCache.FileMetadata(5, 250));
+        databaseFiles.put("f2", new LocalFileCache.FileMetadata(5, 248));
+        cache.validate("t", databaseFiles);
+        assertEquals(10, cache.getSize());
+        read(cache, "f1", databaseFiles.get("f1"));
+        read(cache, "f2", databaseFiles.get("f2"));
+        assertEquals(loaded, loads);
+    }
+}
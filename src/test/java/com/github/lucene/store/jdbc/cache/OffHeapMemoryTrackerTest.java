@@ -0,0 +1,41 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.lucene.store.jdbc.cache;
+
+import junit.framework.TestCase;
+
+public class OffHeapMemoryTrackerTest extends TestCase {
+
+    public void testReserve() {
+        final OffHeapMemoryTracker tracker = new OffHeapMemoryTracker(10);
+        assertTrue(tracker.tryReserve(6));
+        assertFalse(tracker.tryReserve(5));
+        assertEquals(1, tracker.getRejectedCount());
+        assertTrue(tracker.tryReserve(4));
+        assertEquals(10, tracker.getUsed());
+        tracker.release(6);
+        assertEquals(4, tracker.getUsed());
+        assertTrue(tracker.tryReserve(5));
+    }
+
+    public void testUnbounded() {
+        final OffHeapMemoryTracker tracker = new OffHeapMemoryTracker(Long.MAX_VALUE);
+        assertTrue(tracker.tryReserve(Long.MAX_VALUE - 1));
+        assertFalse(tracker.tryReserve(2));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.cache;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class SegmentPrefetchCacheTest extends TestCase {
+
+    private final Map<String, byte[]> files = new HashMap<String, byte[]>();
+
+    private SegmentPrefetchCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        files.put("_1.si", new byte[10]);
+        files.put("_1.fnm", new byte[20]);
+        files.put("_2.si", new byte[10]);
+        cache = new SegmentPrefetchCache(new SegmentPrefetchCache.Loader() {
+            @Override
+            public Map<String, byte[]> loadSegment(final String segmentName) throws IOException {
+                final Map<String, byte[]> segmentFiles = new HashMap<String, byte[]>();
+                for (final Map.Entry<String, byte[]> entry : files.entrySet()) {
+                    if (segmentName.equals(SegmentPrefetchCache.segmentName(entry.getKey()))) {
+                        segmentFiles.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                return segmentFiles;
+            }
+        }, 1024);
+    }
+
+    public void testSegmentName() {
+        assertEquals("_1", SegmentPrefetchCache.segmentName("_1.si"));
+        assertEquals("_1", SegmentPrefetchCache.segmentName("_1_Lucene50_0.doc"));
+        assertEquals("_a1", SegmentPrefetchCache.segmentName("_a1_1.liv"));
+        assertNull(SegmentPrefetchCache.segmentName("segments_1"));
+        assertNull(SegmentPrefetchCache.segmentName("write.lock"));
+    }
+
+    public void testPrefetchOncePerSegment() throws IOException {
+        assertEquals(10, cache.get("_1.si").length);
+        assertEquals(20, cache.get("_1.fnm").length);
+        assertNull(cache.get("_1.cfs"));
+        assertEquals(1, cache.getPrefetchCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        assertEquals(10, cache.get("_2.si").length);
+        assertEquals(2, cache.getPrefetchCount());
+        assertNull(cache.get("segments_1"));
+        assertEquals(2, cache.getPrefetchCount());
+    }
+
+    public void testLoadDoesNotBlockOtherSegments() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final SegmentPrefetchCache blockingCache = new SegmentPrefetchCache(new SegmentPrefetchCache.Loader() {
+            @Override
+            public Map<String, byte[]> loadSegment(final String segmentName) throws IOException {
+                if (segmentName.equals("_1")) {
+                    loading.countDown();
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                final Map<String, byte[]> segmentFiles = new HashMap<String, byte[]>();
+                segmentFiles.put(segmentName + ".si", new byte[10]);
+                return segmentFiles;
+            }
+        }, 1024);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<byte[]> loader = executor.submit(get(blockingCache, "_1.si"));
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            // waits for the load of its segment
+            final Future<byte[]> waiter = executor.submit(get(blockingCache, "_1.si"));
+            // not blocked by the load of another segment
+            assertEquals(10, blockingCache.get("_2.si").length);
+            assertFalse(waiter.isDone());
+            release.countDown();
+            assertEquals(10, loader.get().length);
+            assertEquals(10, waiter.get().length);
+            assertEquals(2, blockingCache.getPrefetchCount());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static Callable<byte[]> get(final SegmentPrefetchCache cache, final String name) {
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return cache.get(name);
+            }
+        };
+    }
+
+    public void testInvalidate() throws IOException {
+        assertNotNull(cache.get("_1.si"));
+        cache.invalidate("_1.fnm");
+        assertNull(cache.get("_1.fnm"));
+        assertEquals(1, cache.getPrefetchCount());
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertNotNull(cache.get("_1.fnm"));
+        assertEquals(2, cache.getPrefetchCount());
+    }
+
+    public void testEviction() throws IOException {
+        cache = new SegmentPrefetchCache(new SegmentPrefetchCache.Loader() {
+            @Override
+            public Map<String, byte[]> loadSegment(final String segmentName) throws IOException {
+                return files;
+            }
+        }, 250);
+        assertNotNull(cache.get("_1.si"));
+        assertTrue(cache.getSize() <= 250);
+    }
+}
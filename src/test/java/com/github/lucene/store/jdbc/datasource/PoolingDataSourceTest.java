@@ -0,0 +1,149 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.datasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import junit.framework.TestCase;
+
+public class PoolingDataSourceTest extends TestCase {
+
+    private PoolingDataSource pool;
+
+    @Override
+    protected void setUp() throws Exception {
+        final DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:pool", "sa", "");
+        dataSource.setAutoCommit(true);
+        pool = new PoolingDataSource(dataSource, 1, 2);
+        pool.setBorrowTimeout(50);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        pool.close();
+    }
+
+    public void testReuseConnection() throws SQLException {
+        Connection con = pool.getConnection();
+        final Connection target = DataSourceUtils.getTargetConnection(con);
+        assertNotSame(con, target);
+        assertEquals(1, pool.getActiveCount());
+        con.close();
+        assertTrue(con.isClosed());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+
+        con = pool.getConnection();
+        assertSame(target, DataSourceUtils.getTargetConnection(con));
+        con.close();
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(2, pool.getBorrowCount());
+    }
+
+    public void testClosedConnectionCanNotBeUsed() throws SQLException {
+        final Connection con = pool.getConnection();
+        con.close();
+        // closing twice does not return the connection twice
+        con.close();
+        assertEquals(1, pool.getIdleCount());
+        try {
+            con.createStatement();
+            fail();
+        } catch (final SQLException e) {
+            // all is well
+        }
+    }
+
+    public void testBorrowTimeout() throws SQLException {
+        final Connection con1 = pool.getConnection();
+        final Connection con2 = pool.getConnection();
+        assertEquals(2, pool.getTotalCount());
+        try {
+            pool.getConnection();
+            fail();
+        } catch (final SQLException e) {
+            // all is well
+        }
+        assertEquals(1, pool.getTimeoutCount());
+        con1.close();
+        pool.getConnection().close();
+        con2.close();
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    public void testResetOnRelease() throws SQLException {
+        Connection con = pool.getConnection();
+        con.setAutoCommit(false);
+        con.setReadOnly(true);
+        con.close();
+
+        con = pool.getConnection();
+        assertTrue(con.getAutoCommit());
+        assertFalse(con.isReadOnly());
+        con.close();
+    }
+
+    public void testMaxLifetime() throws Exception {
+        final Connection con = pool.getConnection();
+        // set after the borrow, the connection filling the pool is reused
+        pool.setMaxLifetime(1);
+        Thread.sleep(5);
+        con.close();
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, pool.getDestroyedCount());
+    }
+
+    public void testConnectionWithCredentialsIsNotPooled() throws SQLException {
+        final Connection con = pool.getConnection("sa", "");
+        assertFalse(con.isClosed());
+        assertEquals(0, pool.getActiveCount());
+        con.close();
+        assertEquals(0, pool.getBorrowCount());
+    }
+
+    public void testValidation() throws SQLException {
+        pool.setValidationInterval(0);
+        Connection con = pool.getConnection();
+        final Connection target = DataSourceUtils.getTargetConnection(con);
+        con.close();
+        // the physical connection breaks while idle
+        target.close();
+
+        con = pool.getConnection();
+        assertNotSame(target, DataSourceUtils.getTargetConnection(con));
+        assertFalse(con.isClosed());
+        con.close();
+        assertEquals(1, pool.getValidationFailureCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    public void testClose() throws SQLException {
+        final Connection con = pool.getConnection();
+        pool.getConnection().close();
+        pool.close();
+        assertEquals(0, pool.getIdleCount());
+        con.close();
+        assertEquals(0, pool.getTotalCount());
+        try {
+            pool.getConnection();
+            fail();
+        } catch (final SQLException e) {
+            // all is well
+        }
+    }
+}
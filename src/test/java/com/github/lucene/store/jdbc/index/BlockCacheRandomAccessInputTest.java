@@ -0,0 +1,91 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.lucene.store.RandomAccessInput;
+
+import com.github.lucene.store.jdbc.cache.BlockCache;
+
+import junit.framework.TestCase;
+
+public class BlockCacheRandomAccessInputTest extends TestCase {
+
+    private static final int BLOCK_SIZE = 5;
+
+    private final byte[] data = new byte[32];
+
+    private int loads;
+
+    private final BlockCache.BlockLoader loader = new BlockCache.BlockLoader() {
+        @Override
+        public byte[] loadBlock(final long position, final int length) throws IOException {
+            loads++;
+            final byte[] block = new byte[length];
+            System.arraycopy(data, (int) position, block, 0, length);
+            return block;
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.putLong(0x0102030405060708L);
+        buffer.putInt(-2);
+        buffer.putShort((short) 0x7f01);
+        buffer.put((byte) 9);
+        loads = 0;
+    }
+
+    public void testReadAcrossBlocks() throws Exception {
+        final RandomAccessInput input = new BlockCacheRandomAccessInput(new BlockCache(64 * 1024, BLOCK_SIZE), "t",
+                "f", data.length, 0, data.length, loader);
+        assertEquals(0x0102030405060708L, input.readLong(0));
+        assertEquals(-2, input.readInt(8));
+        assertEquals((short) 0x7f01, input.readShort(12));
+        assertEquals(9, input.readByte(14));
+        assertEquals(0x05060708, input.readInt(4));
+        assertEquals(3, loads);
+    }
+
+    public void testOffset() throws Exception {
+        final RandomAccessInput input = new BlockCacheRandomAccessInput(new BlockCache(64 * 1024, BLOCK_SIZE), "t",
+                "f", data.length, 8, 7, loader);
+        assertEquals(-2, input.readInt(0));
+        assertEquals(9, input.readByte(6));
+        try {
+            input.readShort(6);
+            fail();
+        } catch (final EOFException e) {
+            // all is well
+        }
+    }
+
+    public void testOutOfBounds() throws Exception {
+        try {
+            new BlockCacheRandomAccessInput(new BlockCache(64 * 1024, BLOCK_SIZE), "t", "f", data.length, 30, 4,
+                    loader);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // all is well
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2004-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.lucene.store.jdbc.index;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import junit.framework.TestCase;
+
+public class BlockingQueueInputStreamTest extends TestCase {
+
+    public void testReadUntilEnd() throws Exception {
+        final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(2);
+        final BlockingQueueInputStream is = new BlockingQueueInputStream(queue);
+        final Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 10; i++) {
+                        queue.put(new byte[] { (byte) (2 * i), (byte) (2 * i + 1) });
+                    }
+                    queue.put(BlockingQueueInputStream.END);
+                } catch (final InterruptedException e) {
+                    // do nothing
+                }
+            }
+        };
+        writer.start();
+        final byte[] b = new byte[3];
+        int expected = 0;
+        int read;
+        while ((read = is.read(b, 0, b.length)) != -1) {
+            for (int i = 0; i < read; i++) {
+                assertEquals(expected++, b[i]);
+            }
+        }
+        assertEquals(20, expected);
+        assertEquals(-1, is.read());
+        writer.join();
+    }
+
+    public void testAbort() throws Exception {
+        final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(2);
+        final BlockingQueueInputStream is = new BlockingQueueInputStream(queue);
+        queue.put(new byte[] { 1 });
+        queue.put(BlockingQueueInputStream.ABORT);
+        assertEquals(1, is.read());
+        try {
+            is.read();
+            fail("Aborted stream should fail");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+}